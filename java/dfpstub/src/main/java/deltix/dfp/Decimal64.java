@@ -16,6 +16,8 @@
 
 package deltix.dfp;
 
+import java.nio.ByteBuffer;
+
 /**
  * Stub for Deltix Decimal Floating Point library.
  * Contents of this class in no way represent the actual dfp library and are present only to stop tests from failing.
@@ -320,6 +322,22 @@ public class Decimal64 extends Number implements Comparable<Decimal64> {
         return Decimal64Utils.isNotEqual(value, other.value);
     }
 
+    public boolean isLess(Decimal64 other) {
+        return Decimal64Utils.isLess(value, other.value);
+    }
+
+    public boolean isLessOrEqual(Decimal64 other) {
+        return Decimal64Utils.isLessOrEqual(value, other.value);
+    }
+
+    public boolean isGreater(Decimal64 other) {
+        return Decimal64Utils.isGreater(value, other.value);
+    }
+
+    public boolean isGreaterOrEqual(Decimal64 other) {
+        return Decimal64Utils.isGreaterOrEqual(value, other.value);
+    }
+
     /// endregion
 
 
@@ -339,16 +357,112 @@ public class Decimal64 extends Number implements Comparable<Decimal64> {
         return new Decimal64(Decimal64Utils.subtract(value, other.value));
     }
 
+    public Decimal64 multiply(Decimal64 other) {
+        return new Decimal64(Decimal64Utils.multiply(value, other.value));
+    }
+
     public Decimal64 divide(Decimal64 other) {
         return new Decimal64(Decimal64Utils.divide(value, other.value));
     }
 
+    public Decimal64 multiplyAndAdd(Decimal64 multiplier, Decimal64 addend) {
+        return new Decimal64(Decimal64Utils.multiplyAndAdd(value, multiplier.value, addend.value));
+    }
+
     public Decimal64 abs() {
         return new Decimal64(Decimal64Utils.abs(value));
     }
 
     /// endregion
 
+    /// region Array arithmetic
+
+    // Value Type Agent replaces these methods with Decimal64Utils array kernels that take long[]
+
+    /**
+     * Element-wise a[i] + b[i] for i in [offset, offset + length)
+     * @return dst
+     */
+    public static Decimal64[] add(Decimal64[] a, Decimal64[] b, Decimal64[] dst, int offset, int length) {
+
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            dst[i] = a[i].add(b[i]);
+        }
+
+        return dst;
+    }
+
+    /**
+     * Element-wise a[i] * multiplier for i in [offset, offset + length)
+     * @return dst
+     */
+    public static Decimal64[] multiply(Decimal64[] a, Decimal64 multiplier, Decimal64[] dst, int offset, int length) {
+
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            dst[i] = a[i].multiply(multiplier);
+        }
+
+        return dst;
+    }
+
+    /**
+     * @return sum of a[i] for i in [offset, offset + length), ZERO if length is 0
+     */
+    public static Decimal64 sum(Decimal64[] a, int offset, int length) {
+
+        Decimal64 sum = ZERO;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            sum = sum.add(a[i]);
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return sum of a[i] * b[i] for i in [offset, offset + length), ZERO if length is 0
+     */
+    public static Decimal64 dot(Decimal64[] a, Decimal64[] b, int offset, int length) {
+
+        Decimal64 sum = ZERO;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            sum = sum.add(a[i].multiply(b[i]));
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return minimum of a[i] for i in [offset, offset + length), NULL if length is 0
+     */
+    public static Decimal64 min(Decimal64[] a, int offset, int length) {
+
+        Decimal64 min = length > 0 ? a[offset] : NULL;
+        for (int i = offset + 1, end = offset + length; i < end; ++i) {
+            if (a[i].compareTo(min) < 0) {
+                min = a[i];
+            }
+        }
+
+        return min;
+    }
+
+    /**
+     * @return maximum of a[i] for i in [offset, offset + length), NULL if length is 0
+     */
+    public static Decimal64 max(Decimal64[] a, int offset, int length) {
+
+        Decimal64 max = length > 0 ? a[offset] : NULL;
+        for (int i = offset + 1, end = offset + length; i < end; ++i) {
+            if (a[i].compareTo(max) > 0) {
+                max = a[i];
+            }
+        }
+
+        return max;
+    }
+
+    /// endregion
+
     public static String toString(final Decimal64 decimal64) {
         return Decimal64Utils.toString(decimal64.value);
     }
@@ -356,4 +470,48 @@ public class Decimal64 extends Number implements Comparable<Decimal64> {
     public static Decimal64 parse(String s) {
         return new Decimal64(Decimal64Utils.parse(s));
     }
+
+    /**
+     * Parse the characters in [offset, offset + length) without allocating intermediate objects
+     * @see Decimal64Utils#parse(CharSequence, int, int)
+     */
+    public static Decimal64 parse(CharSequence src, int offset, int length) {
+        return fromUnderlying(Decimal64Utils.parse(src, offset, length));
+    }
+
+    /**
+     * Parse ASCII bytes in [offset, offset + length)
+     * @see Decimal64Utils#parse(byte[], int, int)
+     */
+    public static Decimal64 parse(byte[] src, int offset, int length) {
+        return fromUnderlying(Decimal64Utils.parse(src, offset, length));
+    }
+
+    /**
+     * Parse ASCII bytes in [offset, offset + length) of the buffer
+     * @see Decimal64Utils#parse(ByteBuffer, int, int)
+     */
+    public static Decimal64 parse(ByteBuffer src, int offset, int length) {
+        return fromUnderlying(Decimal64Utils.parse(src, offset, length));
+    }
+
+    public StringBuilder appendTo(StringBuilder builder) {
+        return Decimal64Utils.appendTo(value, builder);
+    }
+
+    /**
+     * @return number of bytes written
+     * @see Decimal64Utils#format(long, byte[], int)
+     */
+    public int format(byte[] dst, int offset) {
+        return Decimal64Utils.format(value, dst, offset);
+    }
+
+    /**
+     * @return number of bytes written
+     * @see Decimal64Utils#format(long, ByteBuffer, int)
+     */
+    public int format(ByteBuffer dst, int offset) {
+        return Decimal64Utils.format(value, dst, offset);
+    }
 }
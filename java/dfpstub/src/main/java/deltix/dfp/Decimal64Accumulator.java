@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.dfp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent sum of Decimal64 values, striped over several cells like {@code java.util.concurrent.atomic.LongAdder}.
+ * <p>
+ * Each cell holds the underlying long of a partial sum and is updated with CAS using {@link Decimal64Utils#add}.
+ * Threads start at the cell selected by their id and move to another cell after a failed CAS, so concurrent
+ * writers mostly update different cells. Cells are padded by 128 bytes to avoid false sharing.
+ * <p>
+ * Value Type Agent transforms {@code add(Decimal64)} and {@code sum()} calls like any other method with
+ * Value Type signature, so the transformed code does not box. Untransformed code can use
+ * {@link #addUnderlying(long)} and {@link #sumUnderlying()}.
+ * <p>
+ * {@link #sum()} is not an atomic snapshot: additions made concurrently with it may be missed.
+ * Because decimal addition is not associative, the result may depend on the distribution of the values over the cells.
+ */
+public class Decimal64Accumulator {
+
+    // Padding in array elements, 128 bytes
+    private static final int PAD = 16;
+    private static final int MAX_CELLS = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Create the accumulator with the number of cells equal to the number of available processors
+     */
+    public Decimal64Accumulator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param nCells number of cells, rounded up to a power of 2, at most 64
+     */
+    public Decimal64Accumulator(int nCells) {
+
+        if (nCells < 1)
+            throw new IllegalArgumentException("Illegal number of cells: " + nCells);
+
+        nCells = Math.min(MAX_CELLS, 1 == nCells ? 1 : Integer.highestOneBit(nCells - 1) << 1);
+        this.mask = nCells - 1;
+        // Cell i is at (i + 1) * PAD, the array is padded at both ends. All cells start at Decimal64Utils.ZERO(0)
+        this.cells = new AtomicLongArray((nCells + 2) * PAD);
+    }
+
+
+    /**
+     * Add the value to the sum
+     * @throws NullPointerException if the value is null
+     */
+    public void add(Decimal64 value) {
+        addUnderlying(Decimal64.toUnderlying(value));
+    }
+
+    /**
+     * Add the value, represented by its underlying long, to the sum
+     * @throws NullPointerException if the value is {@link Decimal64Utils#NULL}
+     */
+    public void addUnderlying(long value) {
+
+        if (Decimal64Utils.isNull(value))
+            throw new NullPointerException();
+
+        AtomicLongArray cells = this.cells;
+        int probe = probe();
+        for (;;) {
+            int i = (1 + (probe & mask)) * PAD;
+            long sum = cells.get(i);
+            if (cells.compareAndSet(i, sum, Decimal64Utils.add(sum, value)))
+                return;
+
+            // Contended, move to another cell
+            probe ^= probe << 13;
+            probe ^= probe >>> 17;
+            probe ^= probe << 5;
+        }
+    }
+
+    /**
+     * @return current sum of all added values
+     */
+    public Decimal64 sum() {
+        return Decimal64.fromUnderlying(sumUnderlying());
+    }
+
+    /**
+     * @return underlying long of the current sum of all added values
+     */
+    public long sumUnderlying() {
+
+        AtomicLongArray cells = this.cells;
+        long sum = Decimal64Utils.ZERO;
+        for (int i = PAD, n = cells.length() - PAD; i < n; i += PAD) {
+            sum = Decimal64Utils.add(sum, cells.get(i));
+        }
+
+        return sum;
+    }
+
+    /**
+     * Reset the sum to zero and return its previous value.
+     * Additions made concurrently with this call are either included in the result or kept in the new sum.
+     * @return underlying long of the sum before the reset
+     */
+    public long sumThenResetUnderlying() {
+
+        AtomicLongArray cells = this.cells;
+        long sum = Decimal64Utils.ZERO;
+        for (int i = PAD, n = cells.length() - PAD; i < n; i += PAD) {
+            sum = Decimal64Utils.add(sum, cells.getAndSet(i, Decimal64Utils.ZERO));
+        }
+
+        return sum;
+    }
+
+    /**
+     * Reset the sum to zero and return its previous value
+     * @return sum before the reset
+     */
+    public Decimal64 sumThenReset() {
+        return Decimal64.fromUnderlying(sumThenResetUnderlying());
+    }
+
+    /**
+     * Reset the sum to zero. Should be called when there are no concurrent additions.
+     */
+    public void reset() {
+
+        AtomicLongArray cells = this.cells;
+        for (int i = PAD, n = cells.length() - PAD; i < n; i += PAD) {
+            cells.set(i, Decimal64Utils.ZERO);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Decimal64Utils.toString(sumUnderlying());
+    }
+
+
+    private static int probe() {
+
+        // Threads are usually created in sequence, consecutive ids select different cells
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        return 0 == h ? 1 : h;
+    }
+}
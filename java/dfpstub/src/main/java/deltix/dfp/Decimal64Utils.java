@@ -16,6 +16,8 @@
 
 package deltix.dfp;
 
+import java.nio.ByteBuffer;
+
 /**
  * Stub for Deltix Decimal Floating Poing library.
  * Contents of this class in no way represent the actual dfp library and are present only to stop tests from failing.
@@ -78,7 +80,7 @@ public class Decimal64Utils {
 
 
     public static String toString(final long value) {
-        return String.valueOf(toDouble(value));
+        return NULL == value ? "null" : appendTo(value, new StringBuilder(20)).toString();
     }
 
     /**
@@ -185,7 +187,7 @@ public class Decimal64Utils {
     }
 
     private static long make(long intPart, long fracPart) {
-        return (intPart << 32) | fracPart & 0xFFFFFFFFFL;
+        return (intPart << 32) | fracPart & 0xFFFFFFFFL;
     }
 
     public static double toDouble(final long value) {
@@ -242,6 +244,22 @@ public class Decimal64Utils {
         return a != b;
     }
 
+    public static boolean isLess(final long a, final long b) {
+        return compareTo(a, b) < 0;
+    }
+
+    public static boolean isLessOrEqual(final long a, final long b) {
+        return compareTo(a, b) <= 0;
+    }
+
+    public static boolean isGreater(final long a, final long b) {
+        return compareTo(a, b) > 0;
+    }
+
+    public static boolean isGreaterOrEqual(final long a, final long b) {
+        return compareTo(a, b) >= 0;
+    }
+
 
     public static boolean isZero(final long value) {
         return ZERO == value;
@@ -273,11 +291,372 @@ public class Decimal64Utils {
         return fromDouble(toDouble(a) - toDouble(b));
     }
 
+    public static long multiply(final long a, final long b) {
+        return fromDouble(toDouble(a) * toDouble(b));
+    }
+
     public static long divide(final long a, final long b) {
         return fromDouble(toDouble(a) / toDouble(b));
     }
 
+    /**
+     * Fused a * b + c, used to replace chained multiply().add() calls
+     */
+    public static long multiplyAndAdd(final long a, final long b, final long c) {
+        return fromDouble(toDouble(a) * toDouble(b) + toDouble(c));
+    }
+
+
+
+    /// endregion
+
+    /// region Array arithmetic
+
+    // Products of integers up to this magnitude are exact in double
+    private static final long MAX_EXACT_PRODUCT = 1L << 53;
+
+    /**
+     * Element-wise a[i] + b[i] for i in [offset, offset + length).
+     * Integer values (zero fractional part) are added without decoding, the results are the same as of
+     * {@link #add(long, long)} called for every element.
+     * @return dst
+     */
+    public static long[] add(long[] a, long[] b, long[] dst, int offset, int length) {
+
+        // NOTE: no bounds checks
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            dst[i] = addFast(a[i], b[i]);
+        }
+
+        return dst;
+    }
+
+    /**
+     * Element-wise a[i] * multiplier for i in [offset, offset + length).
+     * The multiplier is decoded once, the results are the same as of {@link #multiply(long, long)} called for every element.
+     * @return dst
+     */
+    public static long[] multiply(long[] a, long multiplier, long[] dst, int offset, int length) {
+
+        double m = toDouble(multiplier);
+        boolean isIntegerMultiplier = 0 == (int) multiplier;
+        long intMultiplier = multiplier >> 32;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            long x = a[i];
+            if (isIntegerMultiplier && 0 == (int) x) {
+                long p = (x >> 32) * intMultiplier;
+                if (p < MAX_EXACT_PRODUCT && p > -MAX_EXACT_PRODUCT) {
+                    dst[i] = p << 32;
+                    continue;
+                }
+            }
+
+            dst[i] = fromDouble(toDouble(x) * m);
+        }
+
+        return dst;
+    }
+
+    /**
+     * Sum of a[i] for i in [offset, offset + length), ZERO if length is 0.
+     * The result is the same as of {@link #add(long, long)} applied to the elements in order.
+     */
+    public static long sum(long[] a, int offset, int length) {
+
+        long sum = ZERO;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            sum = addFast(sum, a[i]);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Sum of a[i] * b[i] for i in [offset, offset + length), ZERO if length is 0.
+     * The result is the same as of {@link #multiply(long, long)} and {@link #add(long, long)} applied to the elements in order.
+     */
+    public static long dot(long[] a, long[] b, int offset, int length) {
+
+        long sum = ZERO;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            sum = addFast(sum, multiplyFast(a[i], b[i]));
+        }
+
+        return sum;
+    }
+
+    /**
+     * Minimum of a[i] for i in [offset, offset + length), the first one if several elements are equal.
+     * The current minimum is decoded once.
+     * @return minimum or NULL if length is 0
+     */
+    public static long min(long[] a, int offset, int length) {
+
+        if (length <= 0)
+            return NULL;
+
+        long min = a[offset];
+        double minValue = toDouble(min);
+        for (int i = offset + 1, end = offset + length; i < end; ++i) {
+            double value = toDouble(a[i]);
+            if (Double.compare(value, minValue) < 0) {
+                min = a[i];
+                minValue = value;
+            }
+        }
+
+        return min;
+    }
+
+    /**
+     * Maximum of a[i] for i in [offset, offset + length), the first one if several elements are equal.
+     * The current maximum is decoded once.
+     * @return maximum or NULL if length is 0
+     */
+    public static long max(long[] a, int offset, int length) {
+
+        if (length <= 0)
+            return NULL;
+
+        long max = a[offset];
+        double maxValue = toDouble(max);
+        for (int i = offset + 1, end = offset + length; i < end; ++i) {
+            double value = toDouble(a[i]);
+            if (Double.compare(value, maxValue) > 0) {
+                max = a[i];
+                maxValue = value;
+            }
+        }
+
+        return max;
+    }
+
+    private static long addFast(long a, long b) {
+
+        // Both are integers: integer parts are added in place, same as make(intA + intB, 0)
+        return 0 == (int) (a | b) ? a + b : add(a, b);
+    }
+
+    private static long multiplyFast(long a, long b) {
 
+        if (0 == (int) (a | b)) {
+            long p = (a >> 32) * (b >> 32);
+            if (p < MAX_EXACT_PRODUCT && p > -MAX_EXACT_PRODUCT)
+                return p << 32;
+        }
+
+        return multiply(a, b);
+    }
+
+    /// endregion
+
+    /// region Parsing & Formatting
+
+    // Number of fraction digits, represented by the lower 32 bits
+    private static final int FRACTION_DIGITS = 8;
+    private static final long FRACTION_SCALE = 100000000L;
+    // Integer part must fit in int, -2^31 is excluded to keep NULL distinct
+    private static final long MAX_INT_PART = 1L << 31;
+
+    private static final String NULL_TEXT = "null";
+    private static final String NAN_TEXT = "NaN";
+    private static final String INFINITY_TEXT = "Infinity";
+
+    /**
+     * Parse decimal number {@code [+-]digits[.digits]}, "NaN", "[+-]Infinity" or "null" from the characters in
+     * [offset, offset + length). The value is exact, fraction digits beyond the 8th are truncated. Does not allocate.
+     * @return underlying long
+     * @throws NumberFormatException if the text is not a valid number
+     */
+    public static long parse(final CharSequence src, final int offset, final int length) {
+        return parse(src, null, null, offset, length);
+    }
+
+    /**
+     * Parse ASCII bytes in [offset, offset + length)
+     * @see #parse(CharSequence, int, int)
+     */
+    public static long parse(final byte[] src, final int offset, final int length) {
+        return parse(null, src, null, offset, length);
+    }
+
+    /**
+     * Parse ASCII bytes in [offset, offset + length) of the buffer. Buffer position is not changed.
+     * @see #parse(CharSequence, int, int)
+     */
+    public static long parse(final ByteBuffer src, final int offset, final int length) {
+        return parse(null, null, src, offset, length);
+    }
+
+    /**
+     * Append the value without allocation. The text is exact and has at least one fraction digit, like "-12.5" or "3.0"
+     * @return builder
+     */
+    public static StringBuilder appendTo(final long value, final StringBuilder builder) {
+        format(value, null, null, builder, 0);
+        return builder;
+    }
+
+    /**
+     * Write the value as ASCII bytes starting at offset, see {@link #appendTo(long, StringBuilder)}.
+     * At most 20 bytes are written.
+     * @return number of bytes written
+     */
+    public static int format(final long value, final byte[] dst, final int offset) {
+        return format(value, dst, null, null, offset);
+    }
+
+    /**
+     * Write the value as ASCII bytes starting at offset of the buffer. Buffer position is not changed.
+     * @return number of bytes written
+     * @see #format(long, byte[], int)
+     */
+    public static int format(final long value, final ByteBuffer dst, final int offset) {
+        return format(value, null, dst, null, offset);
+    }
+
+
+    // Exactly one of the sources is not null
+    private static long parse(final CharSequence chars, final byte[] bytes, final ByteBuffer buffer,
+                              final int offset, final int length) {
+
+        final int end = offset + length;
+        int i = offset;
+        boolean isNegative = false;
+        if (i < end) {
+            final int c = charAt(chars, bytes, buffer, i);
+            if ('-' == c || '+' == c) {
+                isNegative = '-' == c;
+                ++i;
+            }
+        }
+
+        if (i < end && !isDigit(charAt(chars, bytes, buffer, i))) {
+            if (regionMatches(chars, bytes, buffer, i, end, INFINITY_TEXT))
+                return isNegative ? NEGATIVE_INFINITY : POSITIVE_INFINITY;
+
+            if (i == offset && regionMatches(chars, bytes, buffer, i, end, NAN_TEXT))
+                return NaN;
+
+            if (i == offset && regionMatches(chars, bytes, buffer, i, end, NULL_TEXT))
+                return NULL;
+        }
+
+        long intPart = 0;
+        long fracPart = 0;
+        int nDigits = 0;
+        for (int c; i < end && isDigit(c = charAt(chars, bytes, buffer, i)); ++i, ++nDigits) {
+            intPart = intPart * 10 + (c - '0');
+            if (intPart >= MAX_INT_PART)
+                throw new NumberFormatException("Decimal64 value is out of range at offset " + offset);
+        }
+
+        if (i < end && '.' == charAt(chars, bytes, buffer, i)) {
+            long scale = FRACTION_SCALE;
+            for (int c; ++i < end && isDigit(c = charAt(chars, bytes, buffer, i)); ++nDigits) {
+                if (scale > 1) {
+                    scale /= 10;
+                    fracPart += scale * (c - '0');
+                }
+            }
+        }
+
+        if (i != end || 0 == nDigits)
+            throw new NumberFormatException("Invalid Decimal64 value at offset " + offset + ", length " + length);
+
+        return isNegative ? make(-intPart, -fracPart) : make(intPart, fracPart);
+    }
+
+    // Exactly one of the destinations is not null
+    private static int format(final long value, final byte[] bytes, final ByteBuffer buffer, final StringBuilder builder,
+                              final int offset) {
+
+        if (NULL == value)
+            return put(bytes, buffer, builder, offset, NULL_TEXT);
+
+        if (NaN == value)
+            return put(bytes, buffer, builder, offset, NAN_TEXT);
+
+        int i = offset;
+        if (POSITIVE_INFINITY == value || NEGATIVE_INFINITY == value) {
+            if (NEGATIVE_INFINITY == value) {
+                put(bytes, buffer, builder, i++, '-');
+            }
+
+            return i + put(bytes, buffer, builder, i, INFINITY_TEXT) - offset;
+        }
+
+        long scaled = (int) (value >>> 32) * FRACTION_SCALE + (int) value;
+        if (scaled < 0) {
+            put(bytes, buffer, builder, i++, '-');
+            scaled = -scaled;
+        }
+
+        final long intPart = scaled / FRACTION_SCALE;
+        long fracPart = scaled % FRACTION_SCALE;
+        long divisor = 1;
+        while (divisor <= intPart / 10) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            put(bytes, buffer, builder, i++, (char) ('0' + intPart / divisor % 10));
+        }
+
+        put(bytes, buffer, builder, i++, '.');
+        divisor = FRACTION_SCALE / 10;
+        do {
+            put(bytes, buffer, builder, i++, (char) ('0' + fracPart / divisor));
+            fracPart %= divisor;
+            divisor /= 10;
+        } while (0 != fracPart);
+
+        return i - offset;
+    }
+
+    private static boolean isDigit(final int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int charAt(final CharSequence chars, final byte[] bytes, final ByteBuffer buffer, final int i) {
+        return null != chars ? chars.charAt(i) : null != bytes ? bytes[i] : buffer.get(i);
+    }
+
+    private static boolean regionMatches(final CharSequence chars, final byte[] bytes, final ByteBuffer buffer,
+                                         final int i, final int end, final String text) {
+
+        if (end - i != text.length())
+            return false;
+
+        for (int j = 0; j < text.length(); ++j) {
+            if (text.charAt(j) != charAt(chars, bytes, buffer, i + j))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static void put(final byte[] bytes, final ByteBuffer buffer, final StringBuilder builder, final int i,
+                            final char c) {
+
+        if (null != bytes) {
+            bytes[i] = (byte) c;
+        } else if (null != buffer) {
+            buffer.put(i, (byte) c);
+        } else {
+            builder.append(c);
+        }
+    }
+
+    private static int put(final byte[] bytes, final ByteBuffer buffer, final StringBuilder builder, final int i,
+                           final String text) {
+
+        for (int j = 0; j < text.length(); ++j) {
+            put(bytes, buffer, builder, i + j, text.charAt(j));
+        }
+
+        return text.length();
+    }
 
     /// endregion
 
@@ -295,6 +674,12 @@ public class Decimal64Utils {
         }
     }
 
+    static protected void checkNull(final long a, final long b, final long c) {
+        if (isNull(a) || isNull(b) || isNull(c)) {
+            throw new NullPointerException();
+        }
+    }
+
 
     public static double toDoubleChecked(final long value) {
         checkNull(value);
@@ -364,6 +749,27 @@ public class Decimal64Utils {
     }
 
 
+    public static boolean isLessChecked(final long a, final long b) {
+        checkNull(a, b);
+        return isLess(a, b);
+    }
+
+    public static boolean isLessOrEqualChecked(final long a, final long b) {
+        checkNull(a, b);
+        return isLessOrEqual(a, b);
+    }
+
+    public static boolean isGreaterChecked(final long a, final long b) {
+        checkNull(a, b);
+        return isGreater(a, b);
+    }
+
+    public static boolean isGreaterOrEqualChecked(final long a, final long b) {
+        checkNull(a, b);
+        return isGreaterOrEqual(a, b);
+    }
+
+
     public static long addChecked(final long a, final long b) {
         checkNull(a, b);
         return add(a, b);
@@ -376,12 +782,24 @@ public class Decimal64Utils {
     }
 
 
+    public static long multiplyChecked(final long a, final long b) {
+        checkNull(a, b);
+        return multiply(a, b);
+    }
+
+
     public static long divideChecked(final long a, final long b) {
         checkNull(a, b);
         return divide(a, b);
     }
 
 
+    public static long multiplyAndAddChecked(final long a, final long b, final long c) {
+        checkNull(a, b, c);
+        return multiplyAndAdd(a, b, c);
+    }
+
+
     public static int identityHashCodeChecked(final long value) {
         checkNull(value);
         return identityHashCode(value);
@@ -398,6 +816,21 @@ public class Decimal64Utils {
         return toString(value);
     }
 
+    public static StringBuilder appendToChecked(final long value, final StringBuilder builder) {
+        checkNull(value);
+        return appendTo(value, builder);
+    }
+
+    public static int formatChecked(final long value, final byte[] dst, final int offset) {
+        checkNull(value);
+        return format(value, dst, offset);
+    }
+
+    public static int formatChecked(final long value, final ByteBuffer dst, final int offset) {
+        checkNull(value);
+        return format(value, dst, offset);
+    }
+
     public static boolean equalsChecked(final long a, final long b) {
         checkNull(a, b);
         return equals(a, b);
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * Double ended queue of Value Types, ring buffer backed by {@code long[]} array. Can be growable or have fixed capacity.
+ * <p>
+ * Value Type Agent redirects calls made with unboxed Value Types to the methods that take {@code long}
+ * (addLast(long), offerFirst(long), etc.) and calls, that are immediately cast to the Value Type, to the methods
+ * with "Long" suffix (pollFirstLong(), peekFirstLong(), etc.), so the transformed code does not box.
+ * poll/peek methods with "Long" suffix return the null value of the Value Type if the deque is empty.
+ * Fixed capacity deque never reallocates the buffer, offer methods return false and add methods throw
+ * IllegalStateException when it is full. Null elements are not permitted.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeArrayDeque<T> extends AbstractCollection<T> implements Deque<T> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final ValueTypeCodec<T> codec;
+    private final int capacityLimit;
+    private long[] elements;
+    private int mask;
+    private int head;
+    private int size;
+    private int modCount;
+
+    /**
+     * Create growable deque
+     */
+    public ValueTypeArrayDeque(Class<T> type) {
+        this(type, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Create growable deque
+     */
+    public ValueTypeArrayDeque(Class<T> type, int initialCapacity) {
+        this(type, initialCapacity, false);
+    }
+
+    /**
+     * @param capacity initial capacity or the maximum number of elements, if the capacity is fixed
+     * @param fixedCapacity true if the deque should not grow beyond the specified capacity
+     */
+    public ValueTypeArrayDeque(Class<T> type, int capacity, boolean fixedCapacity) {
+
+        if (capacity < (fixedCapacity ? 1 : 0) || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+
+        this.codec = ValueTypeCodec.of(type);
+        this.capacityLimit = fixedCapacity ? capacity : MAX_CAPACITY;
+        int length = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.elements = new long[length];
+        this.mask = length - 1;
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of elements that can be added without exceeding the fixed capacity
+     */
+    public int remainingCapacity() {
+        return capacityLimit - size;
+    }
+
+    public boolean isFull() {
+        return size == capacityLimit;
+    }
+
+    public boolean offerFirst(long value) {
+
+        if (!makeSpace(value))
+            return false;
+
+        int i = (head - 1) & mask;
+        elements[i] = value;
+        head = i;
+        ++size;
+        return true;
+    }
+
+    public boolean offerLast(long value) {
+
+        if (!makeSpace(value))
+            return false;
+
+        elements[(head + size) & mask] = value;
+        ++size;
+        return true;
+    }
+
+    public void addFirst(long value) {
+
+        if (!offerFirst(value))
+            throw new IllegalStateException("Deque full");
+    }
+
+    public void addLast(long value) {
+
+        if (!offerLast(value))
+            throw new IllegalStateException("Deque full");
+    }
+
+    public boolean add(long value) {
+
+        addLast(value);
+        return true;
+    }
+
+    public boolean offer(long value) {
+        return offerLast(value);
+    }
+
+    public void push(long value) {
+        addFirst(value);
+    }
+
+    /**
+     * @return first element or null value if the deque is empty
+     */
+    public long pollFirstLong() {
+
+        if (0 == size)
+            return codec.getNullValue();
+
+        ++modCount;
+        int i = head;
+        head = (i + 1) & mask;
+        --size;
+        return elements[i];
+    }
+
+    /**
+     * @return last element or null value if the deque is empty
+     */
+    public long pollLastLong() {
+
+        if (0 == size)
+            return codec.getNullValue();
+
+        ++modCount;
+        return elements[(head + --size) & mask];
+    }
+
+    /**
+     * @return first element or null value if the deque is empty
+     */
+    public long peekFirstLong() {
+        return 0 != size ? elements[head] : codec.getNullValue();
+    }
+
+    /**
+     * @return last element or null value if the deque is empty
+     */
+    public long peekLastLong() {
+        return 0 != size ? elements[(head + size - 1) & mask] : codec.getNullValue();
+    }
+
+    public long removeFirstLong() {
+
+        checkNotEmpty();
+        return pollFirstLong();
+    }
+
+    public long removeLastLong() {
+
+        checkNotEmpty();
+        return pollLastLong();
+    }
+
+    public long getFirstLong() {
+
+        checkNotEmpty();
+        return elements[head];
+    }
+
+    public long getLastLong() {
+
+        checkNotEmpty();
+        return elements[(head + size - 1) & mask];
+    }
+
+    public long pollLong() {
+        return pollFirstLong();
+    }
+
+    public long peekLong() {
+        return peekFirstLong();
+    }
+
+    public long removeLong() {
+        return removeFirstLong();
+    }
+
+    public long elementLong() {
+        return getFirstLong();
+    }
+
+    public long popLong() {
+        return removeFirstLong();
+    }
+
+    /**
+     * @param index element index, counting from the first element
+     */
+    public long getLong(int index) {
+
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return elements[(head + index) & mask];
+    }
+
+    /**
+     * @param index element index, counting from the first element
+     */
+    public T get(int index) {
+        return codec.box(getLong(index));
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    public boolean removeFirstOccurrence(long value) {
+
+        int i = indexOf(value);
+        if (i < 0)
+            return false;
+
+        delete(i);
+        return true;
+    }
+
+    public boolean removeLastOccurrence(long value) {
+
+        long[] elements = this.elements;
+        int mask = this.mask;
+        for (int i = size - 1; i >= 0; --i) {
+            if (codec.equals(elements[(head + i) & mask], value)) {
+                delete(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean remove(long value) {
+        return removeFirstOccurrence(value);
+    }
+
+    /**
+     * @return elements from first to last
+     */
+    public long[] toLongArray() {
+
+        long[] dst = new long[size];
+        toLongArray(dst, 0);
+        return dst;
+    }
+
+    /**
+     * Copy elements from first to last into the array
+     * @return number of copied elements
+     */
+    public int toLongArray(long[] dst, int dstOffset) {
+
+        int n = size;
+        int first = Math.min(n, elements.length - head);
+        System.arraycopy(elements, head, dst, dstOffset, first);
+        System.arraycopy(elements, 0, dst, dstOffset + first, n - first);
+        return n;
+    }
+
+
+    // java.util.Deque implementation
+
+    @Override
+    public void addFirst(T element) {
+        addFirst(unboxElement(element));
+    }
+
+    @Override
+    public void addLast(T element) {
+        addLast(unboxElement(element));
+    }
+
+    @Override
+    public boolean offerFirst(T element) {
+        return offerFirst(unboxElement(element));
+    }
+
+    @Override
+    public boolean offerLast(T element) {
+        return offerLast(unboxElement(element));
+    }
+
+    @Override
+    public T removeFirst() {
+        return codec.box(removeFirstLong());
+    }
+
+    @Override
+    public T removeLast() {
+        return codec.box(removeLastLong());
+    }
+
+    @Override
+    public T pollFirst() {
+        return 0 != size ? codec.box(pollFirstLong()) : null;
+    }
+
+    @Override
+    public T pollLast() {
+        return 0 != size ? codec.box(pollLastLong()) : null;
+    }
+
+    @Override
+    public T getFirst() {
+        return codec.box(getFirstLong());
+    }
+
+    @Override
+    public T getLast() {
+        return codec.box(getLastLong());
+    }
+
+    @Override
+    public T peekFirst() {
+        return 0 != size ? codec.box(peekFirstLong()) : null;
+    }
+
+    @Override
+    public T peekLast() {
+        return 0 != size ? codec.box(peekLastLong()) : null;
+    }
+
+    @Override
+    public boolean removeFirstOccurrence(Object o) {
+        return isElement(o) && removeFirstOccurrence(codec.unbox(o));
+    }
+
+    @Override
+    public boolean removeLastOccurrence(Object o) {
+        return isElement(o) && removeLastOccurrence(codec.unbox(o));
+    }
+
+    @Override
+    public boolean add(T element) {
+
+        addLast(element);
+        return true;
+    }
+
+    @Override
+    public boolean offer(T element) {
+        return offerLast(element);
+    }
+
+    @Override
+    public T remove() {
+        return removeFirst();
+    }
+
+    @Override
+    public T poll() {
+        return pollFirst();
+    }
+
+    @Override
+    public T element() {
+        return getFirst();
+    }
+
+    @Override
+    public T peek() {
+        return peekFirst();
+    }
+
+    @Override
+    public void push(T element) {
+        addFirst(element);
+    }
+
+    @Override
+    public T pop() {
+        return removeFirst();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return removeFirstOccurrence(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return isElement(o) && contains(codec.unbox(o));
+    }
+
+    @Override
+    public void clear() {
+
+        ++modCount;
+        head = 0;
+        size = 0;
+    }
+
+    @Override
+    public ValueTypeIterator<T> iterator() {
+        return new Itr(false);
+    }
+
+    @Override
+    public ValueTypeIterator<T> descendingIterator() {
+        return new Itr(true);
+    }
+
+
+    private boolean isElement(Object o) {
+        return null != o && codec.getType() == o.getClass();
+    }
+
+    private long unboxElement(T element) {
+
+        if (null == element)
+            throw new NullPointerException();
+
+        return codec.unbox(element);
+    }
+
+    private void checkNotEmpty() {
+
+        if (0 == size)
+            throw new NoSuchElementException();
+    }
+
+    /**
+     * Make space for one more element, growing the buffer if necessary
+     * @return false if the deque is full
+     */
+    private boolean makeSpace(long value) {
+
+        if (codec.isNull(value))
+            throw new NullPointerException();
+
+        int n = size;
+        if (n == capacityLimit)
+            return false;
+
+        ++modCount;
+        if (n == elements.length) {
+            long[] newElements = new long[n << 1];
+            toLongArray(newElements, 0);
+            elements = newElements;
+            mask = newElements.length - 1;
+            head = 0;
+        }
+
+        return true;
+    }
+
+    private int indexOf(long value) {
+
+        long[] elements = this.elements;
+        int mask = this.mask;
+        ValueTypeCodec<T> codec = this.codec;
+        for (int i = 0, n = size; i < n; ++i) {
+            if (codec.equals(elements[(head + i) & mask], value))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Remove the element at the specified index, counting from the first element, moving the following elements
+     */
+    private void delete(int index) {
+
+        ++modCount;
+        long[] elements = this.elements;
+        int mask = this.mask;
+        int head = this.head;
+        int n = --size;
+        for (int i = index; i < n; ++i) {
+            elements[(head + i) & mask] = elements[(head + i + 1) & mask];
+        }
+    }
+
+
+    private class Itr implements ValueTypeIterator<T> {
+
+        private final boolean descending;
+        private int cursor;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        Itr(boolean descending) {
+
+            this.descending = descending;
+            this.cursor = descending ? size - 1 : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return descending ? cursor >= 0 : cursor < size;
+        }
+
+        @Override
+        public long nextLong() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            int i = cursor;
+            cursor = descending ? i - 1 : i + 1;
+            return elements[(head + (lastReturned = i)) & mask];
+        }
+
+        @Override
+        public T next() {
+            return codec.box(nextLong());
+        }
+
+        @Override
+        public void remove() {
+
+            if (lastReturned < 0)
+                throw new IllegalStateException();
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            delete(lastReturned);
+            if (!descending) {
+                cursor = lastReturned;
+            }
+
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * {@code java.util.Arrays} methods for Value Type arrays, represented as {@code long[]}.
+ * <p>
+ * Value Type Agent replaces calls of Arrays.sort, binarySearch, toString and hashCode on 1-dimensional Value Type
+ * arrays with these methods, so the arrays are not boxed. Elements are compared, hashed and converted to strings
+ * with the implementation class compareTo(long, long), hashCode(long) and toString(long).
+ * Unlike Arrays.sort(Object[]), sorting is not stable: elements that compare as equal, but have different
+ * representations, may be reordered. stableSort() and parallelStableSort() are stable merge sorts, used where
+ * the order of equal elements must be kept, e.g. for Stream.sorted().
+ * <p>
+ * Arrays.parallelSort, parallelPrefix and parallelSetAll are replaced with fork/join versions that run in
+ * the common pool. The operator of parallelPrefix and the generator of parallelSetAll are passed as handles of
+ * static methods that take and return unboxed values, e.g. {@code Decimal64Utils.add(long, long)}.
+ */
+public final class ValueTypeArrays {
+
+    private static final int INSERTION_SORT_THRESHOLD = 27;
+    private static final int MIN_PARALLEL_SORT_GRANULARITY = 1 << 13;
+    private static final int MIN_PARALLEL_GRANULARITY = 1 << 12;
+
+    private static final MethodType OPERATOR_TYPE = MethodType.methodType(long.class, long.class, long.class);
+    private static final MethodType GENERATOR_TYPE = MethodType.methodType(long.class, int.class);
+
+    private ValueTypeArrays() {
+    }
+
+
+    public static void sort(long[] a, Class<?> type) {
+        sort(a, 0, a.length, type);
+    }
+
+    public static void sort(long[] a, int fromIndex, int toIndex, Class<?> type) {
+
+        checkRange(a.length, fromIndex, toIndex);
+        int n = toIndex - fromIndex;
+        if (n > 1) {
+            sort(a, fromIndex, toIndex - 1, depthLimit(n), ValueTypeCodec.of(type).requireCompareTo());
+        }
+    }
+
+    public static void parallelSort(long[] a, Class<?> type) {
+        parallelSort(a, 0, a.length, type);
+    }
+
+    /**
+     * Sorts the range in parallel: subranges are sorted with the same algorithm as sort() and then merged
+     */
+    public static void parallelSort(long[] a, int fromIndex, int toIndex, Class<?> type) {
+
+        checkRange(a.length, fromIndex, toIndex);
+        ValueTypeCodec<?> codec = ValueTypeCodec.of(type).requireCompareTo();
+        int n = toIndex - fromIndex;
+        ForkJoinPool pool = PoolHolder.POOL;
+        int parallelism = pool.getParallelism();
+        if (n <= MIN_PARALLEL_SORT_GRANULARITY || 1 == parallelism) {
+            if (n > 1) {
+                sort(a, fromIndex, toIndex - 1, depthLimit(n), codec);
+            }
+
+            return;
+        }
+
+        int granularity = Math.max(n / (parallelism << 2), MIN_PARALLEL_SORT_GRANULARITY);
+        pool.invoke(new SortTask(a, new long[n], fromIndex, fromIndex, toIndex, granularity, false, codec));
+    }
+
+    /**
+     * Stable merge sort, equal elements keep their order
+     */
+    public static void stableSort(long[] a, Class<?> type) {
+
+        int n = a.length;
+        if (n > 1) {
+            mergeSort(a, new long[n], 0, 0, n, ValueTypeCodec.of(type).requireCompareTo());
+        }
+    }
+
+    /**
+     * Stable parallel merge sort, equal elements keep their order
+     */
+    public static void parallelStableSort(long[] a, Class<?> type) {
+
+        ValueTypeCodec<?> codec = ValueTypeCodec.of(type).requireCompareTo();
+        int n = a.length;
+        ForkJoinPool pool = PoolHolder.POOL;
+        int parallelism = pool.getParallelism();
+        if (n <= MIN_PARALLEL_SORT_GRANULARITY || 1 == parallelism) {
+            if (n > 1) {
+                mergeSort(a, new long[n], 0, 0, n, codec);
+            }
+
+            return;
+        }
+
+        int granularity = Math.max(n / (parallelism << 2), MIN_PARALLEL_SORT_GRANULARITY);
+        pool.invoke(new SortTask(a, new long[n], 0, 0, n, granularity, true, codec));
+    }
+
+    public static void parallelPrefix(long[] a, MethodHandle op) {
+        parallelPrefix(a, 0, a.length, op);
+    }
+
+    /**
+     * Same as Arrays.parallelPrefix(Object[], int, int, BinaryOperator) for the boxed array
+     * @param op handle of a static method (long, long) -> long, expected to be associative
+     */
+    public static void parallelPrefix(long[] a, int fromIndex, int toIndex, MethodHandle op) {
+
+        checkRange(a.length, fromIndex, toIndex);
+        MethodHandle f = op.asType(OPERATOR_TYPE);
+        int n = toIndex - fromIndex;
+        int chunkSize = chunkSize(n);
+        if (chunkSize >= n) {
+            prefix(a, fromIndex, toIndex, f);
+            return;
+        }
+
+        // 1st pass: prefix of every chunk
+        ForkJoinPool pool = PoolHolder.POOL;
+        int nChunks = (n + chunkSize - 1) / chunkSize;
+        pool.invoke(new ChunkTask(ChunkTask.PREFIX, a, fromIndex, toIndex, chunkSize, 0, nChunks, f, null));
+
+        // Carry of every chunk is the total of all preceding chunks
+        long[] carry = new long[nChunks];
+        long total = a[fromIndex + chunkSize - 1];
+        for (int i = 1; i < nChunks; ++i) {
+            carry[i] = total;
+            if (i + 1 < nChunks) {
+                total = apply(f, total, a[fromIndex + (i + 1) * chunkSize - 1]);
+            }
+        }
+
+        // 2nd pass: combine the carry with every element of the chunk
+        pool.invoke(new ChunkTask(ChunkTask.CARRY, a, fromIndex, toIndex, chunkSize, 1, nChunks, f, carry));
+    }
+
+    /**
+     * Same as Arrays.parallelSetAll(Object[], IntFunction) for the boxed array
+     * @param generator handle of a static method (int) -> long
+     */
+    public static void parallelSetAll(long[] a, MethodHandle generator) {
+
+        MethodHandle f = generator.asType(GENERATOR_TYPE);
+        int n = a.length;
+        int chunkSize = chunkSize(n);
+        if (chunkSize >= n) {
+            setAll(a, 0, n, f);
+            return;
+        }
+
+        int nChunks = (n + chunkSize - 1) / chunkSize;
+        PoolHolder.POOL.invoke(new ChunkTask(ChunkTask.SET_ALL, a, 0, n, chunkSize, 0, nChunks, f, null));
+    }
+
+    public static int binarySearch(long[] a, long key, Class<?> type) {
+        return binarySearch0(a, 0, a.length, key, ValueTypeCodec.of(type).requireCompareTo());
+    }
+
+    public static int binarySearch(long[] a, int fromIndex, int toIndex, long key, Class<?> type) {
+
+        checkRange(a.length, fromIndex, toIndex);
+        return binarySearch0(a, fromIndex, toIndex, key, ValueTypeCodec.of(type).requireCompareTo());
+    }
+
+    /**
+     * Same as Arrays.toString(Object[]) for the boxed array
+     */
+    public static String toString(long[] a, Class<?> type) {
+
+        if (null == a)
+            return "null";
+
+        int n = a.length;
+        if (0 == n)
+            return "[]";
+
+        ValueTypeCodec<?> codec = ValueTypeCodec.of(type);
+        StringBuilder sb = new StringBuilder(n * 8);
+        sb.append('[');
+        for (int i = 0; ; ++i) {
+            long x = a[i];
+            sb.append(codec.isNull(x) ? "null" : codec.toString(x));
+            if (i == n - 1)
+                return sb.append(']').toString();
+
+            sb.append(", ");
+        }
+    }
+
+    /**
+     * Same as Arrays.hashCode(Object[]) for the boxed array, if the Value Type hashCode() matches
+     * the implementation class hashCode(long)
+     */
+    public static int hashCode(long[] a, Class<?> type) {
+
+        if (null == a)
+            return 0;
+
+        ValueTypeCodec<?> codec = ValueTypeCodec.of(type);
+        int result = 1;
+        for (long x : a) {
+            result = 31 * result + (codec.isNull(x) ? 0 : codec.hashCode(x));
+        }
+
+        return result;
+    }
+
+
+    private static void checkRange(int length, int fromIndex, int toIndex) {
+
+        if (fromIndex > toIndex)
+            throw new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex + ")");
+
+        if (fromIndex < 0)
+            throw new ArrayIndexOutOfBoundsException(fromIndex);
+
+        if (toIndex > length)
+            throw new ArrayIndexOutOfBoundsException(toIndex);
+    }
+
+    private static int depthLimit(int n) {
+        return 2 * (32 - Integer.numberOfLeadingZeros(n));
+    }
+
+    /**
+     * @return size of the chunks processed in parallel, n if the range is too small to split
+     */
+    private static int chunkSize(int n) {
+
+        int parallelism = PoolHolder.POOL.getParallelism();
+        if (n <= MIN_PARALLEL_GRANULARITY || 1 == parallelism)
+            return n;
+
+        int nChunks = Math.min(parallelism << 2, n / MIN_PARALLEL_GRANULARITY);
+        return (n + nChunks - 1) / nChunks;
+    }
+
+    private static long apply(MethodHandle op, long x, long y) {
+
+        try {
+            return (long) op.invokeExact(x, y);
+        } catch (Throwable e) {
+            throw ValueTypeCodec.rethrow(e);
+        }
+    }
+
+    private static void prefix(long[] a, int fromIndex, int toIndex, MethodHandle op) {
+
+        try {
+            for (int i = fromIndex + 1; i < toIndex; ++i) {
+                a[i] = (long) op.invokeExact(a[i - 1], a[i]);
+            }
+        } catch (Throwable e) {
+            throw ValueTypeCodec.rethrow(e);
+        }
+    }
+
+    private static void addCarry(long[] a, int fromIndex, int toIndex, long carry, MethodHandle op) {
+
+        try {
+            for (int i = fromIndex; i < toIndex; ++i) {
+                a[i] = (long) op.invokeExact(carry, a[i]);
+            }
+        } catch (Throwable e) {
+            throw ValueTypeCodec.rethrow(e);
+        }
+    }
+
+    private static void setAll(long[] a, int fromIndex, int toIndex, MethodHandle generator) {
+
+        try {
+            for (int i = fromIndex; i < toIndex; ++i) {
+                a[i] = (long) generator.invokeExact(i);
+            }
+        } catch (Throwable e) {
+            throw ValueTypeCodec.rethrow(e);
+        }
+    }
+
+    /**
+     * Merges sorted ranges [fromIndex, mid) and [mid, toIndex). The left range is copied to tmp, at tmpBase offset
+     */
+    private static void merge(long[] a, long[] tmp, int tmpBase, int fromIndex, int mid, int toIndex, ValueTypeCodec<?> codec) {
+
+        if (codec.compare(a[mid - 1], a[mid]) <= 0)
+            return;
+
+        int i = fromIndex - tmpBase;
+        int leftEnd = mid - tmpBase;
+        System.arraycopy(a, fromIndex, tmp, i, mid - fromIndex);
+        int j = mid;
+        int k = fromIndex;
+        while (i < leftEnd && j < toIndex) {
+            a[k++] = codec.compare(a[j], tmp[i]) < 0 ? a[j++] : tmp[i++];
+        }
+
+        System.arraycopy(tmp, i, a, k, leftEnd - i);
+    }
+
+    /**
+     * Stable merge sort of the range [fromIndex, toIndex), tmp holds the range at tmpBase offset
+     */
+    private static void mergeSort(long[] a, long[] tmp, int tmpBase, int fromIndex, int toIndex, ValueTypeCodec<?> codec) {
+
+        if (toIndex - fromIndex <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, fromIndex, toIndex - 1, codec);
+            return;
+        }
+
+        int mid = (fromIndex + toIndex) >>> 1;
+        mergeSort(a, tmp, tmpBase, fromIndex, mid, codec);
+        mergeSort(a, tmp, tmpBase, mid, toIndex, codec);
+        merge(a, tmp, tmpBase, fromIndex, mid, toIndex, codec);
+    }
+
+    private static int binarySearch0(long[] a, int fromIndex, int toIndex, long key, ValueTypeCodec<?> codec) {
+
+        int lo = fromIndex;
+        int hi = toIndex - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = codec.compare(a[mid], key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(lo + 1);
+    }
+
+    private static void swap(long[] a, int i, int j) {
+
+        long x = a[i];
+        a[i] = a[j];
+        a[j] = x;
+    }
+
+    /**
+     * Dual-pivot quicksort of the range [left, right]. Falls back to heap sort when recursion gets too deep.
+     */
+    private static void sort(long[] a, int left, int right, int depth, ValueTypeCodec<?> codec) {
+
+        int len = right - left;
+        if (len < INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, left, right, codec);
+            return;
+        }
+
+        if (--depth < 0) {
+            heapSort(a, left, right, codec);
+            return;
+        }
+
+        int third = len / 3;
+        int m1 = left + third;
+        int m2 = right - third;
+        if (codec.compare(a[m1], a[m2]) < 0) {
+            swap(a, m1, left);
+            swap(a, m2, right);
+        } else {
+            swap(a, m1, right);
+            swap(a, m2, left);
+        }
+
+        long pivot1 = a[left];
+        long pivot2 = a[right];
+        int less = left + 1;
+        int great = right - 1;
+
+        // Partition: [left + 1, less) < pivot1, [less, k) between pivots, (great, right) > pivot2
+        for (int k = less; k <= great; ++k) {
+            long x = a[k];
+            if (codec.compare(x, pivot1) < 0) {
+                swap(a, k, less++);
+            } else if (codec.compare(x, pivot2) > 0) {
+                while (k < great && codec.compare(a[great], pivot2) > 0) {
+                    --great;
+                }
+
+                swap(a, k, great--);
+                if (codec.compare(a[k], pivot1) < 0) {
+                    swap(a, k, less++);
+                }
+            }
+        }
+
+        swap(a, less - 1, left);
+        swap(a, great + 1, right);
+
+        sort(a, left, less - 2, depth, codec);
+        sort(a, great + 2, right, depth, codec);
+
+        boolean distinctPivots = codec.compare(pivot1, pivot2) < 0;
+        if (great - less > len - 13 && distinctPivots) {
+            // Large middle part, move the elements equal to the pivots out of it
+            for (int k = less; k <= great; ++k) {
+                if (0 == codec.compare(a[k], pivot1)) {
+                    swap(a, k, less++);
+                } else if (0 == codec.compare(a[k], pivot2)) {
+                    swap(a, k, great--);
+                    if (0 == codec.compare(a[k], pivot1)) {
+                        swap(a, k, less++);
+                    }
+                }
+            }
+        }
+
+        if (distinctPivots) {
+            sort(a, less, great, depth, codec);
+        }
+    }
+
+    private static void insertionSort(long[] a, int left, int right, ValueTypeCodec<?> codec) {
+
+        for (int i = left + 1; i <= right; ++i) {
+            long x = a[i];
+            int j = i - 1;
+            while (j >= left && codec.compare(a[j], x) > 0) {
+                a[j + 1] = a[j];
+                --j;
+            }
+
+            a[j + 1] = x;
+        }
+    }
+
+    private static void heapSort(long[] a, int left, int right, ValueTypeCodec<?> codec) {
+
+        int n = right - left + 1;
+        for (int i = n / 2 - 1; i >= 0; --i) {
+            siftDown(a, left, i, n, codec);
+        }
+
+        for (int end = n - 1; end > 0; --end) {
+            swap(a, left, left + end);
+            siftDown(a, left, 0, end, codec);
+        }
+    }
+
+    private static void siftDown(long[] a, int offset, int i, int n, ValueTypeCodec<?> codec) {
+
+        long x = a[offset + i];
+        for (int child; (child = 2 * i + 1) < n; i = child) {
+            if (child + 1 < n && codec.compare(a[offset + child + 1], a[offset + child]) > 0) {
+                ++child;
+            }
+
+            if (codec.compare(x, a[offset + child]) >= 0)
+                break;
+
+            a[offset + i] = a[offset + child];
+        }
+
+        a[offset + i] = x;
+    }
+
+
+    private static final class PoolHolder {
+
+        static final ForkJoinPool POOL = commonPool();
+
+        /**
+         * ForkJoinPool.commonPool() appeared in Java 8
+         */
+        private static ForkJoinPool commonPool() {
+
+            try {
+                return (ForkJoinPool) ForkJoinPool.class.getMethod("commonPool").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return new ForkJoinPool();
+            }
+        }
+    }
+
+    private static final class SortTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] a;
+        private final long[] tmp;
+        private final int tmpBase;
+        private final int fromIndex;
+        private final int toIndex;
+        private final int granularity;
+        private final boolean stable;
+        private final ValueTypeCodec<?> codec;
+
+        SortTask(long[] a, long[] tmp, int tmpBase, int fromIndex, int toIndex, int granularity, boolean stable,
+                 ValueTypeCodec<?> codec) {
+
+            this.a = a;
+            this.tmp = tmp;
+            this.tmpBase = tmpBase;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.granularity = granularity;
+            this.stable = stable;
+            this.codec = codec;
+        }
+
+        @Override
+        protected void compute() {
+
+            int n = toIndex - fromIndex;
+            if (n <= granularity) {
+                if (stable) {
+                    mergeSort(a, tmp, tmpBase, fromIndex, toIndex, codec);
+                } else {
+                    sort(a, fromIndex, toIndex - 1, depthLimit(n), codec);
+                }
+
+                return;
+            }
+
+            int mid = (fromIndex + toIndex) >>> 1;
+            invokeAll(new SortTask(a, tmp, tmpBase, fromIndex, mid, granularity, stable, codec),
+                    new SortTask(a, tmp, tmpBase, mid, toIndex, granularity, stable, codec));
+            merge(a, tmp, tmpBase, fromIndex, mid, toIndex, codec);
+        }
+    }
+
+    /**
+     * Processes chunks [firstChunk, endChunk) of the range in parallel
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        static final int PREFIX = 0;
+        static final int CARRY = 1;
+        static final int SET_ALL = 2;
+
+        private final int mode;
+        private final long[] a;
+        private final int fromIndex;
+        private final int toIndex;
+        private final int chunkSize;
+        private final int firstChunk;
+        private final int endChunk;
+        private final MethodHandle f;
+        private final long[] carry;
+
+        ChunkTask(int mode, long[] a, int fromIndex, int toIndex, int chunkSize, int firstChunk, int endChunk,
+                  MethodHandle f, long[] carry) {
+
+            this.mode = mode;
+            this.a = a;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.chunkSize = chunkSize;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.f = f;
+            this.carry = carry;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (endChunk - firstChunk > 1) {
+                int mid = (firstChunk + endChunk) >>> 1;
+                invokeAll(new ChunkTask(mode, a, fromIndex, toIndex, chunkSize, firstChunk, mid, f, carry),
+                        new ChunkTask(mode, a, fromIndex, toIndex, chunkSize, mid, endChunk, f, carry));
+                return;
+            }
+
+            int from = fromIndex + firstChunk * chunkSize;
+            int to = Math.min(from + chunkSize, toIndex);
+            switch (mode) {
+                case PREFIX:
+                    prefix(a, from, to, f);
+                    break;
+
+                case CARRY:
+                    addCarry(a, from, to, carry[firstChunk], f);
+                    break;
+
+                default:
+                    setAll(a, from, to, f);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts between a Value Type class and its {@code long} representation and gives access to the
+ * implementation class methods used by Value Type collections: hashCode, equals, compareTo and toString.
+ * <p>
+ * Codecs are registered by the Value Type Agent for every mapped class when the configuration is loaded,
+ * so a codec is only available when the agent is active. The agent generates a {@link Methods} subclass
+ * for every Value Type, that calls the implementation methods directly, so they can be inlined by JIT.
+ * Ordered collections require the implementation class compareTo(long, long) and hash based collections
+ * require equals(long, long), see {@link #requireCompareTo()} and {@link #requireEquals()}.
+ *
+ * @param <T> Value Type class
+ */
+public final class ValueTypeCodec<T> {
+
+    private static final ConcurrentHashMap<Class<?>, ValueTypeCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    private static final MethodType BOX_TYPE = MethodType.methodType(Object.class, long.class);
+    private static final MethodType UNBOX_TYPE = MethodType.methodType(long.class, Object.class);
+    private static final MethodType HASH_CODE_TYPE = MethodType.methodType(int.class, long.class);
+    private static final MethodType EQUALS_TYPE = MethodType.methodType(boolean.class, long.class, long.class);
+    private static final MethodType COMPARE_TYPE = MethodType.methodType(int.class, long.class, long.class);
+    private static final MethodType TO_STRING_TYPE = MethodType.methodType(String.class, long.class);
+
+    private final Class<T> type;
+    private final long nullValue;
+    private final Methods methods;
+    private final boolean hasEquals;
+    private final boolean hasCompareTo;
+
+    /**
+     * Boxing and implementation class methods of a Value Type. Methods that are not defined by the implementation
+     * class are not overridden: values are then hashed, compared and checked for equality as {@code long}.
+     */
+    public abstract static class Methods {
+
+        public abstract Object box(long value);
+
+        public abstract long unbox(Object obj);
+
+        public int hashCode(long value) {
+            return (int) (value ^ (value >>> 32));
+        }
+
+        public boolean equals(long a, long b) {
+            return a == b;
+        }
+
+        public int compare(long a, long b) {
+            return Long.compare(a, b);
+        }
+
+        public String toString(long value) {
+            return String.valueOf(box(value));
+        }
+    }
+
+    private ValueTypeCodec(Class<T> type, Class<?> implClass, Methods methods, long nullValue) {
+
+        this.type           = type;
+        this.nullValue      = nullValue;
+        this.methods        = methods;
+        this.hasEquals      = null != findImplMethod(implClass, "equals", EQUALS_TYPE);
+        this.hasCompareTo   = null != findImplMethod(implClass, "compareTo", COMPARE_TYPE);
+    }
+
+
+    /**
+     * Register Value Type class. Called by the Value Type Agent
+     * @param type Value Type class
+     * @param implClass implementation class, that contains static methods operating on {@code long} values
+     * @param methods boxing methods and implementation class methods of the Value Type
+     * @param nullValue {@code long} representation of null
+     */
+    public static <T> void register(Class<T> type, Class<?> implClass, Methods methods, long nullValue) {
+
+        codecs.put(type, new ValueTypeCodec<>(type, implClass, methods, nullValue));
+    }
+
+    /**
+     * Register Value Type class, calling its methods through method handles. Used by the Value Type Agent
+     * if it can't generate {@link Methods} subclass for the class
+     * @param type Value Type class
+     * @param implClass implementation class, that contains static methods operating on {@code long} values
+     * @param box static boxing method, {@code long -> type}
+     * @param unbox static unboxing method, {@code type -> long}, that accepts null
+     * @param nullValue {@code long} representation of null
+     */
+    public static <T> void register(Class<T> type, Class<?> implClass, MethodHandle box, MethodHandle unbox, long nullValue) {
+
+        register(type, implClass, new HandleMethods(implClass, box, unbox), nullValue);
+    }
+
+
+    /**
+     * @param type Value Type class
+     * @return codec for the Value Type class
+     * @throws IllegalArgumentException if the class is not a mapped Value Type class or Value Type Agent is not active
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ValueTypeCodec<T> of(Class<T> type) {
+
+        ValueTypeCodec<T> codec = (ValueTypeCodec<T>) codecs.get(type);
+        if (null == codec)
+            throw new IllegalArgumentException("Not a mapped Value Type class (is Value Type Agent active?): " + type.getName());
+
+        return codec;
+    }
+
+
+    public static boolean isRegistered(Class<?> type) {
+        return codecs.containsKey(type);
+    }
+
+
+    private static MethodHandle findImplMethod(Class<?> implClass, String name, MethodType methodType) {
+
+        try {
+            return MethodHandles.publicLookup().findStatic(implClass, name, methodType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+
+    static RuntimeException rethrow(Throwable e) {
+
+        if (e instanceof RuntimeException)
+            return (RuntimeException) e;
+
+        if (e instanceof Error)
+            throw (Error) e;
+
+        return new IllegalStateException(e);
+    }
+
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public long getNullValue() {
+        return nullValue;
+    }
+
+    public boolean isNull(long value) {
+        return nullValue == value;
+    }
+
+    public T box(long value) {
+        return type.cast(methods.box(value));
+    }
+
+    public long unbox(Object obj) {
+        return methods.unbox(obj);
+    }
+
+    /**
+     * @return implementation class hashCode(long) result or Long.hashCode() if it is not defined
+     */
+    public int hashCode(long value) {
+        return methods.hashCode(value);
+    }
+
+    /**
+     * @return implementation class equals(long, long) result or raw value comparison if it is not defined
+     */
+    public boolean equals(long a, long b) {
+        return methods.equals(a, b);
+    }
+
+    /**
+     * @return implementation class compareTo(long, long) result or Long.compare() if it is not defined
+     */
+    public int compare(long a, long b) {
+        return methods.compare(a, b);
+    }
+
+    public String toString(long value) {
+        return methods.toString(value);
+    }
+
+    /**
+     * @return this codec
+     * @throws IllegalArgumentException if the implementation class doesn't define compareTo(long, long)
+     */
+    public ValueTypeCodec<T> requireCompareTo() {
+
+        if (!hasCompareTo)
+            throw new IllegalArgumentException("Value Type can't be ordered, implementation class has no compareTo(long, long): "
+                    + type.getName());
+
+        return this;
+    }
+
+    /**
+     * @return this codec
+     * @throws IllegalArgumentException if the implementation class doesn't define equals(long, long)
+     */
+    public ValueTypeCodec<T> requireEquals() {
+
+        if (!hasEquals)
+            throw new IllegalArgumentException("Value Type can't be hashed, implementation class has no equals(long, long): "
+                    + type.getName());
+
+        return this;
+    }
+
+
+    private static final class HandleMethods extends Methods {
+
+        private final MethodHandle box;
+        private final MethodHandle unbox;
+        private final MethodHandle hashCode;
+        private final MethodHandle equals;
+        private final MethodHandle compare;
+        private final MethodHandle toString;
+
+        HandleMethods(Class<?> implClass, MethodHandle box, MethodHandle unbox) {
+
+            this.box        = box.asType(BOX_TYPE);
+            this.unbox      = unbox.asType(UNBOX_TYPE);
+            this.hashCode   = findImplMethod(implClass, "hashCode", HASH_CODE_TYPE);
+            this.equals     = findImplMethod(implClass, "equals", EQUALS_TYPE);
+            this.compare    = findImplMethod(implClass, "compareTo", COMPARE_TYPE);
+            this.toString   = findImplMethod(implClass, "toString", TO_STRING_TYPE);
+        }
+
+        @Override
+        public Object box(long value) {
+
+            try {
+                return box.invokeExact(value);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public long unbox(Object obj) {
+
+            try {
+                return (long) unbox.invokeExact(obj);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public int hashCode(long value) {
+
+            if (null == hashCode)
+                return super.hashCode(value);
+
+            try {
+                return (int) hashCode.invokeExact(value);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public boolean equals(long a, long b) {
+
+            if (null == equals)
+                return super.equals(a, b);
+
+            try {
+                return (boolean) equals.invokeExact(a, b);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public int compare(long a, long b) {
+
+            if (null == compare)
+                return super.compare(a, b);
+
+            try {
+                return (int) compare.invokeExact(a, b);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        @Override
+        public String toString(long value) {
+
+            if (null == toString)
+                return super.toString(value);
+
+            try {
+                return (String) toString.invokeExact(value);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.collections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed length column of Value Types, stored outside of the heap in a direct buffer or a memory-mapped file.
+ * <p>
+ * Elements are stored as little-endian {@code long} values in chunks of 2^27 elements (1 GiB), so the column
+ * is indexed by {@code long} and can be longer than 2^31 elements. Mapped columns can be shared between processes
+ * through the page cache.
+ * <p>
+ * Value Type Agent redirects set(long, T) calls made with unboxed Value Types to set(long, long) and get(long) calls,
+ * that are immediately cast to the Value Type, to getLong(long), so the transformed code does not box.
+ * Bulk get/put methods copy ranges between the column and {@code long[]} arrays, transferTo/transferFrom methods
+ * copy ranges between the column and a file channel without intermediate arrays.
+ * Elements can be accessed from several threads like elements of {@code long[]} array.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeColumn<T> {
+
+    static final int CHUNK_SHIFT = 27;
+    static final long CHUNK_LENGTH = 1L << CHUNK_SHIFT;
+    static final long CHUNK_MASK = CHUNK_LENGTH - 1;
+
+    private final ValueTypeCodec<T> codec;
+    private final long length;
+    private final ByteBuffer[] chunks;
+    private final LongBuffer[] views;
+
+    private ValueTypeColumn(ValueTypeCodec<T> codec, long length, ByteBuffer[] chunks) {
+
+        this.codec = codec;
+        this.length = length;
+        this.chunks = chunks;
+        this.views = new LongBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            views[i] = chunks[i].asLongBuffer();
+        }
+    }
+
+    /**
+     * Create column in direct buffers, filled with the null value of the Value Type
+     */
+    public static <T> ValueTypeColumn<T> allocateDirect(Class<T> type, long length) {
+
+        checkLength(length);
+        ByteBuffer[] chunks = new ByteBuffer[getChunkCount(length)];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i] = ByteBuffer.allocateDirect((int) getChunkLength(length, i) << 3);
+        }
+
+        ValueTypeColumn<T> column = new ValueTypeColumn<>(ValueTypeCodec.of(type), length, chunks);
+        column.fill(column.codec.getNullValue());
+        return column;
+    }
+
+    /**
+     * Map the column to the file region of {@code length * 8} bytes, starting at the position.
+     * The column keeps the file content, when the file is extended in READ_WRITE mode, new elements are 0.
+     * The channel can be closed after this call, the mapping remains valid until the column is garbage collected.
+     *
+     * @param mode READ_ONLY, READ_WRITE or PRIVATE
+     */
+    public static <T> ValueTypeColumn<T> map(Class<T> type, FileChannel channel, FileChannel.MapMode mode,
+                                             long position, long length) throws IOException {
+
+        checkLength(length);
+        if (position < 0)
+            throw new IllegalArgumentException("Illegal position: " + position);
+
+        ByteBuffer[] chunks = new ByteBuffer[getChunkCount(length)];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i] = channel.map(mode, position + ((long) i << (CHUNK_SHIFT + 3)), getChunkLength(length, i) << 3);
+        }
+
+        return new ValueTypeColumn<>(ValueTypeCodec.of(type), length, chunks);
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return codec;
+    }
+
+    public long length() {
+        return length;
+    }
+
+
+    // Unboxed methods
+
+    public long getLong(long index) {
+
+        checkIndex(index);
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong((int) (index & CHUNK_MASK) << 3);
+    }
+
+    public void set(long index, long value) {
+
+        checkIndex(index);
+        chunks[(int) (index >>> CHUNK_SHIFT)].putLong((int) (index & CHUNK_MASK) << 3, value);
+    }
+
+    public void fill(long value) {
+
+        for (ByteBuffer chunk : chunks) {
+            for (int i = 0, n = chunk.capacity(); i < n; i += 8) {
+                chunk.putLong(i, value);
+            }
+        }
+    }
+
+    /**
+     * Copy elements [index, index + length) into the array
+     */
+    public void get(long index, long[] dst, int dstOffset, int length) {
+
+        checkRange(index, length);
+        if (dstOffset < 0 || dstOffset > dst.length - length)
+            throw new IndexOutOfBoundsException("Offset: " + dstOffset + ", Length: " + length);
+
+        while (length > 0) {
+            int n = (int) Math.min(length, CHUNK_LENGTH - (index & CHUNK_MASK));
+            LongBuffer view = views[(int) (index >>> CHUNK_SHIFT)].duplicate();
+            view.position((int) (index & CHUNK_MASK));
+            view.get(dst, dstOffset, n);
+            index += n;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Copy array elements into [index, index + length)
+     */
+    public void put(long index, long[] src, int srcOffset, int length) {
+
+        checkRange(index, length);
+        if (srcOffset < 0 || srcOffset > src.length - length)
+            throw new IndexOutOfBoundsException("Offset: " + srcOffset + ", Length: " + length);
+
+        while (length > 0) {
+            int n = (int) Math.min(length, CHUNK_LENGTH - (index & CHUNK_MASK));
+            LongBuffer view = views[(int) (index >>> CHUNK_SHIFT)].duplicate();
+            view.position((int) (index & CHUNK_MASK));
+            view.put(src, srcOffset, n);
+            index += n;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write elements [index, index + length) to the channel, starting at the file position
+     * @return number of bytes written
+     */
+    public long transferTo(long index, long length, FileChannel target, long position) throws IOException {
+
+        checkRange(index, length);
+        long nBytes = 0;
+        while (length > 0) {
+            ByteBuffer bytes = getBytes(index, length);
+            int n = bytes.remaining();
+            while (bytes.hasRemaining()) {
+                position += target.write(bytes, position);
+            }
+
+            index += n >>> 3;
+            length -= n >>> 3;
+            nBytes += n;
+        }
+
+        return nBytes;
+    }
+
+    /**
+     * Read elements [index, index + length) from the channel, starting at the file position
+     * @return number of bytes read
+     * @throws IOException if the end of file is reached before all elements are read
+     */
+    public long transferFrom(FileChannel src, long position, long index, long length) throws IOException {
+
+        checkRange(index, length);
+        long nBytes = 0;
+        while (length > 0) {
+            ByteBuffer bytes = getBytes(index, length);
+            int n = bytes.remaining();
+            while (bytes.hasRemaining()) {
+                int nRead = src.read(bytes, position);
+                if (nRead < 0)
+                    throw new IOException("Unexpected end of file at position " + position);
+
+                position += nRead;
+            }
+
+            index += n >>> 3;
+            length -= n >>> 3;
+            nBytes += n;
+        }
+
+        return nBytes;
+    }
+
+    /**
+     * Write changes of the memory-mapped column to the storage device
+     */
+    public void force() {
+
+        for (ByteBuffer chunk : chunks) {
+            if (chunk instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+
+
+    // Generic methods
+
+    public T get(long index) {
+        return codec.box(getLong(index));
+    }
+
+    public void set(long index, T element) {
+        set(index, codec.unbox(element));
+    }
+
+    public void fill(T element) {
+        fill(codec.unbox(element));
+    }
+
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder("[");
+        long n = Math.min(length, 16);
+        for (long i = 0; i < n; ++i) {
+            if (0 != i) {
+                sb.append(", ");
+            }
+
+            sb.append(codec.toString(getLong(i)));
+        }
+
+        return sb.append(n < length ? ", ...]" : "]").toString();
+    }
+
+
+    // Byte range of elements [index, index + length), within one chunk
+    private ByteBuffer getBytes(long index, long length) {
+
+        ByteBuffer bytes = chunks[(int) (index >>> CHUNK_SHIFT)].duplicate();
+        int offset = (int) (index & CHUNK_MASK);
+        int n = (int) Math.min(length, CHUNK_LENGTH - offset);
+        bytes.limit((offset + n) << 3).position(offset << 3);
+        return bytes;
+    }
+
+    private static void checkLength(long length) {
+
+        if (length < 0)
+            throw new IllegalArgumentException("Illegal length: " + length);
+    }
+
+    private static int getChunkCount(long length) {
+        return (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    private static long getChunkLength(long length, int chunk) {
+        return Math.min(CHUNK_LENGTH, length - ((long) chunk << CHUNK_SHIFT));
+    }
+
+    private void checkIndex(long index) {
+
+        if (index >= length || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+    }
+
+    private void checkRange(long index, long length) {
+
+        if (index < 0 || length < 0 || index > this.length - length)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length + ", Column length: " + this.length);
+    }
+}
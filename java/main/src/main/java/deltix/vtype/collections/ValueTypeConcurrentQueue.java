@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractQueue;
+import java.util.NoSuchElementException;
+
+/**
+ * Base of bounded lock-free queues of Value Types with a single consumer.
+ * <p>
+ * Elements are stored in {@code long[]} ring buffer, padded at both ends to avoid false sharing with neighbouring
+ * objects. Producer and consumer positions are kept in separate cache lines. Null elements are not permitted,
+ * pollLong() and peekLong() return the null value of the Value Type if the queue is empty.
+ * Iterators are weakly consistent: they may be used from any thread concurrently with the producers and
+ * the consumer, never return an element twice, skip the elements consumed during the iteration and may
+ * or may not return the elements added after the iterator was created. Iterator.remove() is not supported.
+ *
+ * @param <T> Value Type class
+ */
+abstract class ValueTypeConcurrentQueue<T> extends AbstractQueue<T> {
+
+    // Padding in array elements, 128 bytes
+    static final int PAD = 16;
+    static final int HEAD = PAD;
+    static final int TAIL = 2 * PAD;
+    static final int COUNTERS_LENGTH = 3 * PAD;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    final ValueTypeCodec<T> codec;
+    final long nullValue;
+    final int capacity;
+    final int mask;
+    final long[] buffer;
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of 2
+     */
+    ValueTypeConcurrentQueue(Class<T> type, int capacity) {
+
+        if (capacity < 1 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+
+        this.codec = ValueTypeCodec.of(type);
+        this.nullValue = codec.getNullValue();
+        this.capacity = 1 == capacity ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new long[this.capacity + 2 * PAD];
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return codec;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Add the element, if the queue is not full
+     * @return false if the queue is full
+     */
+    public abstract boolean offer(long value);
+
+    /**
+     * Remove the head of the queue. Must be called from the consumer thread only.
+     * @return removed element or null value if the queue is empty
+     */
+    public abstract long pollLong();
+
+    /**
+     * Must be called from the consumer thread only
+     * @return head of the queue or null value if the queue is empty
+     */
+    public abstract long peekLong();
+
+    /**
+     * Move available elements into the array. Must be called from the consumer thread only.
+     * @return number of moved elements
+     */
+    public int drainTo(long[] dst, int dstOffset, int maxElements) {
+
+        int n = 0;
+        for (long value; n < maxElements && nullValue != (value = pollLong()); ++n) {
+            dst[dstOffset + n] = value;
+        }
+
+        return n;
+    }
+
+    /**
+     * @return position of the head of the queue
+     */
+    abstract long headPosition();
+
+    /**
+     * @return position after the last element claimed by the producers
+     */
+    abstract long tailPosition();
+
+    /**
+     * Read the element at the position without removing it. May be called from any thread.
+     * @return element or null value if the element is already consumed or is not yet published
+     */
+    abstract long elementAt(long position);
+
+    final int index(long sequence) {
+        return PAD + ((int) sequence & mask);
+    }
+
+    final void checkNotNull(long value) {
+
+        if (nullValue == value)
+            throw new NullPointerException();
+    }
+
+
+    // java.util.Queue implementation
+
+    @Override
+    public boolean offer(T element) {
+
+        if (null == element)
+            throw new NullPointerException();
+
+        return offer(codec.unbox(element));
+    }
+
+    @Override
+    public T poll() {
+
+        long value = pollLong();
+        return nullValue != value ? codec.box(value) : null;
+    }
+
+    @Override
+    public T peek() {
+
+        long value = peekLong();
+        return nullValue != value ? codec.box(value) : null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return 0 == size();
+    }
+
+    @Override
+    public ValueTypeIterator<T> iterator() {
+        return new Itr();
+    }
+
+
+    private final class Itr implements ValueTypeIterator<T> {
+
+        private long position;
+        private long nextValue;
+
+        Itr() {
+            position = headPosition();
+            advance();
+        }
+
+        private void advance() {
+
+            for (;;) {
+                long head = headPosition();
+                if (position < head) {
+                    position = head;
+                }
+
+                if (position >= tailPosition())
+                    break;
+
+                long value = elementAt(position);
+                if (nullValue != value) {
+                    ++position;
+                    nextValue = value;
+                    return;
+                }
+
+                // Not yet published, stop. Otherwise consumed concurrently, continue from the new head
+                if (headPosition() <= position)
+                    break;
+            }
+
+            nextValue = nullValue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nullValue != nextValue;
+        }
+
+        @Override
+        public long nextLong() {
+
+            long value = nextValue;
+            if (nullValue == value)
+                throw new NoSuchElementException();
+
+            advance();
+            return value;
+        }
+
+        @Override
+        public T next() {
+            return codec.box(nextLong());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash map with Value Type keys, backed by open addressing hash table of {@code long} keys.
+ * <p>
+ * Keys are hashed and compared with the implementation class hashCode(long) and equals(long, long), so the keys that
+ * are arithmetically equal (e.g. Decimal64 1.0 and 1.00) map to the same entry.
+ * Value Type Agent redirects get/put/containsKey/remove calls made with unboxed Value Type keys to the methods
+ * that take {@code long} key, so the transformed code does not box.
+ *
+ * @param <K> Value Type class of the keys
+ * @param <V> value class
+ */
+public class ValueTypeHashMap<K, V> extends AbstractMap<K, V> {
+
+    private final Table<K> table;
+    private Object[] values;
+    private Object[] oldValues;
+    private Set<K> keySet;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    public ValueTypeHashMap(Class<K> type) {
+        this(type, 0);
+    }
+
+    public ValueTypeHashMap(Class<K> type, int expectedSize) {
+        this.table = new Table<>(type, expectedSize);
+    }
+
+    public ValueTypeHashMap(Class<K> type, Map<? extends K, ? extends V> m) {
+
+        this(type, m.size());
+        putAll(m);
+    }
+
+
+    public ValueTypeCodec<K> getCodec() {
+        return table.codec;
+    }
+
+    @Override
+    public int size() {
+        return table.size;
+    }
+
+    public boolean containsKey(long key) {
+        return table.find(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+
+        int i = table.find(key);
+        return i >= 0 ? (V) values[i] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(long key, V defaultValue) {
+
+        int i = table.find(key);
+        return i >= 0 ? (V) values[i] : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+
+        int i = table.insert(key);
+        if (i < 0) {
+            values[~i] = value;
+            return null;
+        }
+
+        Object[] values = this.values;
+        V oldValue = (V) values[i];
+        values[i] = value;
+        return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+
+        int i = table.find(key);
+        if (i < 0)
+            return null;
+
+        V oldValue = (V) values[i];
+        table.removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * @return key iterator that can return keys without boxing
+     */
+    public ValueTypeIterator<K> keyIterator() {
+        return new KeyIterator();
+    }
+
+
+    // java.util.Map implementation
+
+    @Override
+    public boolean containsKey(Object key) {
+        return table.isKey(key) && containsKey(table.codec.unbox(key));
+    }
+
+    @Override
+    public V get(Object key) {
+        return table.isKey(key) ? get(table.codec.unbox(key)) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(table.codec.unbox(key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return table.isKey(key) ? remove(table.codec.unbox(key)) : null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+
+        Object[] values = this.values;
+        long[] keys = table.keys;
+        int capacity = keys.length - 1;
+        for (int i = 0; i < capacity; ++i) {
+            if (ValueTypeHashTable.FREE != keys[i] && (null == value ? null == values[i] : value.equals(values[i])))
+                return true;
+        }
+
+        return table.hasFreeKey && (null == value ? null == values[capacity] : value.equals(values[capacity]));
+    }
+
+    @Override
+    public void clear() {
+
+        table.clearTable();
+        java.util.Arrays.fill(values, null);
+    }
+
+    @Override
+    public Set<K> keySet() {
+
+        Set<K> keySet = this.keySet;
+        return null != keySet ? keySet : (this.keySet = new KeySet());
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+
+        Set<Map.Entry<K, V>> entrySet = this.entrySet;
+        return null != entrySet ? entrySet : (this.entrySet = new EntrySet());
+    }
+
+
+    private final class Table<T> extends ValueTypeHashTable<T> {
+
+        Table(Class<T> type, int expectedSize) {
+            super(type, expectedSize);
+        }
+
+        @Override
+        void allocate(int capacity) {
+
+            super.allocate(capacity);
+            values = new Object[capacity + 1];
+        }
+
+        @Override
+        void rehash(int capacity) {
+
+            oldValues = values;
+            super.rehash(capacity);
+            oldValues = null;
+        }
+
+        @Override
+        void rehashSlot(int from, int to) {
+            values[to] = oldValues[from];
+        }
+
+        @Override
+        void moveSlot(int from, int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        void clearSlot(int i) {
+            values[i] = null;
+        }
+    }
+
+
+    private final class KeyIterator extends ValueTypeHashTable<K>.SlotIterator implements ValueTypeIterator<K> {
+
+        KeyIterator() {
+            table.super();
+        }
+
+        @Override
+        public long nextLong() {
+            return table.keys[nextSlot()];
+        }
+
+        @Override
+        public K next() {
+            return table.codec.box(nextLong());
+        }
+    }
+
+
+    private final class EntryIterator extends ValueTypeHashTable<K>.SlotIterator implements Iterator<Map.Entry<K, V>> {
+
+        EntryIterator() {
+            table.super();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+
+            int i = nextSlot();
+            return new Entry(table.keys[i], (V) values[i]);
+        }
+    }
+
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long key;
+
+        Entry(long key, V value) {
+
+            super(table.codec.box(key), value);
+            this.key = key;
+        }
+
+        @Override
+        public V setValue(V value) {
+
+            put(key, value);
+            return super.setValue(value);
+        }
+    }
+
+
+    private final class KeySet extends AbstractSet<K> {
+
+        @Override
+        public ValueTypeIterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return table.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+
+            if (!table.isKey(o))
+                return false;
+
+            int i = table.find(table.codec.unbox(o));
+            if (i < 0)
+                return false;
+
+            table.removeAt(i);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            ValueTypeHashMap.this.clear();
+        }
+    }
+
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return table.size;
+        }
+
+        @Override
+        public void clear() {
+            ValueTypeHashMap.this.clear();
+        }
+    }
+}
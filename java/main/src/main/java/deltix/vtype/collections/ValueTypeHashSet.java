@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+
+/**
+ * Hash set of Value Types, backed by open addressing hash table of {@code long} elements.
+ * <p>
+ * Elements are hashed and compared with the implementation class hashCode(long) and equals(long, long), so the values
+ * that are arithmetically equal (e.g. Decimal64 1.0 and 1.00) are the same element.
+ * Value Type Agent redirects add/contains/remove calls made with unboxed Value Types to the methods
+ * that take {@code long}, so the transformed code does not box.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeHashSet<T> extends AbstractSet<T> {
+
+    private final Table<T> table;
+
+    public ValueTypeHashSet(Class<T> type) {
+        this(type, 0);
+    }
+
+    public ValueTypeHashSet(Class<T> type, int expectedSize) {
+        this.table = new Table<>(type, expectedSize);
+    }
+
+    public ValueTypeHashSet(Class<T> type, Collection<? extends T> c) {
+
+        this(type, c.size());
+        addAll(c);
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return table.codec;
+    }
+
+    @Override
+    public int size() {
+        return table.size;
+    }
+
+    public boolean add(long value) {
+        return table.insert(value) < 0;
+    }
+
+    public boolean contains(long value) {
+        return table.find(value) >= 0;
+    }
+
+    public boolean remove(long value) {
+
+        int i = table.find(value);
+        if (i < 0)
+            return false;
+
+        table.removeAt(i);
+        return true;
+    }
+
+    public long[] toLongArray() {
+
+        long[] dst = new long[table.size];
+        int n = 0;
+        for (ValueTypeIterator<T> i = iterator(); i.hasNext(); ) {
+            dst[n++] = i.nextLong();
+        }
+
+        return dst;
+    }
+
+
+    // java.util.Set implementation
+
+    @Override
+    public boolean add(T element) {
+        return add(table.codec.unbox(element));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return table.isKey(o) && contains(table.codec.unbox(o));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return table.isKey(o) && remove(table.codec.unbox(o));
+    }
+
+    @Override
+    public void clear() {
+        table.clearTable();
+    }
+
+    @Override
+    public ValueTypeIterator<T> iterator() {
+        return new Itr();
+    }
+
+
+    private static final class Table<T> extends ValueTypeHashTable<T> {
+
+        Table(Class<T> type, int expectedSize) {
+            super(type, expectedSize);
+        }
+    }
+
+
+    private final class Itr extends ValueTypeHashTable<T>.SlotIterator implements ValueTypeIterator<T> {
+
+        Itr() {
+            table.super();
+        }
+
+        @Override
+        public long nextLong() {
+            return table.keys[nextSlot()];
+        }
+
+        @Override
+        public T next() {
+            return table.codec.box(nextLong());
+        }
+    }
+}
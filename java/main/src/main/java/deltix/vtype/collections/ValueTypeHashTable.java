@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash table of Value Type keys with linear probing, base for ValueTypeHashMap and ValueTypeHashSet.
+ * <p>
+ * Keys are hashed and compared with the implementation class hashCode(long) and equals(long, long), so keys with
+ * different binary representations of the same value are equal. Empty slots contain a special key value.
+ * Entry with this key, if present, is kept in the additional slot at the end of the table.
+ * Removal shifts the following entries back, so the table never contains deleted entry markers.
+ */
+abstract class ValueTypeHashTable<T> {
+
+    // Marks empty slots. Compared by binary representation
+    static final long FREE = 0x7FF1_E3D5_C7B9_A18FL;
+
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    final ValueTypeCodec<T> codec;
+    long[] keys;
+    int mask;
+    int size;
+    int modCount;
+
+    boolean hasFreeKey;
+    private int resizeThreshold;
+
+    ValueTypeHashTable(Class<T> type, int expectedSize) {
+
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+
+        this.codec = ValueTypeCodec.of(type).requireEquals();
+        allocate(capacityFor(expectedSize));
+    }
+
+
+    private static int capacityFor(int expectedSize) {
+
+        long minCapacity = Math.max(MIN_CAPACITY, (long) expectedSize * 3 / 2 + 1);
+        if (minCapacity > MAX_CAPACITY)
+            return MAX_CAPACITY;
+
+        return Integer.highestOneBit((int) minCapacity - 1) << 1;
+    }
+
+
+    /**
+     * Allocate key array (and value array in subclasses), filled with FREE keys. Capacity is a power of 2,
+     * the arrays contain 1 additional slot for the FREE key
+     */
+    void allocate(int capacity) {
+
+        long[] keys = new long[capacity + 1];
+        java.util.Arrays.fill(keys, FREE);
+        this.keys = keys;
+        this.mask = capacity - 1;
+        this.resizeThreshold = capacity / 3 * 2;
+    }
+
+
+    final int slot(long key) {
+
+        int h = codec.hashCode(key) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+
+    /**
+     * @return slot index of the key or -1, if not found
+     */
+    final int find(long key) {
+
+        if (FREE == key)
+            return hasFreeKey ? mask + 1 : -1;
+
+        long[] keys = this.keys;
+        ValueTypeCodec<T> codec = this.codec;
+        int mask = this.mask;
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (FREE == k)
+                return -1;
+
+            if (codec.equals(k, key))
+                return i;
+        }
+    }
+
+
+    /**
+     * Find the slot of the key or insert the key into the table
+     * @return slot index of existing key or ~index of the inserted key
+     */
+    final int insert(long key) {
+
+        int i = find(key);
+        if (i >= 0)
+            return i;
+
+        ++modCount;
+        if (size >= resizeThreshold && mask + 1 < MAX_CAPACITY) {
+            rehash((mask + 1) << 1);
+        }
+
+        ++size;
+        if (FREE == key) {
+            hasFreeKey = true;
+            return ~(mask + 1);
+        }
+
+        long[] keys = this.keys;
+        int mask = this.mask;
+        for (i = slot(key); FREE != keys[i]; i = (i + 1) & mask) {
+        }
+
+        keys[i] = key;
+        return ~i;
+    }
+
+
+    /**
+     * Remove the entry at the specified slot, shifting back the entries that follow it in the same cluster
+     */
+    void removeAt(int i) {
+
+        ++modCount;
+        --size;
+        if (i > mask) {
+            hasFreeKey = false;
+            clearSlot(i);
+            return;
+        }
+
+        long[] keys = this.keys;
+        int mask = this.mask;
+        for (int j = i;;) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (FREE == k)
+                break;
+
+            // Entry at j can be moved to i, if its home slot is not in the cyclic range (i, j]
+            int home = slot(k);
+            if (i <= j ? home <= i || home > j : home <= i && home > j) {
+                keys[i] = k;
+                moveSlot(j, i);
+                i = j;
+            }
+        }
+
+        keys[i] = FREE;
+        clearSlot(i);
+    }
+
+
+    /**
+     * Move the value associated with the slot, if any
+     */
+    void moveSlot(int from, int to) {
+    }
+
+    /**
+     * Clear the value associated with the slot, if any
+     */
+    void clearSlot(int i) {
+    }
+
+
+    /**
+     * Reinsert all entries into a new table of the specified capacity
+     */
+    void rehash(int capacity) {
+
+        long[] oldKeys = this.keys;
+        int oldCapacity = oldKeys.length - 1;
+        allocate(capacity);
+        long[] keys = this.keys;
+        int mask = this.mask;
+        for (int j = 0; j < oldCapacity; ++j) {
+            long k = oldKeys[j];
+            if (FREE != k) {
+                int i = slot(k);
+                while (FREE != keys[i]) {
+                    i = (i + 1) & mask;
+                }
+
+                keys[i] = k;
+                rehashSlot(j, i);
+            }
+        }
+
+        rehashSlot(oldCapacity, capacity);
+    }
+
+
+    /**
+     * Copy the value associated with the slot of the old table into the new table during rehash
+     */
+    void rehashSlot(int from, int to) {
+    }
+
+
+    final boolean isKey(Object o) {
+        return null == o || codec.getType() == o.getClass();
+    }
+
+
+    void clearTable() {
+
+        ++modCount;
+        java.util.Arrays.fill(keys, FREE);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+
+    /**
+     * Iterates over occupied slots. Iteration starts after an empty slot, so a cluster of entries never wraps around
+     * the iteration start and entries moved back by removal are always the ones that were not visited yet.
+     * The FREE key slot is visited last.
+     */
+    abstract class SlotIterator {
+
+        private final int start;
+        private int position;
+        private int next;
+        int current = -1;
+        private int expectedModCount = modCount;
+
+        SlotIterator() {
+
+            long[] keys = ValueTypeHashTable.this.keys;
+            int i = 0;
+            while (FREE != keys[i]) {
+                ++i;
+            }
+
+            start = i;
+            next = findNext();
+        }
+
+        private int findNext() {
+
+            long[] keys = ValueTypeHashTable.this.keys;
+            int capacity = keys.length - 1;
+            while (position < capacity) {
+                int i = (start + ++position) & (capacity - 1);
+                if (FREE != keys[i])
+                    return i;
+            }
+
+            if (position == capacity) {
+                ++position;
+                if (hasFreeKey)
+                    return capacity;
+            }
+
+            return -1;
+        }
+
+        public final boolean hasNext() {
+            return next >= 0;
+        }
+
+        final int nextSlot() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            int i = next;
+            if (i < 0)
+                throw new NoSuchElementException();
+
+            next = findNext();
+            return current = i;
+        }
+
+        public final void remove() {
+
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            current = -1;
+            removeAt(i);
+            if (i < keys.length - 1 && FREE != keys[i]) {
+                // Not yet visited entry was moved into the removed slot
+                next = i;
+                position = (i - start) & mask;
+            }
+
+            expectedModCount = modCount;
+        }
+    }
+}
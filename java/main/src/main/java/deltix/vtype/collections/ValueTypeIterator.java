@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over a Value Type collection that can return elements without boxing
+ *
+ * @param <T> Value Type class
+ */
+public interface ValueTypeIterator<T> extends Iterator<T> {
+
+    /**
+     * @return next element as {@code long}
+     */
+    long nextLong();
+}
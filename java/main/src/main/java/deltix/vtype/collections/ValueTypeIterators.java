@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.Iterator;
+
+/**
+ * Helper methods called by the code transformed by Value Type Agent
+ */
+public final class ValueTypeIterators {
+
+    private ValueTypeIterators() {
+    }
+
+    /**
+     * Replaces {@code (ValueType) iterator.next()} in transformed code
+     * @param iterator any iterator over Value Type elements
+     * @param type Value Type class
+     * @return next element as {@code long}
+     */
+    public static long nextLong(Iterator<?> iterator, Class<?> type) {
+
+        if (iterator instanceof ValueTypeIterator)
+            return ((ValueTypeIterator<?>) iterator).nextLong();
+
+        return ValueTypeCodec.of(type).unbox(iterator.next());
+    }
+}
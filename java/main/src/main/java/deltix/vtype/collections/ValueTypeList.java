@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Resizable list of Value Types, backed by {@code long[]} array.
+ * <p>
+ * Generic {@link java.util.List} methods box and unbox elements using {@link ValueTypeCodec}.
+ * Value Type Agent redirects calls made with unboxed Value Types to the methods that take and return {@code long}
+ * (add(long), getLong(int), setLong(int, long), etc.), so the transformed code does not box.
+ * Elements are compared with the implementation class equals(long, long).
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeList<T> extends AbstractList<T> implements RandomAccess {
+
+    private static final long[] EMPTY = new long[0];
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private final ValueTypeCodec<T> codec;
+    private long[] values;
+    private int size;
+
+    public ValueTypeList(Class<T> type) {
+
+        this.codec = ValueTypeCodec.of(type);
+        this.values = EMPTY;
+    }
+
+    public ValueTypeList(Class<T> type, int initialCapacity) {
+
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+
+        this.codec = ValueTypeCodec.of(type);
+        this.values = 0 == initialCapacity ? EMPTY : new long[initialCapacity];
+    }
+
+    public ValueTypeList(Class<T> type, Collection<? extends T> c) {
+
+        this(type, c.size());
+        addAll(c);
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public void ensureCapacity(int minCapacity) {
+
+        long[] values = this.values;
+        if (minCapacity > values.length) {
+            int newCapacity = Math.max(Math.max(minCapacity, DEFAULT_CAPACITY), values.length + (values.length >> 1));
+            this.values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    public void trimToSize() {
+
+        ++modCount;
+        if (size < values.length) {
+            values = 0 == size ? EMPTY : Arrays.copyOf(values, size);
+        }
+    }
+
+    private void checkIndex(int index) {
+
+        if (index >= size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void checkPositionIndex(int index) {
+
+        if (index > size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+
+    // Unboxed methods
+
+    public long getLong(int index) {
+
+        checkIndex(index);
+        return values[index];
+    }
+
+    public long setLong(int index, long value) {
+
+        checkIndex(index);
+        long[] values = this.values;
+        long old = values[index];
+        values[index] = value;
+        return old;
+    }
+
+    public T set(int index, long value) {
+        return codec.box(setLong(index, value));
+    }
+
+    public boolean add(long value) {
+
+        ++modCount;
+        int size = this.size;
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+
+        values[size] = value;
+        this.size = size + 1;
+        return true;
+    }
+
+    public void add(int index, long value) {
+
+        checkPositionIndex(index);
+        ++modCount;
+        int size = this.size;
+        if (size == values.length) {
+            ensureCapacity(size + 1);
+        }
+
+        long[] values = this.values;
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        this.size = size + 1;
+    }
+
+    public long removeLong(int index) {
+
+        checkIndex(index);
+        ++modCount;
+        long[] values = this.values;
+        long old = values[index];
+        int nMoved = size - index - 1;
+        if (nMoved > 0) {
+            System.arraycopy(values, index + 1, values, index, nMoved);
+        }
+
+        --size;
+        return old;
+    }
+
+    public boolean remove(long value) {
+
+        int i = indexOf(value);
+        if (i < 0)
+            return false;
+
+        removeLong(i);
+        return true;
+    }
+
+    public int indexOf(long value) {
+
+        long[] values = this.values;
+        ValueTypeCodec<T> codec = this.codec;
+        for (int i = 0, n = size; i < n; ++i) {
+            if (codec.equals(values[i], value))
+                return i;
+        }
+
+        return -1;
+    }
+
+    public int lastIndexOf(long value) {
+
+        long[] values = this.values;
+        ValueTypeCodec<T> codec = this.codec;
+        for (int i = size - 1; i >= 0; --i) {
+            if (codec.equals(values[i], value))
+                return i;
+        }
+
+        return -1;
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * @return copy of the list contents
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Copy the list contents into an array
+     * @return number of copied elements
+     */
+    public int toLongArray(long[] dst, int dstOffset) {
+
+        int size = this.size;
+        System.arraycopy(values, 0, dst, dstOffset, size);
+        return size;
+    }
+
+
+    // java.util.List implementation
+
+    @Override
+    public T get(int index) {
+        return codec.box(getLong(index));
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return codec.box(setLong(index, codec.unbox(element)));
+    }
+
+    @Override
+    public boolean add(T element) {
+        return add(codec.unbox(element));
+    }
+
+    @Override
+    public void add(int index, T element) {
+        add(index, codec.unbox(element));
+    }
+
+    @Override
+    public T remove(int index) {
+        return codec.box(removeLong(index));
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return isElement(o) ? indexOf(codec.unbox(o)) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return isElement(o) ? lastIndexOf(codec.unbox(o)) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public void clear() {
+
+        ++modCount;
+        size = 0;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+
+        ++modCount;
+        long[] values = this.values;
+        System.arraycopy(values, toIndex, values, fromIndex, size - toIndex);
+        size -= toIndex - fromIndex;
+    }
+
+    @Override
+    public ValueTypeIterator<T> iterator() {
+        return new Itr();
+    }
+
+    private boolean isElement(Object o) {
+        return null == o || codec.getType() == o.getClass();
+    }
+
+
+    private class Itr implements ValueTypeIterator<T> {
+
+        private int cursor;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return cursor != size;
+        }
+
+        @Override
+        public long nextLong() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            int i = cursor;
+            if (i >= size)
+                throw new NoSuchElementException();
+
+            cursor = i + 1;
+            return values[lastReturned = i];
+        }
+
+        @Override
+        public T next() {
+            return codec.box(nextLong());
+        }
+
+        @Override
+        public void remove() {
+
+            if (lastReturned < 0)
+                throw new IllegalStateException();
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            removeLong(lastReturned);
+            cursor = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
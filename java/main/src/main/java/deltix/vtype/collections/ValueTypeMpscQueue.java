@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multiple producer, single consumer queue of Value Types.
+ * <p>
+ * Value Type Agent redirects offer calls made with unboxed Value Types to offer(long) and poll/peek calls,
+ * that are immediately cast to the Value Type, to pollLong()/peekLong(), so the transformed code does not box.
+ * Each buffer slot has a sequence number. Producers claim slots by incrementing the tail position with CAS
+ * and publish the element by advancing the slot sequence, so the consumer never sees a claimed, but not yet
+ * written slot. Such slot is seen as empty and blocks the following elements until it is published.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeMpscQueue<T> extends ValueTypeConcurrentQueue<T> {
+
+    // Consumer and producer positions
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS_LENGTH);
+    // Slot i is free for the producer at position p when sequence == p, contains the element when sequence == p + 1
+    private final AtomicLongArray sequences;
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of 2
+     */
+    public ValueTypeMpscQueue(Class<T> type, int capacity) {
+
+        super(type, capacity);
+        sequences = new AtomicLongArray(buffer.length);
+        for (int i = 0; i < this.capacity; ++i) {
+            sequences.set(index(i), i);
+        }
+    }
+
+
+    @Override
+    public boolean offer(long value) {
+
+        checkNotNull(value);
+        AtomicLongArray counters = this.counters;
+        AtomicLongArray sequences = this.sequences;
+        for (;;) {
+            long tail = counters.get(TAIL);
+            int i = index(tail);
+            long delta = sequences.get(i) - tail;
+            if (0 == delta) {
+                if (counters.compareAndSet(TAIL, tail, tail + 1)) {
+                    buffer[i] = value;
+                    sequences.lazySet(i, tail + 1);
+                    return true;
+                }
+            } else if (delta < 0) {
+                // The slot still contains the element from the previous round
+                return false;
+            }
+            // Otherwise another producer claimed this position, retry
+        }
+    }
+
+    @Override
+    public long pollLong() {
+
+        long head = counters.get(HEAD);
+        int i = index(head);
+        if (sequences.get(i) != head + 1)
+            return nullValue;
+
+        long value = buffer[i];
+        sequences.lazySet(i, head + capacity);
+        counters.lazySet(HEAD, head + 1);
+        return value;
+    }
+
+    @Override
+    public long peekLong() {
+
+        long head = counters.get(HEAD);
+        int i = index(head);
+        return sequences.get(i) == head + 1 ? buffer[i] : nullValue;
+    }
+
+    @Override
+    long headPosition() {
+        return counters.get(HEAD);
+    }
+
+    @Override
+    long tailPosition() {
+        return counters.get(TAIL);
+    }
+
+    @Override
+    long elementAt(long position) {
+
+        int i = index(position);
+        if (sequences.get(i) != position + 1)
+            return nullValue;
+
+        long value = buffer[i];
+        // The slot may be consumed and claimed again by a producer while it is read
+        return sequences.get(i) == position + 1 ? value : nullValue;
+    }
+
+    @Override
+    public int size() {
+
+        long head = counters.get(HEAD);
+        return (int) Math.max(0, Math.min(capacity, counters.get(TAIL) - head));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.collections;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@code java.util.Optional} methods for Value Types, represented as {@code long}. The null value of the Value Type
+ * class stands for the empty Optional.
+ * <p>
+ * Value Type Agent replaces {@code Optional<VT>} values, that don't leave the method, with the unboxed Value Type and
+ * the calls of Optional.of, ofNullable, empty, isPresent, isEmpty, get and orElse with these methods.
+ */
+public final class ValueTypeOptional {
+
+    private ValueTypeOptional() {
+    }
+
+
+    public static long of(long value, long nullValue) {
+
+        if (nullValue == value)
+            throw new NullPointerException();
+
+        return value;
+    }
+
+    public static long ofNullable(long value) {
+        return value;
+    }
+
+    public static long empty(long nullValue) {
+        return nullValue;
+    }
+
+    public static boolean isPresent(long value, long nullValue) {
+        return nullValue != value;
+    }
+
+    public static boolean isEmpty(long value, long nullValue) {
+        return nullValue == value;
+    }
+
+    public static long get(long value, long nullValue) {
+
+        if (nullValue == value)
+            throw new NoSuchElementException("No value present");
+
+        return value;
+    }
+
+    public static long orElse(long value, long other, long nullValue) {
+        return nullValue != value ? value : other;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * Unbounded priority queue of Value Types, 4-ary heap backed by {@code long[]} array.
+ * <p>
+ * Elements are ordered with the implementation class compareTo(long, long), in natural or reversed order.
+ * Value Type Agent redirects offer/add calls made with unboxed Value Types to the methods that take {@code long}
+ * and poll/peek calls, that are immediately cast to the Value Type, to pollLong()/peekLong(), so the transformed
+ * code does not box. pollLong() and peekLong() return the null value of the Value Type if the queue is empty.
+ * Null elements are not permitted. The iterator does not return the elements in any particular order.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypePriorityQueue<T> extends AbstractQueue<T> {
+
+    private static final long[] EMPTY = new long[0];
+    private static final int DEFAULT_CAPACITY = 11;
+
+    private final ValueTypeCodec<T> codec;
+    private final boolean reversed;
+    private long[] heap;
+    private int size;
+    private int modCount;
+
+    public ValueTypePriorityQueue(Class<T> type) {
+        this(type, DEFAULT_CAPACITY, false);
+    }
+
+    public ValueTypePriorityQueue(Class<T> type, boolean reversed) {
+        this(type, DEFAULT_CAPACITY, reversed);
+    }
+
+    public ValueTypePriorityQueue(Class<T> type, int initialCapacity, boolean reversed) {
+
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+
+        this.codec = ValueTypeCodec.of(type).requireCompareTo();
+        this.reversed = reversed;
+        this.heap = 0 == initialCapacity ? EMPTY : new long[initialCapacity];
+    }
+
+    public ValueTypePriorityQueue(Class<T> type, Collection<? extends T> c) {
+
+        this(type, c.size(), false);
+        addAll(c);
+    }
+
+
+    public ValueTypeCodec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return true if the head of the queue is the greatest element
+     */
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean add(long value) {
+        return offer(value);
+    }
+
+    public boolean offer(long value) {
+
+        if (codec.isNull(value))
+            throw new NullPointerException();
+
+        ++modCount;
+        int n = size;
+        if (n == heap.length) {
+            heap = Arrays.copyOf(heap, Math.max(DEFAULT_CAPACITY, n + (n >> 1)));
+        }
+
+        size = n + 1;
+        siftUp(n, value);
+        return true;
+    }
+
+    /**
+     * @return head of the queue or null value if the queue is empty
+     */
+    public long peekLong() {
+        return 0 != size ? heap[0] : codec.getNullValue();
+    }
+
+    /**
+     * Remove the head of the queue
+     * @return removed element or null value if the queue is empty
+     */
+    public long pollLong() {
+
+        int n = size;
+        if (0 == n)
+            return codec.getNullValue();
+
+        ++modCount;
+        long[] heap = this.heap;
+        long head = heap[0];
+        size = --n;
+        if (0 != n) {
+            siftDown(0, heap[n]);
+        }
+
+        return head;
+    }
+
+    /**
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public long elementLong() {
+
+        if (0 == size)
+            throw new NoSuchElementException();
+
+        return heap[0];
+    }
+
+    /**
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public long removeLong() {
+
+        if (0 == size)
+            throw new NoSuchElementException();
+
+        return pollLong();
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Remove a single element equal to the specified value
+     */
+    public boolean remove(long value) {
+
+        int i = indexOf(value);
+        if (i < 0)
+            return false;
+
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * @return elements in heap order
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(heap, size);
+    }
+
+
+    // java.util.Queue implementation
+
+    @Override
+    public boolean add(T element) {
+        return offer(element);
+    }
+
+    @Override
+    public boolean offer(T element) {
+
+        if (null == element)
+            throw new NullPointerException();
+
+        return offer(codec.unbox(element));
+    }
+
+    @Override
+    public T peek() {
+        return 0 != size ? codec.box(heap[0]) : null;
+    }
+
+    @Override
+    public T poll() {
+        return 0 != size ? codec.box(pollLong()) : null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return isElement(o) && contains(codec.unbox(o));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return isElement(o) && remove(codec.unbox(o));
+    }
+
+    @Override
+    public void clear() {
+
+        ++modCount;
+        size = 0;
+    }
+
+    @Override
+    public ValueTypeIterator<T> iterator() {
+        return new Itr();
+    }
+
+
+    private boolean isElement(Object o) {
+        return null != o && codec.getType() == o.getClass();
+    }
+
+    private int compare(long a, long b) {
+        return reversed ? codec.compare(b, a) : codec.compare(a, b);
+    }
+
+    private int indexOf(long value) {
+
+        long[] heap = this.heap;
+        ValueTypeCodec<T> codec = this.codec;
+        for (int i = 0, n = size; i < n; ++i) {
+            if (codec.equals(heap[i], value))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private void siftUp(int i, long value) {
+
+        long[] heap = this.heap;
+        while (i > 0) {
+            int parent = (i - 1) >>> 2;
+            long p = heap[parent];
+            if (compare(value, p) >= 0)
+                break;
+
+            heap[i] = p;
+            i = parent;
+        }
+
+        heap[i] = value;
+    }
+
+    private void siftDown(int i, long value) {
+
+        long[] heap = this.heap;
+        int n = size;
+        for (int child; (child = (i << 2) + 1) < n; ) {
+            int last = Math.min(child + 4, n);
+            int min = child;
+            long minValue = heap[child];
+            for (int j = child + 1; j < last; ++j) {
+                long x = heap[j];
+                if (compare(x, minValue) < 0) {
+                    min = j;
+                    minValue = x;
+                }
+            }
+
+            if (compare(value, minValue) <= 0)
+                break;
+
+            heap[i] = minValue;
+            i = min;
+        }
+
+        heap[i] = value;
+    }
+
+    /**
+     * Remove the element at the specified index
+     * @return true if the last element was moved to a position before the index
+     */
+    private boolean removeAt(int i) {
+
+        ++modCount;
+        long[] heap = this.heap;
+        int n = --size;
+        if (n == i)
+            return false;
+
+        long moved = heap[n];
+        siftDown(i, moved);
+        if (heap[i] == moved) {
+            siftUp(i, moved);
+            return heap[i] != moved;
+        }
+
+        return false;
+    }
+
+
+    private class Itr implements ValueTypeIterator<T> {
+
+        private int cursor;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        // Elements moved to already visited positions by iterator removals
+        private long[] forgotten;
+        private int nForgotten;
+        private int forgottenCursor;
+        private boolean lastWasForgotten;
+        private long lastForgotten;
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size || forgottenCursor < nForgotten;
+        }
+
+        @Override
+        public long nextLong() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            if (cursor < size) {
+                lastWasForgotten = false;
+                return heap[lastReturned = cursor++];
+            }
+
+            if (forgottenCursor < nForgotten) {
+                lastReturned = -1;
+                lastWasForgotten = true;
+                return lastForgotten = forgotten[forgottenCursor++];
+            }
+
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public T next() {
+            return codec.box(nextLong());
+        }
+
+        @Override
+        public void remove() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            if (lastReturned >= 0) {
+                long moved = heap[size - 1];
+                if (removeAt(lastReturned)) {
+                    if (null == forgotten) {
+                        forgotten = new long[4];
+                    } else if (nForgotten == forgotten.length) {
+                        forgotten = Arrays.copyOf(forgotten, nForgotten * 2);
+                    }
+
+                    forgotten[nForgotten++] = moved;
+                } else {
+                    --cursor;
+                }
+
+                lastReturned = -1;
+            } else if (lastWasForgotten) {
+                long[] heap = ValueTypePriorityQueue.this.heap;
+                for (int i = 0, n = size; i < n; ++i) {
+                    if (heap[i] == lastForgotten) {
+                        removeAt(i);
+                        break;
+                    }
+                }
+
+                lastWasForgotten = false;
+            } else {
+                throw new IllegalStateException();
+            }
+
+            expectedModCount = modCount;
+        }
+    }
+}
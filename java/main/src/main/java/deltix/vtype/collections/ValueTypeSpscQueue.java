@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free single producer, single consumer queue of Value Types.
+ * <p>
+ * Value Type Agent redirects offer calls made with unboxed Value Types to offer(long) and poll/peek calls,
+ * that are immediately cast to the Value Type, to pollLong()/peekLong(), so the transformed code does not box.
+ * Each side caches the last seen position of the other side and reads it again only when the queue looks
+ * full or empty.
+ *
+ * @param <T> Value Type class
+ */
+public class ValueTypeSpscQueue<T> extends ValueTypeConcurrentQueue<T> {
+
+    // Consumer and producer positions
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS_LENGTH);
+    // Producer's copy of the head position and consumer's copy of the tail position
+    private final long[] cache = new long[COUNTERS_LENGTH];
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of 2
+     */
+    public ValueTypeSpscQueue(Class<T> type, int capacity) {
+        super(type, capacity);
+    }
+
+
+    @Override
+    public boolean offer(long value) {
+
+        checkNotNull(value);
+        long tail = counters.get(TAIL);
+        if (tail - cache[HEAD] >= capacity) {
+            long head = counters.get(HEAD);
+            cache[HEAD] = head;
+            if (tail - head >= capacity)
+                return false;
+        }
+
+        buffer[index(tail)] = value;
+        counters.lazySet(TAIL, tail + 1);
+        return true;
+    }
+
+    @Override
+    public long pollLong() {
+
+        long head = counters.get(HEAD);
+        if (head >= cache[TAIL]) {
+            long tail = counters.get(TAIL);
+            cache[TAIL] = tail;
+            if (head >= tail)
+                return nullValue;
+        }
+
+        long value = buffer[index(head)];
+        counters.lazySet(HEAD, head + 1);
+        return value;
+    }
+
+    @Override
+    public long peekLong() {
+
+        long head = counters.get(HEAD);
+        if (head >= cache[TAIL]) {
+            long tail = counters.get(TAIL);
+            cache[TAIL] = tail;
+            if (head >= tail)
+                return nullValue;
+        }
+
+        return buffer[index(head)];
+    }
+
+    @Override
+    long headPosition() {
+        return counters.get(HEAD);
+    }
+
+    @Override
+    long tailPosition() {
+        return counters.get(TAIL);
+    }
+
+    @Override
+    long elementAt(long position) {
+
+        long value = buffer[index(position)];
+        // The slot can only be overwritten by the producer after the consumer moved past it
+        return counters.get(HEAD) <= position ? value : nullValue;
+    }
+
+    @Override
+    public int size() {
+
+        long head = counters.get(HEAD);
+        return (int) Math.max(0, Math.min(capacity, counters.get(TAIL) - head));
+    }
+}
@@ -0,0 +1,1395 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Sorted map with Value Type keys, B+ tree with keys stored in {@code long[]} pages.
+ * <p>
+ * Keys are ordered and compared with the implementation class compareTo(long, long), so the order matches
+ * {@code TreeMap<ValueType, V>} with natural ordering. Null keys are not permitted.
+ * Value Type Agent redirects calls made with unboxed Value Type keys to the methods that take {@code long} key.
+ * Navigation methods with "Long" suffix (floorKeyLong(long), firstKeyLong(), pollFirstKeyLong(), etc.)
+ * return unboxed keys, the methods that return a key that may be missing return the null value of the Value Type.
+ * <p>
+ * Leaf pages are linked, so iteration does not search the tree. Pages are split when full. Pages that become empty
+ * are removed from the tree, but partially filled pages are not merged.
+ *
+ * @param <K> Value Type class of the keys
+ * @param <V> value class
+ */
+public class ValueTypeTreeMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+    static final int PAGE_SIZE = 64;
+
+    private final ValueTypeCodec<K> codec;
+    private final long nullKey;
+    private Node root;
+    private Leaf head;
+    private Leaf tail;
+    private int size;
+    private int modCount;
+
+    private KeySet<K> navigableKeySet;
+    private Set<Map.Entry<K, V>> entrySet;
+    private NavigableMap<K, V> descendingMap;
+
+    public ValueTypeTreeMap(Class<K> type) {
+
+        this.codec = ValueTypeCodec.of(type).requireCompareTo();
+        this.nullKey = codec.getNullValue();
+        this.root = this.head = this.tail = new Leaf();
+    }
+
+    public ValueTypeTreeMap(Class<K> type, Map<? extends K, ? extends V> m) {
+
+        this(type);
+        putAll(m);
+    }
+
+
+    public ValueTypeCodec<K> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+
+        Leaf leaf = leafFor(key);
+        return search(leaf, key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+
+        Leaf leaf = leafFor(key);
+        int i = search(leaf, key);
+        return i >= 0 ? (V) leaf.values[i] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+
+        if (codec.isNull(key))
+            throw new NullPointerException("Null key");
+
+        Leaf leaf = leafFor(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            V oldValue = (V) leaf.values[i];
+            leaf.values[i] = value;
+            return oldValue;
+        }
+
+        i = ~i;
+        if (PAGE_SIZE == leaf.n) {
+            Leaf right = splitLeaf(leaf);
+            // Key that belongs between the halves stays in the left page, it is less than the new separator
+            if (i > leaf.n) {
+                i -= leaf.n;
+                leaf = right;
+            }
+        }
+
+        int n = leaf.n;
+        System.arraycopy(leaf.keys, i, leaf.keys, i + 1, n - i);
+        System.arraycopy(leaf.values, i, leaf.values, i + 1, n - i);
+        leaf.keys[i] = key;
+        leaf.values[i] = value;
+        leaf.n = n + 1;
+        ++size;
+        ++modCount;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+
+        Leaf leaf = leafFor(key);
+        int i = search(leaf, key);
+        if (i < 0)
+            return null;
+
+        V oldValue = (V) leaf.values[i];
+        removeAt(leaf, i);
+        return oldValue;
+    }
+
+    /**
+     * @return the lowest key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long firstKeyLong() {
+        return existing(first());
+    }
+
+    /**
+     * @return the highest key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long lastKeyLong() {
+        return existing(last());
+    }
+
+    /**
+     * @return the greatest key less than or equal to the given key, or null value if there is no such key
+     */
+    public long floorKeyLong(long key) {
+        return floor(key, true);
+    }
+
+    /**
+     * @return the least key greater than or equal to the given key, or null value if there is no such key
+     */
+    public long ceilingKeyLong(long key) {
+        return ceiling(key, true);
+    }
+
+    /**
+     * @return the greatest key strictly less than the given key, or null value if there is no such key
+     */
+    public long lowerKeyLong(long key) {
+        return floor(key, false);
+    }
+
+    /**
+     * @return the least key strictly greater than the given key, or null value if there is no such key
+     */
+    public long higherKeyLong(long key) {
+        return ceiling(key, false);
+    }
+
+    /**
+     * Remove the entry with the lowest key
+     * @return removed key or null value if the map is empty
+     */
+    public long pollFirstKeyLong() {
+
+        if (0 == size)
+            return nullKey;
+
+        Leaf leaf = head;
+        long key = leaf.keys[0];
+        removeAt(leaf, 0);
+        return key;
+    }
+
+    /**
+     * Remove the entry with the highest key
+     * @return removed key or null value if the map is empty
+     */
+    public long pollLastKeyLong() {
+
+        if (0 == size)
+            return nullKey;
+
+        Leaf leaf = tail;
+        long key = leaf.keys[leaf.n - 1];
+        removeAt(leaf, leaf.n - 1);
+        return key;
+    }
+
+    /**
+     * Remove the entry with the lowest key
+     * @return removed key or null if the map is empty
+     */
+    public K pollFirstKey() {
+        return box(pollFirstKeyLong());
+    }
+
+    /**
+     * Remove the entry with the highest key
+     * @return removed key or null if the map is empty
+     */
+    public K pollLastKey() {
+        return box(pollLastKeyLong());
+    }
+
+    public Map.Entry<K, V> floorEntry(long key) {
+        return exportEntry(floor(key, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(long key) {
+        return exportEntry(ceiling(key, true));
+    }
+
+    public Map.Entry<K, V> lowerEntry(long key) {
+        return exportEntry(floor(key, false));
+    }
+
+    public Map.Entry<K, V> higherEntry(long key) {
+        return exportEntry(ceiling(key, false));
+    }
+
+    /**
+     * @return key iterator in ascending order, that can return keys without boxing
+     */
+    public ValueTypeIterator<K> keyIterator() {
+        return new KeyIterator(first(), false, false, 0, false);
+    }
+
+
+    // java.util.NavigableMap implementation
+
+    @Override
+    public boolean containsKey(Object key) {
+        return containsKey(unboxKey(key));
+    }
+
+    @Override
+    public V get(Object key) {
+        return get(unboxKey(key));
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(unboxKey(key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return remove(unboxKey(key));
+    }
+
+    @Override
+    public void clear() {
+
+        ++modCount;
+        size = 0;
+        root = head = tail = new Leaf();
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public K firstKey() {
+        return codec.box(firstKeyLong());
+    }
+
+    @Override
+    public K lastKey() {
+        return codec.box(lastKeyLong());
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return box(lowerKeyLong(unboxKey(key)));
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return box(floorKeyLong(unboxKey(key)));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return box(ceilingKeyLong(unboxKey(key)));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return box(higherKeyLong(unboxKey(key)));
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return lowerEntry(unboxKey(key));
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return floorEntry(unboxKey(key));
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return ceilingEntry(unboxKey(key));
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return higherEntry(unboxKey(key));
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return exportEntry(first());
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return exportEntry(last());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        return pollEntry(first());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        return pollEntry(last());
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+
+        KeySet<K> keySet = this.navigableKeySet;
+        return null != keySet ? keySet : (this.navigableKeySet = new KeySet<>(this));
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+
+        Set<Map.Entry<K, V>> entrySet = this.entrySet;
+        return null != entrySet ? entrySet : (this.entrySet = new EntrySet(null));
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+
+        NavigableMap<K, V> descendingMap = this.descendingMap;
+        return null != descendingMap ? descendingMap
+                : (this.descendingMap = new SubMap(true, 0, false, true, 0, false, true));
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+
+        long lo = unboxKey(fromKey);
+        long hi = unboxKey(toKey);
+        if (codec.compare(lo, hi) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+
+        return new SubMap(false, lo, fromInclusive, false, hi, toInclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new SubMap(true, 0, false, false, unboxKey(toKey), inclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap(false, unboxKey(fromKey), inclusive, true, 0, false, false);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+
+    // B+ tree
+
+    private abstract static class Node {
+
+        final long[] keys = new long[PAGE_SIZE];
+        Inner parent;
+        int n;
+    }
+
+    /**
+     * Inner page. Contains n separator keys and n + 1 children, keys of children[i + 1] are &gt;= keys[i]
+     */
+    private static final class Inner extends Node {
+
+        final Node[] children = new Node[PAGE_SIZE + 1];
+    }
+
+    private static final class Leaf extends Node {
+
+        final Object[] values = new Object[PAGE_SIZE];
+        Leaf prev;
+        Leaf next;
+    }
+
+
+    /**
+     * @return index of the key or ~(insertion point), if not found
+     */
+    private int search(Node node, long key) {
+
+        ValueTypeCodec<K> codec = this.codec;
+        long[] keys = node.keys;
+        int lo = 0;
+        int hi = node.n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = codec.compare(keys[mid], key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return ~lo;
+    }
+
+    private Leaf leafFor(long key) {
+
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int i = search(inner, key);
+            node = inner.children[i >= 0 ? i + 1 : ~i];
+        }
+
+        return (Leaf) node;
+    }
+
+    private static int indexOfChild(Inner parent, Node child) {
+
+        Node[] children = parent.children;
+        for (int i = 0;; ++i) {
+            if (children[i] == child)
+                return i;
+        }
+    }
+
+    /**
+     * Move the upper half of a full leaf into a new leaf, that follows it
+     * @return new leaf
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+
+        Leaf right = new Leaf();
+        int half = PAGE_SIZE / 2;
+        int n = leaf.n - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, n);
+        System.arraycopy(leaf.values, half, right.values, 0, n);
+        Arrays.fill(leaf.values, half, leaf.n, null);
+        leaf.n = half;
+        right.n = n;
+
+        right.prev = leaf;
+        right.next = leaf.next;
+        if (null != leaf.next) {
+            leaf.next.prev = right;
+        } else {
+            tail = right;
+        }
+
+        leaf.next = right;
+        insertIntoParent(leaf, right.keys[0], right);
+        return right;
+    }
+
+    /**
+     * Insert a new node, that follows the specified node, into its parent, splitting the parent if it is full
+     */
+    private void insertIntoParent(Node left, long separator, Node right) {
+
+        Inner parent = left.parent;
+        if (null == parent) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = left;
+            newRoot.children[1] = right;
+            newRoot.n = 1;
+            left.parent = right.parent = newRoot;
+            root = newRoot;
+            return;
+        }
+
+        int i = indexOfChild(parent, left);
+        if (PAGE_SIZE == parent.n) {
+            Inner sibling = new Inner();
+            int mid = PAGE_SIZE / 2;
+            int n = PAGE_SIZE - mid - 1;
+            long up = parent.keys[mid];
+            System.arraycopy(parent.keys, mid + 1, sibling.keys, 0, n);
+            System.arraycopy(parent.children, mid + 1, sibling.children, 0, n + 1);
+            Arrays.fill(parent.children, mid + 1, PAGE_SIZE + 1, null);
+            for (int j = 0; j <= n; ++j) {
+                sibling.children[j].parent = sibling;
+            }
+
+            parent.n = mid;
+            sibling.n = n;
+            insertIntoParent(parent, up, sibling);
+            if (i > mid) {
+                i -= mid + 1;
+                parent = sibling;
+            }
+        }
+
+        int n = parent.n;
+        System.arraycopy(parent.keys, i, parent.keys, i + 1, n - i);
+        System.arraycopy(parent.children, i + 1, parent.children, i + 2, n - i);
+        parent.keys[i] = separator;
+        parent.children[i + 1] = right;
+        parent.n = n + 1;
+        right.parent = parent;
+    }
+
+    private void removeAt(Leaf leaf, int i) {
+
+        int n = leaf.n - 1;
+        System.arraycopy(leaf.keys, i + 1, leaf.keys, i, n - i);
+        System.arraycopy(leaf.values, i + 1, leaf.values, i, n - i);
+        leaf.values[n] = null;
+        leaf.n = n;
+        --size;
+        ++modCount;
+
+        if (0 == n && leaf != root) {
+            if (null != leaf.prev) {
+                leaf.prev.next = leaf.next;
+            } else {
+                head = leaf.next;
+            }
+
+            if (null != leaf.next) {
+                leaf.next.prev = leaf.prev;
+            } else {
+                tail = leaf.prev;
+            }
+
+            removeChild(leaf.parent, leaf);
+        }
+    }
+
+    /**
+     * Remove an empty child node. Separator keys remain valid bounds for the neighbouring children.
+     * Root page always has at least 2 children, the root with a single child is replaced with its first descendant
+     * that has more than one child or is a leaf.
+     */
+    private void removeChild(Inner parent, Node child) {
+
+        int n = parent.n;
+        if (0 == n) {
+            // The only child of non-root page
+            removeChild(parent.parent, parent);
+            return;
+        }
+
+        int i = indexOfChild(parent, child);
+        int k = 0 == i ? 0 : i - 1;
+        System.arraycopy(parent.keys, k + 1, parent.keys, k, n - k - 1);
+        System.arraycopy(parent.children, i + 1, parent.children, i, n - i);
+        parent.children[n] = null;
+        parent.n = n - 1;
+
+        if (parent == root && 1 == n) {
+            Node node = parent.children[0];
+            while (node instanceof Inner && 0 == node.n) {
+                node = ((Inner) node).children[0];
+            }
+
+            root = node;
+            node.parent = null;
+        }
+    }
+
+
+    // Navigation primitives, return null value if there is no such key
+
+    private long first() {
+        return 0 != size ? head.keys[0] : nullKey;
+    }
+
+    private long last() {
+        return 0 != size ? tail.keys[tail.n - 1] : nullKey;
+    }
+
+    private long ceiling(long key, boolean inclusive) {
+
+        Leaf leaf = leafFor(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            if (inclusive)
+                return leaf.keys[i];
+
+            ++i;
+        } else {
+            i = ~i;
+        }
+
+        if (i == leaf.n) {
+            leaf = leaf.next;
+            i = 0;
+        }
+
+        return null != leaf ? leaf.keys[i] : nullKey;
+    }
+
+    private long floor(long key, boolean inclusive) {
+
+        Leaf leaf = leafFor(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            if (inclusive)
+                return leaf.keys[i];
+
+            --i;
+        } else {
+            i = ~i - 1;
+        }
+
+        if (i < 0) {
+            leaf = leaf.prev;
+            if (null == leaf)
+                return nullKey;
+
+            i = leaf.n - 1;
+        }
+
+        return leaf.keys[i];
+    }
+
+
+    private long unboxKey(Object key) {
+
+        if (null == key)
+            throw new NullPointerException("Null key");
+
+        return codec.unbox(key);
+    }
+
+    private K box(long key) {
+        return codec.isNull(key) ? null : codec.box(key);
+    }
+
+    private long existing(long key) {
+
+        if (codec.isNull(key))
+            throw new NoSuchElementException();
+
+        return key;
+    }
+
+    private Map.Entry<K, V> exportEntry(long key) {
+        return codec.isNull(key) ? null : new AbstractMap.SimpleImmutableEntry<>(codec.box(key), get(key));
+    }
+
+    private Map.Entry<K, V> pollEntry(long key) {
+
+        if (codec.isNull(key))
+            return null;
+
+        Map.Entry<K, V> entry = exportEntry(key);
+        remove(key);
+        return entry;
+    }
+
+
+    /**
+     * Iterates over leaf pages in ascending or descending order until the optional end bound
+     */
+    private abstract class PageIterator {
+
+        private final boolean descending;
+        private final boolean hasEnd;
+        private final long end;
+        private final boolean endInclusive;
+        private Leaf leaf;
+        private int index;
+        private int expectedModCount = modCount;
+        Leaf lastLeaf;
+        int lastIndex;
+
+        PageIterator(long first, boolean descending, boolean hasEnd, long end, boolean endInclusive) {
+
+            this.descending = descending;
+            this.hasEnd = hasEnd;
+            this.end = end;
+            this.endInclusive = endInclusive;
+            seek(first);
+        }
+
+        private void seek(long key) {
+
+            if (codec.isNull(key) || isPastEnd(key)) {
+                leaf = null;
+                return;
+            }
+
+            leaf = leafFor(key);
+            index = search(leaf, key);
+        }
+
+        private boolean isPastEnd(long key) {
+
+            if (!hasEnd)
+                return false;
+
+            int cmp = codec.compare(key, end);
+            return (descending ? cmp < 0 : cmp > 0) || 0 == cmp && !endInclusive;
+        }
+
+        public final boolean hasNext() {
+            return null != leaf;
+        }
+
+        final void nextSlot() {
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            Leaf leaf = this.leaf;
+            if (null == leaf)
+                throw new NoSuchElementException();
+
+            int i = index;
+            lastLeaf = leaf;
+            lastIndex = i;
+            if (descending) {
+                if (--i < 0) {
+                    leaf = leaf.prev;
+                    i = null != leaf ? leaf.n - 1 : 0;
+                }
+            } else {
+                if (++i == leaf.n) {
+                    leaf = leaf.next;
+                    i = 0;
+                }
+            }
+
+            this.leaf = null != leaf && !isPastEnd(leaf.keys[i]) ? leaf : null;
+            this.index = i;
+        }
+
+        public final void remove() {
+
+            if (null == lastLeaf)
+                throw new IllegalStateException();
+
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            long next = null != leaf ? leaf.keys[index] : nullKey;
+            ValueTypeTreeMap.this.remove(lastLeaf.keys[lastIndex]);
+            lastLeaf = null;
+            seek(next);
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class KeyIterator extends PageIterator implements ValueTypeIterator<K> {
+
+        KeyIterator(long first, boolean descending, boolean hasEnd, long end, boolean endInclusive) {
+            super(first, descending, hasEnd, end, endInclusive);
+        }
+
+        @Override
+        public long nextLong() {
+
+            nextSlot();
+            return lastLeaf.keys[lastIndex];
+        }
+
+        @Override
+        public K next() {
+            return codec.box(nextLong());
+        }
+    }
+
+    private final class EntryIterator extends PageIterator implements Iterator<Map.Entry<K, V>> {
+
+        EntryIterator(long first, boolean descending, boolean hasEnd, long end, boolean endInclusive) {
+            super(first, descending, hasEnd, end, endInclusive);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+
+            nextSlot();
+            return new Entry(lastLeaf.keys[lastIndex], (V) lastLeaf.values[lastIndex]);
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long key;
+
+        Entry(long key, V value) {
+
+            super(codec.box(key), value);
+            this.key = key;
+        }
+
+        @Override
+        public V setValue(V value) {
+
+            put(key, value);
+            return super.setValue(value);
+        }
+    }
+
+
+    /**
+     * Entry set of the map or of a sub map view
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        private final SubMap subMap;
+
+        EntrySet(SubMap subMap) {
+            this.subMap = subMap;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return null != subMap ? subMap.entryIterator() : new EntryIterator(first(), false, false, 0, false);
+        }
+
+        @Override
+        public int size() {
+            return null != subMap ? subMap.size() : size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+
+            if (!(o instanceof Map.Entry))
+                return false;
+
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object key = e.getKey();
+            if (!(codec.getType().isInstance(key)))
+                return false;
+
+            Map<K, V> map = null != subMap ? subMap : ValueTypeTreeMap.this;
+            V value = map.get(key);
+            return null != value ? value.equals(e.getValue()) : null == e.getValue() && map.containsKey(key);
+        }
+
+        @Override
+        public void clear() {
+
+            if (null != subMap) {
+                super.clear();
+            } else {
+                ValueTypeTreeMap.this.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Key set view of a navigable map, delegates to the map
+     */
+    private static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+
+        private final NavigableMap<E, ?> map;
+
+        KeySet(NavigableMap<E, ?> map) {
+            this.map = map;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ValueTypeIterator<E> iterator() {
+
+            NavigableMap<E, ?> map = this.map;
+            return map instanceof ValueTypeTreeMap ? ((ValueTypeTreeMap<E, ?>) map).keyIterator()
+                    : ((ValueTypeTreeMap<E, ?>.SubMap) map).keyIterator();
+        }
+
+        @Override
+        public Iterator<E> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+
+            if (!map.containsKey(o))
+                return false;
+
+            map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public E first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public E last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public E lower(E e) {
+            return map.lowerKey(e);
+        }
+
+        @Override
+        public E floor(E e) {
+            return map.floorKey(e);
+        }
+
+        @Override
+        public E ceiling(E e) {
+            return map.ceilingKey(e);
+        }
+
+        @Override
+        public E higher(E e) {
+            return map.higherKey(e);
+        }
+
+        @Override
+        public E pollFirst() {
+
+            Map.Entry<E, ?> e = map.pollFirstEntry();
+            return null != e ? e.getKey() : null;
+        }
+
+        @Override
+        public E pollLast() {
+
+            Map.Entry<E, ?> e = map.pollLastEntry();
+            return null != e ? e.getKey() : null;
+        }
+
+        @Override
+        public NavigableSet<E> descendingSet() {
+            return map.descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            return map.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return map.headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return map.tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+
+
+    /**
+     * Sub map view with optional bounds, in ascending or descending order. Bounds are always stored in ascending order.
+     */
+    private final class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+        private final boolean fromStart;
+        private final long lo;
+        private final boolean loInclusive;
+        private final boolean toEnd;
+        private final long hi;
+        private final boolean hiInclusive;
+        private final boolean descending;
+
+        SubMap(boolean fromStart, long lo, boolean loInclusive, boolean toEnd, long hi, boolean hiInclusive,
+               boolean descending) {
+
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(long key) {
+
+            if (fromStart)
+                return false;
+
+            int cmp = codec.compare(key, lo);
+            return cmp < 0 || 0 == cmp && !loInclusive;
+        }
+
+        private boolean tooHigh(long key) {
+
+            if (toEnd)
+                return false;
+
+            int cmp = codec.compare(key, hi);
+            return cmp > 0 || 0 == cmp && !hiInclusive;
+        }
+
+        private boolean inRange(long key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean inClosedRange(long key) {
+            return (fromStart || codec.compare(key, lo) >= 0) && (toEnd || codec.compare(key, hi) <= 0);
+        }
+
+        // Navigation in ascending order, return null value if there is no such key in range
+
+        private long absLowest() {
+
+            long key = fromStart ? first() : ceiling(lo, loInclusive);
+            return codec.isNull(key) || tooHigh(key) ? nullKey : key;
+        }
+
+        private long absHighest() {
+
+            long key = toEnd ? last() : floor(hi, hiInclusive);
+            return codec.isNull(key) || tooLow(key) ? nullKey : key;
+        }
+
+        private long absCeiling(long key, boolean inclusive) {
+
+            if (tooLow(key))
+                return absLowest();
+
+            key = ceiling(key, inclusive);
+            return codec.isNull(key) || tooHigh(key) ? nullKey : key;
+        }
+
+        private long absFloor(long key, boolean inclusive) {
+
+            if (tooHigh(key))
+                return absHighest();
+
+            key = floor(key, inclusive);
+            return codec.isNull(key) || tooLow(key) ? nullKey : key;
+        }
+
+        // Navigation in the order of this view
+
+        private long lowest() {
+            return descending ? absHighest() : absLowest();
+        }
+
+        private long highest() {
+            return descending ? absLowest() : absHighest();
+        }
+
+        private long ceilingKey(long key, boolean inclusive) {
+            return descending ? absFloor(key, inclusive) : absCeiling(key, inclusive);
+        }
+
+        private long floorKey(long key, boolean inclusive) {
+            return descending ? absCeiling(key, inclusive) : absFloor(key, inclusive);
+        }
+
+        ValueTypeIterator<K> keyIterator() {
+            return descending ? new KeyIterator(absHighest(), true, !fromStart, lo, loInclusive)
+                    : new KeyIterator(absLowest(), false, !toEnd, hi, hiInclusive);
+        }
+
+        Iterator<Map.Entry<K, V>> entryIterator() {
+            return descending ? new EntryIterator(absHighest(), true, !fromStart, lo, loInclusive)
+                    : new EntryIterator(absLowest(), false, !toEnd, hi, hiInclusive);
+        }
+
+        private long checkedKey(Object key) {
+
+            long k = unboxKey(key);
+            if (!inRange(k))
+                throw new IllegalArgumentException("key out of range");
+
+            return k;
+        }
+
+        private long checkedBound(Object key) {
+
+            long k = unboxKey(key);
+            if (!inClosedRange(k))
+                throw new IllegalArgumentException("key out of range");
+
+            return k;
+        }
+
+        @Override
+        public int size() {
+
+            if (fromStart && toEnd)
+                return ValueTypeTreeMap.this.size;
+
+            int n = 0;
+            for (ValueTypeIterator<K> i = keyIterator(); i.hasNext(); ++n) {
+                i.nextLong();
+            }
+
+            return n;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return codec.isNull(absLowest());
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+
+            long k = unboxKey(key);
+            return inRange(k) && ValueTypeTreeMap.this.containsKey(k);
+        }
+
+        @Override
+        public V get(Object key) {
+
+            long k = unboxKey(key);
+            return inRange(k) ? ValueTypeTreeMap.this.get(k) : null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return ValueTypeTreeMap.this.put(checkedKey(key), value);
+        }
+
+        @Override
+        public V remove(Object key) {
+
+            long k = unboxKey(key);
+            return inRange(k) ? ValueTypeTreeMap.this.remove(k) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new EntrySet(this);
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet<>(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.<K>reverseOrder() : null;
+        }
+
+        @Override
+        public K firstKey() {
+            return codec.box(existing(lowest()));
+        }
+
+        @Override
+        public K lastKey() {
+            return codec.box(existing(highest()));
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return box(floorKey(unboxKey(key), false));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return box(floorKey(unboxKey(key), true));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return box(ceilingKey(unboxKey(key), true));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return box(ceilingKey(unboxKey(key), false));
+        }
+
+        @Override
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return exportEntry(floorKey(unboxKey(key), false));
+        }
+
+        @Override
+        public Map.Entry<K, V> floorEntry(K key) {
+            return exportEntry(floorKey(unboxKey(key), true));
+        }
+
+        @Override
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return exportEntry(ceilingKey(unboxKey(key), true));
+        }
+
+        @Override
+        public Map.Entry<K, V> higherEntry(K key) {
+            return exportEntry(ceilingKey(unboxKey(key), false));
+        }
+
+        @Override
+        public Map.Entry<K, V> firstEntry() {
+            return exportEntry(lowest());
+        }
+
+        @Override
+        public Map.Entry<K, V> lastEntry() {
+            return exportEntry(highest());
+        }
+
+        @Override
+        public Map.Entry<K, V> pollFirstEntry() {
+            return pollEntry(lowest());
+        }
+
+        @Override
+        public Map.Entry<K, V> pollLastEntry() {
+            return pollEntry(highest());
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+
+            long from = checkedBound(fromKey);
+            long to = checkedBound(toKey);
+            if (descending) {
+                if (codec.compare(to, from) > 0)
+                    throw new IllegalArgumentException("fromKey < toKey");
+
+                return new SubMap(false, to, toInclusive, false, from, fromInclusive, true);
+            }
+
+            if (codec.compare(from, to) > 0)
+                throw new IllegalArgumentException("fromKey > toKey");
+
+            return new SubMap(false, from, fromInclusive, false, to, toInclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+
+            long to = checkedBound(toKey);
+            return descending ? new SubMap(false, to, inclusive, toEnd, hi, hiInclusive, true)
+                    : new SubMap(fromStart, lo, loInclusive, false, to, inclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+
+            long from = checkedBound(fromKey);
+            return descending ? new SubMap(fromStart, lo, loInclusive, false, from, inclusive, true)
+                    : new SubMap(false, from, inclusive, toEnd, hi, hiInclusive, false);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+    }
+}
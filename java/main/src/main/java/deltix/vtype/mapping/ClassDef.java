@@ -21,7 +21,9 @@ import deltix.vtype.type.TypeId;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import static deltix.vtype.transformer.AsmUtil.classPathToName;
 import static deltix.vtype.mapping.ClassDefFlags.*;
@@ -60,6 +62,12 @@ public class ClassDef {
     // Maps method names only
     HashMap<String, NameMapping> nameMappings = new HashMap<>(4);
 
+    // Names+signatures of all static methods found in the implementation class
+    HashSet<String> dstMethods = new HashSet<>(4);
+
+    // Method call chains that are replaced with fused implementation methods
+    ArrayList<FusionDef> fusions = new ArrayList<>(0);
+
 
     // class path for source ValueType class
     private String srcClassPath;
@@ -295,8 +303,29 @@ public class ClassDef {
         nameMappings.put(dstMethodSignature, new NameMapping(dstMethodSignature, mdef, prev));
     }
 
+    public void addFusion(FusionDef fusion) {
+        fusions.add(fusion);
+    }
+
+    public ArrayList<FusionDef> getFusions() {
+        return fusions;
+    }
+
+    /**
+     * Check if the implementation class contains the specified method.
+     * Only valid after the implementation class is loaded.
+     * @param name method name
+     * @param desc method descriptor
+     * @return true if found
+     */
+    public boolean hasDestinationMethod(String name, String desc) {
+        return dstMethods.contains(name + desc);
+    }
+
     public void tryAddDestinationMethod(String name, String desc, boolean isCommutative) {
 
+        dstMethods.add(name + desc);
+
         // TODO: No overload support for destination class
         // for source class limited overload support - overloads are supposed to only point to a single implementation method
         NameMapping m = nameMappings.get(name + desc);
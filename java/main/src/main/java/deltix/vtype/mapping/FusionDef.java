@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.mapping;
+
+/**
+ * Describes a chain of Value Type method calls, where the result of each call is the receiver (1st argument)
+ * of the next one, that can be replaced with a single call to a fused implementation method.
+ * Example: price.multiply(qty).add(fee) -> Decimal64Utils.multiplyAndAdd(price, qty, fee)
+ */
+public class FusionDef {
+
+    // Source method names, in the order of invocation. Can also contain names of other fused methods
+    private final String[] methods;
+
+    // Name of the implementation method that replaces the whole chain
+    private final String implName;
+
+    public FusionDef(String[] methods, String implName) {
+
+        if (null == methods || methods.length < 2)
+            throw new IllegalArgumentException("Fusion pattern should contain at least 2 methods: " + implName);
+
+        if (null == implName || implName.isEmpty())
+            throw new IllegalArgumentException("Fusion pattern implementation method name is not defined");
+
+        this.methods = methods;
+        this.implName = implName;
+    }
+
+    public int length() {
+        return methods.length;
+    }
+
+    public String methodAt(int i) {
+        return methods[i];
+    }
+
+    public String getImplName() {
+        return implName;
+    }
+}
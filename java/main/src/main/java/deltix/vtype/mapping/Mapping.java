@@ -61,6 +61,14 @@ public class Mapping implements TypeIdFormatter {
     public boolean noDebugData;             // Delete debug data for transformed classes instead of trying to process it
     public boolean deleteAllDebugData;      // Delete debug data for processed an umprocessed classes
     public String classDumpPath;
+    public boolean outlineColdCode;         // Move cold code out of methods that grew too big after transformation
+    public int inlineSizeLimit;             // Should match JVM FreqInlineSize
+    public int hugeMethodLimit;             // Should match JVM HugeMethodLimit
+    public boolean specializeGenericMethods; // Create copies of private/static generic methods specialized for Value Types
+    public boolean replaceArrayLists;       // Replace new ArrayList<>() stored into List<ValueType> fields/variables with ValueTypeList
+    public boolean replaceTreeMaps;         // Replace new TreeMap<>() stored into NavigableMap<ValueType, V> fields/variables with ValueTypeTreeMap
+    public boolean fuseCompareEquality;     // Replace compareTo() == 0 and != 0 with isEqual/isNotEqual predicates
+    public boolean replaceAtomicFields;     // Replace private AtomicReference<ValueType> fields and their field updaters with AtomicLong ones
 
     public HashMap<Integer, MethodDef> getMethodMap(String className) {
         return methodMaps.get(className);
@@ -78,6 +86,23 @@ public class Mapping implements TypeIdFormatter {
         methodMap.put(combineKeys(method.oldName, method.oldDesc), method);
     }
 
+    /**
+     * Add autoMethod template. Templates with the same source method are chained in the order of definition
+     */
+    static void addAutoMethod(HashMap<Integer, MethodDef> methodMap, MethodDef method) {
+        MethodDef m = getMethod(methodMap, method.oldName, method.oldDesc);
+        if (null == m) {
+            addMethod(methodMap, method);
+            return;
+        }
+
+        while (null != m.nextAutoMethod) {
+            m = m.nextAutoMethod;
+        }
+
+        m.nextAutoMethod = method;
+    }
+
     public ClassDef getClassDef(int index) {
         return classes.get(index);
     }
@@ -17,6 +17,7 @@
 package deltix.vtype.mapping;
 
 import deltix.vtype.transformer.Warnings;
+import deltix.vtype.type.DescriptorParser;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONTokener;
@@ -171,6 +172,14 @@ public class MappingReader {
         mapping.noDebugData         = getOptionalBool(json, "skipDebugData", false);
         mapping.deleteAllDebugData  = getOptionalBool(json, "deleteAllDebugData", false);
         mapping.classDumpPath       = getOptionalString(json, "classDumpPath", null);
+        mapping.outlineColdCode     = getOptionalBool(json, "outlineColdCode", false);
+        mapping.inlineSizeLimit     = getOptionalInt(json, "inlineSizeLimit", 325);
+        mapping.hugeMethodLimit     = getOptionalInt(json, "hugeMethodLimit", 8000);
+        mapping.specializeGenericMethods = getOptionalBool(json, "specializeGenericMethods", true);
+        mapping.replaceArrayLists   = getOptionalBool(json, "replaceArrayLists", false);
+        mapping.replaceTreeMaps     = getOptionalBool(json, "replaceTreeMaps", false);
+        mapping.replaceAtomicFields = getOptionalBool(json, "replaceAtomicFields", false);
+        mapping.fuseCompareEquality = getOptionalBool(json, "fuseCompareEquality", false);
     }
 
 
@@ -189,9 +198,14 @@ public class MappingReader {
         }
 
         JSONArray autoMethods = getOptionalArray(json,"autoMethods");
-        if (isNonEmptyStringArray(autoMethods)) {
+        if (null != autoMethods) {
             for (Object i : autoMethods) {
-                addAutoMethod(m, (String)i);
+                if (i instanceof JSONObject) {
+                    addAutoMethod(m, (JSONObject)i);
+                } else if (i instanceof String) {
+                    addAutoMethod(m, (String)i);
+                } else
+                    throw new IOException("autoMethod must be a method definition string or an object: " + i);
             }
         }
 
@@ -199,20 +213,97 @@ public class MappingReader {
     }
 
     private void addAutoMethod(Mapping mapping, String methodSignature) throws IOException {
+        addAutoMethod(mapping, parseMethod(methodSignature), true, null);
+    }
+
+    /**
+     * Parse autoMethod template object: { "from" : "<method>", "static" : 0/1, "to" : "<method or class>" }
+     * "static" is 1 by default. "to" can be omitted, if the destination method has the same owner and name,
+     * or only contain the class name, if only the owner is different
+     */
+    private void addAutoMethod(Mapping mapping, JSONObject json) throws IOException {
+
+        ParsedMethod from = parseMethod(json, "from");
+        if (null == from)
+            throw new IOException("autoMethod source method ('from') is not defined");
+
+        addAutoMethod(mapping, from, 0 != getOptionalInt(json, "static", 1), getOptionalString(json, "to", null));
+    }
+
+    private void addAutoMethod(Mapping mapping, ParsedMethod method, boolean isStatic, String to) throws IOException {
+
+        if (null == method || null == method.owner)
+            throw new IOException("autoMethod owner class is not defined");
+
+        byte[] wildcardGroups = getWildcardGroups(method.desc, isStatic);
+        String desc = method.desc.replaceAll("LValueType[1-9];", "LValueType;");
+        String newOwner = method.owner, newName = method.name, newDesc;
+        if (null != to && to.indexOf('(') >= 0) {
+            ParsedMethod dst = parseMethod(to);
+            if (null == dst)
+                throw new IOException("autoMethod destination method not defined properly: " + to);
+
+            newOwner = null != dst.owner ? dst.owner : newOwner;
+            newName = dst.name;
+            newDesc = dst.desc;
+        } else {
+            if (null != to) {
+                newOwner = classNameToPath(to);
+            }
+
+            // Receiver of the instance method becomes the 1st argument of the static destination method
+            newDesc = DescriptorParser.getTransformedDesc((isStatic ? desc : "(L" + method.owner + ";" + desc.substring(1))
+                    .replace("LValueType;", "J"), false, mapping);
+        }
 
-        ParsedMethod method = parseMethod(methodSignature);
         HashMap<Integer, MethodDef> mm = mapping.getMethodMap(method.owner);
         if (null == mm) {
             mm = new HashMap<>();
             mapping.addMethodMap(method.owner, mm);
         }
 
-        // Currently automethods can only be static and have same name/owner before/after transform.
-        // TODO: Would be nice to add more flexible template definition later
-        MethodDef methodDef = new MethodDef(method.name, method.desc, method.owner, true, method.name,
-                method.desc.replace("LValueType;", "J"), method.name);
+        MethodDef methodDef = new MethodDef(mapping, method.name, desc, isStatic, newOwner, newName, newDesc,
+                wildcardGroups, method.name);
 
-        Mapping.addMethod(mm, methodDef);
+        Mapping.addAutoMethod(mm, methodDef);
+    }
+
+    /**
+     * "ValueType" wildcard is substituted with the same Value Type class in all positions, "ValueType1".."ValueType9"
+     * wildcards are substituted independently, same number means same Value Type class
+     * @return wildcard group for the return value and each argument (receiver included), null if there are no
+     * numbered wildcards
+     */
+    static byte[] getWildcardGroups(String desc, boolean isStatic) {
+
+        byte[] groups = null;
+        for (int i = 1, n = desc.length(), pos = isStatic ? 1 : 2; i < n; ++i, ++pos) {
+            char ch = desc.charAt(i);
+            if (')' == ch) {
+                // Return value is in position 0
+                pos = -1;
+                continue;
+            }
+
+            while ('[' == ch) {
+                ch = desc.charAt(++i);
+            }
+
+            if ('L' == ch) {
+                int end = desc.indexOf(';', i);
+                if (end == i + 11 && desc.startsWith("ValueType", i + 1) && Character.isDigit(desc.charAt(end - 1))) {
+                    if (null == groups) {
+                        groups = new byte[0x100];
+                    }
+
+                    groups[pos] = (byte) (desc.charAt(end - 1) - '0');
+                }
+
+                i = end;
+            }
+        }
+
+        return groups;
     }
 
 
@@ -284,9 +375,27 @@ public class MappingReader {
             cl.setFlag(F_SRC_ALL_METHODS_DEFINED | F_DST_ALL_METHODS_DEFINED);
         }
 
+        JSONArray fusions = getOptionalArray(json, "fusions");
+        if (null != fusions) {
+            for (int i = 0, n = fusions.length(); i < n; ++i) {
+                cl.addFusion(parseFusion(fusions.getJSONObject(i)));
+            }
+        }
+
         return cl;
     }
 
+    private static FusionDef parseFusion(final JSONObject json) {
+
+        JSONArray methods = json.getJSONArray("methods");
+        String[] names = new String[methods.length()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = methods.getString(i);
+        }
+
+        return new FusionDef(names, json.getString("to"));
+    }
+
     static String getOptionalString(JSONObject json, String name, String defaultValue) {
         try {
             return json.getString(name);
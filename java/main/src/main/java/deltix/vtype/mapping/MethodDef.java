@@ -42,6 +42,12 @@ public class MethodDef {
     String newDesc;
     String debugName;
 
+    // AutoMethod templates only: mapping used to resolve Value Type classes, wildcard group for the return value
+    // and each argument (null if all wildcards are the same Value Type) and the next template with the same key
+    private Mapping autoMapping;
+    private byte[] wildcardGroups;
+    MethodDef nextAutoMethod;
+
     /*
      * Conversion rules:
      * Static:
@@ -70,6 +76,36 @@ public class MethodDef {
         this(null, oldName, oldDesc, isStatic, false, newOwner, newName, newDesc, debugName);
     }
 
+    /**
+     * Constructor for autoMethod templates. Source descriptor may contain Value Type classes and wildcards,
+     * that are matched with Object arguments of the call site.
+     * If the source method is not static, its receiver is passed as the 1st argument of the static destination method
+     * @param mapping
+     * @param oldName
+     * @param oldDesc
+     * @param isStatic
+     * @param newOwner
+     * @param newName
+     * @param newDesc
+     * @param wildcardGroups wildcard group for the return value and each source argument, or null
+     * @param debugName
+     */
+    public MethodDef(Mapping mapping, String oldName, String oldDesc, boolean isStatic,
+                     String newOwner, String newName, String newDesc, byte[] wildcardGroups, String debugName) {
+
+        this(null);
+        this.autoMapping = mapping;
+        this.wildcardGroups = wildcardGroups;
+        this.newOwner = newOwner;
+        this.newName = newName;
+        this.newDesc = newDesc;
+        this.debugName = debugName;
+        this.isNonStaticSrc = !isStatic;
+        this.oldName = oldName;
+        this.oldDesc = oldDesc;
+        initialize();
+    }
+
     /**
      * Constructor for "special" ValueType methods, such as box/unbox/isNull
      * @param owner
@@ -168,10 +204,10 @@ public class MethodDef {
         // Parse and verify arguments
         int[] args2 = new int [0x100];
         int numArgs2;
-        Mapping mapping = null != owner ? owner.mapping : null;
+        Mapping mapping = null != owner ? owner.mapping : autoMapping;
         int ownerIndex = null != owner ? getVtClassIndex(owner.typeId) : TypeId.VT_WILDCARD_INDEX;
 
-        numArgs = parseMethod(args, isNonStaticSrc, null != mapping ? owner.getSrcClassPath() : null, oldDesc, mapping);
+        numArgs = parseMethod(args, isNonStaticSrc, null != owner ? owner.getSrcClassPath() : null, oldDesc, mapping);
         if (numArgs == -1)
             throw new IllegalArgumentException(String.format("Unable to parse src: %s.%s", oldName, oldDesc));
 
@@ -210,6 +246,10 @@ public class MethodDef {
 
         if (TypeId.VT_WILDCARD_INDEX == ownerIndex) {
             oldDesc = oldDesc.replace("LValueType;", "Ljava/lang/Object;");
+            // Value Types are passed to the template source method as Object
+            for (int i = 0, n = null != mapping ? mapping.numClasses() : 0; i < n; ++i) {
+                oldDesc = oldDesc.replace(mapping.getClassDef(i).getSrcClassDesc(), "Ljava/lang/Object;");
+            }
         }
 
         isInitialized = true;
@@ -219,6 +259,21 @@ public class MethodDef {
         return null == owner;
     }
 
+    /**
+     * @return wildcard group for the return value and each argument of autoMethod template, or null if all
+     * wildcards should be substituted with the same Value Type
+     */
+    public byte[] getWildcardGroups() {
+        return wildcardGroups;
+    }
+
+    /**
+     * @return next autoMethod template with the same source method, to try if this one doesn't match the arguments
+     */
+    public MethodDef getNextAutoMethod() {
+        return nextAutoMethod;
+    }
+
     public ClassDef getOwner() {
         return owner;
     }
@@ -239,6 +294,18 @@ public class MethodDef {
         return newOwner;
     }
 
+    public String getOldName() {
+        return oldName;
+    }
+
+    public boolean isNonStaticSrc() {
+        return isNonStaticSrc;
+    }
+
+    public boolean returnsVType() {
+        return returnsVType;
+    }
+
     public String getSrcString() {
         return new StringBuffer(isNonStaticSrc ? "" : "static ").append(oldName).append(oldDesc).toString();
     }
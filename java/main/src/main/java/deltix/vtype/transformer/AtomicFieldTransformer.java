@@ -0,0 +1,479 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.ClassDef;
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Flow;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Rewrite;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Use;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.UseInterpreter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Replaces private {@code AtomicReference<VT>} fields with {@code AtomicLong} and private static
+ * {@code AtomicReferenceFieldUpdater} fields, that update Value Type fields of the same class, with
+ * {@code AtomicLongFieldUpdater}, so the atomic operations work on unboxed Value Types and compareAndSet
+ * compares the values instead of the references.
+ * <p>
+ * The class is scanned before the transformation. A field is replaced only if it is initialized with
+ * {@code new AtomicReference<>(...)} or {@code AtomicReferenceFieldUpdater.newUpdater(...)} with constant
+ * arguments, and every value read from it is immediately used to call get, set, lazySet, compareAndSet,
+ * weakCompareAndSet or getAndSet. Classes that belong to a nest with other classes are not changed, because
+ * nest members can access private fields directly.
+ */
+class AtomicFieldTransformer {
+
+    static final String ATOMIC_REFERENCE    = "java/util/concurrent/atomic/AtomicReference";
+    static final String ATOMIC_LONG         = "java/util/concurrent/atomic/AtomicLong";
+    static final String REFERENCE_UPDATER   = "java/util/concurrent/atomic/AtomicReferenceFieldUpdater";
+    static final String LONG_UPDATER        = "java/util/concurrent/atomic/AtomicLongFieldUpdater";
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String NEW_UPDATER_DESC = "(Ljava/lang/Class;Ljava/lang/Class;Ljava/lang/String;)L" + REFERENCE_UPDATER + ";";
+    private static final String NEW_LONG_UPDATER_DESC = "(Ljava/lang/Class;Ljava/lang/String;)L" + LONG_UPDATER + ";";
+
+    // Supported methods of AtomicReference. AtomicReferenceFieldUpdater methods take the updated object first
+    private static final HashSet<String> methods = new HashSet<>();
+
+    static {
+        addMethod("get", "()Ljava/lang/Object;");
+        addMethod("set", "(Ljava/lang/Object;)V");
+        addMethod("lazySet", "(Ljava/lang/Object;)V");
+        addMethod("compareAndSet", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+        addMethod("weakCompareAndSet", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+        addMethod("getAndSet", "(Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+
+    // Instruction changes
+    private static final int EDIT_FIELD         = 0;    // Field access, the field type is changed
+    private static final int EDIT_CALL          = 1;    // Call of the atomic method
+    private static final int EDIT_NEW           = 2;    // new AtomicReference
+    private static final int EDIT_INIT          = 3;    // AtomicReference constructor call
+    private static final int EDIT_NEW_UPDATER   = 4;    // AtomicReferenceFieldUpdater.newUpdater call
+    private static final int EDIT_REMOVE        = 5;    // Value Type class argument of newUpdater
+
+    private static final class Edit {
+        final String field;
+        final int kind;
+        final int index;
+
+        Edit(String field, int kind, int index) {
+            this.field = field;
+            this.kind = kind;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Replaced field
+     */
+    private static final class Field {
+        final String name;
+        final boolean isUpdater;
+        final ClassDef classDef;
+        boolean bad;
+
+        Field(String name, boolean isUpdater, ClassDef classDef) {
+            this.name = name;
+            this.isUpdater = isUpdater;
+            this.classDef = classDef;
+        }
+    }
+
+    private final TranslationState state;
+    private final Mapping mapping;
+
+    private final HashMap<String, Field> fields = new HashMap<>();
+    // Volatile instance Value Type fields of the class, that can be updated with AtomicLongFieldUpdater
+    private final HashMap<String, ClassDef> volatileFields = new HashMap<>();
+    // Method name + descriptor -> instructions to change
+    private final HashMap<String, ArrayList<Edit>> edits = new HashMap<>();
+    // Calls of the method being transformed, that are redirected after FunctionalInterfaceSpecializer analysis
+    private final IdentityHashMap<AbstractInsnNode, Rewrite> rewrites = new IdentityHashMap<>();
+    private boolean isNestMember;
+
+    AtomicFieldTransformer(TranslationState state) {
+        this.state = state;
+        this.mapping = state.mapping;
+    }
+
+
+    private static void addMethod(String name, String desc) {
+        methods.add(name + desc);
+    }
+
+
+    /**
+     * Find the fields that can be replaced. Called before the class is transformed
+     */
+    void scan(ClassReader cr) {
+
+        if (0 != (cr.getAccess() & ACC_INTERFACE))
+            return;
+
+        final ArrayList<org.objectweb.asm.tree.MethodNode> methodNodes = new ArrayList<>();
+        cr.accept(new org.objectweb.asm.ClassVisitor(ASM7) {
+            @Override
+            public void visitNestHost(String nestHost) {
+                isNestMember = true;
+            }
+
+            @Override
+            public void visitNestMember(String nestMember) {
+                isNestMember = true;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+
+                addField(access, name, desc, signature);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+
+                // Fields are visited first
+                if (fields.isEmpty() || isNestMember)
+                    return null;
+
+                org.objectweb.asm.tree.MethodNode method = new org.objectweb.asm.tree.MethodNode(ASM7, access, name, desc, signature, exceptions);
+                methodNodes.add(method);
+                return method;
+            }
+        }, 0);
+
+        if (isNestMember) {
+            fields.clear();
+        }
+
+        for (org.objectweb.asm.tree.MethodNode method : methodNodes) {
+            scanMethod(method);
+        }
+
+        for (Field field : fields.values()) {
+            if (!field.bad) {
+                state.logger.dbg("%s.%s will be replaced with %s", state.classPath, field.name,
+                        field.isUpdater ? LONG_UPDATER : ATOMIC_LONG);
+            }
+        }
+    }
+
+
+    private void addField(int access, String name, String desc, String signature) {
+
+        String prefix;
+        boolean isUpdater = ("L" + REFERENCE_UPDATER + ";").equals(desc);
+        if (isUpdater) {
+            if (ACC_PRIVATE + ACC_STATIC != (access & (ACC_PRIVATE | ACC_STATIC)))
+                return;
+
+            prefix = "L" + REFERENCE_UPDATER + "<L" + state.classPath + ";L";
+        } else if (("L" + ATOMIC_REFERENCE + ";").equals(desc)) {
+            if (0 == (access & ACC_PRIVATE))
+                return;
+
+            prefix = "L" + ATOMIC_REFERENCE + "<L";
+        } else {
+            if ('L' == desc.charAt(0) && ACC_VOLATILE == (access & (ACC_VOLATILE | ACC_STATIC))) {
+                int typeId = mapping.getClassTypeId(desc.substring(1, desc.length() - 1));
+                if (isVtValue(typeId)) {
+                    volatileFields.put(name, mapping.getClassDefById(typeId));
+                }
+            }
+
+            return;
+        }
+
+        if (null == signature || !signature.startsWith(prefix) || !signature.endsWith(";>;"))
+            return;
+
+        String classPath = signature.substring(prefix.length(), signature.length() - 3);
+        int typeId = mapping.getClassTypeId(classPath);
+        if (classPath.indexOf('<') < 0 && classPath.indexOf(';') < 0 && isVtValue(typeId)) {
+            fields.put(name, new Field(name, isUpdater, mapping.getClassDefById(typeId)));
+        }
+    }
+
+
+    private void scanMethod(org.objectweb.asm.tree.MethodNode method) {
+
+        InsnList instructions = method.instructions;
+        boolean found = false;
+        for (AbstractInsnNode node = instructions.getFirst(); null != node && !found; node = node.getNext()) {
+            found = null != getField(node);
+        }
+
+        if (!found)
+            return;
+
+        UseInterpreter interpreter = new UseInterpreter();
+        Analyzer<SourceValue> analyzer = new Analyzer<>(interpreter);
+        try {
+            analyzer.analyze(state.classPath, method);
+        } catch (AnalyzerException e) {
+            state.logger.dbg("Atomic field data flow analysis failed: %s", e.getMessage());
+            for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+                markBad(getField(node));
+            }
+
+            return;
+        }
+
+        Flow flow = new Flow(instructions, interpreter, analyzer.getFrames());
+        ArrayList<Edit> methodEdits = new ArrayList<>();
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            Field field = getField(node);
+            if (null == field)
+                continue;
+
+            int opcode = node.getOpcode();
+            boolean ok = GETFIELD == opcode || GETSTATIC == opcode ? scanLoad(flow, field, node, methodEdits)
+                    : scanStore(flow, field, node, PUTSTATIC == opcode ? 0 : 1, methodEdits);
+
+            if (!ok) {
+                markBad(field);
+            }
+
+            methodEdits.add(new Edit(field.name, EDIT_FIELD, flow.index(node)));
+        }
+
+        edits.put(method.name + method.desc, methodEdits);
+    }
+
+
+    /**
+     * The value read from the field should only be used as the receiver of the supported methods
+     */
+    private boolean scanLoad(Flow flow, Field field, AbstractInsnNode node, ArrayList<Edit> methodEdits) {
+
+        if (flow.isBad(flow.root(node)))
+            return false;
+
+        String owner = field.isUpdater ? REFERENCE_UPDATER : ATOMIC_REFERENCE;
+        for (Use use : flow.usesOf(node)) {
+            AbstractInsnNode consumer = use.consumer;
+            if (0 != use.operand || INVOKEVIRTUAL != consumer.getOpcode() || node != flow.sourceOf(consumer, 0))
+                return false;
+
+            MethodInsnNode call = (MethodInsnNode) consumer;
+            String desc = field.isUpdater ? removeFirstArg(call.desc) : call.desc;
+            if (!owner.equals(call.owner) || null == desc || !methods.contains(call.name + desc))
+                return false;
+
+            methodEdits.add(new Edit(field.name, EDIT_CALL, flow.index(call)));
+        }
+
+        return true;
+    }
+
+
+    /**
+     * The field should only be initialized with the new atomic reference or the new field updater
+     */
+    private boolean scanStore(Flow flow, Field field, AbstractInsnNode node, int operand, ArrayList<Edit> methodEdits) {
+
+        AbstractInsnNode src = flow.sourceOf(node, operand);
+        if (null == src || 1 != flow.usesOf(src).size())
+            return false;
+
+        if (field.isUpdater) {
+            if (INVOKESTATIC != src.getOpcode() || !REFERENCE_UPDATER.equals(((MethodInsnNode) src).owner)
+                    || !"newUpdater".equals(((MethodInsnNode) src).name) || !NEW_UPDATER_DESC.equals(((MethodInsnNode) src).desc))
+                return false;
+
+            AbstractInsnNode owner = flow.sourceOf(src, 0);
+            AbstractInsnNode vtClass = flow.sourceOf(src, 1);
+            AbstractInsnNode name = flow.sourceOf(src, 2);
+            if (!isConstant(owner, Type.getObjectType(state.classPath))
+                    || !isConstant(vtClass, Type.getObjectType(field.classDef.getSrcClassPath()))
+                    || !(name instanceof LdcInsnNode) || field.classDef != volatileFields.get(((LdcInsnNode) name).cst)
+                    || !flow.isSingleUse(vtClass))
+                return false;
+
+            methodEdits.add(new Edit(field.name, EDIT_NEW_UPDATER, flow.index(src)));
+            methodEdits.add(new Edit(field.name, EDIT_REMOVE, flow.index(vtClass)));
+            return true;
+        }
+
+        // new AtomicReference, its copy made by DUP is used to call the constructor
+        AbstractInsnNode dup = src.getNext();
+        if (NEW != src.getOpcode() || !ATOMIC_REFERENCE.equals(((TypeInsnNode) src).desc)
+                || null == dup || DUP != dup.getOpcode() || 1 != flow.usesOf(dup).size())
+            return false;
+
+        AbstractInsnNode init = flow.usesOf(dup).get(0).consumer;
+        if (INVOKESPECIAL != init.getOpcode() || !ATOMIC_REFERENCE.equals(((MethodInsnNode) init).owner)
+                || !"<init>".equals(((MethodInsnNode) init).name))
+            return false;
+
+        String desc = ((MethodInsnNode) init).desc;
+        if (!"()V".equals(desc) && !("(" + OBJECT_DESC + ")V").equals(desc))
+            return false;
+
+        methodEdits.add(new Edit(field.name, EDIT_NEW, flow.index(src)));
+        methodEdits.add(new Edit(field.name, EDIT_INIT, flow.index(init)));
+        return true;
+    }
+
+
+    private static boolean isConstant(AbstractInsnNode node, Object value) {
+        return node instanceof LdcInsnNode && value.equals(((LdcInsnNode) node).cst);
+    }
+
+
+    private static String removeFirstArg(String desc) {
+        return desc.startsWith("(" + OBJECT_DESC) ? "(" + desc.substring(OBJECT_DESC.length() + 1) : null;
+    }
+
+
+    private Field getField(AbstractInsnNode node) {
+
+        if (!(node instanceof FieldInsnNode) || !state.classPath.equals(((FieldInsnNode) node).owner))
+            return null;
+
+        Field field = fields.get(((FieldInsnNode) node).name);
+        return null != field && ((FieldInsnNode) node).desc.equals("L" + (field.isUpdater ? REFERENCE_UPDATER : ATOMIC_REFERENCE) + ";")
+                ? field : null;
+    }
+
+
+    private static void markBad(Field field) {
+
+        if (null != field) {
+            field.bad = true;
+        }
+    }
+
+
+    /**
+     * @return new descriptor of the field, if the field is replaced, or null
+     */
+    String getFieldDesc(String name) {
+
+        Field field = fields.get(name);
+        if (null == field || field.bad)
+            return null;
+
+        return "L" + (field.isUpdater ? LONG_UPDATER : ATOMIC_LONG) + ";";
+    }
+
+
+    /**
+     * Change the instructions of the method, that work with the replaced fields. Called before the transformation,
+     * the redirected calls are registered by {@link #addRewrites()}
+     */
+    void before(MethodNode method) {
+
+        rewrites.clear();
+        ArrayList<Edit> methodEdits = edits.get(method.originalName + method.originalDesc);
+        if (null == methodEdits)
+            return;
+
+        InsnList instructions = method.instructions;
+        AbstractInsnNode[] nodes = instructions.toArray();
+        for (Edit edit : methodEdits) {
+            Field field = fields.get(edit.field);
+            if (field.bad)
+                continue;
+
+            AbstractInsnNode node = nodes[edit.index];
+            String vtDesc = field.classDef.getSrcClassDesc();
+            switch (edit.kind) {
+                case EDIT_FIELD:
+                    ((FieldInsnNode) node).desc = getFieldDesc(field.name);
+                    break;
+
+                case EDIT_CALL:
+                    MethodInsnNode call = (MethodInsnNode) node;
+                    String prefix = field.isUpdater ? "(" + OBJECT_DESC : "(";
+                    String args = call.desc.substring(prefix.length());
+                    call.owner = field.isUpdater ? LONG_UPDATER : ATOMIC_LONG;
+                    rewrites.put(call, new Rewrite(call.owner, call.name, prefix + args.replace(OBJECT_DESC, "J"),
+                            false, prefix + args.replace(OBJECT_DESC, vtDesc)));
+                    break;
+
+                case EDIT_NEW:
+                    ((TypeInsnNode) node).desc = ATOMIC_LONG;
+                    break;
+
+                case EDIT_INIT:
+                    MethodInsnNode init = (MethodInsnNode) node;
+                    init.owner = ATOMIC_LONG;
+                    if ("()V".equals(init.desc)) {
+                        // Empty AtomicReference holds null
+                        instructions.insertBefore(init, new LdcInsnNode(field.classDef.getNullValue()));
+                        init.desc = "(J)V";
+                    } else {
+                        rewrites.put(init, new Rewrite(ATOMIC_LONG, init.name, "(J)V", false, "(" + vtDesc + ")V"));
+                    }
+
+                    break;
+
+                case EDIT_NEW_UPDATER:
+                    ((MethodInsnNode) node).owner = LONG_UPDATER;
+                    ((MethodInsnNode) node).desc = NEW_LONG_UPDATER_DESC;
+                    break;
+
+                case EDIT_REMOVE:
+                    instructions.remove(node);
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown atomic field edit: " + edit.kind);
+            }
+        }
+
+        state.logger.dbg("%d atomic field instruction(s) changed in %s", methodEdits.size(), method.originalName);
+    }
+
+
+    /**
+     * Register calls redirected to AtomicLong and AtomicLongFieldUpdater methods. Called after
+     * FunctionalInterfaceSpecializer analysis, that resets the rewrites of the method
+     */
+    void addRewrites() {
+
+        for (Map.Entry<AbstractInsnNode, Rewrite> e : rewrites.entrySet()) {
+            state.functionalInterfaceSpecializer.addRewrite(e.getKey(), e.getValue());
+        }
+
+        rewrites.clear();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.common.CrudeLogger;
+import deltix.vtype.mapping.ClassDef;
+import deltix.vtype.mapping.FusionDef;
+import deltix.vtype.mapping.MethodDef;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Tracks chains of transformed Value Type method calls within a method, where the result of a call is immediately
+ * used as the receiver (1st argument) of the next call of the same Value Type, and replaces the chains that match
+ * a fusion pattern defined for that Value Type with a single call to the fused implementation method.
+ * <p>
+ * Only the operands of the next call may be pushed between the calls in a chain, and only by simple instructions
+ * without side effects (loads of locals, constants, static fields and fields of 'this'),
+ * so the evaluation order of the original code is preserved.
+ * <p>
+ * Also replaces compareTo() calls, immediately followed by a comparison of the result with 0, with a call to
+ * the matching predicate of the implementation class (isLess, isGreaterOrEqual etc.), if it is present.
+ * Such predicates are expected to agree with compareTo(). Comparisons for equality are only replaced
+ * if enabled, because isEqual/isNotEqual of some implementations compare the representations, not the values.
+ */
+class CallFusion {
+
+    private static final int MAX_LOOKBEHIND = 0x20;
+
+    private static final String COMPARE_TO = "compareTo";
+    private static final String COMPARE_TO_DESC = "(JJ)I";
+    private static final String PREDICATE_DESC = "(JJ)Z";
+
+    // Predicates matching "compareTo() <cond> 0" in the order of IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE opcodes
+    // Predicate at index i ^ 1 is the negation of the predicate at index i
+    private static final String[] PREDICATES = {
+            "isEqual", "isNotEqual", "isLess", "isGreaterOrEqual", "isGreater", "isLessOrEqual"
+    };
+
+    private final CrudeLogger log;
+    private final boolean fuseEquality;
+
+    // Transformed calls that form the current chain, with their source method names and implementation descriptors
+    private final ArrayList<MethodInsnNode> nodes = new ArrayList<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private ClassDef classDef;
+
+    // Stack position of the Value Type returned by the last call in the chain
+    private int resultPos;
+
+    CallFusion(CrudeLogger log, boolean fuseEquality) {
+        this.log = log;
+        this.fuseEquality = fuseEquality;
+    }
+
+    void reset() {
+        nodes.clear();
+        names.clear();
+        classDef = null;
+    }
+
+    /**
+     * Called after a Value Type method call is transformed into a call of its implementation method.
+     * @param method the method being transformed
+     * @param node transformed call instruction, already pointing to the implementation method
+     * @param methodDef Value Type method definition
+     * @param firstArgPos stack position of the 1st argument before the call
+     * @param resultPos stack position of the returned value after the call
+     * @param argsTransformed true if boxing/unboxing code was inserted for the arguments
+     * @return true if the call was fused with the previous calls in the chain
+     */
+    boolean onMethodCall(MethodNode method, MethodInsnNode node, MethodDef methodDef,
+                         int firstArgPos, int resultPos, boolean argsTransformed) {
+
+        ClassDef cl = methodDef.getOwner();
+        if (!nodes.isEmpty() && (cl != classDef || firstArgPos != this.resultPos
+                || !isAdjacent(method, nodes.get(nodes.size() - 1), node))) {
+            reset();
+        }
+
+        if (argsTransformed || null == cl || methodDef.isAutoMethod() || cl.getFusions().isEmpty()) {
+            reset();
+            return false;
+        }
+
+        classDef = cl;
+        nodes.add(node);
+        names.add(methodDef.getOldName());
+
+        boolean fused = false;
+        while (tryFuse(method.instructions))
+            fused = true;
+
+        if (methodDef.returnsVType() && node.desc.endsWith(")J")) {
+            this.resultPos = resultPos;
+        } else {
+            reset();
+        }
+
+        return fused;
+    }
+
+
+    /**
+     * Called after a Value Type method call is transformed. If this is a compareTo() call and its result is only
+     * compared with 0 by the next instruction, replaces it with the predicate call and branches on its result.
+     * Doesn't remove instructions, because the following instructions are not yet processed.
+     * @param node transformed call instruction, already pointing to the implementation method
+     * @param methodDef Value Type method definition
+     * @return true if the call was replaced
+     */
+    boolean tryFuseCompareBranch(MethodInsnNode node, MethodDef methodDef) {
+
+        ClassDef cl = methodDef.getOwner();
+        if (null == cl || methodDef.isAutoMethod() || !COMPARE_TO.equals(methodDef.getOldName())
+                || !COMPARE_TO_DESC.equals(node.desc) || !node.name.startsWith(COMPARE_TO))
+            return false;
+
+        AbstractInsnNode next = node.getNext();
+        if (null == next)
+            return false;
+
+        JumpInsnNode jump;
+        int cond;
+        int opcode = next.getOpcode();
+        if (opcode >= IFEQ && opcode <= IFLE) {
+            jump = (JumpInsnNode) next;
+            cond = opcode - IFEQ;
+        } else if (ICONST_0 == opcode && null != next.getNext()
+                && next.getNext().getOpcode() >= IF_ICMPEQ && next.getNext().getOpcode() <= IF_ICMPLE) {
+            jump = (JumpInsnNode) next.getNext();
+            cond = jump.getOpcode() - IF_ICMPEQ;
+        } else {
+            return false;
+        }
+
+        if (cond < 2 && !fuseEquality)
+            return false;
+
+        // compareTo may be renamed with a suffix, predicates are expected to use the same suffix
+        String suffix = node.name.substring(COMPARE_TO.length());
+        boolean negate = false;
+        String name = PREDICATES[cond] + suffix;
+        if (!cl.hasDestinationMethod(name, PREDICATE_DESC)) {
+            name = PREDICATES[cond ^ 1] + suffix;
+            if (!cl.hasDestinationMethod(name, PREDICATE_DESC))
+                return false;
+
+            negate = true;
+        }
+
+        node.name = name;
+        node.desc = PREDICATE_DESC;
+        // Branch if predicate result is true (or false, for the negated predicate)
+        if (jump == next) {
+            jump.setOpcode(negate ? IFEQ : IFNE);
+        } else {
+            jump.setOpcode(negate ? IF_ICMPEQ : IF_ICMPNE);
+        }
+
+        log.dbg("Fused compareTo with branch into %s.%s%s", node.owner, name, PREDICATE_DESC);
+        return true;
+    }
+
+
+    private boolean tryFuse(InsnList instructions) {
+
+        int n = nodes.size();
+        for (FusionDef f : classDef.getFusions()) {
+            int k = f.length();
+            if (k > n || !matches(f, n - k))
+                continue;
+
+            String desc = fusedDesc(n - k);
+            String name = f.getImplName();
+            if (!classDef.hasDestinationMethod(name, desc)) {
+                log.wrn("Fused method not found: %s.%s%s", classDef.getDstClassPath(), name, desc);
+                continue;
+            }
+
+            MethodInsnNode last = nodes.get(n - 1);
+            for (int i = n - k; i < n - 1; ++i) {
+                instructions.remove(nodes.get(i));
+            }
+
+            last.setOpcode(INVOKESTATIC);
+            last.owner = classDef.getDstClassPath();
+            last.name = name;
+            last.desc = desc;
+            last.itf = false;
+
+            List<MethodInsnNode> fusedNodes = nodes.subList(n - k, n);
+            fusedNodes.clear();
+            fusedNodes.add(last);
+            List<String> fusedNames = names.subList(n - k, n);
+            fusedNames.clear();
+            fusedNames.add(name);
+            log.dbg("Fused %d calls into %s.%s%s", k, last.owner, name, desc);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    private boolean matches(FusionDef f, int start) {
+
+        for (int i = 0, k = f.length(); i < k; ++i) {
+            if (!f.methodAt(i).equals(names.get(start + i)))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Build the descriptor of the fused method: all arguments of the 1st call followed by the arguments
+     * of the subsequent calls, excluding their 1st argument (the result of the previous call)
+     */
+    private String fusedDesc(int start) {
+
+        ArrayList<Type> args = new ArrayList<>();
+        Type returnType = null;
+        for (int i = start, n = nodes.size(); i < n; ++i) {
+            String desc = nodes.get(i).desc;
+            Type[] argTypes = Type.getArgumentTypes(desc);
+            for (int j = i == start ? 0 : 1; j < argTypes.length; ++j) {
+                args.add(argTypes[j]);
+            }
+
+            returnType = Type.getReturnType(desc);
+        }
+
+        return Type.getMethodDescriptor(returnType, args.toArray(new Type[args.size()]));
+    }
+
+
+    /**
+     * Check that only the operands of the next call are pushed between the two calls. Static fields are only
+     * allowed if they are constants of the implementation class: reading other static fields may initialize
+     * other classes or observe side effects of the previous call
+     */
+    private static boolean isAdjacent(MethodNode method, AbstractInsnNode prev, MethodInsnNode node) {
+
+        AbstractInsnNode i = node.getPrevious();
+        for (int n = 0; n < MAX_LOOKBEHIND && null != i; ++n, i = i.getPrevious()) {
+            if (i == prev)
+                return true;
+
+            int opcode = i.getOpcode();
+            switch (opcode) {
+                case -1:
+                    if (i instanceof LabelNode && isTryBoundary(method, (LabelNode) i))
+                        return false;
+
+                    if (i instanceof FrameNode)
+                        return false;
+
+                    continue;
+
+                case ILOAD: case LLOAD: case FLOAD: case DLOAD: case ALOAD:
+                case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2: case ICONST_3:
+                case ICONST_4: case ICONST_5: case LCONST_0: case LCONST_1: case FCONST_0: case FCONST_1:
+                case FCONST_2: case DCONST_0: case DCONST_1: case BIPUSH: case SIPUSH: case LDC:
+                    continue;
+
+                case GETSTATIC:
+                    if (node.owner.equals(((FieldInsnNode) i).owner))
+                        continue;
+
+                    return false;
+
+                case GETFIELD:
+                    AbstractInsnNode p = i.getPrevious();
+                    if (0 == (method.access & ACC_STATIC) && null != p && ALOAD == p.getOpcode() && 0 == ((VarInsnNode) p).var)
+                        continue;
+
+                    return false;
+
+                default:
+                    return false;
+            }
+        }
+
+        return false;
+    }
+
+
+    private static boolean isTryBoundary(MethodNode method, LabelNode label) {
+
+        if (null != method.tryCatchBlocks) {
+            for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+                if (label == tcb.start || label == tcb.end || label == tcb.handler)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+}
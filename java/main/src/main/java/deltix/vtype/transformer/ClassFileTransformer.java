@@ -16,15 +16,21 @@
 
 package deltix.vtype.transformer;
 
+import deltix.vtype.collections.ValueTypeCodec;
 import deltix.vtype.mapping.ClassDef;
 import deltix.vtype.mapping.Mapping;
 import deltix.vtype.mapping.MappingReader;
+import deltix.vtype.mapping.MethodDef;
 import org.objectweb.asm.*;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.security.ProtectionDomain;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static deltix.vtype.transformer.AsmUtil.classPathToName;
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
 import static org.objectweb.asm.Opcodes.ASM7;
 
@@ -238,6 +244,22 @@ class ClassFileTransformer implements java.lang.instrument.ClassFileTransformer
                     System.out.printf("Start ClassReader for class: %s%n", className);
                 }
 
+                if (mapping.specializeGenericMethods && null == classDef) {
+                    state.genericMethodSpecializer.scan(cr);
+                }
+
+                if (mapping.replaceAtomicFields && null == classDef) {
+                    state.atomicFieldTransformer.scan(cr);
+                }
+
+                if ((mapping.replaceArrayLists || mapping.replaceTreeMaps) && null == classDef) {
+                    state.collectionReceiverAnalyzer.scan(cr);
+                }
+
+                if (null == classDef) {
+                    state.serializedLambdaTransformer.scan(cr);
+                }
+
                 org.objectweb.asm.ClassVisitor cv = new ClassVisitor(ASM7, prev, state);
                 cr.accept(cv, 0);
 
@@ -358,12 +380,59 @@ class ClassFileTransformer implements java.lang.instrument.ClassFileTransformer
     // Initialize loading of our Value Type classes before everything else
     // This will call our own transform() method for every such class, so we can scan it, extracting any data we need,
     // verify its signatures, etc.
+    /**
+     * Register boxing/unboxing methods of the mapped classes for use by Value Type collections.
+     * Uses generated classes calling these methods directly or method handles, if the class can't be generated
+     */
+    private void registerCodecs() {
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (int i = 0, n = mapping.numClasses(); i < n; ++i) {
+            ClassDef classDef = mapping.getClassDef(i);
+            ClassLoader loader = ClassFileTransformer.class.getClassLoader();
+            Class<?> srcClass, implClass;
+            try {
+                srcClass = Class.forName(classPathToName(classDef.getSrcClassPath()), false, loader);
+                implClass = Class.forName(classPathToName(classDef.getDstClassPath()), false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.out.printf("VT Agent: Failed to load Value Type class %s: %s%n", classPathToName(classDef.getSrcClassPath()), e);
+                continue;
+            }
+
+            try {
+                ValueTypeCodec.Methods methods = CodecMethodsGenerator.create(classDef, implClass, i, loader);
+                ValueTypeCodec.register(srcClass, implClass, methods, classDef.getNullValue());
+                continue;
+            } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+                System.out.printf("VT Agent: Failed to generate codec methods for %s: %s%n", srcClass.getName(), e);
+            }
+
+            try {
+                MethodHandle box = findStatic(lookup, classDef.boxingMethod, loader);
+                MethodHandle unbox = findStatic(lookup, classDef.unboxingMethod, loader);
+                ValueTypeCodec.register(srcClass, implClass, box, unbox, classDef.getNullValue());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.out.printf("VT Agent: Failed to register codec for %s: %s%n", srcClass.getName(), e);
+            }
+        }
+    }
+
+
+    private static MethodHandle findStatic(MethodHandles.Lookup lookup, MethodDef method, ClassLoader loader)
+            throws ReflectiveOperationException {
+
+        Class<?> owner = Class.forName(classPathToName(method.getNewOwner()), false, loader);
+        return lookup.findStatic(owner, method.getNewName(), MethodType.fromMethodDescriptorString(method.getNewDesc(), loader));
+    }
+
+
     public void readClasses() {
 
         try {
             System.out.println("Begin scanning transformed classes (and loading dependencies)");
             mapping.loadClasses(currentlyLoadedClass, currentClassDef);
             System.out.printf("End scanning transformed classes. %d classes will be transformed.%n", mapping.numLoadedClasses());
+            registerCodecs();
         } catch (Exception e) {
             e.printStackTrace();
         }
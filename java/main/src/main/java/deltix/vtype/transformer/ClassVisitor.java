@@ -61,6 +61,7 @@ public class ClassVisitor extends org.objectweb.asm.ClassVisitor {
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
 
+        state.classAccess = access;
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
@@ -97,6 +98,10 @@ public class ClassVisitor extends org.objectweb.asm.ClassVisitor {
 
         checkIfJustStarted();
 
+        // Body of a serializable lambda that implements a generic interface, the lambda is not transformed either
+        if (state.serializedLambdaTransformer.isBoxedBody(name, desc))
+            return super.visitMethod(access, name, desc, signature, exceptions);
+
         if (appearsToBeVtSetter(access, name, desc)) {
             String newDesc = getTransformedDesc(desc);
             if (hasTransformedSetter(name, newDesc))
@@ -151,7 +156,21 @@ public class ClassVisitor extends org.objectweb.asm.ClassVisitor {
 
         //System.out.println("visitField: access="+access+" name="+name+" desc="+desc+" signature="+signature+" value="+value);
         if (isClassTransformed) {
+            if (null != signature) {
+                state.fieldSignatures.put(name, signature);
+            }
+
             String oldDesc = desc;
+            String atomicDesc = state.atomicFieldTransformer.getFieldDesc(name);
+            if (null != atomicDesc) {
+                desc = atomicDesc;
+                signature = null;
+                state.classWasTransformed = true;
+                if (mapping.logSuccesses) {
+                    System.out.printf("VT Agent: UPDATED field: %s.%s / %s -> %s%n", className, name, oldDesc, desc);
+                }
+            }
+
             int typeId = DescriptorParser.getDescTypeId(desc, mapping);
             if (TypeId.isVt(typeId)) {
                 checkIfJustStarted();
@@ -186,6 +205,10 @@ public class ClassVisitor extends org.objectweb.asm.ClassVisitor {
 
     @Override
     public void visitEnd() {
+        if (isClassTransformed) {
+            state.genericMethodSpecializer.emitSpecializations(cv);
+        }
+
         super.visitEnd();
         if (printEndOfProcessingMessage || mapping.logEveryClass) {
             System.out.println("VT Agent: END processing class: " + className);
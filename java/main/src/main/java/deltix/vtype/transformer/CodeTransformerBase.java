@@ -36,6 +36,19 @@ import static org.objectweb.asm.Opcodes.*;
 
 
 public abstract class CodeTransformerBase extends StackWalkHandler implements VariableNameFormatter {
+    static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+    // LambdaMetafactory.altMetafactory flags
+    static final int FLAG_SERIALIZABLE = 1;
+    static final int FLAG_MARKERS = 2;
+    static final int FLAG_BRIDGES = 4;
+
+    static final String STRING_CONCAT_FACTORY = "java/lang/invoke/StringConcatFactory";
+    static final String STRING_BUILDER = "java/lang/StringBuilder";
+    static final String STRING_DESC = "Ljava/lang/String;";
+    // Implementation class methods used to convert Value Types to strings
+    static final String TO_STRING_DESC = "(J)Ljava/lang/String;";
+    static final String APPEND_TO_DESC = "(JLjava/lang/StringBuilder;)Ljava/lang/StringBuilder;";
+
     private final TranslationState state;
     protected InsnList instructions;
     protected final Mapping mapping;
@@ -83,6 +96,7 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
 
         this.initializationPatchNode = null;
         this.firstLabel             = null;
+        state.callFusion.reset();
 
         // TODO: only set if there are VT fields
         this.needAutoInitInjectionPoint = isConstructor;
@@ -392,10 +406,13 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
         int op = methodNode.getOpcode();
         // Just for safety
         switch (op) {
+            case INVOKEINTERFACE:
             case INVOKEVIRTUAL:
                 // ValueType implementation methods are always static
+                // AutoMethod template may also replace interface method with a static method of another class
                 methodNode.setOpcode(INVOKESTATIC);
-                // fall through
+                methodNode.itf = false;
+                break;
             case INVOKESTATIC:
                 break;
             default:
@@ -643,8 +660,10 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
                 break;
 
             case TypeIdCast.NEED_UNBOXING:
-                // Need to create Value Type from its Reference class representation
-                insertUnboxing(node, srcType, dstType, cause);
+                // Need to create Value Type from its Reference class representation. The reference may be
+                // statically typed as Object, e.g. returned by List.get() and passed to a redirected generic call
+                insertUnboxing(node, srcType, dstType,
+                        isNonVtScalarRef(srcType) && !isNull(srcType) && 0 == getArrayDepth(dstType), cause);
                 break;
 
             case TypeIdCast.SUCCESS:
@@ -812,7 +831,7 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
             assert(0 != (HAS_VTYPE & checkResult));
 
             methodArgs = Arrays.copyOf(methodArgs, nMethodArgs + 1);
-            int result = substituteWildcardArgs(methodArgs, nMethodArgs);
+            int result = substituteWildcardArgs(methodArgs, nMethodArgs, methodDef.getWildcardGroups());
             if (TypeIdCast.isFailure(result)) {
                 log.err("Wildcard ValueType substitution failed at position %d (more than 1 vtype used?)", checkResult >> 8);
             }
@@ -835,12 +854,43 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
             return checkResult;
         }
 
+        int firstArgPos = vm.top() - nMethodArgs + 1;
         applyMethodArgs(node, methodArgs, nMethodArgs, checkResult);
         replaceMethodSignature(node, methodDef);
+        state.callFusion.onMethodCall(method(), node, methodDef, firstArgPos, vm.top(),
+                TypeIdCast.SUCCESS != (checkResult & ~HAS_VTYPE));
+        state.callFusion.tryFuseCompareBranch(node, methodDef);
+
         return checkResult;
     }
 
 
+    /**
+     * @return true if each Value Type (or wildcard) argument of the autoMethod template has a Value Type of the same
+     * class (any class for wildcards) and array depth on the stack
+     */
+    private boolean isAutoMethodMatch(MethodDef m) {
+
+        int[] args = m.args;
+        int nArgs = m.numArgs;
+        if (vm.top() < nArgs)
+            return false;
+
+        for (int i = 1; i <= nArgs; ++i) {
+            int argType = args[i];
+            if (!isVt(argType))
+                continue;
+
+            int stackType = vm.typeIdAt(nArgs - i);
+            if (!isVt(stackType) || getArrayDepth(stackType) != getArrayDepth(argType)
+                    || !isVtWildcard(argType) && !isSameVtClass(stackType, argType))
+                return false;
+        }
+
+        return true;
+    }
+
+
     boolean tryTransformAsVTypeMethodCall(MethodInsnNode node, String name, String owner, String desc) {
         // Is this method a registered ValueType method?
         HashMap<Integer, MethodDef> vtypeMethodMap = mapping.getMethodMap(owner);
@@ -857,9 +907,15 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
                 }
             } else {
                 if (m.isAutoMethod()) {
-                    log.wrn("AutoMethod: %s.%s%s -> %s", owner, name, desc, m.getNewDesc());
-                    if (TypeIdCast.NO_SUBSTITUTION != transformMethodCall(node, m))
-                        return true;
+                    // Try templates with the same source method until Value Type arguments match
+                    for (; null != m; m = m.getNextAutoMethod()) {
+                        if (!isAutoMethodMatch(m))
+                            continue;
+
+                        log.wrn("AutoMethod: %s.%s%s -> %s", owner, name, desc, m.getNewDesc());
+                        if (TypeIdCast.NO_SUBSTITUTION != transformMethodCall(node, m))
+                            return true;
+                    }
 
                     // Fall through to processing this method as normal
                     return false;
@@ -1107,10 +1163,40 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
         if (isVt(getClassTypeId(desc))) {
             log.err("Constructor calls are not allowed for value type: %s at line: %d", desc, currentLine());
         } else {
-            vm.push32ref(desc);
+            if (ValueTypeCollections.ARRAY_LIST.equals(desc) || ValueTypeCollections.TREE_MAP.equals(desc)) {
+                tryReplaceCollection(node);
+            }
+
+            vm.push32ref(node.desc);
         }
     }
 
+
+    /**
+     * Replace {@code new ArrayList<>()} with {@code new ValueTypeList<>(VT.class)}, if the new list is immediately
+     * stored into a field of this class or a local variable, declared as List, Collection or Iterable of a Value Type.
+     * Replace {@code new TreeMap<>()} with {@code new ValueTypeTreeMap<>(VT.class)} in the same way, if the map
+     * is declared as NavigableMap, SortedMap or Map with Value Type keys.
+     */
+    protected boolean tryReplaceCollection(TypeInsnNode node) {
+
+        String vtClassPath = ValueTypeCollections.getReplacedElementClass(node, state, method().localVariables);
+        if (null == vtClassPath)
+            return false;
+
+        MethodInsnNode initNode = ValueTypeCollections.getReplacedInit(node);
+        boolean hasCapacity = !"()V".equals(initNode.desc);
+        String replacement = ValueTypeCollections.getReplacementClass(node.desc);
+        log.dbg("Replaced %s<%s> with %s", node.desc, vtClassPath, replacement);
+        node.desc = replacement;
+        // The class goes first, before the capacity
+        AbstractInsnNode dup = ValueTypeCollections.nextInsn(node);
+        insertBefore(ValueTypeCollections.nextInsn(dup), new LdcInsnNode(Type.getObjectType(vtClassPath)));
+        initNode.owner = replacement;
+        initNode.desc = hasCapacity ? ValueTypeCollections.CTOR_DESC_CAPACITY : ValueTypeCollections.CTOR_DESC;
+        return true;
+    }
+
     @Override
     public void onANewArray(TypeInsnNode node) {
 
@@ -1808,6 +1894,457 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
 //    }
 
 
+    /**
+     * Devirtualize calls of supertype or interface methods (Number.doubleValue(), Comparable.compareTo(), etc.)
+     * on unboxed Value Types. If the Value Type class declares a mapped method with the same name and signature,
+     * the call is retargeted to the Value Type class and then transformed as a usual Value Type method call,
+     * without boxing the receiver. Object arguments that are Value Types of the same class prefer the method
+     * that takes the Value Type (compareTo(ValueType) instead of the compareTo(Object) bridge)
+     */
+    protected boolean tryDevirtualizeSupertypeMethod(MethodInsnNode node) {
+
+        int opcode = node.getOpcode();
+        if (INVOKEVIRTUAL != opcode && INVOKEINTERFACE != opcode)
+            return false;
+
+        String owner = node.owner;
+        if ('[' == owner.charAt(0) || mapping.isMappedClass(owner) || owner.equals("java/lang/Object"))
+            return false;
+
+        Type[] argTypes = Type.getArgumentTypes(node.desc);
+        int nArgs = argTypes.length;
+        if (vm.top() <= nArgs)
+            return false;
+
+        int receiverTypeId = vm.typeIdAt(nArgs);
+        if (!isVtValue(receiverTypeId))
+            return false;
+
+        String vtClassPath = mapping.getClassDefById(receiverTypeId).getSrcClassPath();
+        HashMap<Integer, MethodDef> vtypeMethodMap = mapping.getMethodMap(vtClassPath);
+        if (null == vtypeMethodMap)
+            return false;
+
+        boolean specialized = false;
+        for (int i = 0; i < nArgs; ++i) {
+            if (argTypes[i].getInternalName().equals("java/lang/Object") && vm.typeIdAt(nArgs - 1 - i) == receiverTypeId) {
+                argTypes[i] = Type.getObjectType(vtClassPath);
+                specialized = true;
+            }
+        }
+
+        String desc = node.desc;
+        if (specialized) {
+            String specializedDesc = Type.getMethodDescriptor(Type.getReturnType(desc), argTypes);
+            if (null != Mapping.getMethod(vtypeMethodMap, node.name, specializedDesc)) {
+                desc = specializedDesc;
+            }
+        }
+
+        if (null == Mapping.getMethod(vtypeMethodMap, node.name, desc))
+            return false;
+
+        log.dbg("Devirtualized %s.%s%s -> %s", owner, node.name, node.desc, vtClassPath);
+        node.setOpcode(INVOKEVIRTUAL);
+        node.owner = vtClassPath;
+        node.desc = desc;
+        node.itf = false;
+        return true;
+    }
+
+
+    /**
+     * Redirect the call of a private or static generic method of this class, that receives Value Types as arguments
+     * of its type variable, to the copy of that method specialized for the Value Type
+     * @see GenericMethodSpecializer
+     */
+    protected boolean tryRedirectToSpecializedMethod(MethodInsnNode node) {
+
+        if (!mapping.specializeGenericMethods || !node.owner.equals(state.classPath))
+            return false;
+
+        String desc = state.genericMethodSpecializer.specialize(node, vm);
+        if (null == desc)
+            return false;
+
+        log.dbg("Specialized call %s%s -> %s", node.name, node.desc, desc);
+        node.desc = desc;
+        return true;
+    }
+
+
+    /**
+     * Redirect generic method calls of Value Type collections with unboxed Value Type arguments or results
+     * to the methods that take and return {@code long}. Calls of List, Map etc. interface methods are redirected
+     * too, if the receiver is statically known to be a Value Type collection. The receiver is then cast to
+     * the collection class right after it is loaded
+     * @see ValueTypeCollections
+     * @see CollectionReceiverAnalyzer
+     */
+    protected boolean tryTransformCollectionMethod(MethodInsnNode node) {
+
+        int opcode = node.getOpcode();
+        if (INVOKEVIRTUAL != opcode && INVOKEINTERFACE != opcode)
+            return false;
+
+        String owner = node.owner;
+        AbstractInsnNode receiver = null;
+        if (!ValueTypeCollections.isCollectionClass(owner)) {
+            if (!ValueTypeCollections.isCollectionInterface(owner))
+                return false;
+
+            receiver = state.collectionReceiverAnalyzer.getReceiverSource(node);
+            // The receiver instruction should still be in place
+            if (null == receiver || null == receiver.getNext())
+                return false;
+
+            owner = state.collectionReceiverAnalyzer.getReceiverClass(node);
+        }
+
+        Type[] argTypes = Type.getArgumentTypes(node.desc);
+        int nArgs = argTypes.length;
+        if (vm.top() <= nArgs)
+            return false;
+
+        int vtTypeId = 0;
+        for (int i = 0; i < nArgs; ++i) {
+            int typeId = vm.typeIdAt(nArgs - 1 - i);
+            if (isVtValue(typeId) && argTypes[i].getSort() == Type.OBJECT && argTypes[i].getInternalName().equals("java/lang/Object")) {
+                argTypes[i] = Type.LONG_TYPE;
+                vtTypeId = typeId;
+            }
+        }
+
+        Type returnType = Type.getReturnType(node.desc);
+        String name = node.name;
+        int returnTypeId = 0;
+        if (returnType.getSort() == Type.OBJECT && returnType.getInternalName().equals("java/lang/Object")) {
+            AbstractInsnNode next = node.getNext();
+            if (null != next && CHECKCAST == next.getOpcode()) {
+                returnTypeId = getClassTypeId(((TypeInsnNode) next).desc);
+            } else if (null != next && POP == next.getOpcode()) {
+                // Discarded result of the same type as the argument (onPop32 will change POP to POP2)
+                returnTypeId = vtTypeId;
+            }
+
+            if (!isVtValue(returnTypeId) || !ValueTypeCollections.hasMethod(owner, name + ValueTypeCollections.LONG_SUFFIX,
+                    Type.getMethodDescriptor(Type.LONG_TYPE, argTypes))) {
+                returnTypeId = 0;
+            } else {
+                name += ValueTypeCollections.LONG_SUFFIX;
+                returnType = Type.LONG_TYPE;
+            }
+        }
+
+        if (0 == vtTypeId && 0 == returnTypeId)
+            return false;
+
+        String desc = Type.getMethodDescriptor(returnType, argTypes);
+        if (!ValueTypeCollections.hasMethod(owner, name, desc))
+            return false;
+
+        log.dbg("Collection method %s.%s -> %s.%s%s", node.owner, node.name, owner, name, desc);
+        if (null != receiver) {
+            method().instructions.insert(receiver, new TypeInsnNode(CHECKCAST, owner));
+            node.setOpcode(INVOKEVIRTUAL);
+            node.owner = owner;
+            node.itf = false;
+        }
+
+        node.name = name;
+        node.desc = desc;
+        vm.popMany(nArgs + 1);
+        applyReturnValue(0 != returnTypeId ? returnTypeId : getDescTypeId(returnType.getDescriptor()));
+        return true;
+    }
+
+
+    /**
+     * Replace {@code (VT) iterator.next()} with a call that returns unboxed Value Type without allocation,
+     * if the iterator is statically known to belong to a Value Type collection. Other iterators are unboxed
+     * by the cast, as before
+     */
+    protected boolean tryTransformIteratorNext(MethodInsnNode node) {
+
+        if (INVOKEINTERFACE != node.getOpcode() || !node.owner.equals("java/util/Iterator")
+                || !node.name.equals("next") || !node.desc.equals("()Ljava/lang/Object;"))
+            return false;
+
+        AbstractInsnNode next = node.getNext();
+        if (null == next || CHECKCAST != next.getOpcode())
+            return false;
+
+        int typeId = getClassTypeId(((TypeInsnNode) next).desc);
+        if (!isVtValue(typeId) || null == state.collectionReceiverAnalyzer.getReceiverClass(node))
+            return false;
+
+        insertBefore(node, new LdcInsnNode(Type.getObjectType(getClassFromTypeId(typeId).getSrcClassPath())));
+        node.setOpcode(INVOKESTATIC);
+        node.owner = ValueTypeCollections.ITERATORS;
+        node.name = ValueTypeCollections.NEXT_LONG;
+        node.desc = ValueTypeCollections.NEXT_LONG_DESC;
+        node.itf = false;
+        vm.pop32();
+        vm.pushTypeId(typeId);
+        return true;
+    }
+
+
+    /**
+     * Replace java.util.Arrays sort, binarySearch, fill, toString and hashCode calls on 1-dimensional Value Type
+     * arrays with the methods that take {@code long[]}, instead of boxing the array
+     */
+    protected boolean tryTransformArraysMethod(MethodInsnNode node) {
+
+        if (INVOKESTATIC != node.getOpcode() || !ValueTypeCollections.JDK_ARRAYS.equals(node.owner))
+            return false;
+
+        String[] replacement = ValueTypeCollections.getArraysMethod(node.name, node.desc);
+        if (null == replacement)
+            return false;
+
+        Type[] argTypes = Type.getArgumentTypes(node.desc);
+        int nArgs = argTypes.length;
+        if (vm.top() < nArgs)
+            return false;
+
+        int arrayTypeId = vm.typeIdAt(nArgs - 1);
+        if (!isVtArray(arrayTypeId) || 1 != getArrayDepth(arrayTypeId))
+            return false;
+
+        InvokeDynamicInsnNode lambda = null;
+        Handle function = null;
+        boolean nullFill = false;
+        if (replacement.length > 2) {
+            // The function should be a non-capturing lambda, created right before the call, with the body
+            // that can be called with unboxed Value Types
+            if (!(node.getPrevious() instanceof InvokeDynamicInsnNode))
+                return false;
+
+            lambda = (InvokeDynamicInsnNode) node.getPrevious();
+            function = getUnboxedLambdaBody(lambda, replacement[2]);
+            if (null == function)
+                return false;
+
+        } else if (nArgs > 1 && argTypes[nArgs - 1].getSort() == Type.OBJECT) {
+            // The key or the fill value should be unboxed Value Type of the same class. Null constant is also
+            // accepted as the fill value and replaced with the null value of the class
+            int valueTypeId = vm.typeIdAt(0);
+            nullFill = NULL_REF == valueTypeId && "fill".equals(node.name);
+            if (!nullFill && (!isVtValue(valueTypeId) || !isSameVtClass(arrayTypeId, valueTypeId)))
+                return false;
+        }
+
+        String newOwner = replacement[0];
+        String newDesc = replacement[1];
+        if (null != lambda) {
+            log.dbg("Lambda %s replaced with handle %s.%s%s", lambda.desc, function.getOwner(), function.getName(), function.getDesc());
+            insertBefore(lambda, new LdcInsnNode(function));
+            remove(lambda);
+        }
+
+        if (nullFill) {
+            insertBasic(node, POP);
+            insertLoadVtNull(node, getClassFromTypeId(arrayTypeId));
+        }
+
+        if (newDesc.contains(ValueTypeCollections.CLASS_DESC)) {
+            insertBefore(node, new LdcInsnNode(Type.getObjectType(getClassFromTypeId(arrayTypeId).getSrcClassPath())));
+        }
+
+        log.dbg("Arrays method %s%s -> %s.%s%s", node.name, node.desc, newOwner, node.name, newDesc);
+        node.owner = newOwner;
+        node.desc = newDesc;
+        vm.popMany(nArgs);
+        applyReturnValue(getDescTypeId(Type.getReturnType(newDesc).getDescriptor()));
+        return true;
+    }
+
+
+    /**
+     * @return handle of the static method that does the same as the body of the non-capturing lambda, but takes
+     * and returns unboxed Value Types, or null if there is no such method or its descriptor can't be adapted to
+     * the specified one
+     */
+    protected Handle getUnboxedLambdaBody(InvokeDynamicInsnNode node, String functionDesc) {
+
+        Object[] bsmArgs = node.bsmArgs;
+        if (!node.bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory") || 3 != bsmArgs.length
+                || !(bsmArgs[1] instanceof Handle) || Type.getArgumentTypes(node.desc).length != 0)
+            return null;
+
+        Handle handle = FunctionalInterfaceSpecializer.getUnboxedBody((Handle) bsmArgs[1], state);
+        return null != handle && H_INVOKESTATIC == handle.getTag() && isAdaptableDesc(handle.getDesc(), functionDesc)
+                ? handle : null;
+    }
+
+    /**
+     * @return true if a method with descriptor 'desc' can be called as 'targetDesc' after MethodHandle.asType()
+     * widening of int arguments to long
+     */
+    private static boolean isAdaptableDesc(String desc, String targetDesc) {
+
+        if (!Type.getReturnType(desc).equals(Type.getReturnType(targetDesc)))
+            return false;
+
+        Type[] args = Type.getArgumentTypes(desc);
+        Type[] targetArgs = Type.getArgumentTypes(targetDesc);
+        if (args.length != targetArgs.length)
+            return false;
+
+        for (int i = 0; i < args.length; ++i) {
+            if (!args[i].equals(targetArgs[i]) && !(Type.LONG_TYPE.equals(args[i]) && Type.INT_TYPE.equals(targetArgs[i])))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Replace StringBuilder.append(Object) call on unboxed Value Type with the implementation class method
+     * appendTo(long, StringBuilder) or, if there is no such method, with append(String) of the string returned by
+     * the implementation class method toString(long). These methods are expected to append/return "null" for
+     * the null value, like append(Object) does
+     */
+    protected boolean tryTransformStringBuilderAppend(MethodInsnNode node) {
+
+        if (INVOKEVIRTUAL != node.getOpcode() || !STRING_BUILDER.equals(node.owner) || !node.name.equals("append")
+                || !node.desc.equals("(Ljava/lang/Object;)Ljava/lang/StringBuilder;"))
+            return false;
+
+        vm.checkSrcUnderflow32(node, 2);
+        int typeId = vm.typeIdAt(0);
+        if (!isVtValue(typeId))
+            return false;
+
+        ClassDef cl = getClassFromTypeId(typeId);
+        String implClassPath = cl.getDstClassPath();
+        if (cl.hasDestinationMethod("appendTo", APPEND_TO_DESC)) {
+            // StringBuilder, long -> long, StringBuilder
+            insertBasic(node, DUP2_X1);
+            insertBasic(node, POP2);
+            node.setOpcode(INVOKESTATIC);
+            node.owner = implClassPath;
+            node.name = "appendTo";
+            node.desc = APPEND_TO_DESC;
+        } else if (cl.hasDestinationMethod("toString", TO_STRING_DESC)) {
+            insertBefore(node, new MethodInsnNode(INVOKESTATIC, implClassPath, "toString", TO_STRING_DESC, false));
+            node.desc = "(Ljava/lang/String;)Ljava/lang/StringBuilder;";
+        } else
+            return false;
+
+        log.dbg("StringBuilder.append(%s) -> %s.%s%s", cl.getSrcShortClassPath(), node.owner, node.name, node.desc);
+        vm.popMany(2);
+        applyReturnValue(getDescTypeId("L" + STRING_BUILDER + ";"));
+        return true;
+    }
+
+
+    /**
+     * Pass Value Type arguments of StringConcatFactory string concatenation (javac 9+) as strings, returned by
+     * the implementation class method toString(long), instead of boxing them. Value Types without such method
+     * are boxed. Value Type references and null constants passed as Value Types, e.g. variables initialized with
+     * null, are unboxed first, so they are also formatted as "null"
+     */
+    protected boolean tryTransformStringConcat(InvokeDynamicInsnNode node) {
+
+        if (!STRING_CONCAT_FACTORY.equals(node.bsm.getOwner()))
+            return false;
+
+        Type[] argTypes = Type.getArgumentTypes(node.desc);
+        int nArgs = argTypes.length;
+        vm.checkSrcUnderflow32(node, nArgs);
+        int depth = -1;
+        for (int i = 0; i < nArgs; ++i) {
+            if (isVtValue(vm.typeIdAt(i)) || 0 != getUnboxedConcatArg(vm.typeIdAt(i), argTypes[nArgs - 1 - i])) {
+                depth = i;
+            }
+        }
+
+        if (depth < 0)
+            return false;
+
+        // Unload the arguments above the deepest Value Type into temporary variables and convert Value Types
+        // while loading them back
+        int varTop = varTop();
+        for (int i = 0; i < depth; ++i) {
+            insertBefore(node, new VarInsnNode(storeOpcodeForTypeId(vm.typeIdAt(i)), varTop + i * 2));
+        }
+
+        for (int i = depth; i >= 0; --i) {
+            int typeId = vm.typeIdAt(i);
+            if (i < depth) {
+                insertBefore(node, new VarInsnNode(loadOpcodeForTypeId(typeId), varTop + i * 2));
+            }
+
+            int unboxedTypeId = getUnboxedConcatArg(typeId, argTypes[nArgs - 1 - i]);
+            if (0 != unboxedTypeId) {
+                insertUnboxing(node, typeId, unboxedTypeId, -1);
+                typeId = unboxedTypeId;
+            }
+
+            if (isVtValue(typeId)) {
+                ClassDef cl = getClassFromTypeId(typeId);
+                if (cl.hasDestinationMethod("toString", TO_STRING_DESC)) {
+                    insertBefore(node, new MethodInsnNode(INVOKESTATIC, cl.getDstClassPath(), "toString", TO_STRING_DESC, false));
+                    argTypes[nArgs - 1 - i] = Type.getType(STRING_DESC);
+                } else {
+                    insertBoxingFrom(node, typeId, argRefWarningCause(nArgs - i));
+                    argTypes[nArgs - 1 - i] = Type.getType(cl.getSrcClassDesc());
+                }
+            }
+        }
+
+        node.desc = Type.getMethodDescriptor(Type.getReturnType(node.desc), argTypes);
+        log.dbg("String concatenation %s%s", node.name, node.desc);
+        vm.popMany(nArgs);
+        applyReturnValue(getDescTypeId(STRING_DESC));
+        return true;
+    }
+
+
+    /**
+     * @return Value Type id, that the reference or null constant passed to string concatenation as Value Type
+     * should be unboxed to, or 0
+     */
+    private int getUnboxedConcatArg(int typeId, Type argType) {
+
+        if (isVtRef(typeId))
+            return vtValueFrom(typeId);
+
+        int argTypeId = getDescTypeId(argType.getDescriptor());
+        return NULL_REF == typeId && isVtValue(argTypeId) ? argTypeId : 0;
+    }
+
+
+    /**
+     * Redirect the call to the primitive functional interface, LongStream or OptionalLong method, if
+     * FunctionalInterfaceSpecializer replaced its receiver
+     */
+    protected boolean tryRewriteCall(MethodInsnNode node) {
+
+        FunctionalInterfaceSpecializer.Rewrite rewrite = state.functionalInterfaceSpecializer.getRewrite(node);
+        if (null == rewrite)
+            return false;
+
+        String srcDesc = rewrite.srcDesc;
+        int nMethodArgs = AsmUtil.parseMethod(methodArgs, node.getOpcode(), node.owner, srcDesc, mapping);
+        int checkResult = verifyMethodArgs(methodArgs, nMethodArgs);
+        if (TypeIdCast.isFailure(checkResult)) {
+            onMethodVerificationError(methodArgs, nMethodArgs, checkResult, node.name, node.owner, srcDesc);
+        }
+
+        log.dbg("Call %s.%s redirected to %s.%s%s", node.owner, node.name, rewrite.owner, rewrite.name, rewrite.desc);
+        node.owner = rewrite.owner;
+        node.name = rewrite.name;
+        node.desc = rewrite.desc;
+        node.itf = rewrite.itf;
+        applyMethodArgs(node, methodArgs, nMethodArgs, checkResult);
+        return true;
+    }
+
+
     @Override
     public void onMethod(MethodInsnNode node) {
 
@@ -1819,8 +2356,14 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
             node.name = node.name;
         }
 
+        if (tryRewriteCall(node) || tryTransformCollectionMethod(node) || tryTransformIteratorNext(node)
+                || tryTransformArraysMethod(node) || tryTransformStringBuilderAppend(node))
+            return;
+
         // Possibly change node signature to match Value Type signature on stack
-        tryPreTransformObjectMethods(node);
+        if (!tryPreTransformObjectMethods(node) && !tryDevirtualizeSupertypeMethod(node)) {
+            tryRedirectToSpecializedMethod(node);
+        }
 
         int nMethodArgs = AsmUtil.parseMethod(methodArgs, node.getOpcode(), node.owner, node.desc, mapping);
 
@@ -1869,6 +2412,10 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
 
     @Override
     public void onInvokeDynamic(InvokeDynamicInsnNode node) {
+
+        if (tryTransformPrimitiveLambda(node) || tryTransformStringConcat(node) || tryKeepBoxedLambda(node))
+            return;
+
         // TODO: Incomplete implementation
         boolean vtInDesc = false, vtInInterface = false, vtInBody = false, vtInImplArgs = false, vtInBsm = false;
         String name = node.name, desc = node.desc;
@@ -1888,7 +2435,7 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
         }
 
         Object[] bsmArgs = node.bsmArgs;
-        boolean isLambda = node.bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory") && bsmArgs.length == 3 && bsmArgs[0] instanceof Type && bsmArgs[1] instanceof Handle && bsmArgs[2] instanceof Type;
+        boolean isLambda = isLambdaBootstrap(node);
 
         if (!isLambda) {
             // If not recognized lambda format. Still assume it is lambda.
@@ -1937,6 +2484,13 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
             return;
         }
 
+        // Method reference to a mapped Value Type method, implementing an interface with Value Type arguments
+        if (vtInInterface && null != mapping.getMethodMap(bodyHandle.getOwner())) {
+            retargetVtMethodReference(node, interfaceTypeDesc, implTypeDesc);
+            applyMethodArgs(node, methodArgs, nMethodArgs, checkResult);
+            return;
+        }
+
         // We have lambda and it references Value Types somewhere
         boolean isInstanceMethod = H_INVOKESTATIC != bodyHandle.getTag();
 
@@ -1954,7 +2508,7 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
         assert(nBodyArgs >= nImplArgs);
         assert(vtInBody || !vtInImplArgs);
 
-        if (!vtInDesc && vtInInterface && vtInBody && vtInImplArgs && nInterfaceArgs == nImplArgs) do {
+        if (vtInInterface && vtInBody && vtInImplArgs && nInterfaceArgs == nImplArgs) do {
             // Check if types used in functional interface and interface implementation match
             int checkResult2 = Utils.compareMethodArgs(interfaceArgs, 0, implArgs, 0, nInterfaceArgs);
             if (TypeIdCast.SUCCESS != (checkResult2 & ~HAS_VTYPE))
@@ -1980,6 +2534,7 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
                     bodyHandle.isInterface());
 
             bsmArgs[2] = Type.getType(getTransformedDesc(implTypeDesc, false, mapping));
+            transformAltMetafactoryArgs(node, name);
                     //new Type(Type.METHOD,
         } while(false);
 
@@ -1987,6 +2542,136 @@ public abstract class CodeTransformerBase extends StackWalkHandler implements Va
     }
 
 
+    /**
+     * Leave the serializable lambda, that implements a generic interface with a Value Type body, untransformed.
+     * Its body is not transformed either (see SerializedLambdaTransformer), so captured Value Types are boxed
+     */
+    private boolean tryKeepBoxedLambda(InvokeDynamicInsnNode node) {
+
+        if (!state.serializedLambdaTransformer.isBoxedLambda(node))
+            return false;
+
+        final int[] methodArgs = this.methodArgs;
+        int nMethodArgs = DescriptorParser.parseMethod(methodArgs, 0, node.desc, mapping);
+        for (int i = 1; i <= nMethodArgs; ++i) {
+            if (isVtValue(methodArgs[i])) {
+                methodArgs[i] = vtRefFrom(methodArgs[i]);
+            }
+        }
+
+        int checkResult = verifyMethodArgs(methodArgs, nMethodArgs);
+        if (TypeIdCast.isFailure(checkResult)) {
+            onMethodVerificationError(methodArgs, nMethodArgs, checkResult, node.name, null, node.desc);
+        }
+
+        log.dbg("Lambda %s is not transformed, generic serializable interface", ((Handle) node.bsmArgs[1]).getName());
+        applyMethodArgs(node, methodArgs, nMethodArgs, checkResult);
+        return true;
+    }
+
+
+    /**
+     * Point the method reference to the static implementation method of the Value Type method, taking unboxed
+     * Value Types (and the receiver as the 1st argument). The interface method is transformed the same way as
+     * for other lambdas
+     */
+    private void retargetVtMethodReference(InvokeDynamicInsnNode node, String interfaceTypeDesc, String implTypeDesc) {
+
+        Object[] bsmArgs = node.bsmArgs;
+        String name = node.name;
+        Handle body = (Handle) bsmArgs[1];
+        Handle impl = FunctionalInterfaceSpecializer.getUnboxedBody(body, state);
+        String desc = getTransformedDesc(implTypeDesc, false, mapping);
+        if (null == impl || !FunctionalInterfaceSpecializer.isCompatibleBody(impl.getDesc(), desc)) {
+            log.wrn("Method reference %s.%s%s can't be called with unboxed Value Types", body.getOwner(), body.getName(), body.getDesc());
+            addWarning(Warnings.INDY_VT);
+            return;
+        }
+
+        log.dbg("Method reference %s.%s retargeted to %s.%s%s", body.getOwner(), body.getName(), impl.getOwner(), impl.getName(), impl.getDesc());
+        node.name = nameConverter.transformIf(true, name, interfaceTypeDesc);
+        bsmArgs[0] = Type.getType(getTransformedDesc(interfaceTypeDesc, false, mapping));
+        bsmArgs[1] = impl;
+        bsmArgs[2] = Type.getType(desc);
+        transformAltMetafactoryArgs(node, name);
+    }
+
+
+    /**
+     * @return true if the bootstrap method is LambdaMetafactory.metafactory or altMetafactory, with the interface
+     * method type, implementation handle and instantiated method type as the first 3 arguments
+     */
+    static boolean isLambdaBootstrap(InvokeDynamicInsnNode node) {
+
+        Object[] bsmArgs = node.bsmArgs;
+        String name = node.bsm.getName();
+        return LAMBDA_METAFACTORY.equals(node.bsm.getOwner())
+                && ("metafactory".equals(name) ? 3 == bsmArgs.length : "altMetafactory".equals(name) && bsmArgs.length >= 4)
+                && bsmArgs[0] instanceof Type && bsmArgs[1] instanceof Handle && bsmArgs[2] instanceof Type;
+    }
+
+
+    /**
+     * Transform the extra arguments of altMetafactory: flags, [marker interface count, marker interfaces...],
+     * [bridge count, bridge method types...]. Marker interfaces are kept. Bridges are implemented with the
+     * name of the interface method, so they can't be kept, if it was renamed
+     */
+    private void transformAltMetafactoryArgs(InvokeDynamicInsnNode node, String srcName) {
+
+        Object[] bsmArgs = node.bsmArgs;
+        if (bsmArgs.length < 4 || !(bsmArgs[3] instanceof Integer))
+            return;
+
+        int flags = (Integer) bsmArgs[3];
+        int i = 4;
+        if (0 != (flags & FLAG_MARKERS)) {
+            i += 1 + (Integer) bsmArgs[i];
+        }
+
+        if (0 == (flags & FLAG_BRIDGES))
+            return;
+
+        int n = (Integer) bsmArgs[i++];
+        for (int k = 0; k < n; ++k, ++i) {
+            String bridgeDesc = bsmArgs[i].toString();
+            if (DescriptorParser.findVtInMethodDesc(bridgeDesc, mapping) || !srcName.equals(node.name)) {
+                log.wrn("Lambda bridge %s%s can't be transformed", srcName, bridgeDesc);
+                addWarning(Warnings.INDY_VT);
+                bsmArgs[i] = Type.getType(getTransformedDesc(bridgeDesc, false, mapping));
+            }
+        }
+    }
+
+
+    /**
+     * Replace the lambda with the primitive functional interface, if FunctionalInterfaceSpecializer found that possible
+     */
+    protected boolean tryTransformPrimitiveLambda(InvokeDynamicInsnNode node) {
+
+        FunctionalInterfaceSpecializer.Lambda lambda = state.functionalInterfaceSpecializer.getLambda(node);
+        if (null == lambda)
+            return false;
+
+        int nMethodArgs = DescriptorParser.parseMethod(methodArgs, 0, node.desc, mapping);
+        int checkResult = verifyMethodArgs(methodArgs, nMethodArgs);
+        if (TypeIdCast.isFailure(checkResult)) {
+            onMethodVerificationError(methodArgs, nMethodArgs, checkResult, node.name, null, node.desc);
+        }
+
+        FunctionalInterfaceSpecializer.Kind kind = lambda.kind;
+        Object[] bsmArgs = node.bsmArgs;
+        String desc = getTransformedDesc(node.desc, false, mapping);
+        node.desc = desc.substring(0, desc.indexOf(')') + 1) + Type.getObjectType(kind.dstOwner).getDescriptor();
+        node.name = kind.dstName;
+        bsmArgs[0] = Type.getMethodType(kind.dstDesc);
+        bsmArgs[1] = lambda.body;
+        bsmArgs[2] = Type.getMethodType(getTransformedDesc(bsmArgs[2].toString(), false, mapping));
+        log.dbg("Lambda replaced with %s: %s", kind.dstOwner, lambda.body);
+        applyMethodArgs(node, methodArgs, nMethodArgs, checkResult);
+        return true;
+    }
+
+
     private boolean shouldBeRenamed(String name, String interfaceTypeDesc) {
         return AsmUtil.shouldBeRenamed(name, interfaceTypeDesc, mapping);
     }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.collections.ValueTypeCodec;
+import deltix.vtype.mapping.ClassDef;
+import deltix.vtype.mapping.MethodDef;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static deltix.vtype.transformer.AsmUtil.classPathToName;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates {@link ValueTypeCodec.Methods} subclasses, that call the boxing methods and the implementation class
+ * methods of a Value Type directly, instead of through method handles, so Value Type collections calling them
+ * don't pay for method handle invocation and the calls can be inlined.
+ * <p>
+ * The classes are defined in this package, with the class loader of the agent, that also loads the mapped classes.
+ */
+final class CodecMethodsGenerator {
+
+    private static final String METHODS = Type.getInternalName(ValueTypeCodec.Methods.class);
+    private static final String CLASS_PREFIX = "deltix/vtype/transformer/CodecMethods$";
+
+    private CodecMethodsGenerator() {
+    }
+
+
+    /**
+     * @param classDef Value Type class definition
+     * @param implClass implementation class of the Value Type
+     * @param index unique index of the Value Type, to make the class name unique
+     * @return instance of the generated class
+     */
+    static ValueTypeCodec.Methods create(ClassDef classDef, Class<?> implClass, int index, ClassLoader loader)
+            throws ReflectiveOperationException {
+
+        String classPath = CLASS_PREFIX + index;
+        byte[] bytes = generate(classPath, classDef, implClass, loader);
+        return (ValueTypeCodec.Methods) defineClass(classPathToName(classPath), bytes, loader).newInstance();
+    }
+
+
+    private static byte[] generate(String classPath, ClassDef classDef, Class<?> implClass, ClassLoader loader)
+            throws ReflectiveOperationException {
+
+        ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+        cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, classPath, null, METHODS, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, METHODS, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "box", "(J)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(LLOAD, 1);
+        visitCall(mv, classDef.boxingMethod, loader);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        MethodDef unbox = classDef.unboxingMethod;
+        mv = cw.visitMethod(ACC_PUBLIC, "unbox", "(Ljava/lang/Object;)J", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, Type.getArgumentTypes(unbox.getNewDesc())[0].getInternalName());
+        visitCall(mv, unbox, loader);
+        mv.visitInsn(LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // Methods missing from the implementation class are inherited from ValueTypeCodec.Methods
+        String implClassPath = classDef.getDstClassPath();
+        visitImplMethod(cw, implClass, implClassPath, "hashCode", "hashCode", int.class, long.class);
+        visitImplMethod(cw, implClass, implClassPath, "equals", "equals", boolean.class, long.class, long.class);
+        visitImplMethod(cw, implClass, implClassPath, "compare", "compareTo", int.class, long.class, long.class);
+        visitImplMethod(cw, implClass, implClassPath, "toString", "toString", String.class, long.class);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+
+    private static void visitCall(MethodVisitor mv, MethodDef method, ClassLoader loader) throws ClassNotFoundException {
+
+        boolean isInterface = Class.forName(classPathToName(method.getNewOwner()), false, loader).isInterface();
+        mv.visitMethodInsn(INVOKESTATIC, method.getNewOwner(), method.getNewName(), method.getNewDesc(), isInterface);
+    }
+
+
+    private static void visitImplMethod(ClassWriter cw, Class<?> implClass, String implClassPath,
+                                        String name, String implName, Class<?> returnType, Class<?>... argTypes) {
+
+        Method implMethod;
+        try {
+            implMethod = implClass.getMethod(implName, argTypes);
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+
+        if (!Modifier.isStatic(implMethod.getModifiers()) || returnType != implMethod.getReturnType())
+            return;
+
+        String desc = Type.getMethodDescriptor(implMethod);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, name, desc, null, null);
+        mv.visitCode();
+        for (int i = 0; i < argTypes.length; ++i) {
+            mv.visitVarInsn(LLOAD, 1 + 2 * i);
+        }
+
+        mv.visitMethodInsn(INVOKESTATIC, implClassPath, implName, desc, implClass.isInterface());
+        mv.visitInsn(Type.getType(returnType).getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+
+    /**
+     * Define the class in this package, with Lookup.defineClass() on Java 9+ or ClassLoader.defineClass() before
+     */
+    private static Class<?> defineClass(String name, byte[] bytes, ClassLoader loader) throws ReflectiveOperationException {
+
+        Method define;
+        try {
+            define = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+        } catch (NoSuchMethodException e) {
+            define = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+            define.setAccessible(true);
+            return (Class<?>) define.invoke(loader, name, bytes, 0, bytes.length);
+        }
+
+        return (Class<?>) define.invoke(MethodHandles.lookup(), (Object) bytes);
+    }
+}
@@ -0,0 +1,805 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Measures bytecode size of a method and moves cold code out of the transformed methods that became too large
+ * to be inlined (FreqInlineSize) or compiled (HugeMethodLimit) by the JIT after Value Type transformation.
+ * <p>
+ * Only straight-line blocks that end with ATHROW, only read local variables and don't consume stack values pushed
+ * before the block are considered cold. Such block (usually exception construction, including the message string
+ * building) is moved into a synthetic private static helper method that takes all local variables read by the block
+ * and returns the exception object. The original block is replaced with: load locals, INVOKESTATIC helper, ATHROW.
+ * Local variable types are taken from the stack frames and tracked across store instructions between them.
+ * <p>
+ * NOTE: the outlined exception will have an extra stack trace element that points to the helper method
+ */
+class ColdCodeOutliner {
+
+    private static final String THROWABLE_DESC = "Ljava/lang/Throwable;";
+
+    private final TranslationState state;
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private final HashSet<LabelNode> referencedLabels = new HashSet<>();
+    private final HashMap<LabelNode, Integer> tryRangeLabels = new HashMap<>();
+    private final HashSet<Integer> storedSlots = new HashSet<>();
+    private final ArrayList<Object> frameLocals = new ArrayList<>();
+    private Object[] slotTypes = new Object[0x100];
+    private int nSlots;
+    private final ArrayList<Integer> slots = new ArrayList<>();
+    private final ArrayList<Object> types = new ArrayList<>();
+
+    private static class Block {
+        AbstractInsnNode first, last;
+        LineNumberNode lineNode;
+        int size;
+        int[] slots;
+        Object[] types;
+        int callSize;
+
+        int savings() {
+            return size - callSize;
+        }
+    }
+
+    ColdCodeOutliner(TranslationState state) {
+        this.state = state;
+    }
+
+
+    /**
+     * Estimate the size of the method bytecode in bytes.
+     * Exact, unless the method is big enough to require LDC_W or GOTO_W instructions
+     * @param instructions method instruction list
+     * @return estimated code size
+     */
+    static int codeSize(InsnList instructions) {
+
+        int size = 0;
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            size += insnSize(node, size);
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Estimate bytecode size of a single instruction
+     * @param node instruction
+     * @param offset bytecode offset of the instruction, used to calculate switch instruction padding
+     * @return size in bytes, 0 for labels, frames and line numbers
+     */
+    static int insnSize(AbstractInsnNode node, int offset) {
+
+        int opcode = node.getOpcode();
+        switch (node.getType()) {
+            case AbstractInsnNode.LABEL:
+            case AbstractInsnNode.LINE:
+            case AbstractInsnNode.FRAME:
+                return 0;
+
+            case AbstractInsnNode.INSN:
+                return 1;
+
+            case AbstractInsnNode.INT_INSN:
+                return SIPUSH == opcode ? 3 : 2;
+
+            case AbstractInsnNode.VAR_INSN:
+                int var = ((VarInsnNode) node).var;
+                return var < 4 && RET != opcode ? 1 : var < 0x100 ? 2 : 4;
+
+            case AbstractInsnNode.TYPE_INSN:
+            case AbstractInsnNode.FIELD_INSN:
+            case AbstractInsnNode.JUMP_INSN:
+                return 3;
+
+            case AbstractInsnNode.METHOD_INSN:
+                return INVOKEINTERFACE == opcode ? 5 : 3;
+
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return 5;
+
+            case AbstractInsnNode.LDC_INSN:
+                Object cst = ((LdcInsnNode) node).cst;
+                return cst instanceof Long || cst instanceof Double ? 3 : 2;
+
+            case AbstractInsnNode.IINC_INSN:
+                IincInsnNode iinc = (IincInsnNode) node;
+                return iinc.var < 0x100 && iinc.incr >= Byte.MIN_VALUE && iinc.incr <= Byte.MAX_VALUE ? 3 : 6;
+
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                return 1 + (3 & -(offset + 1)) + 12 + 4 * ((TableSwitchInsnNode) node).labels.size();
+
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                return 1 + (3 & -(offset + 1)) + 8 + 8 * ((LookupSwitchInsnNode) node).labels.size();
+
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return 4;
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Move cold blocks out of the method until its code size is not greater than the limit
+     * @param method transformed method
+     * @param methodName original method name, used as a prefix for the helper method names
+     * @param cv class visitor that will receive the generated helper methods
+     * @param limit code size limit, in bytes
+     * @return resulting code size
+     */
+    int outline(org.objectweb.asm.tree.MethodNode method, String methodName, ClassVisitor cv, int limit) {
+
+        int size = codeSize(method.instructions);
+        if (size <= limit || null == cv)
+            return size;
+
+        findBlocks(method);
+
+        // Bigger blocks first
+        Block[] sorted = blocks.toArray(new Block[blocks.size()]);
+        Arrays.sort(sorted, new Comparator<Block>() {
+            @Override
+            public int compare(Block a, Block b) {
+                return b.savings() - a.savings();
+            }
+        });
+
+        for (Block block : sorted) {
+            if (size <= limit)
+                break;
+
+            size -= block.savings();
+            outlineBlock(method, methodName, cv, block);
+        }
+
+        blocks.clear();
+        return codeSize(method.instructions);
+    }
+
+
+    private void findBlocks(org.objectweb.asm.tree.MethodNode method) {
+
+        blocks.clear();
+        collectReferencedLabels(method);
+        initLocals(method);
+
+        LineNumberNode lineNode = null;
+        AbstractInsnNode prev = null;
+        int tryDepth = 0;
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            boolean isBlockStart = false;
+            switch (node.getType()) {
+                case AbstractInsnNode.LINE:
+                    lineNode = (LineNumberNode) node;
+                    continue;
+
+                case AbstractInsnNode.LABEL:
+                    Integer delta = tryRangeLabels.get(node);
+                    tryDepth += null != delta ? delta : 0;
+                    continue;
+
+                case AbstractInsnNode.FRAME:
+                    applyFrame((FrameNode) node);
+                    isBlockStart = true;
+                    break;
+
+                case AbstractInsnNode.JUMP_INSN:
+                    // Fall-through branch of a conditional jump
+                    isBlockStart = GOTO != node.getOpcode() && JSR != node.getOpcode();
+                    break;
+
+                case AbstractInsnNode.VAR_INSN:
+                    applyStore((VarInsnNode) node, prev);
+                    break;
+            }
+
+            prev = node;
+            if (isBlockStart) {
+                // Local variables are not used after the block, unless there is an exception handler
+                Block block = tryCreateBlock(node.getNext(), lineNode, 0 == tryDepth);
+                if (null != block) {
+                    blocks.add(block);
+                    // The block can't contain frames or stores, so the local variable state is not affected
+                    node = prev = block.last;
+                }
+            }
+        }
+    }
+
+
+    private void collectReferencedLabels(org.objectweb.asm.tree.MethodNode method) {
+
+        referencedLabels.clear();
+        tryRangeLabels.clear();
+        if (null != method.tryCatchBlocks) {
+            for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+                referencedLabels.add(tcb.start);
+                referencedLabels.add(tcb.end);
+                referencedLabels.add(tcb.handler);
+                addTryRangeLabel(tcb.start, 1);
+                addTryRangeLabel(tcb.end, -1);
+            }
+        }
+
+        if (null != method.localVariables) {
+            for (LocalVariableNode var : method.localVariables) {
+                referencedLabels.add(var.start);
+                referencedLabels.add(var.end);
+            }
+        }
+
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            switch (node.getType()) {
+                case AbstractInsnNode.JUMP_INSN:
+                    referencedLabels.add(((JumpInsnNode) node).label);
+                    break;
+
+                case AbstractInsnNode.TABLESWITCH_INSN:
+                    referencedLabels.add(((TableSwitchInsnNode) node).dflt);
+                    referencedLabels.addAll(((TableSwitchInsnNode) node).labels);
+                    break;
+
+                case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                    referencedLabels.add(((LookupSwitchInsnNode) node).dflt);
+                    referencedLabels.addAll(((LookupSwitchInsnNode) node).labels);
+                    break;
+
+                case AbstractInsnNode.FRAME:
+                    // Uninitialized object types refer to the labels of NEW instructions
+                    addFrameLabels(((FrameNode) node).local);
+                    addFrameLabels(((FrameNode) node).stack);
+                    break;
+            }
+        }
+    }
+
+
+    private void addTryRangeLabel(LabelNode label, int delta) {
+
+        Integer prev = tryRangeLabels.get(label);
+        tryRangeLabels.put(label, null != prev ? prev + delta : delta);
+    }
+
+
+    private void addFrameLabels(List<Object> entries) {
+
+        if (null != entries) {
+            for (Object o : entries) {
+                if (o instanceof LabelNode) {
+                    referencedLabels.add((LabelNode) o);
+                }
+            }
+        }
+    }
+
+
+    private void initLocals(org.objectweb.asm.tree.MethodNode method) {
+
+        frameLocals.clear();
+        if (0 == (method.access & ACC_STATIC)) {
+            frameLocals.add("<init>".equals(method.name) ? UNINITIALIZED_THIS : state.classPath);
+        }
+
+        for (Type t : Type.getArgumentTypes(method.desc)) {
+            frameLocals.add(typeToFrameEntry(t));
+        }
+
+        updateSlots();
+    }
+
+
+    private static Object typeToFrameEntry(Type t) {
+
+        switch (t.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return INTEGER;
+            case Type.FLOAT:
+                return FLOAT;
+            case Type.LONG:
+                return LONG;
+            case Type.DOUBLE:
+                return DOUBLE;
+            case Type.VOID:
+                return null;
+            default:
+                return t.getInternalName();
+        }
+    }
+
+
+    /**
+     * Replay compressed frame over the current local variable list
+     */
+    private void applyFrame(FrameNode frame) {
+
+        switch (frame.type) {
+            case F_NEW:
+            case F_FULL:
+                frameLocals.clear();
+                frameLocals.addAll(frame.local);
+                break;
+
+            case F_APPEND:
+                frameLocals.addAll(frame.local);
+                break;
+
+            case F_CHOP:
+                for (int n = frame.local.size(); n > 0 && !frameLocals.isEmpty(); --n) {
+                    frameLocals.remove(frameLocals.size() - 1);
+                }
+                break;
+        }
+
+        updateSlots();
+    }
+
+
+    private void updateSlots() {
+
+        nSlots = 0;
+        for (Object t : frameLocals) {
+            setSlot(nSlots, t);
+        }
+    }
+
+
+    private static boolean isWide(Object t) {
+        return LONG == t || DOUBLE == t;
+    }
+
+
+    private void setSlot(int slot, Object t) {
+
+        int end = slot + (isWide(t) ? 2 : 1);
+        if (end > slotTypes.length) {
+            slotTypes = Arrays.copyOf(slotTypes, Math.max(slotTypes.length * 2, end));
+        }
+
+        for (int i = nSlots; i < end; ++i) {
+            slotTypes[i] = TOP;
+        }
+
+        nSlots = Math.max(nSlots, end);
+        // Tail of a wide value becomes unusable
+        if (slot > 0 && isWide(slotTypes[slot - 1])) {
+            slotTypes[slot - 1] = TOP;
+        }
+
+        slotTypes[slot] = t;
+        if (isWide(t)) {
+            slotTypes[slot + 1] = TOP;
+        }
+    }
+
+
+    private Object slotType(int slot) {
+        return slot < nSlots ? slotTypes[slot] : null;
+    }
+
+
+    /**
+     * Track local variable types between stack frames
+     */
+    private void applyStore(VarInsnNode node, AbstractInsnNode prev) {
+
+        int var = node.var;
+        switch (node.getOpcode()) {
+            case ISTORE:
+                setSlot(var, INTEGER);
+                break;
+            case FSTORE:
+                setSlot(var, FLOAT);
+                break;
+            case LSTORE:
+                setSlot(var, LONG);
+                break;
+            case DSTORE:
+                setSlot(var, DOUBLE);
+                break;
+            case ASTORE:
+                setSlot(var, storedRefType(prev));
+                break;
+        }
+    }
+
+
+    /**
+     * @return type of the reference produced by the instruction or null, if unknown
+     */
+    private Object storedRefType(AbstractInsnNode prev) {
+
+        if (null == prev)
+            return null;
+
+        switch (prev.getType()) {
+            case AbstractInsnNode.METHOD_INSN:
+                return typeToFrameEntry(Type.getReturnType(((MethodInsnNode) prev).desc));
+
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return typeToFrameEntry(Type.getReturnType(((InvokeDynamicInsnNode) prev).desc));
+
+            case AbstractInsnNode.FIELD_INSN:
+                return GETFIELD == prev.getOpcode() || GETSTATIC == prev.getOpcode()
+                        ? typeToFrameEntry(Type.getType(((FieldInsnNode) prev).desc)) : null;
+
+            case AbstractInsnNode.TYPE_INSN:
+                String desc = ((TypeInsnNode) prev).desc;
+                switch (prev.getOpcode()) {
+                    case CHECKCAST:
+                        return desc;
+                    case ANEWARRAY:
+                        return '[' == desc.charAt(0) ? '[' + desc : "[L" + desc + ';';
+                }
+                return null;
+
+            case AbstractInsnNode.VAR_INSN:
+                return ALOAD == prev.getOpcode() ? slotType(((VarInsnNode) prev).var) : null;
+
+            case AbstractInsnNode.LDC_INSN:
+                Object cst = ((LdcInsnNode) prev).cst;
+                return cst instanceof String ? "java/lang/String" : cst instanceof Type ? "java/lang/Class" : null;
+
+            case AbstractInsnNode.FRAME:
+                // Exception handler, caught exception is on the stack
+                FrameNode frame = (FrameNode) prev;
+                return F_SAME1 == frame.type && frame.stack.get(0) instanceof String ? frame.stack.get(0) : null;
+        }
+
+        return null;
+    }
+
+
+    private static boolean isLoadCompatible(int opcode, Object t) {
+
+        switch (opcode) {
+            case ILOAD: return INTEGER == t;
+            case LLOAD: return LONG == t;
+            case FLOAD: return FLOAT == t;
+            case DLOAD: return DOUBLE == t;
+            case ALOAD: return t instanceof String;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return number of stack slots occupied by a value of this type descriptor
+     */
+    private static int descSize(String desc, int i) {
+
+        char c = desc.charAt(i);
+        return 'V' == c ? 0 : 'J' == c || 'D' == c ? 2 : 1;
+    }
+
+
+    private static int returnSize(String desc) {
+        return descSize(desc, desc.indexOf(')') + 1);
+    }
+
+
+    /**
+     * Stack effect of a simple instruction that is allowed in a cold block.
+     * @return (number of slots required on the stack) << 8 | (stack size change + 0x80), or -1, if not allowed
+     */
+    private static int insnStackEffect(int opcode) {
+
+        if (opcode >= ACONST_NULL && opcode <= DCONST_1) {
+            return LCONST_0 == opcode || LCONST_1 == opcode || DCONST_0 == opcode || DCONST_1 == opcode
+                    ? 0x82 : 0x81;
+        }
+
+        switch (opcode) {
+            case DUP:                                   return 0x181;
+            case DUP_X1:                                return 0x281;
+            case DUP_X2:                                return 0x381;
+            case DUP2:                                  return 0x282;
+            case DUP2_X1:                               return 0x382;
+            case DUP2_X2:                               return 0x482;
+            case SWAP:                                  return 0x280;
+            case POP:                                   return 0x17F;
+            case POP2:                                  return 0x27E;
+            case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+            case FADD: case FSUB: case FMUL: case FDIV: case FREM:
+            case ISHL: case ISHR: case IUSHR: case IAND: case IOR: case IXOR:
+            case FCMPL: case FCMPG:
+                                                        return 0x27F;
+            case LADD: case LSUB: case LMUL: case LDIV: case LREM:
+            case DADD: case DSUB: case DMUL: case DDIV: case DREM:
+            case LAND: case LOR: case LXOR:
+                                                        return 0x47E;
+            case LSHL: case LSHR: case LUSHR:           return 0x37F;
+            case LCMP: case DCMPL: case DCMPG:          return 0x47D;
+            case INEG: case FNEG: case I2F: case F2I:
+            case I2B: case I2C: case I2S: case ARRAYLENGTH:
+                                                        return 0x180;
+            case LNEG: case DNEG: case L2D: case D2L:   return 0x280;
+            case I2L: case I2D: case F2L: case F2D:     return 0x181;
+            case L2I: case L2F: case D2I: case D2F:     return 0x27F;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Check if a straight-line sequence of instructions, starting with the specified node and ending with ATHROW,
+     * can be moved into a separate method.
+     * The sequence must only consume values it pushed onto the stack itself and only read local variables,
+     * unless the local variables are not used after the block.
+     * @param canStore true if the values stored into local variables can't be used after the block
+     * @return new block descriptor or null if not found
+     */
+    private Block tryCreateBlock(AbstractInsnNode first, LineNumberNode lineNode, boolean canStore) {
+
+        int size = 0;
+        int depth = 0;
+        int argSize = 0;
+        slots.clear();
+        types.clear();
+        storedSlots.clear();
+
+        for (AbstractInsnNode node = first; null != node; node = node.getNext()) {
+            int opcode = node.getOpcode();
+            int need = 0, delta;
+            String desc;
+            switch (node.getType()) {
+                case AbstractInsnNode.LABEL:
+                    if (referencedLabels.contains(node))
+                        return null;
+                    continue;
+
+                case AbstractInsnNode.LINE:
+                    continue;
+
+                case AbstractInsnNode.VAR_INSN:
+                    int var = ((VarInsnNode) node).var;
+                    if (opcode >= ISTORE && opcode <= ASTORE) {
+                        // Temporary variable, will be moved into the new method
+                        if (!canStore)
+                            return null;
+
+                        storedSlots.add(var);
+                        need = LSTORE == opcode || DSTORE == opcode ? 2 : 1;
+                        delta = -need;
+                        break;
+                    }
+
+                    if (opcode < ILOAD || opcode > ALOAD)
+                        return null; // RET
+
+                    if (!slots.contains(var) && !storedSlots.contains(var)) {
+                        Object t = slotType(var);
+                        if (!isLoadCompatible(opcode, t))
+                            return null;
+
+                        slots.add(var);
+                        types.add(t);
+                        argSize += LLOAD == opcode || DLOAD == opcode ? 2 : 1;
+                    }
+
+                    delta = LLOAD == opcode || DLOAD == opcode ? 2 : 1;
+                    break;
+
+                case AbstractInsnNode.INT_INSN:
+                    if (NEWARRAY == opcode) {
+                        need = 1;
+                        delta = 0;
+                    } else {
+                        delta = 1;
+                    }
+                    break;
+
+                case AbstractInsnNode.LDC_INSN:
+                    Object cst = ((LdcInsnNode) node).cst;
+                    delta = cst instanceof Long || cst instanceof Double ? 2 : 1;
+                    break;
+
+                case AbstractInsnNode.TYPE_INSN:
+                    need = NEW == opcode ? 0 : 1;
+                    delta = NEW == opcode ? 1 : 0;
+                    break;
+
+                case AbstractInsnNode.FIELD_INSN:
+                    desc = ((FieldInsnNode) node).desc;
+                    if (GETSTATIC == opcode) {
+                        delta = descSize(desc, 0);
+                    } else if (GETFIELD == opcode) {
+                        need = 1;
+                        delta = descSize(desc, 0) - 1;
+                    } else
+                        return null;
+                    break;
+
+                case AbstractInsnNode.METHOD_INSN:
+                    MethodInsnNode m = (MethodInsnNode) node;
+                    if (INVOKESPECIAL == opcode && !"<init>".equals(m.name))
+                        return null;
+
+                    need = (Type.getArgumentsAndReturnSizes(m.desc) >> 2) - (INVOKESTATIC == opcode ? 1 : 0);
+                    delta = returnSize(m.desc) - need;
+                    break;
+
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                    desc = ((InvokeDynamicInsnNode) node).desc;
+                    need = (Type.getArgumentsAndReturnSizes(desc) >> 2) - 1;
+                    delta = returnSize(desc) - need;
+                    break;
+
+                case AbstractInsnNode.INSN:
+                    if (ATHROW == opcode) {
+                        // The block must throw a value it created itself
+                        if (depth < 1 || 0 == size)
+                            return null;
+
+                        return createBlock(first, node, lineNode, size + 1, argSize);
+                    }
+
+                    int effect = insnStackEffect(opcode);
+                    if (effect < 0)
+                        return null;
+
+                    need = effect >> 8;
+                    delta = (effect & 0xFF) - 0x80;
+                    break;
+
+                default:
+                    // Frames, jumps, switches, IINC, MULTIANEWARRAY
+                    return null;
+            }
+
+            // The block must not consume values that were on the stack before it started
+            if (depth < need)
+                return null;
+
+            depth += delta;
+            size += insnSize(node, 0);
+        }
+
+        return null;
+    }
+
+
+    private Block createBlock(AbstractInsnNode first, AbstractInsnNode last, LineNumberNode lineNode, int size, int argSize) {
+
+        Block block = new Block();
+        block.first = first;
+        block.last = last;
+        block.lineNode = lineNode;
+        block.size = size;
+        block.slots = new int[slots.size()];
+        block.types = types.toArray();
+        int callSize = 3 + 1;
+        for (int i = 0; i < block.slots.length; ++i) {
+            int slot = slots.get(i);
+            block.slots[i] = slot;
+            callSize += slot < 4 ? 1 : slot < 0x100 ? 2 : 4;
+        }
+
+        block.callSize = callSize;
+        // Outlining is pointless if we can't save a few bytes
+        return argSize <= 0xFF && block.savings() > 4 ? block : null;
+    }
+
+
+    private static String frameEntryToDesc(Object t) {
+
+        if (INTEGER == t) return "I";
+        if (LONG == t) return "J";
+        if (FLOAT == t) return "F";
+        if (DOUBLE == t) return "D";
+        String s = (String) t;
+        return '[' == s.charAt(0) ? s : 'L' + s + ';';
+    }
+
+
+    private static int loadOpcode(Object t) {
+
+        if (INTEGER == t) return ILOAD;
+        if (LONG == t) return LLOAD;
+        if (FLOAT == t) return FLOAD;
+        if (DOUBLE == t) return DLOAD;
+        return ALOAD;
+    }
+
+
+    private void outlineBlock(org.objectweb.asm.tree.MethodNode method, String methodName, ClassVisitor cv, Block block) {
+
+        StringBuilder sb = new StringBuilder("(");
+        HashMap<Integer, Integer> slotMap = new HashMap<>();
+        int nextSlot = 0;
+        for (int i = 0; i < block.slots.length; ++i) {
+            Object t = block.types[i];
+            sb.append(frameEntryToDesc(t));
+            slotMap.put(block.slots[i], nextSlot);
+            nextSlot += isWide(t) ? 2 : 1;
+        }
+
+        String helperDesc = sb.append(')').append(THROWABLE_DESC).toString();
+        String helperName = state.newColdMethodName(methodName);
+
+        org.objectweb.asm.tree.MethodNode helper = new org.objectweb.asm.tree.MethodNode(ASM7,
+                ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, helperName, helperDesc, null, null);
+
+        InsnList insns = method.instructions;
+        InsnList out = helper.instructions;
+
+        if (null != block.lineNode) {
+            LabelNode label = new LabelNode();
+            out.add(label);
+            out.add(new LineNumberNode(block.lineNode.line, label));
+        }
+
+        // Move the block into the helper method
+        AbstractInsnNode end = block.last.getNext();
+        for (AbstractInsnNode node = block.first, next; node != end; node = next) {
+            next = node.getNext();
+            insns.remove(node);
+            if (node instanceof VarInsnNode) {
+                VarInsnNode varNode = (VarInsnNode) node;
+                int opcode = varNode.getOpcode();
+                if (opcode >= ISTORE && opcode <= ASTORE) {
+                    slotMap.put(varNode.var, nextSlot);
+                    nextSlot += LSTORE == opcode || DSTORE == opcode ? 2 : 1;
+                }
+
+                varNode.var = slotMap.get(varNode.var);
+            }
+
+            // Unreferenced labels are moved along with their line numbers
+            out.add(ATHROW == node.getOpcode() ? new InsnNode(ARETURN) : node);
+        }
+
+        // Replace it with the helper call
+        InsnList call = new InsnList();
+        for (int i = 0; i < block.slots.length; ++i) {
+            call.add(new VarInsnNode(loadOpcode(block.types[i]), block.slots[i]));
+        }
+
+        call.add(new MethodInsnNode(INVOKESTATIC, state.classPath, helperName, helperDesc, false));
+        call.add(new InsnNode(ATHROW));
+        if (null != end) {
+            insns.insertBefore(end, call);
+        } else {
+            insns.add(call);
+        }
+
+        helper.maxLocals = helper.maxStack = 0;
+        helper.accept(cv);
+    }
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.Mapping;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Finds interface calls, whose receiver is statically known to be a Value Type collection.
+ * <p>
+ * The method is analyzed before the transformation. A receiver is known if every value that may reach the call
+ * is created by {@code new} of a collection class (including ArrayList and TreeMap replaced by the transformer),
+ * read from a field declared with a collection class or returned by a method declared to return one, possibly
+ * passing through local variables and casts. Iterators and key sets returned by the methods of a known
+ * collection are known to belong to it.
+ * <p>
+ * Private fields, declared as a collection interface, are known to hold the replaced collection, if the class
+ * scan finds that every value stored into the field is a replaced ArrayList or TreeMap. Classes that belong to
+ * a nest with other classes are not scanned, because nest members can access private fields directly.
+ * <p>
+ * ArrayList or TreeMap is only replaced if the new collection doesn't escape: it is never returned, thrown,
+ * passed to a method (other than as the receiver), stored into an array or a field (other than the private
+ * field it is created for), checked with instanceof or cast to a class other than the Value Type collection
+ * classes. Otherwise the code that receives it could see ValueTypeList or ValueTypeTreeMap instead of
+ * the original class. Values read from a private field
+ * are checked in the same way, the other fields are never replaced.
+ */
+class CollectionReceiverAnalyzer {
+
+    private static final String ITERATOR = "java/util/Iterator";
+
+    // Resolved value for iterators and key sets, that belong to a known collection, but not of a known class
+    private static final String VIEW = "*";
+
+    // Types returned by collection methods, that give access to the collection elements
+    private static final String[] VIEWS = {
+            ITERATOR, "java/util/Collection", "java/util/Set", "java/util/SortedSet", "java/util/NavigableSet"
+    };
+
+    /**
+     * Known receiver of a call
+     */
+    private static final class Receiver {
+        final String classPath;
+        final AbstractInsnNode source;
+
+        Receiver(String classPath, AbstractInsnNode source) {
+            this.classPath = classPath;
+            this.source = source;
+        }
+    }
+
+    private final TranslationState state;
+    private final Mapping mapping;
+
+    // Replacement class by the name of the private field, that only holds replaced collections
+    private final HashMap<String, String> fields = new HashMap<>();
+    // Name + descriptor of the methods that store replaced collections into these fields
+    private final HashSet<String> storingMethods = new HashSet<>();
+    private boolean isNestMember;
+    // Fields declared as a Value Type collection interface, that may pass the collection to other code
+    private final HashSet<String> escapingFields = new HashSet<>();
+
+    // Replaceable allocations of the method being transformed, true if the new collection escapes
+    private final IdentityHashMap<AbstractInsnNode, Boolean> allocations = new IdentityHashMap<>();
+
+    // Receivers of the calls of the method being transformed
+    private final IdentityHashMap<MethodInsnNode, Receiver> receivers = new IdentityHashMap<>();
+
+    // Analysis state
+    private Frame<SourceValue>[] frames;
+    private InsnList instructions;
+    private MethodNode method;
+    private final IdentityHashMap<AbstractInsnNode, String> resolved = new IdentityHashMap<>();
+
+    CollectionReceiverAnalyzer(TranslationState state) {
+        this.state = state;
+        this.mapping = state.mapping;
+    }
+
+
+    /**
+     * Find private fields, that only hold replaced ArrayList or TreeMap. Called before the class is transformed
+     */
+    void scan(ClassReader cr) {
+
+        if (0 != (cr.getAccess() & ACC_INTERFACE))
+            return;
+
+        final HashMap<String, String> fieldDescs = new HashMap<>();
+        final ArrayList<org.objectweb.asm.tree.MethodNode> methodNodes = new ArrayList<>();
+        cr.accept(new org.objectweb.asm.ClassVisitor(ASM7) {
+            @Override
+            public void visitNestHost(String nestHost) {
+                isNestMember = true;
+            }
+
+            @Override
+            public void visitNestMember(String nestMember) {
+                isNestMember = true;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+
+                if (mapping.replaceArrayLists && null != ValueTypeCollections.getListElementClass(signature, mapping)
+                        || mapping.replaceTreeMaps && null != ValueTypeCollections.getSortedMapKeyClass(signature, mapping)) {
+                    if (0 != (access & ACC_PRIVATE)) {
+                        fieldDescs.put(name, desc);
+                    } else {
+                        escapingFields.add(name);
+                    }
+                }
+
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+
+                // Fields are visited first
+                if (fieldDescs.isEmpty() || isNestMember)
+                    return null;
+
+                org.objectweb.asm.tree.MethodNode method = new org.objectweb.asm.tree.MethodNode(ASM7, access, name, desc, signature, exceptions);
+                methodNodes.add(method);
+                return method;
+            }
+        }, 0);
+
+        if (isNestMember) {
+            escapingFields.addAll(fieldDescs.keySet());
+            return;
+        }
+
+        // Every store into the field should be immediately preceded by the replaced allocation
+        HashSet<String> bad = new HashSet<>();
+        for (org.objectweb.asm.tree.MethodNode method : methodNodes) {
+            IdentityHashMap<AbstractInsnNode, String> allocations = new IdentityHashMap<>();
+            for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+                if (NEW == node.getOpcode()) {
+                    MethodInsnNode init = ValueTypeCollections.getReplacedInit((TypeInsnNode) node);
+                    if (null != init) {
+                        allocations.put(ValueTypeCollections.nextInsn(init), ValueTypeCollections.getReplacementClass(((TypeInsnNode) node).desc));
+                    }
+                }
+            }
+
+            for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+                int opcode = node.getOpcode();
+                if (PUTFIELD != opcode && PUTSTATIC != opcode)
+                    continue;
+
+                FieldInsnNode field = (FieldInsnNode) node;
+                if (!state.classPath.equals(field.owner) || !field.desc.equals(fieldDescs.get(field.name)))
+                    continue;
+
+                String classPath = allocations.get(node);
+                String other = fields.get(field.name);
+                if (null == classPath || null != other && !other.equals(classPath)) {
+                    bad.add(field.name);
+                } else {
+                    fields.put(field.name, classPath);
+                    storingMethods.add(method.name + method.desc);
+                }
+            }
+        }
+
+        for (String name : bad) {
+            fields.remove(name);
+        }
+
+        // Values read from the field should not escape
+        for (org.objectweb.asm.tree.MethodNode method : methodNodes) {
+            HashMap<String, Set<AbstractInsnNode>> reads = new HashMap<>();
+            for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+                int opcode = node.getOpcode();
+                if (GETFIELD != opcode && GETSTATIC != opcode)
+                    continue;
+
+                FieldInsnNode field = (FieldInsnNode) node;
+                if (state.classPath.equals(field.owner) && field.desc.equals(fieldDescs.get(field.name))) {
+                    if (!reads.containsKey(field.name)) {
+                        reads.put(field.name, Collections.newSetFromMap(new IdentityHashMap<AbstractInsnNode, Boolean>()));
+                    }
+
+                    reads.get(field.name).add(node);
+                }
+            }
+
+            if (reads.isEmpty())
+                continue;
+
+            Frame<SourceValue>[] methodFrames = analyzeSources(method);
+            for (String name : reads.keySet()) {
+                if (null == methodFrames || escapes(method.instructions, methodFrames, reads.get(name), null)) {
+                    escapingFields.add(name);
+                }
+            }
+        }
+
+        for (String name : escapingFields) {
+            fields.remove(name);
+        }
+
+        for (String name : fields.keySet()) {
+            state.logger.dbg("%s.%s only holds %s", state.classPath, name, fields.get(name));
+        }
+    }
+
+
+    /**
+     * @return true if the field of the transformed class may pass the collection it holds to other code,
+     * so ArrayList or TreeMap stored into it should not be replaced
+     */
+    boolean isEscapingField(String name) {
+        return escapingFields.contains(name);
+    }
+
+
+    /**
+     * @return true if ArrayList or TreeMap created by the NEW instruction of the current method may escape,
+     * or the method was not analyzed
+     */
+    boolean isEscaping(AbstractInsnNode node) {
+        return !Boolean.FALSE.equals(allocations.get(node));
+    }
+
+
+    /**
+     * @return true if the method stores replaced collections into the fields, so it has to be transformed
+     * even if it doesn't use Value Types
+     */
+    boolean storesFields(String name, String desc) {
+        return !fields.isEmpty() && storingMethods.contains(name + desc);
+    }
+
+
+    /**
+     * @return true if the instruction is {@code (VT) iterator.next()}
+     */
+    private boolean isIteratorNext(AbstractInsnNode node) {
+
+        if (INVOKEINTERFACE != node.getOpcode())
+            return false;
+
+        MethodInsnNode m = (MethodInsnNode) node;
+        AbstractInsnNode next = node.getNext();
+        return ITERATOR.equals(m.owner) && "next".equals(m.name) && "()Ljava/lang/Object;".equals(m.desc)
+                && null != next && CHECKCAST == next.getOpcode()
+                && isVtValue(mapping.getClassTypeId(((TypeInsnNode) next).desc));
+    }
+
+
+    /**
+     * @return true if the instruction is {@code (VT) iterator.next()} or a call of List, Map etc. interface method
+     */
+    private boolean isCandidate(AbstractInsnNode node) {
+
+        return isIteratorNext(node) || INVOKEINTERFACE == node.getOpcode()
+                && ValueTypeCollections.isCollectionInterface(((MethodInsnNode) node).owner);
+    }
+
+
+    /**
+     * @return true if the instruction may produce a known collection
+     */
+    private boolean isPossibleSource(AbstractInsnNode node) {
+
+        switch (node.getOpcode()) {
+            case NEW:
+                String type = ((TypeInsnNode) node).desc;
+                return ValueTypeCollections.isCollectionClass(type)
+                        || mapping.replaceArrayLists && ValueTypeCollections.ARRAY_LIST.equals(type)
+                        || mapping.replaceTreeMaps && ValueTypeCollections.TREE_MAP.equals(type);
+
+            case GETFIELD:
+            case GETSTATIC:
+                FieldInsnNode field = (FieldInsnNode) node;
+                return null != getCollectionClass(Type.getType(field.desc)) || null != getFieldClass(field);
+
+            case INVOKEVIRTUAL:
+            case INVOKEINTERFACE:
+            case INVOKESTATIC:
+                MethodInsnNode m = (MethodInsnNode) node;
+                return ValueTypeCollections.isCollectionClass(m.owner) || null != getCollectionClass(Type.getReturnType(m.desc));
+
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Find the calls with known collection receivers. Must be called before the method is transformed
+     */
+    void analyze(MethodNode method) {
+
+        receivers.clear();
+        allocations.clear();
+        boolean hasCalls = false, hasSources = false;
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            hasCalls |= isCandidate(node);
+            hasSources |= isPossibleSource(node);
+            if (NEW == node.getOpcode() && isReplaceable((TypeInsnNode) node)) {
+                allocations.put(node, Boolean.TRUE);
+            }
+        }
+
+        boolean findReceivers = hasCalls && hasSources;
+        if (!findReceivers && allocations.isEmpty())
+            return;
+
+        // The code is not transformed yet, so it is analyzed with the original descriptor, VT args take 1 slot
+        String desc = method.desc;
+        method.desc = method.originalDesc;
+        try {
+            this.frames = analyzeSources(method);
+        } finally {
+            method.desc = desc;
+        }
+
+        if (null == frames)
+            return;
+
+        this.instructions = method.instructions;
+        this.method = method;
+        for (AbstractInsnNode node : new ArrayList<>(allocations.keySet())) {
+            Set<AbstractInsnNode> sources = Collections.singleton(node);
+            AbstractInsnNode store = ValueTypeCollections.nextInsn(ValueTypeCollections.getReplacedInit((TypeInsnNode) node));
+            allocations.put(node, escapes(instructions, frames, sources, store));
+        }
+
+        for (AbstractInsnNode node = instructions.getFirst(); null != node && findReceivers; node = node.getNext()) {
+            if (!isCandidate(node))
+                continue;
+
+            resolved.clear();
+            SourceValue receiver = getReceiver(node);
+            String classPath = resolve(receiver);
+            if (null != classPath && !classPath.isEmpty() && (!VIEW.equals(classPath) || isIteratorNext(node))) {
+                // The receiver can be cast to the collection class right after the instruction that produced it
+                AbstractInsnNode source = 1 == receiver.insns.size() ? receiver.insns.iterator().next() : null;
+                if (null != source && (NEW == source.getOpcode() || ASTORE == source.getOpcode())) {
+                    source = null;
+                }
+
+                receivers.put((MethodInsnNode) node, new Receiver(classPath, source));
+            }
+        }
+
+        frames = null;
+        instructions = null;
+        this.method = null;
+        resolved.clear();
+    }
+
+
+    /**
+     * @return source value frames of the method or null, if the analysis failed
+     */
+    private Frame<SourceValue>[] analyzeSources(org.objectweb.asm.tree.MethodNode method) {
+
+        Analyzer<SourceValue> analyzer = new Analyzer<>(new SourceInterpreter());
+        try {
+            analyzer.analyze(state.classPath, method);
+            return analyzer.getFrames();
+        } catch (AnalyzerException e) {
+            state.logger.dbg("Collection receiver analysis failed: %s", e.getMessage());
+            return null;
+        }
+    }
+
+
+    private boolean isReplaceable(TypeInsnNode node) {
+
+        return (mapping.replaceArrayLists && ValueTypeCollections.ARRAY_LIST.equals(node.desc)
+                || mapping.replaceTreeMaps && ValueTypeCollections.TREE_MAP.equals(node.desc))
+                && null != ValueTypeCollections.getReplacedInit(node);
+    }
+
+
+    /**
+     * @return true if a value, produced by one of the source instructions, may be returned, thrown, passed to
+     * a method as an argument, stored into an array or a field (except by the 'store' instruction), checked with
+     * instanceof or cast to a class, that is not a Value Type collection. Values are tracked through local variables, casts and stack copies
+     */
+    private static boolean escapes(InsnList instructions, Frame<SourceValue>[] frames, Set<AbstractInsnNode> sources,
+                                   AbstractInsnNode store) {
+
+        Set<AbstractInsnNode> values = Collections.newSetFromMap(new IdentityHashMap<AbstractInsnNode, Boolean>());
+        values.addAll(sources);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+                Frame<SourceValue> frame = frames[instructions.indexOf(node)];
+                if (null == frame || values.contains(node))
+                    continue;
+
+                boolean copy;
+                switch (node.getOpcode()) {
+                    case ALOAD:
+                        copy = isAnyOf(frame.getLocal(((VarInsnNode) node).var), values);
+                        break;
+
+                    case ASTORE:
+                    case CHECKCAST:
+                    case DUP:
+                    case DUP_X1:
+                    case DUP_X2:
+                        copy = isAnyOf(stackAt(frame, 0), values);
+                        break;
+
+                    case DUP2:
+                    case DUP2_X1:
+                    case DUP2_X2:
+                        copy = isAnyOf(stackAt(frame, 0), values) || isAnyOf(stackAt(frame, 1), values);
+                        break;
+
+                    default:
+                        copy = false;
+                }
+
+                if (copy) {
+                    values.add(node);
+                    changed = true;
+                }
+            }
+        }
+
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            Frame<SourceValue> frame = frames[instructions.indexOf(node)];
+            if (null == frame)
+                continue;
+
+            switch (node.getOpcode()) {
+                case ARETURN:
+                case ATHROW:
+                case AASTORE:
+                    if (isAnyOf(stackAt(frame, 0), values))
+                        return true;
+
+                    break;
+
+                case PUTFIELD:
+                case PUTSTATIC:
+                    if (node != store && isAnyOf(stackAt(frame, 0), values))
+                        return true;
+
+                    break;
+
+                case INSTANCEOF:
+                case CHECKCAST:
+                    // The code that checks for Value Type collection classes expects the replacement
+                    String type = ((TypeInsnNode) node).desc;
+                    if (!ValueTypeCollections.isCollectionClass(type) && !(CHECKCAST == node.getOpcode()
+                            && (ValueTypeCollections.isCollectionInterface(type) || "java/lang/Object".equals(type)))
+                            && isAnyOf(stackAt(frame, 0), values))
+                        return true;
+
+                    break;
+
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case INVOKEINTERFACE:
+                case INVOKEDYNAMIC:
+                    String desc = node instanceof MethodInsnNode ? ((MethodInsnNode) node).desc : ((InvokeDynamicInsnNode) node).desc;
+                    for (int i = Type.getArgumentTypes(desc).length - 1; i >= 0; --i) {
+                        if (isAnyOf(stackAt(frame, i), values))
+                            return true;
+                    }
+
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+
+    private static SourceValue stackAt(Frame<SourceValue> frame, int depth) {
+        return depth < frame.getStackSize() ? frame.getStack(frame.getStackSize() - 1 - depth) : null;
+    }
+
+
+    private static boolean isAnyOf(SourceValue value, Set<AbstractInsnNode> values) {
+
+        if (null != value) {
+            for (AbstractInsnNode node : value.insns) {
+                if (values.contains(node))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return class path of the Value Type collection, that the receiver of the call of the current method
+     * belongs to, "*" if the receiver is an iterator of such collection, or null if it is unknown
+     */
+    String getReceiverClass(MethodInsnNode node) {
+
+        Receiver receiver = receivers.get(node);
+        return null != receiver ? receiver.classPath : null;
+    }
+
+
+    /**
+     * @return the only instruction that produces the known receiver of the call of the current method, or null
+     */
+    AbstractInsnNode getReceiverSource(MethodInsnNode node) {
+
+        Receiver receiver = receivers.get(node);
+        return null != receiver ? receiver.source : null;
+    }
+
+
+    private SourceValue getReceiver(AbstractInsnNode node) {
+
+        Frame<SourceValue> frame = frames[instructions.indexOf(node)];
+        if (null == frame)
+            return null;
+
+        int nArgs = Type.getArgumentTypes(((MethodInsnNode) node).desc).length;
+        return frame.getStack(frame.getStackSize() - 1 - nArgs);
+    }
+
+
+    private SourceValue getStackTop(AbstractInsnNode node) {
+
+        Frame<SourceValue> frame = frames[instructions.indexOf(node)];
+        return null != frame ? frame.getStack(frame.getStackSize() - 1) : null;
+    }
+
+
+    /**
+     * @return collection class path, if all sources of the value are known collections of the same class,
+     * empty string if the value only comes from the instructions being resolved, or null
+     */
+    private String resolve(SourceValue value) {
+
+        if (null == value || value.insns.isEmpty())
+            return null;
+
+        String result = "";
+        for (AbstractInsnNode node : value.insns) {
+            String classPath = resolve(node);
+            if (null == classPath)
+                return null;
+
+            if (!classPath.isEmpty()) {
+                if (!result.isEmpty() && !result.equals(classPath))
+                    return null;
+
+                result = classPath;
+            }
+        }
+
+        return result;
+    }
+
+
+    private String resolve(AbstractInsnNode node) {
+
+        if (resolved.containsKey(node))
+            return resolved.get(node);
+
+        // Values passed around a loop add nothing to the other sources. The results that depend on such values
+        // are only valid for the current call, so they are cleared before resolving the next one
+        resolved.put(node, "");
+        String classPath = resolveSource(node);
+        resolved.put(node, classPath);
+        return classPath;
+    }
+
+
+    private String resolveSource(AbstractInsnNode node) {
+
+        switch (node.getOpcode()) {
+            case ALOAD:
+                Frame<SourceValue> frame = frames[instructions.indexOf(node)];
+                return null != frame ? resolve(frame.getLocal(((VarInsnNode) node).var)) : null;
+
+            case ASTORE:
+            case CHECKCAST:
+                return resolve(getStackTop(node));
+
+            case NEW:
+                TypeInsnNode newNode = (TypeInsnNode) node;
+                if (ValueTypeCollections.isCollectionClass(newNode.desc))
+                    return newNode.desc;
+
+                return null != ValueTypeCollections.getReplacedElementClass(newNode, state, method.localVariables)
+                        ? ValueTypeCollections.getReplacementClass(newNode.desc) : null;
+
+            case GETFIELD:
+            case GETSTATIC:
+                FieldInsnNode field = (FieldInsnNode) node;
+                String fieldClass = getCollectionClass(Type.getType(field.desc));
+                return null != fieldClass ? fieldClass : getFieldClass(field);
+
+            case INVOKEVIRTUAL:
+            case INVOKEINTERFACE:
+            case INVOKESTATIC:
+                MethodInsnNode m = (MethodInsnNode) node;
+                Type returnType = Type.getReturnType(m.desc);
+                String classPath = getCollectionClass(returnType);
+                if (null != classPath || INVOKESTATIC == m.getOpcode() || !isView(returnType))
+                    return classPath;
+
+                // Iterator or key set of a known collection
+                return ValueTypeCollections.isCollectionClass(m.owner) || null != resolve(getReceiver(node)) ? VIEW : null;
+
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * @return replacement class of the private field of this class, that only holds replaced collections, or null
+     */
+    private String getFieldClass(FieldInsnNode node) {
+        return state.classPath.equals(node.owner) ? fields.get(node.name) : null;
+    }
+
+
+    private static boolean isView(Type type) {
+
+        if (Type.OBJECT != type.getSort())
+            return false;
+
+        for (String view : VIEWS) {
+            if (view.equals(type.getInternalName()))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    private static String getCollectionClass(Type type) {
+
+        return Type.OBJECT == type.getSort() && ValueTypeCollections.isCollectionClass(type.getInternalName())
+                ? type.getInternalName() : null;
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.mapping.MethodDef;
+import deltix.vtype.type.DescriptorParser;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static deltix.vtype.type.DescriptorParser.getTransformedDesc;
+import static deltix.vtype.type.TypeId.isSameVtClass;
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Replaces generic functional interfaces, instantiated with a Value Type, with {@code java.util.function}
+ * primitive specializations for {@code long}: {@code Function<VT, VT>} with LongUnaryOperator,
+ * {@code Predicate<VT>} with LongPredicate etc.
+ * <p>
+ * A lambda is only replaced if data flow analysis proves that it doesn't leave the method: it is created by
+ * invokedynamic, only stored in local variables and only used as the receiver of the functional interface method
+ * (apply, test), that is then redirected to the primitive interface method. Local variables holding such lambda
+ * should not hold other values. The lambda body should be a static method of the transformed class or a mapped
+ * Value Type method, so it can be called with unboxed Value Types.
+ * <p>
+ * Lambdas passed to Stream operations are replaced together with the pipeline by StreamPipelineSpecializer.
+ * {@code Optional<VT>} values are replaced with unboxed Value Types by OptionalSpecializer, using the same data flow.
+ */
+class FunctionalInterfaceSpecializer {
+
+    private static final String FUNCTION_PACKAGE = "java/util/function/";
+    private static final String METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+
+    /**
+     * Functional interface method instantiated with a Value Type and its primitive replacement.
+     * Pattern describes the instantiated method: V is the Value Type, R is other reference type, v is void
+     */
+    static final class Kind {
+        final String[] owners;
+        final String name;
+        final String desc;
+        final String pattern;
+        final String dstOwner;
+        final String dstName;
+        final String dstDesc;
+
+        Kind(String[] owners, String name, String desc, String pattern, String dstOwner, String dstName, String dstDesc) {
+            this.owners = owners;
+            this.name = name;
+            this.desc = desc;
+            this.pattern = pattern;
+            this.dstOwner = FUNCTION_PACKAGE + dstOwner;
+            this.dstName = dstName;
+            this.dstDesc = dstDesc;
+        }
+
+        boolean isCall(MethodInsnNode node) {
+
+            if (INVOKEINTERFACE != node.getOpcode() || !name.equals(node.name) || !desc.equals(node.desc))
+                return false;
+
+            for (String owner : owners) {
+                if (owner.equals(node.owner))
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * @return descriptor of the functional interface method with the Value Type in place of V
+         */
+        String srcDesc(String vtDesc) {
+
+            Type[] args = Type.getArgumentTypes(desc);
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < args.length; ++i) {
+                sb.append('V' == pattern.charAt(i + 1) ? vtDesc : args[i].getDescriptor());
+            }
+
+            sb.append(')');
+            return sb.append('V' == pattern.charAt(pattern.length() - 1) ? vtDesc : Type.getReturnType(desc).getDescriptor()).toString();
+        }
+    }
+
+    private static final Kind[] KINDS = {
+            new Kind(interfaces("Function", "UnaryOperator"), "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", "(V)V",
+                    "LongUnaryOperator", "applyAsLong", "(J)J"),
+            new Kind(interfaces("Function"), "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", "(V)R",
+                    "LongFunction", "apply", "(J)Ljava/lang/Object;"),
+            new Kind(interfaces("Function"), "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", "(R)V",
+                    "ToLongFunction", "applyAsLong", "(Ljava/lang/Object;)J"),
+            new Kind(interfaces("BiFunction", "BinaryOperator"), "apply", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", "(VV)V",
+                    "LongBinaryOperator", "applyAsLong", "(JJ)J"),
+            new Kind(interfaces("Predicate"), "test", "(Ljava/lang/Object;)Z", "(V)Z",
+                    "LongPredicate", "test", "(J)Z"),
+            new Kind(interfaces("Consumer"), "accept", "(Ljava/lang/Object;)V", "(V)v",
+                    "LongConsumer", "accept", "(J)V"),
+    };
+
+    /**
+     * Lambda creation that is replaced with the primitive functional interface
+     */
+    static final class Lambda {
+        final Kind kind;
+        final int vtTypeId;
+        final Handle body;
+
+        Lambda(Kind kind, int vtTypeId, Handle body) {
+            this.kind = kind;
+            this.vtTypeId = vtTypeId;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Call redirected to a different method. Source descriptor describes the call in terms of Value Types
+     */
+    static final class Rewrite {
+        final String owner;
+        final String name;
+        final String desc;
+        final boolean itf;
+        final String srcDesc;
+
+        Rewrite(String owner, String name, String desc, boolean itf, String srcDesc) {
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            this.itf = itf;
+            this.srcDesc = srcDesc;
+        }
+    }
+
+    private final TranslationState state;
+    private final Mapping mapping;
+    private final StreamPipelineSpecializer streams;
+    private final OptionalSpecializer optionals;
+
+    // Results for the method being transformed
+    private final IdentityHashMap<AbstractInsnNode, Lambda> lambdas = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Rewrite> rewrites = new IdentityHashMap<>();
+
+    FunctionalInterfaceSpecializer(TranslationState state) {
+        this.state = state;
+        this.mapping = state.mapping;
+        this.streams = new StreamPipelineSpecializer(state, this);
+        this.optionals = new OptionalSpecializer(state, this);
+    }
+
+
+    private static String[] interfaces(String... names) {
+
+        String[] paths = new String[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            paths[i] = FUNCTION_PACKAGE + names[i];
+        }
+
+        return paths;
+    }
+
+
+    /**
+     * @return lambda replacement for the invokedynamic instruction of the current method, or null
+     */
+    Lambda getLambda(AbstractInsnNode node) {
+        return lambdas.get(node);
+    }
+
+    /**
+     * @return replacement for the method call of the current method, or null
+     */
+    Rewrite getRewrite(AbstractInsnNode node) {
+        return rewrites.get(node);
+    }
+
+    void addLambda(AbstractInsnNode node, Lambda lambda) {
+        lambdas.put(node, lambda);
+    }
+
+    void addRewrite(AbstractInsnNode node, Rewrite rewrite) {
+        rewrites.put(node, rewrite);
+    }
+
+
+    /**
+     * Find lambdas of the method that can be replaced with primitive functional interfaces and Stream pipelines
+     * that can be replaced with LongStream. Must be called before the method is transformed
+     */
+    void analyze(MethodNode method) {
+
+        lambdas.clear();
+        rewrites.clear();
+
+        IdentityHashMap<AbstractInsnNode, Lambda> candidates = new IdentityHashMap<>();
+        boolean hasLambdasOrStreams = false;
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            hasLambdasOrStreams |= StreamPipelineSpecializer.isStreamCall(node) || OptionalSpecializer.isOptionalSource(node);
+            if (node instanceof InvokeDynamicInsnNode) {
+                hasLambdasOrStreams = true;
+                Lambda lambda = getCandidate((InvokeDynamicInsnNode) node);
+                if (null != lambda) {
+                    candidates.put(node, lambda);
+                }
+            }
+        }
+
+        // Nothing to do without lambdas, streams or optionals
+        if (!hasLambdasOrStreams)
+            return;
+
+        // The code is not transformed yet, so it is analyzed with the original descriptor, VT args take 1 slot
+        UseInterpreter interpreter = new UseInterpreter();
+        Analyzer<SourceValue> analyzer = new Analyzer<>(interpreter);
+        String desc = method.desc;
+        method.desc = method.originalDesc;
+        Flow flow;
+        try {
+            analyzer.analyze(state.classPath, method);
+            flow = new Flow(method.instructions, interpreter, analyzer.getFrames());
+            optionals.analyze(method, flow);
+            streams.analyze(method, flow, candidates);
+        } catch (AnalyzerException e) {
+            state.logger.dbg("Lambda data flow analysis failed: %s", e.getMessage());
+            return;
+        } finally {
+            method.desc = desc;
+        }
+
+        for (AbstractInsnNode node : lambdas.keySet()) {
+            candidates.remove(node);
+        }
+
+        if (!candidates.isEmpty()) {
+            analyzeLambdas(flow, candidates);
+        }
+
+        streams.apply(method);
+        optionals.apply(method);
+        if (!lambdas.isEmpty()) {
+            state.logger.dbg("%d lambda(s) replaced with primitive functional interfaces", lambdas.size());
+        }
+    }
+
+
+    /**
+     * Replace lambdas that are only stored in local variables and used to call the functional interface method
+     */
+    private void analyzeLambdas(Flow flow, IdentityHashMap<AbstractInsnNode, Lambda> candidates) {
+
+        // Every group may only contain replaceable lambdas of the same kind, stores and loads
+        InsnList instructions = flow.instructions;
+        HashMap<Integer, Lambda> groups = new HashMap<>();
+        for (int i = 0, n = instructions.size(); i < n; ++i) {
+            AbstractInsnNode node = instructions.get(i);
+            int root = flow.root(node);
+            int opcode = node.getOpcode();
+            if (ALOAD == opcode || ASTORE == opcode || flow.isBad(root))
+                continue;
+
+            Lambda lambda = candidates.get(node);
+            Lambda other = groups.get(root);
+            if (null == lambda || (null != other && (other.kind != lambda.kind || !isSameVtClass(other.vtTypeId, lambda.vtTypeId)))) {
+                flow.markBad(root);
+            } else if (null == other) {
+                groups.put(root, lambda);
+            }
+        }
+
+        // Lambdas may only be used as receivers of the functional interface method
+        ArrayList<Use> calls = new ArrayList<>();
+        for (Use use : flow.uses) {
+            int root = flow.root(use.source);
+            Lambda lambda = groups.get(root);
+            if (null == lambda || ASTORE == use.consumer.getOpcode())
+                continue;
+
+            if (0 == use.operand && use.consumer instanceof MethodInsnNode && lambda.kind.isCall((MethodInsnNode) use.consumer)) {
+                calls.add(use);
+            } else {
+                flow.markBad(root);
+            }
+        }
+
+        for (Map.Entry<AbstractInsnNode, Lambda> e : candidates.entrySet()) {
+            if (!flow.isBad(flow.root(e.getKey()))) {
+                lambdas.put(e.getKey(), e.getValue());
+            }
+        }
+
+        for (Use use : calls) {
+            int root = flow.root(use.source);
+            if (!flow.isBad(root)) {
+                Lambda lambda = groups.get(root);
+                Kind kind = lambda.kind;
+                String vtDesc = mapping.getClassDefById(lambda.vtTypeId).getSrcClassDesc();
+                rewrites.put(use.consumer, new Rewrite(kind.dstOwner, kind.dstName, kind.dstDesc, true, kind.srcDesc(vtDesc)));
+            }
+        }
+    }
+
+
+    /**
+     * Operand of the instruction, produced by the source instruction
+     */
+    static final class Use {
+        final AbstractInsnNode consumer;
+        final int operand;
+        final AbstractInsnNode source;
+
+        Use(AbstractInsnNode consumer, int operand, AbstractInsnNode source) {
+            this.consumer = consumer;
+            this.operand = operand;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Reference value flow of the method. Values that may flow into the same place (merged stack values,
+     * values stored in and loaded from the same local variables) are joined into groups. The group of values
+     * copied by DUP/SWAP, returned, or loaded from parameters is bad
+     */
+    static final class Flow {
+
+        final InsnList instructions;
+        final IdentityHashMap<AbstractInsnNode, SourceValue[]> operands;
+        final Frame<SourceValue>[] frames;
+        final ArrayList<Use> uses = new ArrayList<>();
+        private final IdentityHashMap<AbstractInsnNode, ArrayList<Use>> usesBySource = new IdentityHashMap<>();
+        private final int[] parent;
+        private final int bad;
+
+        Flow(InsnList instructions, UseInterpreter interpreter, Frame<SourceValue>[] frames) {
+
+            this.instructions = instructions;
+            this.operands = interpreter.operands;
+            this.frames = frames;
+            int n = instructions.size();
+            bad = n;
+            parent = new int[n + 1];
+            for (int i = 0; i <= n; ++i) {
+                parent[i] = i;
+            }
+
+            for (Map.Entry<AbstractInsnNode, SourceValue[]> e : operands.entrySet()) {
+                AbstractInsnNode node = e.getKey();
+                int opcode = node.getOpcode();
+                SourceValue[] values = e.getValue();
+                for (int k = 0; k < values.length; ++k) {
+                    SourceValue value = values[k];
+                    if (1 != value.size || (opcode >= ISTORE && opcode <= DSTORE))
+                        continue;
+
+                    if (ALOAD == opcode) {
+                        // Local variable value, params and uninitialized locals have no sources
+                        if (value.insns.isEmpty()) {
+                            union(index(node), bad);
+                        }
+
+                        for (AbstractInsnNode src : value.insns) {
+                            union(index(node), index(src));
+                        }
+
+                        continue;
+                    }
+
+                    if (opcode >= ILOAD && opcode <= DLOAD)
+                        continue;
+
+                    for (AbstractInsnNode src : value.insns) {
+                        union(index(src), index(value.insns.iterator().next()));
+                        if (ASTORE == opcode) {
+                            union(index(node), index(src));
+                        }
+
+                        Use use = new Use(node, k, src);
+                        uses.add(use);
+                        ArrayList<Use> list = usesBySource.get(src);
+                        if (null == list) {
+                            usesBySource.put(src, list = new ArrayList<>());
+                        }
+
+                        list.add(use);
+                    }
+                }
+            }
+
+            for (AbstractInsnNode node : interpreter.copied) {
+                union(index(node), bad);
+            }
+        }
+
+        int index(AbstractInsnNode node) {
+            return instructions.indexOf(node);
+        }
+
+        private int find(int i) {
+
+            while (parent[i] != i) {
+                i = parent[i] = parent[parent[i]];
+            }
+
+            return i;
+        }
+
+        private void union(int a, int b) {
+
+            a = find(a);
+            b = find(b);
+            // The bad group has the last index, keep it as the root
+            if (a > b) {
+                parent[b] = a;
+            } else {
+                parent[a] = b;
+            }
+        }
+
+        int root(AbstractInsnNode node) {
+            return find(index(node));
+        }
+
+        boolean isBad(int root) {
+            return bad == root;
+        }
+
+        void markBad(int root) {
+            union(root, bad);
+        }
+
+        /**
+         * @return all uses of the value produced by the instruction
+         */
+        List<Use> usesOf(AbstractInsnNode node) {
+
+            ArrayList<Use> list = usesBySource.get(node);
+            return null != list ? list : new ArrayList<Use>();
+        }
+
+        /**
+         * @return the only instruction that produces the operand, or null
+         */
+        AbstractInsnNode sourceOf(AbstractInsnNode node, int operand) {
+
+            SourceValue[] values = operands.get(node);
+            if (null == values || operand >= values.length || 1 != values[operand].insns.size())
+                return null;
+
+            return values[operand].insns.iterator().next();
+        }
+
+        /**
+         * @return true if the value produced by the instruction is used once, without copying
+         */
+        boolean isSingleUse(AbstractInsnNode node) {
+            return 1 == usesOf(node).size() && !isBad(root(node));
+        }
+    }
+
+
+    /**
+     * @return replacement for the lambda, if it implements a supported functional interface instantiated
+     * with a single Value Type class, and its body can be called with unboxed Value Types
+     */
+    Lambda getCandidate(InvokeDynamicInsnNode node) {
+
+        Object[] bsmArgs = node.bsmArgs;
+        if (!METAFACTORY.equals(node.bsm.getOwner()) || !"metafactory".equals(node.bsm.getName()) || 3 != bsmArgs.length
+                || !(bsmArgs[0] instanceof Type) || !(bsmArgs[1] instanceof Handle) || !(bsmArgs[2] instanceof Type))
+            return null;
+
+        String owner = Type.getReturnType(node.desc).getInternalName();
+        String interfaceDesc = bsmArgs[0].toString();
+        String instantiatedDesc = bsmArgs[2].toString();
+
+        // Build the pattern of the instantiated method
+        Type[] args = Type.getArgumentTypes(instantiatedDesc);
+        StringBuilder sb = new StringBuilder("(");
+        int vtTypeId = 0;
+        for (int i = 0; i <= args.length; ++i) {
+            Type t = i < args.length ? args[i] : Type.getReturnType(instantiatedDesc);
+            char c;
+            if (Type.BOOLEAN == t.getSort()) {
+                c = 'Z';
+            } else if (Type.VOID == t.getSort()) {
+                c = 'v';
+            } else if (Type.OBJECT != t.getSort() && Type.ARRAY != t.getSort()) {
+                return null;
+            } else {
+                int typeId = DescriptorParser.getDescTypeId(t.getDescriptor(), mapping);
+                if (isVtValue(typeId)) {
+                    if (0 != vtTypeId && !isSameVtClass(vtTypeId, typeId))
+                        return null;
+
+                    vtTypeId = typeId;
+                    c = 'V';
+                } else {
+                    c = 'R';
+                }
+            }
+
+            if (i == args.length) {
+                sb.append(')');
+            }
+
+            sb.append(c);
+        }
+
+        if (0 == vtTypeId)
+            return null;
+
+        String pattern = sb.toString();
+        Kind kind = null;
+        for (Kind k : KINDS) {
+            if (k.name.equals(node.name) && k.desc.equals(interfaceDesc) && k.pattern.equals(pattern)) {
+                for (String o : k.owners) {
+                    if (o.equals(owner)) {
+                        kind = k;
+                    }
+                }
+            }
+        }
+
+        if (null == kind)
+            return null;
+
+        Handle body = getUnboxedBody((Handle) bsmArgs[1], state);
+        if (null == body || !isCompatibleBody(body.getDesc(), getTransformedDesc(instantiatedDesc, false, mapping)))
+            return null;
+
+        return new Lambda(kind, vtTypeId, body);
+    }
+
+
+    /**
+     * @return true if the body can implement the method with the specified (transformed) descriptor.
+     * Leading body arguments are captured by the lambda
+     */
+    static boolean isCompatibleBody(String bodyDesc, String desc) {
+
+        Type[] bodyArgs = Type.getArgumentTypes(bodyDesc);
+        Type[] args = Type.getArgumentTypes(desc);
+        int offset = bodyArgs.length - args.length;
+        if (offset < 0)
+            return false;
+
+        for (int i = 0; i <= args.length; ++i) {
+            Type t = i < args.length ? args[i] : Type.getReturnType(desc);
+            Type bodyType = i < args.length ? bodyArgs[offset + i] : Type.getReturnType(bodyDesc);
+            boolean isRef = Type.OBJECT == t.getSort() || Type.ARRAY == t.getSort();
+            boolean isBodyRef = Type.OBJECT == bodyType.getSort() || Type.ARRAY == bodyType.getSort();
+            if (isRef ? !isBodyRef : !t.equals(bodyType))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return handle of the method that does the same as the lambda body, but takes and returns unboxed
+     * Value Types, or null if there is no such method. The body should be either a mapped Value Type method
+     * or a method of the transformed class
+     */
+    static Handle getUnboxedBody(Handle body, TranslationState state) {
+
+        Mapping mapping = state.mapping;
+        String owner = body.getOwner(), name = body.getName(), desc = body.getDesc();
+        HashMap<Integer, MethodDef> vtypeMethodMap = mapping.getMethodMap(owner);
+        if (null != vtypeMethodMap) {
+            MethodDef m = Mapping.getMethod(vtypeMethodMap, name, desc);
+            return null != m && !m.isAutoMethod()
+                    ? new Handle(H_INVOKESTATIC, m.getNewOwner(), m.getNewName(), m.getNewDesc(), false) : null;
+        }
+
+        if (!owner.equals(state.classPath) || !DescriptorParser.findVtInMethodDesc(desc, mapping))
+            return null;
+
+        int tag = body.getTag();
+        if (H_INVOKESTATIC != tag && H_INVOKESPECIAL != tag && H_INVOKEVIRTUAL != tag)
+            return null;
+
+        boolean rename = H_INVOKESTATIC == tag || AsmUtil.shouldBeRenamed(name, desc, mapping);
+        return new Handle(tag, owner, state.methodNameConverter.transformIf(rename, name, desc),
+                getTransformedDesc(desc, false, mapping), body.isInterface());
+    }
+
+
+    /**
+     * Records the operands of every instruction. Values copied by DUP and SWAP are treated as escaping
+     */
+    static final class UseInterpreter extends SourceInterpreter {
+
+        final IdentityHashMap<AbstractInsnNode, SourceValue[]> operands = new IdentityHashMap<>();
+        final ArrayList<AbstractInsnNode> copied = new ArrayList<>();
+
+        UseInterpreter() {
+            super(ASM7);
+        }
+
+        private void use(AbstractInsnNode insn, SourceValue... values) {
+            operands.put(insn, values);
+        }
+
+        @Override
+        public SourceValue copyOperation(AbstractInsnNode insn, SourceValue value) {
+
+            int opcode = insn.getOpcode();
+            if (opcode >= ILOAD && opcode <= ALOAD || opcode >= ISTORE && opcode <= ASTORE) {
+                use(insn, value);
+            } else {
+                copied.addAll(value.insns);
+            }
+
+            return super.copyOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue unaryOperation(AbstractInsnNode insn, SourceValue value) {
+
+            use(insn, value);
+            return super.unaryOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue binaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2) {
+
+            use(insn, value1, value2);
+            return super.binaryOperation(insn, value1, value2);
+        }
+
+        @Override
+        public SourceValue ternaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2, SourceValue value3) {
+
+            use(insn, value1, value2, value3);
+            return super.ternaryOperation(insn, value1, value2, value3);
+        }
+
+        @Override
+        public SourceValue naryOperation(AbstractInsnNode insn, List<? extends SourceValue> values) {
+
+            use(insn, values.toArray(new SourceValue[values.size()]));
+            return super.naryOperation(insn, values);
+        }
+
+        @Override
+        public void returnOperation(AbstractInsnNode insn, SourceValue value, SourceValue expected) {
+
+            copied.addAll(value.insns);
+            super.returnOperation(insn, value, expected);
+        }
+    }
+}
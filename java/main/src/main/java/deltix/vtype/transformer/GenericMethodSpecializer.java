@@ -0,0 +1,815 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.type.JvmStack;
+import deltix.vtype.type.TypeId;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Creates copies of private and static generic methods of the transformed class, specialized for a Value Type.
+ * <p>
+ * If a call of such method passes Value Types of the same class (or null constants) to all parameters typed by
+ * a type variable, the call is redirected to a copy, where these parameters (and the return value, if it has
+ * the same type) have the Value Type class instead of the type variable erasure. The copy is then transformed
+ * as usual method, so the Value Types are not boxed unless they are passed to other generic code.
+ * <p>
+ * A method is only specialized if data flow analysis proves that the type variable values are kept separate
+ * from other values: local variables holding them are never reused for other values, they are not compared
+ * by reference, synchronized on, thrown, passed to invokedynamic or cast to other types.
+ * The copies are private synthetic methods added at the end of the class. Only calls from the same class are
+ * redirected.
+ */
+class GenericMethodSpecializer {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    // Special values tracked by the data flow analysis of generic methods
+    private static final BasicValue TYPE_VAR = new BasicValue(Type.getObjectType("<T>"));
+    private static final BasicValue NULL_REF = new BasicValue(Type.getObjectType("<null>"));
+    private static final BasicValue CONFLICT = new BasicValue(Type.getObjectType("<conflict>"));
+
+    private final TranslationState state;
+    private final Mapping mapping;
+
+    // Generic methods that can be specialized, by name + descriptor
+    private final HashMap<String, Candidate> candidates = new HashMap<>();
+
+    // All methods declared by the class, name + descriptor
+    private final HashSet<String> methods = new HashSet<>();
+
+    // Specialized copies that were already requested, name + specialized descriptor
+    private final HashSet<String> requested = new HashSet<>();
+    private final ArrayDeque<Specialization> pending = new ArrayDeque<>();
+
+    private static class Candidate {
+        final MethodNode method;
+        final ArrayList<String> typeVars = new ArrayList<>();
+        final ArrayList<String> erasures = new ArrayList<>();
+        String[] paramTypeVars;
+        String returnTypeVar;
+        Analysis[] analyses;
+
+        Candidate(MethodNode method) {
+            this.method = method;
+        }
+    }
+
+    private static class Analysis {
+        boolean eligible;
+        // Local variable slots that only hold values of the type variable
+        final BitSet slots = new BitSet();
+        // Stack entries of the type variable, by frame node index
+        final HashMap<Integer, boolean[]> frameStacks = new HashMap<>();
+        // Indices of the casts of type variable values to their erasure, that are removed
+        final ArrayList<Integer> removedCasts = new ArrayList<>();
+    }
+
+    private static class Specialization {
+        final Candidate candidate;
+        final Analysis analysis;
+        final String desc;
+        final String vtClassPath;
+
+        Specialization(Candidate candidate, Analysis analysis, String desc, String vtClassPath) {
+            this.candidate = candidate;
+            this.analysis = analysis;
+            this.desc = desc;
+            this.vtClassPath = vtClassPath;
+        }
+    }
+
+    GenericMethodSpecializer(TranslationState state) {
+        this.state = state;
+        this.mapping = state.mapping;
+    }
+
+
+    /**
+     * Collect generic methods of the class that are candidates for specialization
+     * @param cr class reader for the class being transformed
+     */
+    void scan(ClassReader cr) {
+
+        if (0 != (cr.getAccess() & ACC_INTERFACE))
+            return;
+
+        cr.accept(new org.objectweb.asm.ClassVisitor(ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+
+                methods.add(name + desc);
+                if (!isCandidate(access, name, signature))
+                    return null;
+
+                MethodNode method = new MethodNode(ASM7, access, name, desc, signature, exceptions);
+                Candidate c = new Candidate(method);
+                if (parseSignature(c)) {
+                    candidates.put(name + desc, c);
+                }
+
+                return method;
+            }
+        }, 0);
+    }
+
+
+    private static boolean isCandidate(int access, String name, String signature) {
+
+        return null != signature && signature.startsWith("<") && '<' != name.charAt(0)
+                && 0 != (access & (ACC_STATIC | ACC_PRIVATE))
+                && 0 == (access & (ACC_ABSTRACT | ACC_NATIVE | ACC_BRIDGE | ACC_SYNTHETIC))
+                && (0 != (access & ACC_STATIC) || !AsmUtil.isSetterName(name));
+    }
+
+
+    /**
+     * Try to redirect the method call to the specialized copy of a generic method
+     * @param node method call instruction
+     * @param vm simulated stack before the call
+     * @return descriptor of the specialized method (in terms of source classes) or null, if not specialized
+     */
+    String specialize(MethodInsnNode node, JvmStack vm) {
+
+        Candidate c = candidates.get(node.name + node.desc);
+        if (null == c || (INVOKESTATIC == node.getOpcode()) != (0 != (c.method.access & ACC_STATIC)))
+            return null;
+
+        int nParams = c.paramTypeVars.length;
+        if (vm.top() < nParams)
+            return null;
+
+        for (int t = 0, n = c.typeVars.size(); t < n; ++t) {
+            int vtTypeId = findVtArgType(c, c.typeVars.get(t), vm);
+            if (0 == vtTypeId)
+                continue;
+
+            Analysis analysis = getAnalysis(c, t);
+            if (!analysis.eligible)
+                continue;
+
+            String vtClassPath = mapping.getClassDefById(vtTypeId).getSrcClassPath();
+            String desc = specializedDesc(c, c.typeVars.get(t), vtClassPath);
+            if (methods.contains(node.name + desc))
+                continue; // Would clash with an existing overload
+
+            if (requested.add(node.name + desc)) {
+                pending.add(new Specialization(c, analysis, desc, vtClassPath));
+            }
+
+            return desc;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Emit specialized copies requested so far. Copies can request more copies, so this is repeated until done
+     * @param cv class visitor the transformed methods are written to
+     */
+    void emitSpecializations(org.objectweb.asm.ClassVisitor cv) {
+
+        for (Specialization s; null != (s = pending.poll());) {
+            emit(s, cv);
+        }
+    }
+
+
+    private void emit(Specialization s, org.objectweb.asm.ClassVisitor cv) {
+
+        MethodNode src = s.candidate.method;
+        String[] exceptions = src.exceptions.toArray(new String[src.exceptions.size()]);
+        MethodNode copy = new MethodNode(ASM7, src.access, src.name, src.desc, null, exceptions);
+        src.instructions.resetLabels();
+        src.accept(copy);
+        applyAnalysis(copy, s.analysis, s.vtClassPath);
+
+        int access = (src.access & ~(ACC_PUBLIC | ACC_PROTECTED | ACC_VARARGS)) | ACC_PRIVATE | ACC_SYNTHETIC;
+        deltix.vtype.transformer.MethodNode dst =
+                new deltix.vtype.transformer.MethodNode(state, access, src.name, s.desc, null, exceptions, cv);
+
+        if (mapping.logSuccesses) {
+            state.logger.print("VT Agent: SPECIALIZED generic method: %s.%s%s%n", state.classPath.replace('/', '.'), src.name, s.desc);
+        }
+
+        copy.accept(dst);
+    }
+
+
+    /**
+     * Replace the type variable with the Value Type class in the stack frames and local variable table of the copy
+     * and remove casts of the Value Type to the type variable erasure
+     */
+    private static void applyAnalysis(MethodNode copy, Analysis analysis, String vtClassPath) {
+
+        InsnList instructions = copy.instructions;
+        BitSet slots = analysis.slots;
+        ArrayList<AbstractInsnNode> removed = new ArrayList<>();
+        ArrayList<Object> locals = initialFrameLocals(copy);
+        int i = 0;
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext(), ++i) {
+            if (node instanceof FrameNode) {
+                FrameNode frame = (FrameNode) node;
+                switch (frame.type) {
+                    case F_NEW:
+                    case F_FULL:
+                        locals.clear();
+                        replaceLocals(frame.local, 0, slots, vtClassPath);
+                        locals.addAll(frame.local);
+                        break;
+
+                    case F_APPEND:
+                        replaceLocals(frame.local, numSlots(locals), slots, vtClassPath);
+                        locals.addAll(frame.local);
+                        break;
+
+                    case F_CHOP:
+                        for (int k = frame.local.size(); k > 0 && !locals.isEmpty(); --k) {
+                            locals.remove(locals.size() - 1);
+                        }
+                        break;
+                }
+
+                boolean[] stackTypes = analysis.frameStacks.get(i);
+                if (null != stackTypes && null != frame.stack) {
+                    for (int j = 0; j < frame.stack.size() && j < stackTypes.length; ++j) {
+                        if (stackTypes[j] && frame.stack.get(j) instanceof String) {
+                            frame.stack.set(j, vtClassPath);
+                        }
+                    }
+                }
+            } else if (analysis.removedCasts.contains(i)) {
+                removed.add(node);
+            }
+        }
+
+        for (AbstractInsnNode node : removed) {
+            instructions.remove(node);
+        }
+
+        if (null != copy.localVariables) {
+            for (LocalVariableNode var : copy.localVariables) {
+                if (slots.get(var.index) && var.desc.startsWith("L")) {
+                    var.desc = "L" + vtClassPath + ";";
+                    var.signature = null;
+                }
+            }
+        }
+    }
+
+
+    private static void replaceLocals(List<Object> frameLocals, int slot, BitSet slots, String vtClassPath) {
+
+        for (int j = 0, n = frameLocals.size(); j < n; ++j) {
+            Object local = frameLocals.get(j);
+            if (slots.get(slot) && local instanceof String) {
+                frameLocals.set(j, vtClassPath);
+            }
+
+            slot += LONG == local || DOUBLE == local ? 2 : 1;
+        }
+    }
+
+
+    private static int numSlots(List<Object> frameLocals) {
+
+        int n = 0;
+        for (Object local : frameLocals) {
+            n += LONG == local || DOUBLE == local ? 2 : 1;
+        }
+
+        return n;
+    }
+
+
+    private static ArrayList<Object> initialFrameLocals(MethodNode method) {
+
+        ArrayList<Object> locals = new ArrayList<>();
+        if (0 == (method.access & ACC_STATIC)) {
+            locals.add(OBJECT); // Actual type is not important here
+        }
+
+        for (Type t : Type.getArgumentTypes(method.desc)) {
+            switch (t.getSort()) {
+                case Type.LONG:
+                    locals.add(LONG);
+                    break;
+
+                case Type.DOUBLE:
+                    locals.add(DOUBLE);
+                    break;
+
+                case Type.FLOAT:
+                    locals.add(FLOAT);
+                    break;
+
+                case Type.OBJECT:
+                case Type.ARRAY:
+                    locals.add(t.getInternalName());
+                    break;
+
+                default:
+                    locals.add(INTEGER);
+            }
+        }
+
+        return locals;
+    }
+
+
+    private int findVtArgType(Candidate c, String typeVar, JvmStack vm) {
+
+        int vtTypeId = 0;
+        String[] paramTypeVars = c.paramTypeVars;
+        for (int i = 0, n = paramTypeVars.length; i < n; ++i) {
+            if (typeVar.equals(paramTypeVars[i])) {
+                int typeId = vm.typeIdAt(n - 1 - i);
+                // Null constant is converted to the null value of the Value Type when passed to the copy
+                if (TypeId.NULL_REF == typeId)
+                    continue;
+
+                if (!isVtValue(typeId) || (0 != vtTypeId && typeId != vtTypeId))
+                    return 0;
+
+                vtTypeId = typeId;
+            }
+        }
+
+        return vtTypeId;
+    }
+
+
+    private static String specializedDesc(Candidate c, String typeVar, String vtClassPath) {
+
+        String desc = c.method.desc;
+        Type vtType = Type.getObjectType(vtClassPath);
+        Type[] args = Type.getArgumentTypes(desc);
+        for (int i = 0; i < args.length; ++i) {
+            if (typeVar.equals(c.paramTypeVars[i])) {
+                args[i] = vtType;
+            }
+        }
+
+        return Type.getMethodDescriptor(typeVar.equals(c.returnTypeVar) ? vtType : Type.getReturnType(desc), args);
+    }
+
+
+    private Analysis getAnalysis(Candidate c, int t) {
+
+        if (null == c.analyses) {
+            c.analyses = new Analysis[c.typeVars.size()];
+        }
+
+        Analysis analysis = c.analyses[t];
+        if (null == analysis) {
+            // Recursive calls see the placeholder and are treated as not specialized
+            c.analyses[t] = new Analysis();
+            c.analyses[t] = analysis = analyze(c, t);
+        }
+
+        return analysis;
+    }
+
+
+    private Analysis analyze(Candidate c, int t) {
+
+        MethodNode method = c.method;
+        String typeVar = c.typeVars.get(t);
+        String erasure = c.erasures.get(t);
+        Analysis analysis = new Analysis();
+        if (null == erasure)
+            return analysis;
+
+        // Find parameter slots
+        BitSet paramSlots = new BitSet();
+        Type[] args = Type.getArgumentTypes(method.desc);
+        int slot = 0 == (method.access & ACC_STATIC) ? 1 : 0;
+        for (int i = 0; i < args.length; ++i) {
+            if (typeVar.equals(c.paramTypeVars[i])) {
+                if (Type.OBJECT != args[i].getSort() || !erasure.equals(args[i].getInternalName()))
+                    return analysis;
+
+                paramSlots.set(slot);
+            }
+
+            slot += args[i].getSize();
+        }
+
+        TypeVarInterpreter interpreter = new TypeVarInterpreter(paramSlots, erasure, typeVar.equals(c.returnTypeVar));
+        Frame<BasicValue>[] frames;
+        try {
+            frames = new Analyzer<>(interpreter).analyze(state.classPath, method);
+        } catch (AnalyzerException e) {
+            state.logger.dbg("Generic method analysis failed: %s", e.getMessage());
+            return analysis;
+        }
+
+        if (interpreter.failed || interpreter.typeVarSlots.intersects(interpreter.otherSlots))
+            return analysis;
+
+        analysis.slots.or(interpreter.typeVarSlots);
+        int i = 0;
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext(), ++i) {
+            Frame<BasicValue> frame = frames[i];
+            if (null == frame)
+                continue;
+
+            if (node instanceof FrameNode) {
+                int n = frame.getStackSize();
+                boolean[] stackTypes = new boolean[n];
+                for (int j = 0; j < n; ++j) {
+                    stackTypes[j] = TYPE_VAR == frame.getStack(j);
+                }
+
+                analysis.frameStacks.put(i, stackTypes);
+            } else if (CHECKCAST == node.getOpcode() && interpreter.removedCasts.contains(node)) {
+                analysis.removedCasts.add(i);
+            }
+        }
+
+        analysis.eligible = true;
+        return analysis;
+    }
+
+
+    private static boolean isSpecial(BasicValue v) {
+        return TYPE_VAR == v || NULL_REF == v || CONFLICT == v;
+    }
+
+    private static BasicValue plain(BasicValue v) {
+        return isSpecial(v) ? BasicValue.REFERENCE_VALUE : v;
+    }
+
+
+    /**
+     * Tracks values of a single type variable through the method.
+     * Values returned by generic methods of the same class, that will be specialized for the same type, are also tracked
+     */
+    private class TypeVarInterpreter extends BasicInterpreter {
+
+        private final BitSet paramSlots;
+        private final String erasure;
+        private final boolean returnsTypeVar;
+
+        final BitSet typeVarSlots = new BitSet();
+        final BitSet otherSlots = new BitSet();
+        final HashSet<AbstractInsnNode> removedCasts = new HashSet<>();
+        boolean failed;
+
+        TypeVarInterpreter(BitSet paramSlots, String erasure, boolean returnsTypeVar) {
+            super(ASM7);
+            this.paramSlots = paramSlots;
+            this.erasure = erasure;
+            this.returnsTypeVar = returnsTypeVar;
+        }
+
+        private BasicValue check(BasicValue v) {
+            if (CONFLICT == v) {
+                failed = true;
+            }
+
+            return v;
+        }
+
+        @Override
+        public BasicValue newParameterValue(boolean isInstanceMethod, int local, Type type) {
+
+            if (paramSlots.get(local)) {
+                typeVarSlots.set(local);
+                return TYPE_VAR;
+            }
+
+            otherSlots.set(local);
+            if (2 == type.getSize()) {
+                otherSlots.set(local + 1);
+            }
+
+            return super.newValue(type);
+        }
+
+        @Override
+        public BasicValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
+            return ACONST_NULL == insn.getOpcode() ? NULL_REF : super.newOperation(insn);
+        }
+
+        @Override
+        public BasicValue copyOperation(AbstractInsnNode insn, BasicValue value) throws AnalyzerException {
+
+            check(value);
+            int opcode = insn.getOpcode();
+            if (opcode >= ISTORE && opcode <= ASTORE) {
+                int var = ((VarInsnNode) insn).var;
+                if (TYPE_VAR == value) {
+                    typeVarSlots.set(var);
+                } else {
+                    otherSlots.set(var);
+                    if (LSTORE == opcode || DSTORE == opcode) {
+                        otherSlots.set(var + 1);
+                    }
+                }
+            }
+
+            return value;
+        }
+
+        @Override
+        public BasicValue unaryOperation(AbstractInsnNode insn, BasicValue value) throws AnalyzerException {
+
+            check(value);
+            int opcode = insn.getOpcode();
+            if (IINC == opcode) {
+                otherSlots.set(((IincInsnNode) insn).var);
+            }
+
+            if (TYPE_VAR == value) {
+                switch (opcode) {
+                    case CHECKCAST:
+                        String desc = ((TypeInsnNode) insn).desc;
+                        if (desc.equals(erasure) || desc.equals(OBJECT)) {
+                            removedCasts.add(insn);
+                            return TYPE_VAR;
+                        }
+
+                        failed = true;
+                        break;
+
+                    case IFNULL:
+                    case IFNONNULL:
+                    case ARETURN:
+                    case PUTSTATIC:
+                        return null;
+
+                    default:
+                        failed = true;
+                }
+            }
+
+            return super.unaryOperation(insn, plain(value));
+        }
+
+        @Override
+        public BasicValue binaryOperation(AbstractInsnNode insn, BasicValue value1, BasicValue value2) throws AnalyzerException {
+
+            check(value1);
+            check(value2);
+            int opcode = insn.getOpcode();
+            if (IF_ACMPEQ == opcode || IF_ACMPNE == opcode) {
+                // Only null checks (javac translates "null == x" this way) are allowed
+                if ((TYPE_VAR == value1 || TYPE_VAR == value2) && NULL_REF != value1 && NULL_REF != value2) {
+                    failed = true;
+                }
+            } else if (TYPE_VAR == value1 || TYPE_VAR == value2 && PUTFIELD != opcode) {
+                failed = true;
+            }
+
+            return super.binaryOperation(insn, plain(value1), plain(value2));
+        }
+
+        @Override
+        public BasicValue ternaryOperation(AbstractInsnNode insn, BasicValue value1, BasicValue value2, BasicValue value3) throws AnalyzerException {
+
+            check(value1);
+            check(value2);
+            check(value3);
+            if (TYPE_VAR == value1 || TYPE_VAR == value2) {
+                failed = true;
+            }
+
+            return super.ternaryOperation(insn, plain(value1), plain(value2), plain(value3));
+        }
+
+        @Override
+        public BasicValue naryOperation(AbstractInsnNode insn, List<? extends BasicValue> values) throws AnalyzerException {
+
+            ArrayList<BasicValue> plainValues = new ArrayList<>(values.size());
+            for (BasicValue v : values) {
+                check(v);
+                if (TYPE_VAR == v && INVOKEDYNAMIC == insn.getOpcode()) {
+                    failed = true;
+                }
+
+                plainValues.add(plain(v));
+            }
+
+            if (insn instanceof MethodInsnNode && returnsSpecialized((MethodInsnNode) insn, values))
+                return TYPE_VAR;
+
+            return super.naryOperation(insn, plainValues);
+        }
+
+        /**
+         * @return true if the called method will be specialized for the same type and returns it
+         */
+        private boolean returnsSpecialized(MethodInsnNode insn, List<? extends BasicValue> values) {
+
+            Candidate c = insn.owner.equals(state.classPath) ? candidates.get(insn.name + insn.desc) : null;
+            if (null == c || null == c.returnTypeVar)
+                return false;
+
+            String[] paramTypeVars = c.paramTypeVars;
+            int firstArg = values.size() - paramTypeVars.length;
+            boolean found = false;
+            for (int i = 0; i < paramTypeVars.length; ++i) {
+                if (c.returnTypeVar.equals(paramTypeVars[i])) {
+                    if (TYPE_VAR != values.get(firstArg + i))
+                        return false;
+
+                    found = true;
+                }
+            }
+
+            return found && getAnalysis(c, c.typeVars.indexOf(c.returnTypeVar)).eligible;
+        }
+
+        @Override
+        public void returnOperation(AbstractInsnNode insn, BasicValue value, BasicValue expected) throws AnalyzerException {
+
+            check(value);
+            if (returnsTypeVar && TYPE_VAR != value) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public BasicValue merge(BasicValue value1, BasicValue value2) {
+
+            if (value1.equals(value2))
+                return value1;
+
+            if (isSpecial(value1) || isSpecial(value2)) {
+                if (!value1.isReference() || !value2.isReference())
+                    return BasicValue.UNINITIALIZED_VALUE;
+
+                if (TYPE_VAR == value1 || TYPE_VAR == value2 || CONFLICT == value1 || CONFLICT == value2)
+                    return CONFLICT;
+
+                // null merged with other reference
+                return BasicValue.REFERENCE_VALUE;
+            }
+
+            return super.merge(value1, value2);
+        }
+    }
+
+
+    /**
+     * Parse the generic method signature: type variables with the erasure of their first bound,
+     * type variables of the parameters and the return value (if they are exactly a type variable)
+     * @return true if the signature is consistent with the method descriptor
+     */
+    private static boolean parseSignature(final Candidate c) {
+
+        final ArrayList<TypeCollector> bounds = new ArrayList<>();
+        final ArrayList<TypeCollector> params = new ArrayList<>();
+        final TypeCollector returnType = new TypeCollector();
+
+        try {
+            new SignatureReader(c.method.signature).accept(new SignatureVisitor(ASM7) {
+                @Override
+                public void visitFormalTypeParameter(String name) {
+                    c.typeVars.add(name);
+                    bounds.add(null);
+                }
+
+                @Override
+                public SignatureVisitor visitClassBound() {
+                    return visitBound();
+                }
+
+                @Override
+                public SignatureVisitor visitInterfaceBound() {
+                    return visitBound();
+                }
+
+                private SignatureVisitor visitBound() {
+                    TypeCollector bound = new TypeCollector();
+                    int last = bounds.size() - 1;
+                    if (null == bounds.get(last)) {
+                        bounds.set(last, bound);
+                    }
+
+                    return bound;
+                }
+
+                @Override
+                public SignatureVisitor visitParameterType() {
+                    TypeCollector param = new TypeCollector();
+                    params.add(param);
+                    return param;
+                }
+
+                @Override
+                public SignatureVisitor visitReturnType() {
+                    return returnType;
+                }
+
+                @Override
+                public SignatureVisitor visitExceptionType() {
+                    return new TypeCollector();
+                }
+            });
+        } catch (RuntimeException e) {
+            return false;
+        }
+
+        if (params.size() != Type.getArgumentTypes(c.method.desc).length)
+            return false;
+
+        for (TypeCollector bound : bounds) {
+            // Type variable bounded by another type variable is not supported
+            c.erasures.add(null == bound ? OBJECT : bound.className);
+        }
+
+        c.paramTypeVars = new String[params.size()];
+        for (int i = 0; i < c.paramTypeVars.length; ++i) {
+            c.paramTypeVars[i] = params.get(i).typeVar;
+        }
+
+        c.returnTypeVar = returnType.typeVar;
+        return true;
+    }
+
+
+    /**
+     * Records the top level of a type signature: either a type variable or a class name
+     */
+    private static class TypeCollector extends SignatureVisitor {
+
+        String typeVar;
+        String className;
+        private boolean done;
+
+        TypeCollector() {
+            super(ASM7);
+        }
+
+        @Override
+        public void visitBaseType(char descriptor) {
+            done = true;
+        }
+
+        @Override
+        public void visitTypeVariable(String name) {
+            if (!done) {
+                typeVar = name;
+                done = true;
+            }
+        }
+
+        @Override
+        public SignatureVisitor visitArrayType() {
+            done = true;
+            return new TypeCollector();
+        }
+
+        @Override
+        public void visitClassType(String name) {
+            if (!done) {
+                className = name;
+                done = true;
+            }
+        }
+
+        @Override
+        public SignatureVisitor visitTypeArgument(char wildcard) {
+            return new TypeCollector();
+        }
+    }
+}
@@ -25,6 +25,8 @@ import deltix.vtype.type.FrameMap;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
 
 import java.io.PrintStream;
 
@@ -221,6 +223,7 @@ public class MethodNode extends org.objectweb.asm.tree.MethodNode {
 
         try {
             InstructionIterator iter = state.instructionIterator;
+            int codeSizeBefore = ColdCodeOutliner.codeSize(instructions);
 
             // Pass 1: Scan and skip methods that don't contain relevant code
             // TODO: It is outdated as we are are expecting a list of relevant methods from the new QuickScanClassVisitor class
@@ -244,7 +247,7 @@ public class MethodNode extends org.objectweb.asm.tree.MethodNode {
                     log.print("VT Agent: VERIFIED method: %s.%s / %s%n", className, name, desc);
                 }
 
-                if (!vtFieldInitializationRequired)
+                if (!vtFieldInitializationRequired && !state.collectionReceiverAnalyzer.storesFields(originalName, originalDesc))
                     return;
             }
 
@@ -265,9 +268,16 @@ public class MethodNode extends org.objectweb.asm.tree.MethodNode {
                 iter.setFirstLineLogPrefix(shortClassName +  ":");
             }
 
+            state.atomicFieldTransformer.before(this);
+            state.serializedLambdaTransformer.before(this);
+            state.functionalInterfaceSpecializer.analyze(this);
+            state.collectionReceiverAnalyzer.analyze(this);
+            state.atomicFieldTransformer.addRewrites();
             state.debugVarsListTransformer.startTransformation();
             iter.processMethod(this, state.singlePassCodeTransformer);
+            state.serializedLambdaTransformer.after(this);
             this.localVariables = state.debugVarsListTransformer.getResult();
+            checkCodeSize(codeSizeBefore);
 
             if (mapping.logSuccesses || shouldLogMethodName) {
                 log.print("VT Agent: UPDATED method: %s.%s / %s%n",
@@ -296,6 +306,42 @@ public class MethodNode extends org.objectweb.asm.tree.MethodNode {
         }
     }
 
+    /**
+     * Check if the transformed method crossed JIT inlining or compilation size limit.
+     * If it did, try to move cold code out of the method and warn if it is still too big
+     * @param codeSizeBefore code size of the method before the transformation
+     */
+    private void checkCodeSize(int codeSizeBefore) {
+
+        int limit = codeSizeBefore <= mapping.inlineSizeLimit ? mapping.inlineSizeLimit : mapping.hugeMethodLimit;
+        int codeSize = ColdCodeOutliner.codeSize(instructions);
+        if (codeSize <= limit || codeSizeBefore > limit)
+            return;
+
+        if (mapping.outlineColdCode && 0 == (state.classAccess & ACC_INTERFACE)) {
+            int codeSizeBeforeOutlining = codeSize;
+            codeSize = state.coldCodeOutliner.outline(this, originalName, outerCv, limit);
+            if (codeSize != codeSizeBeforeOutlining && mapping.logSuccesses) {
+                log.print("VT Agent: OUTLINED cold code of method: %s.%s, code size: %d -> %d -> %d%n",
+                        className.replace('/', '.'), originalName, codeSizeBefore, codeSizeBeforeOutlining, codeSize);
+            }
+        }
+
+        if (codeSize > limit) {
+            warnings.add(Warnings.METHOD_SIZE, firstLine(), String.format("%d->%d > %d", codeSizeBefore, codeSize, limit));
+        }
+    }
+
+    private int firstLine() {
+
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            if (node instanceof LineNumberNode)
+                return ((LineNumberNode) node).line;
+        }
+
+        return 0;
+    }
+
     public void setShouldLogMethodName(boolean shouldLogMethodName) {
         this.shouldLogMethodName = shouldLogMethodName;
     }
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.ClassDef;
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Flow;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Rewrite;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Use;
+import deltix.vtype.type.DescriptorParser;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static deltix.vtype.type.TypeId.isSameVtClass;
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Replaces {@code Optional<VT>} values with unboxed Value Types, using the null value of the Value Type class as
+ * the empty Optional.
+ * <p>
+ * An Optional is replaced if data flow analysis proves that it doesn't leave the method: it is created by
+ * Optional.of, ofNullable or empty, only stored in local variables and only used as the receiver of isPresent,
+ * isEmpty, get or orElse. These calls are redirected to ValueTypeOptional methods, that take the null value as
+ * the last argument. Stack map frames and debug information of the local variables, holding such Optional,
+ * are changed to the Value Type class, so the transformer treats them as Value Type variables.
+ */
+class OptionalSpecializer {
+
+    private static final String OPTIONAL = "java/util/Optional";
+    private static final String OPTIONAL_DESC = "L" + OPTIONAL + ";";
+
+    /**
+     * Frame entry, that holds the type of a local variable or a stack value for one or more frames
+     */
+    private static final class FrameEntry {
+        final List<Object> types;
+        final int index;
+
+        FrameEntry(List<Object> types, int index) {
+            this.types = types;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FrameEntry && types == ((FrameEntry) o).types && index == ((FrameEntry) o).index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(types) * 31 + index;
+        }
+    }
+
+    private final TranslationState state;
+    private final Mapping mapping;
+    private final FunctionalInterfaceSpecializer specializer;
+
+    // Results of the analysis of the current method
+    private final IdentityHashMap<MethodInsnNode, ClassDef> calls = new IdentityHashMap<>();
+    private final HashMap<FrameEntry, ClassDef> frameEntries = new HashMap<>();
+    private final IdentityHashMap<LocalVariableNode, ClassDef> localVars = new IdentityHashMap<>();
+
+    // Analysis state
+    private Flow flow;
+    private final HashMap<Integer, Integer> groups = new HashMap<>();
+    private final HashSet<Integer> bad = new HashSet<>();
+
+    OptionalSpecializer(TranslationState state, FunctionalInterfaceSpecializer specializer) {
+        this.state = state;
+        this.mapping = state.mapping;
+        this.specializer = specializer;
+    }
+
+
+    /**
+     * @return true if the instruction creates Optional: calls Optional.of, ofNullable or empty
+     */
+    static boolean isOptionalSource(AbstractInsnNode node) {
+
+        if (INVOKESTATIC != node.getOpcode() || !OPTIONAL.equals(((MethodInsnNode) node).owner))
+            return false;
+
+        MethodInsnNode m = (MethodInsnNode) node;
+        return ("of".equals(m.name) || "ofNullable".equals(m.name)) && "(Ljava/lang/Object;)Ljava/util/Optional;".equals(m.desc)
+                || "empty".equals(m.name) && "()Ljava/util/Optional;".equals(m.desc);
+    }
+
+    /**
+     * @return true if the instruction calls Optional method that has ValueTypeOptional replacement
+     */
+    private static boolean isOptionalCall(AbstractInsnNode node) {
+
+        if (INVOKEVIRTUAL != node.getOpcode() || !OPTIONAL.equals(((MethodInsnNode) node).owner))
+            return false;
+
+        MethodInsnNode m = (MethodInsnNode) node;
+        return ("isPresent".equals(m.name) || "isEmpty".equals(m.name)) && "()Z".equals(m.desc)
+                || "get".equals(m.name) && "()Ljava/lang/Object;".equals(m.desc)
+                || "orElse".equals(m.name) && "(Ljava/lang/Object;)Ljava/lang/Object;".equals(m.desc);
+    }
+
+
+    /**
+     * Find Optional values that can be replaced. The method is not modified until apply() is called
+     */
+    void analyze(MethodNode method, Flow flow) {
+
+        calls.clear();
+        frameEntries.clear();
+        localVars.clear();
+        groups.clear();
+        bad.clear();
+        this.flow = flow;
+
+        // Every group may only contain Optional creations for the same Value Type class, stores and loads
+        InsnList instructions = method.instructions;
+        ArrayList<AbstractInsnNode> sources = new ArrayList<>();
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            int opcode = node.getOpcode();
+            if (opcode < 0 || ALOAD == opcode || ASTORE == opcode)
+                continue;
+
+            int root = flow.root(node);
+            if (!isOptionalSource(node)) {
+                bad.add(root);
+                continue;
+            }
+
+            int vtType = 0;
+            if (!"empty".equals(((MethodInsnNode) node).name)) {
+                String desc = StreamPipelineSpecializer.getRefDesc(flow, method, flow.sourceOf(node, 0), 0);
+                vtType = null != desc ? DescriptorParser.getDescTypeId(desc, mapping) : 0;
+                if (!isVtValue(vtType)) {
+                    bad.add(root);
+                    continue;
+                }
+            }
+
+            sources.add(node);
+            setType(root, vtType);
+        }
+
+        if (sources.isEmpty())
+            return;
+
+        // Optional may only be used as the receiver of the replaced methods. Optional created by empty() or from
+        // null reference gets its type from the value passed to orElse or from the cast of the returned value
+        ArrayList<Use> uses = new ArrayList<>();
+        for (Use use : flow.uses) {
+            int root = flow.root(use.source);
+            if (!groups.containsKey(root) || bad.contains(root) || ASTORE == use.consumer.getOpcode())
+                continue;
+
+            if (0 != use.operand || !isOptionalCall(use.consumer)) {
+                bad.add(root);
+                continue;
+            }
+
+            uses.add(use);
+            MethodInsnNode call = (MethodInsnNode) use.consumer;
+            if ("orElse".equals(call.name)) {
+                String desc = StreamPipelineSpecializer.getRefDesc(flow, method, flow.sourceOf(call, 1), 0);
+                setType(root, null != desc ? DescriptorParser.getDescTypeId(desc, mapping) : 0);
+            }
+
+            AbstractInsnNode next = call.getNext();
+            while (null != next && next.getOpcode() < 0) {
+                next = next.getNext();
+            }
+
+            if (null != next && CHECKCAST == next.getOpcode()) {
+                setType(root, DescriptorParser.getDescTypeId("L" + ((TypeInsnNode) next).desc + ";", mapping));
+            }
+        }
+
+        // Generic signature of the local variable also gives the type, if debug information is present
+        if (null != method.localVariables) {
+            for (LocalVariableNode var : method.localVariables) {
+                String signature = var.signature;
+                Frame<SourceValue> frame = flow.frames[flow.index(var.start)];
+                if (null != signature && signature.startsWith("L" + OPTIONAL + "<") && signature.endsWith(">;")
+                        && null != frame && var.index < frame.getLocals()) {
+                    int vtType = DescriptorParser.getDescTypeId(signature.substring(OPTIONAL.length() + 2, signature.length() - 2), mapping);
+                    for (Integer root : getRoots(frame.getLocal(var.index))) {
+                        if (groups.containsKey(root)) {
+                            setType(root, vtType);
+                        }
+                    }
+                }
+            }
+        }
+
+        HashMap<FrameEntry, HashSet<Integer>> entryRoots = collectFrameEntries(method);
+        for (Map.Entry<FrameEntry, HashSet<Integer>> e : entryRoots.entrySet()) {
+            checkEntry(e.getKey().types.get(e.getKey().index), e.getValue());
+        }
+
+        HashMap<LocalVariableNode, HashSet<Integer>> varRoots = new HashMap<>();
+        if (null != method.localVariables) {
+            for (LocalVariableNode var : method.localVariables) {
+                Frame<SourceValue> frame = flow.frames[flow.index(var.start)];
+                if (OPTIONAL_DESC.equals(var.desc) && null != frame && var.index < frame.getLocals()) {
+                    HashSet<Integer> roots = getRoots(frame.getLocal(var.index));
+                    varRoots.put(var, roots);
+                    checkEntry(OPTIONAL, roots);
+                }
+            }
+        }
+
+        // Record the changes for the groups that are still good
+        for (AbstractInsnNode node : sources) {
+            int root = flow.root(node);
+            if (isGood(root)) {
+                calls.put((MethodInsnNode) node, getClassDef(root));
+            }
+        }
+
+        for (Use use : uses) {
+            int root = flow.root(use.source);
+            if (isGood(root)) {
+                calls.put((MethodInsnNode) use.consumer, getClassDef(root));
+            }
+        }
+
+        for (Map.Entry<FrameEntry, HashSet<Integer>> e : entryRoots.entrySet()) {
+            Integer root = getGoodRoot(e.getValue());
+            if (null != root) {
+                frameEntries.put(e.getKey(), getClassDef(root));
+            }
+        }
+
+        for (Map.Entry<LocalVariableNode, HashSet<Integer>> e : varRoots.entrySet()) {
+            Integer root = getGoodRoot(e.getValue());
+            if (null != root) {
+                localVars.put(e.getKey(), getClassDef(root));
+            }
+        }
+    }
+
+
+    /**
+     * Replace Optional calls, frame types and local variable types found by analyze()
+     */
+    void apply(MethodNode method) {
+
+        if (calls.isEmpty())
+            return;
+
+        InsnList instructions = method.instructions;
+        for (Map.Entry<MethodInsnNode, ClassDef> e : calls.entrySet()) {
+            MethodInsnNode node = e.getKey();
+            ClassDef classDef = e.getValue();
+            String vtDesc = classDef.getSrcClassDesc();
+            String name = node.name;
+            String srcDesc, desc;
+            if ("ofNullable".equals(name)) {
+                srcDesc = "(" + vtDesc + ")" + vtDesc;
+                desc = "(J)J";
+            } else {
+                // Other methods take the null value as the last argument
+                instructions.insertBefore(node, new LdcInsnNode(classDef.getNullValue()));
+                if ("empty".equals(name)) {
+                    srcDesc = "(J)" + vtDesc;
+                    desc = "(J)J";
+                } else if ("orElse".equals(name)) {
+                    srcDesc = "(" + vtDesc + vtDesc + "J)" + vtDesc;
+                    desc = "(JJJ)J";
+                } else {
+                    String ret = Type.getReturnType(node.desc).getDescriptor();
+                    boolean isBoolean = "Z".equals(ret);
+                    srcDesc = "(" + vtDesc + "J)" + (isBoolean ? ret : vtDesc);
+                    desc = isBoolean ? "(JJ)Z" : "(JJ)J";
+                }
+            }
+
+            node.setOpcode(INVOKESTATIC);
+            node.itf = false;
+            specializer.addRewrite(node, new Rewrite(ValueTypeCollections.OPTIONAL, name, desc, false, srcDesc));
+        }
+
+        for (Map.Entry<FrameEntry, ClassDef> e : frameEntries.entrySet()) {
+            e.getKey().types.set(e.getKey().index, e.getValue().getSrcClassPath());
+        }
+
+        for (Map.Entry<LocalVariableNode, ClassDef> e : localVars.entrySet()) {
+            e.getKey().desc = e.getValue().getSrcClassDesc();
+            e.getKey().signature = null;
+        }
+
+        // Frame map was built when the method was read and should see the new frame types
+        if (!frameEntries.isEmpty()) {
+            state.frameMap.rebuild(method);
+        }
+
+        state.logger.dbg("%d Optional call(s) replaced with ValueTypeOptional", calls.size());
+        calls.clear();
+        frameEntries.clear();
+        localVars.clear();
+    }
+
+
+    /**
+     * Walk the compressed stack map frames and collect the groups of the values, held by each frame entry
+     */
+    private HashMap<FrameEntry, HashSet<Integer>> collectFrameEntries(MethodNode method) {
+
+        HashMap<FrameEntry, HashSet<Integer>> entryRoots = new HashMap<>();
+        // Current frame locals, every entry references the frame that declared it. Initial frame is built from the args
+        List<Object> params = new ArrayList<>();
+        if (0 == (method.access & ACC_STATIC)) {
+            params.add("java/lang/Object");
+        }
+
+        for (Type type : Type.getArgumentTypes(method.desc)) {
+            int sort = type.getSort();
+            params.add(Type.LONG == sort ? LONG : Type.DOUBLE == sort ? DOUBLE : Type.FLOAT == sort ? FLOAT
+                    : sort < Type.ARRAY ? INTEGER : type.getInternalName());
+        }
+
+        ArrayList<FrameEntry> locals = new ArrayList<>();
+        for (int i = 0; i < params.size(); ++i) {
+            locals.add(new FrameEntry(params, i));
+        }
+
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            if (!(node instanceof FrameNode))
+                continue;
+
+            FrameNode frameNode = (FrameNode) node;
+            switch (frameNode.type) {
+                case F_NEW:
+                case F_FULL:
+                    locals.clear();
+                    addFrameLocals(locals, frameNode);
+                    break;
+
+                case F_APPEND:
+                    addFrameLocals(locals, frameNode);
+                    break;
+
+                case F_CHOP:
+                    for (int i = frameNode.local.size(); i > 0 && !locals.isEmpty(); --i) {
+                        locals.remove(locals.size() - 1);
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+
+            Frame<SourceValue> frame = flow.frames[flow.index(frameNode)];
+            if (null == frame)
+                continue;
+
+            int slot = 0;
+            for (FrameEntry entry : locals) {
+                Object type = entry.types.get(entry.index);
+                if (slot >= frame.getLocals())
+                    break;
+
+                if (type instanceof String) {
+                    addRoots(entryRoots, entry, frame.getLocal(slot));
+                }
+
+                slot += LONG == type || DOUBLE == type ? 2 : 1;
+            }
+
+            for (int i = 0, n = null != frameNode.stack ? frameNode.stack.size() : 0; i < n && i < frame.getStackSize(); ++i) {
+                if (frameNode.stack.get(i) instanceof String) {
+                    addRoots(entryRoots, new FrameEntry(frameNode.stack, i), frame.getStack(i));
+                }
+            }
+        }
+
+        return entryRoots;
+    }
+
+
+    private static void addFrameLocals(ArrayList<FrameEntry> locals, FrameNode frameNode) {
+
+        for (int i = 0, n = null != frameNode.local ? frameNode.local.size() : 0; i < n; ++i) {
+            locals.add(new FrameEntry(frameNode.local, i));
+        }
+    }
+
+
+    private void addRoots(HashMap<FrameEntry, HashSet<Integer>> entryRoots, FrameEntry entry, SourceValue value) {
+
+        HashSet<Integer> roots = entryRoots.get(entry);
+        if (null == roots) {
+            entryRoots.put(entry, roots = new HashSet<>());
+        }
+
+        roots.addAll(getRoots(value));
+    }
+
+
+    /**
+     * @return groups of the instructions that produced the value, -1 stands for parameters and uninitialized values
+     */
+    private HashSet<Integer> getRoots(SourceValue value) {
+
+        HashSet<Integer> roots = new HashSet<>();
+        if (value.insns.isEmpty()) {
+            roots.add(-1);
+        }
+
+        for (AbstractInsnNode insn : value.insns) {
+            roots.add(flow.root(insn));
+        }
+
+        return roots;
+    }
+
+
+    /**
+     * A frame entry or a local variable, that holds a replaced Optional, should only hold values of its group
+     */
+    private void checkEntry(Object type, HashSet<Integer> roots) {
+
+        boolean hasGood = false;
+        for (Integer root : roots) {
+            hasGood |= isGood(root);
+        }
+
+        if (hasGood && (1 != roots.size() || !OPTIONAL.equals(type))) {
+            bad.addAll(roots);
+        }
+    }
+
+
+    /**
+     * Set the Value Type of the group, ignores unknown types, the group is bad if its types don't match
+     */
+    private void setType(int root, int vtType) {
+
+        Integer other = groups.get(root);
+        if (null == other || 0 == other) {
+            groups.put(root, isVtValue(vtType) ? vtType : 0);
+        } else if (isVtValue(vtType) && !isSameVtClass(other, vtType)) {
+            bad.add(root);
+        }
+    }
+
+
+    private Integer getGoodRoot(HashSet<Integer> roots) {
+
+        if (1 != roots.size())
+            return null;
+
+        Integer root = roots.iterator().next();
+        return isGood(root) ? root : null;
+    }
+
+
+    private boolean isGood(int root) {
+
+        Integer vtType = groups.get(root);
+        return null != vtType && 0 != vtType && !bad.contains(root) && !flow.isBad(root);
+    }
+
+
+    private ClassDef getClassDef(int root) {
+        return mapping.getClassDefById(groups.get(root));
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.mapping.MethodDef;
+import deltix.vtype.type.DescriptorParser;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+
+import static deltix.vtype.type.TypeId.isVtArray;
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Keeps deserialization of transformed serializable lambdas working.
+ * <p>
+ * SerializedLambda describes the lambda with the transformed interface method, implementation method and types,
+ * but $deserializeLambda$, generated by javac, compares them with the original strings before re-creating the
+ * lambda with the same invokedynamic. After $deserializeLambda$ is transformed, these strings, the implementation
+ * method kind and the implementation method name switch are replaced with the values of the transformed
+ * invokedynamic instructions. Captured Value Types are serialized as Long and are boxed back before the lambda is
+ * re-created.
+ * <p>
+ * Serializable lambdas that implement generic interfaces with Value Type bodies (an interface that extends
+ * {@code Function<Decimal64, Decimal64>}) can't be transformed, because the erased interface method can't call
+ * the transformed body. These lambdas and their bodies are left untransformed, captured Value Types are boxed.
+ */
+class SerializedLambdaTransformer {
+
+    static final String METHOD_NAME = "$deserializeLambda$";
+    static final String METHOD_DESC = "(Ljava/lang/invoke/SerializedLambda;)Ljava/lang/Object;";
+    private static final String SERIALIZED_LAMBDA = "java/lang/invoke/SerializedLambda";
+
+    private final TranslationState state;
+    private final Mapping mapping;
+
+    // Implementation method names of the original lambdas
+    private final IdentityHashMap<InvokeDynamicInsnNode, String> implNames = new IdentityHashMap<>();
+
+    // Implementation methods of the lambdas that are left untransformed, name + descriptor
+    private final HashSet<String> boxedBodies = new HashSet<>();
+
+    SerializedLambdaTransformer(TranslationState state) {
+        this.state = state;
+        this.mapping = state.mapping;
+    }
+
+
+    static boolean isDeserializeLambda(MethodNode method) {
+        return METHOD_NAME.equals(method.name) && METHOD_DESC.equals(method.desc);
+    }
+
+
+    /**
+     * Find serializable lambdas that implement generic interfaces with Value Type bodies. They are left untransformed,
+     * if the body only uses Value Types with the methods and fields of their classes: the body of such lambda can
+     * run with boxed Value Types
+     * @param cr class reader for the class being transformed
+     */
+    void scan(ClassReader cr) {
+
+        final String classPath = state.classPath;
+        final HashSet<String> candidates = new HashSet<>();
+        final HashSet<String> rejected = new HashSet<>();
+        cr.accept(new org.objectweb.asm.ClassVisitor(ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+
+                final String method = name + desc;
+                final boolean isBody = 0 != (access & ACC_SYNTHETIC) && name.startsWith("lambda$");
+                return new MethodVisitor(ASM7) {
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+
+                        // Fields of the class may be replaced, Value Type fields of other classes are transformed
+                        if (isBody && (classPath.equals(owner)
+                                || !mapping.isMappedSrcClass(owner) && DescriptorParser.isVt(desc, mapping))) {
+                            rejected.add(method);
+                        }
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean isInterface) {
+
+                        if (isBody && !mapping.isMappedSrcClass(owner) && DescriptorParser.findVtInMethodDesc(desc, mapping)) {
+                            rejected.add(method);
+                        }
+                    }
+
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+
+                        InvokeDynamicInsnNode indy = new InvokeDynamicInsnNode(name, desc, bsm, bsmArgs);
+                        if (isBody && hasVt(indy)) {
+                            rejected.add(method);
+                        }
+
+                        if (isGenericLambda(indy, classPath)) {
+                            Handle body = (Handle) bsmArgs[1];
+                            candidates.add(body.getName() + body.getDesc());
+                        }
+                    }
+                };
+            }
+        }, 0);
+
+        candidates.removeAll(rejected);
+        boxedBodies.addAll(candidates);
+    }
+
+
+    /**
+     * @return true if the serializable lambda implements a generic interface with a synthetic body of the class,
+     * that takes or returns scalar Value Types
+     */
+    private boolean isGenericLambda(InvokeDynamicInsnNode indy, String classPath) {
+
+        if (!CodeTransformerBase.isLambdaBootstrap(indy) || !"altMetafactory".equals(indy.bsm.getName())
+                || DescriptorParser.findVtInMethodDesc(indy.bsmArgs[0].toString(), mapping))
+            return false;
+
+        Handle body = (Handle) indy.bsmArgs[1];
+        if (!classPath.equals(body.getOwner()) || !body.getName().startsWith("lambda$")
+                || !DescriptorParser.findVtInMethodDesc(body.getDesc(), mapping))
+            return false;
+
+        // Value Type arrays are passed as transformed arrays
+        for (Type arg : Type.getArgumentTypes(body.getDesc())) {
+            if (isVtArray(DescriptorParser.getDescTypeId(arg.getDescriptor(), mapping)))
+                return false;
+        }
+
+        return !isVtArray(DescriptorParser.getDescTypeId(Type.getReturnType(body.getDesc()).getDescriptor(), mapping));
+    }
+
+
+    private boolean hasVt(InvokeDynamicInsnNode indy) {
+
+        if (DescriptorParser.findVtInMethodDesc(indy.desc, mapping))
+            return true;
+
+        for (Object arg : indy.bsmArgs) {
+            String desc = arg instanceof Handle ? ((Handle) arg).getDesc() : arg instanceof Type ? arg.toString() : null;
+            if (null != desc && '(' == desc.charAt(0) && DescriptorParser.findVtInMethodDesc(desc, mapping))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return true if the method is the body of a lambda, that is left untransformed
+     */
+    boolean isBoxedBody(String name, String desc) {
+        return boxedBodies.contains(name + desc);
+    }
+
+
+    /**
+     * @return true if the lambda is left untransformed, captured Value Types are boxed
+     */
+    boolean isBoxedLambda(InvokeDynamicInsnNode node) {
+
+        if (boxedBodies.isEmpty() || !CodeTransformerBase.isLambdaBootstrap(node))
+            return false;
+
+        Handle body = (Handle) node.bsmArgs[1];
+        return state.classPath.equals(body.getOwner()) && isBoxedBody(body.getName(), body.getDesc());
+    }
+
+
+    /**
+     * Remember the original lambdas and convert captured Value Types from Long. Called before the transformation
+     */
+    void before(MethodNode method) {
+
+        implNames.clear();
+        if (!isDeserializeLambda(method))
+            return;
+
+        // Captured arguments precede the invokedynamic, that re-creates the lambda
+        InsnList instructions = method.instructions;
+        ArrayList<TypeInsnNode> casts = new ArrayList<>();
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            if (node instanceof InvokeDynamicInsnNode && CodeTransformerBase.isLambdaBootstrap((InvokeDynamicInsnNode) node)) {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) node;
+                implNames.put(indy, ((Handle) indy.bsmArgs[1]).getName());
+                if (!isBoxedLambda(indy)) {
+                    for (TypeInsnNode cast : casts) {
+                        // Long -> long -> boxed Value Type, will be unboxed again by the transformer
+                        int typeId = DescriptorParser.getDescTypeId("L" + cast.desc + ";", mapping);
+                        MethodDef box = mapping.getClassDefById(typeId).boxingMethod;
+                        cast.desc = "java/lang/Long";
+                        instructions.insert(cast, new MethodInsnNode(INVOKESTATIC, box.getNewOwner(), box.getNewName(), box.getNewDesc(), false));
+                        instructions.insert(cast, new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Long", "longValue", "()J", false));
+                    }
+                }
+
+                casts.clear();
+            } else if (isGetter(node, "getCapturedArg") && CHECKCAST == node.getNext().getOpcode()) {
+                TypeInsnNode cast = (TypeInsnNode) node.getNext();
+                if (isVtValue(DescriptorParser.getDescTypeId("L" + cast.desc + ";", mapping))) {
+                    casts.add(cast);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Update the strings $deserializeLambda$ compares SerializedLambda with. Called after the transformation
+     */
+    void after(MethodNode method) {
+
+        if (implNames.isEmpty())
+            return;
+
+        InsnList instructions = method.instructions;
+        HashSet<String> renamed = new HashSet<>();
+        for (InvokeDynamicInsnNode indy : implNames.keySet()) {
+            Handle impl = (Handle) indy.bsmArgs[1];
+            for (AbstractInsnNode node = indy.getPrevious(); null != node; node = node.getPrevious()) {
+                int opcode = node.getOpcode();
+                if (ARETURN == opcode || TABLESWITCH == opcode || LOOKUPSWITCH == opcode)
+                    break;
+
+                if (!(node instanceof MethodInsnNode) || !SERIALIZED_LAMBDA.equals(((MethodInsnNode) node).owner))
+                    continue;
+
+                String name = ((MethodInsnNode) node).name;
+                AbstractInsnNode next = node.getNext();
+                if ("getImplMethodKind".equals(name)) {
+                    instructions.set(next, new IntInsnNode(BIPUSH, impl.getTag()));
+                } else if (next instanceof LdcInsnNode) {
+                    String value = getValue(name, indy);
+                    if (null != value) {
+                        ((LdcInsnNode) next).cst = value;
+                    }
+                }
+            }
+
+            String srcName = implNames.get(indy);
+            if (!srcName.equals(impl.getName()) && renamed.add(srcName)) {
+                renameImplMethod(instructions, srcName, impl.getName());
+            }
+        }
+
+        implNames.clear();
+    }
+
+
+    /**
+     * @return the value returned by SerializedLambda getter for the lambda, or null if the string is not changed
+     */
+    private static String getValue(String getter, InvokeDynamicInsnNode indy) {
+
+        Handle impl = (Handle) indy.bsmArgs[1];
+        switch (getter) {
+            case "getFunctionalInterfaceMethodName":
+                return indy.name;
+
+            case "getFunctionalInterfaceMethodSignature":
+                return indy.bsmArgs[0].toString();
+
+            case "getImplClass":
+                return impl.getOwner();
+
+            case "getImplMethodSignature":
+                return impl.getDesc();
+
+            case "getInstantiatedMethodType":
+                return indy.bsmArgs[2].toString();
+
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * Replace the implementation method name in the string switch, that precedes the lambda checks, and its hash.
+     * <p>
+     * javac compiles the switch to a lookupswitch on the name hash, each case compares the name with the names
+     * of that hash and stores the index for the following tableswitch. If the original name is the only name
+     * of its case, the name and the case key are replaced. Otherwise the case is kept for the other names and
+     * a new case, that compares with the new name and stores the same index, is added before the default label.
+     */
+    private void renameImplMethod(InsnList instructions, String srcName, String name) {
+
+        LookupSwitchInsnNode hashSwitch = null;
+        LdcInsnNode srcLdc = null;
+        for (AbstractInsnNode node = instructions.getFirst(); null != node; node = node.getNext()) {
+            if (LOOKUPSWITCH == node.getOpcode() && null == hashSwitch) {
+                hashSwitch = (LookupSwitchInsnNode) node;
+            } else if (TABLESWITCH == node.getOpcode()) {
+                break;
+            } else if (null != hashSwitch && null == srcLdc && node instanceof LdcInsnNode
+                    && srcName.equals(((LdcInsnNode) node).cst)) {
+                srcLdc = (LdcInsnNode) node;
+            }
+        }
+
+        if (null == hashSwitch || null == srcLdc) {
+            state.logger.wrn("%s: implementation method name switch not found", METHOD_NAME);
+            return;
+        }
+
+        // Keys should stay sorted
+        int srcHash = srcName.hashCode(), hash = name.hashCode();
+        TreeMap<Integer, LabelNode> cases = new TreeMap<>();
+        for (int i = 0; i < hashSwitch.keys.size(); ++i) {
+            cases.put(hashSwitch.keys.get(i), hashSwitch.labels.get(i));
+        }
+
+        LabelNode srcCase = cases.get(srcHash);
+        if (null == srcCase) {
+            state.logger.wrn("%s: can't rename %s to %s", METHOD_NAME, srcName, name);
+            return;
+        }
+
+        if (!cases.containsKey(hash) && 1 == countCaseNames(hashSwitch, srcCase)) {
+            srcLdc.cst = name;
+            cases.put(hash, cases.remove(srcHash));
+        } else {
+            // Name comparison: ALOAD name, LDC srcName, INVOKEVIRTUAL equals, IFEQ next, <index>, ISTORE index
+            AbstractInsnNode load = srcLdc.getPrevious();
+            AbstractInsnNode equals = srcLdc.getNext();
+            AbstractInsnNode ifeq = null != equals ? equals.getNext() : null;
+            AbstractInsnNode index = null != ifeq ? ifeq.getNext() : null;
+            AbstractInsnNode store = null != index ? index.getNext() : null;
+            FrameNode frame = getFrame(srcCase);
+            if (null == load || ALOAD != load.getOpcode() || null == equals || INVOKEVIRTUAL != equals.getOpcode()
+                    || null == ifeq || IFEQ != ifeq.getOpcode() || null == store || ISTORE != store.getOpcode()
+                    || null == frame) {
+                state.logger.wrn("%s: can't rename %s to %s, unexpected name switch", METHOD_NAME, srcName, name);
+                return;
+            }
+
+            // Falls through to the next case, if the hash is already used by another name
+            LabelNode next = cases.containsKey(hash) ? cases.get(hash) : hashSwitch.dflt;
+            LabelNode newCase = new LabelNode();
+            InsnList insns = new InsnList();
+            insns.add(new JumpInsnNode(GOTO, hashSwitch.dflt));
+            insns.add(newCase);
+            // Locals are the same as at the previous case, that precedes the default label
+            insns.add(new FrameNode(F_SAME, 0, null, 0, null));
+            insns.add(load.clone(null));
+            insns.add(new LdcInsnNode(name));
+            insns.add(equals.clone(null));
+            insns.add(new JumpInsnNode(IFEQ, next));
+            insns.add(index.clone(null));
+            insns.add(store.clone(null));
+            insns.add(new JumpInsnNode(GOTO, hashSwitch.dflt));
+            instructions.insertBefore(hashSwitch.dflt, insns);
+            cases.put(hash, newCase);
+        }
+
+        hashSwitch.keys = new ArrayList<>(cases.keySet());
+        hashSwitch.labels = new ArrayList<>(cases.values());
+    }
+
+    /**
+     * @return number of names compared in the lookupswitch case
+     */
+    private static int countCaseNames(LookupSwitchInsnNode hashSwitch, LabelNode caseLabel) {
+
+        int n = 0;
+        for (AbstractInsnNode node = caseLabel.getNext(); null != node; node = node.getNext()) {
+            if (node == hashSwitch.dflt || hashSwitch.labels.contains(node) || TABLESWITCH == node.getOpcode())
+                break;
+
+            if (node instanceof LdcInsnNode && ((LdcInsnNode) node).cst instanceof String) {
+                ++n;
+            }
+        }
+
+        return n;
+    }
+
+    private static FrameNode getFrame(LabelNode label) {
+
+        for (AbstractInsnNode node = label.getNext(); null != node && node.getOpcode() < 0; node = node.getNext()) {
+            if (node instanceof FrameNode)
+                return (FrameNode) node;
+        }
+
+        return null;
+    }
+
+
+    private static boolean isGetter(AbstractInsnNode node, String name) {
+        return node instanceof MethodInsnNode && SERIALIZED_LAMBDA.equals(((MethodInsnNode) node).owner)
+                && name.equals(((MethodInsnNode) node).name);
+    }
+}
@@ -26,6 +26,7 @@ import deltix.vtype.mapping.Mapping;
 import deltix.vtype.common.CrudeLogger;
 import org.objectweb.asm.tree.*;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static deltix.vtype.type.DescriptorParser.isField64;
@@ -45,6 +46,9 @@ public class StackWalkHandler implements OpcodeProcessor {
     // Pre-allocated array for storing method arguments for verification
     protected final int[] methodArgs          = new int[0x100];
 
+    // Value Types substituted for each wildcard group ("ValueType", "ValueType1".."ValueType9")
+    private final int[] wildcardDstTypes      = new int[10];
+
     public StackWalkHandler(JvmStack vm, InstructionIterator instructionIterator, CrudeLogger logger) {
 
         this.vm = vm;
@@ -276,7 +280,9 @@ public class StackWalkHandler implements OpcodeProcessor {
      *
      * @param methodArgs  contains nMethodArgs+1 values, methodArgs[0] is the return value type
      * @param nMethodArgs
-     * @return Argument verification result in bits 0..7 and 31, the first different argument stack depth in bits 8..15
+     * @return Argument verification result in bits 0..7 and 31, the stack depth of the first argument that needs
+     * conversion (boxing, unboxing, substitution) in bits 8..15. Value Type arguments passed as they are don't set
+     * the depth, otherwise every call with Value Type arguments would store and reload its arguments
      */
     protected int verifyMethodArgs(int[] methodArgs, int nMethodArgs) {
         if (0 == nMethodArgs)
@@ -297,7 +303,7 @@ public class StackWalkHandler implements OpcodeProcessor {
 
             if (TypeIdCast.isFailure(cmpResult)) {
                 return cmpResult | (depth << 8);
-            } else if (TypeIdCast.SUCCESS != cmpResult && 0 == firstFailedDepth) {
+            } else if (TypeIdCast.SUCCESS != (cmpResult & ~TypeIdCast.HAS_VTYPE) && 0 == firstFailedDepth) {
                 firstFailedDepth = (depth << 8);
             }
         }
@@ -307,25 +313,37 @@ public class StackWalkHandler implements OpcodeProcessor {
 
 
     protected int substituteWildcardArgs(int[] methodArgs, int nMethodArgs) {
+        return substituteWildcardArgs(methodArgs, nMethodArgs, null);
+    }
+
+    /**
+     * Substitute wildcard Value Types with the Value Types found on the stack
+     * @param wildcardGroups wildcard group index for each of methodArgs. Wildcards of the same group must be the same
+     *                       Value Type. If null, all wildcards belong to the same group
+     */
+    protected int substituteWildcardArgs(int[] methodArgs, int nMethodArgs, byte[] wildcardGroups) {
         if (0 == nMethodArgs)
             return TypeIdCast.SUCCESS;
 
         int cmpResult = 0;
-        int dstType = 0;
+        final int[] dstTypes = this.wildcardDstTypes;
+        Arrays.fill(dstTypes, 0);
         for (int depth = nMethodArgs - 1; depth >= 0; --depth) {
-            int argType = methodArgs[nMethodArgs - depth];
+            int argIndex = nMethodArgs - depth;
+            int argType = methodArgs[argIndex];
             int stackType = vm.typeIdAt(depth);
             cmpResult = TypeIdCast.checkArg(stackType, argType);
             if (0 != (TypeIdCast.NEED_SUBSTITUTION & cmpResult)) {
-                if (0 == dstType) {
-                    dstType = stackType;
+                int group = null != wildcardGroups ? wildcardGroups[argIndex] : 0;
+                if (0 == dstTypes[group]) {
+                    dstTypes[group] = stackType;
                 } else {
-                    if (!TypeId.isSameVtClass(dstType, stackType)) {
+                    if (!TypeId.isSameVtClass(dstTypes[group], stackType)) {
                         log.wrn("More than 1 ValueType used with wildcard VT substitution at position %d", depth);
                         return TypeIdCast.FAILURE | (depth << 8);
                     }
                 }
-                methodArgs[nMethodArgs - depth] = TypeId.vtSubstituteTypeTo(argType, dstType);
+                methodArgs[argIndex] = TypeId.vtSubstituteTypeTo(argType, dstTypes[group]);
             }
 
             if (TypeIdCast.isFailure(cmpResult)) {
@@ -333,7 +351,8 @@ public class StackWalkHandler implements OpcodeProcessor {
             }
         }
 
-        if (TypeId.isVt(methodArgs[0])) {
+        if (TypeId.isVt(methodArgs[0]) && TypeId.isVtWildcard(methodArgs[0])) {
+            int dstType = dstTypes[null != wildcardGroups ? wildcardGroups[0] : 0];
             if (0 == dstType)
                 return TypeIdCast.FAILURE;
 
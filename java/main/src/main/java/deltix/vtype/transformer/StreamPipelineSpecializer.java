@@ -0,0 +1,657 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.ClassDef;
+import deltix.vtype.mapping.Mapping;
+import deltix.vtype.mapping.MethodDef;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Flow;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Lambda;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Rewrite;
+import deltix.vtype.transformer.FunctionalInterfaceSpecializer.Use;
+import deltix.vtype.type.DescriptorParser;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static deltix.vtype.type.TypeId.getArrayDepth;
+import static deltix.vtype.type.TypeId.isSameVtClass;
+import static deltix.vtype.type.TypeId.isVt;
+import static deltix.vtype.type.TypeId.isVtArray;
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Moves {@code Stream<VT>} pipelines onto {@code LongStream}, so the elements flow through the pipeline unboxed.
+ * <p>
+ * Every stream operation (map, filter, reduce, sorted, parallel etc.) whose receiver is produced by another
+ * operation of the same pipeline, used only once, is redirected to its LongStream counterpart. Lambdas passed to
+ * these operations are replaced with primitive functional interfaces, calling the static implementation methods.
+ * Where an unboxed part of the pipeline meets a stage that can't be converted, the elements are boxed (mapToObj)
+ * or unboxed (mapToLong) with the boxing methods of the Value Type class. Optional results of reduce/findFirst are
+ * replaced with OptionalLong, if only get(), isPresent() or orElse() is called on them.
+ * <p>
+ * sorted() is replaced with stable sorting of the collected long[] by ValueTypeArrays, so it is not lazy anymore.
+ */
+class StreamPipelineSpecializer {
+
+    private static final String STREAM = "java/util/stream/Stream";
+    private static final String LONG_STREAM = "java/util/stream/LongStream";
+    private static final String OPTIONAL = "java/util/Optional";
+    private static final String OPTIONAL_LONG = "java/util/OptionalLong";
+    private static final String FUNCTION = "java/util/function/";
+    private static final String METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+    private static final String METAFACTORY_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+            + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;"
+            + "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+
+    private static final String STREAM_DESC = "L" + STREAM + ";";
+    private static final String LONG_STREAM_DESC = "L" + LONG_STREAM + ";";
+
+    // Operation types
+    private static final int MAP = 0;           // In: long, out: long or Object
+    private static final int MAP_TO_LONG = 1;   // In: Object, out: long
+    private static final int FILTER = 2;        // Other operations transform long to long or to the result
+    private static final int TERMINAL = 3;
+    private static final int OPTIONAL_RESULT = 4;
+    private static final int SORTED = 5;
+    private static final int PASS = 6;
+    private static final int CAST = 7;
+    private static final int TO_ARRAY = 8;
+    private static final int SOURCE = 9;
+
+    /**
+     * Stream method and its LongStream replacement. '#' in the source descriptor stands for the Value Type
+     */
+    static final class Op {
+        final int type;
+        final String owner;
+        final String name;
+        final String desc;
+        final int fnOperand;
+        final String fnInterface;
+        final String dstOwner;
+        final String dstName;
+        final String dstDesc;
+        final String srcDesc;
+
+        Op(int type, String owner, String name, String desc, int fnOperand, String fnInterface,
+           String dstOwner, String dstName, String dstDesc, String srcDesc) {
+            this.type = type;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            this.fnOperand = fnOperand;
+            this.fnInterface = null != fnInterface ? FUNCTION + fnInterface : null;
+            this.dstOwner = dstOwner;
+            this.dstName = dstName;
+            this.dstDesc = dstDesc;
+            this.srcDesc = null != srcDesc ? srcDesc : desc;
+        }
+
+        boolean isLongIn() {
+            return MAP_TO_LONG != type && SOURCE != type;
+        }
+
+        boolean isLongOut() {
+            return MAP_TO_LONG == type || SOURCE == type || FILTER == type || SORTED == type || PASS == type
+                    || CAST == type || (MAP == type && dstDesc.endsWith(LONG_STREAM_DESC));
+        }
+
+        Rewrite rewrite(String vtDesc) {
+            return new Rewrite(dstOwner, dstName, dstDesc, dstOwner.endsWith("Stream"),
+                    srcDesc.replace("#", vtDesc));
+        }
+    }
+
+    private static Op op(int type, String name, String desc, int fnOperand, String fnInterface, String dstName, String dstDesc) {
+        return new Op(type, STREAM, name, desc, fnOperand, fnInterface, LONG_STREAM, dstName, dstDesc, null);
+    }
+
+    private static final Op[] OPS = {
+            op(MAP, "map", "(Ljava/util/function/Function;)Ljava/util/stream/Stream;", 1, "LongUnaryOperator",
+                    "map", "(Ljava/util/function/LongUnaryOperator;)Ljava/util/stream/LongStream;"),
+            op(MAP, "map", "(Ljava/util/function/Function;)Ljava/util/stream/Stream;", 1, "LongFunction",
+                    "mapToObj", "(Ljava/util/function/LongFunction;)Ljava/util/stream/Stream;"),
+            new Op(MAP_TO_LONG, STREAM, "map", "(Ljava/util/function/Function;)Ljava/util/stream/Stream;", 1, "ToLongFunction",
+                    STREAM, "mapToLong", "(Ljava/util/function/ToLongFunction;)Ljava/util/stream/LongStream;", null),
+            op(FILTER, "filter", "(Ljava/util/function/Predicate;)Ljava/util/stream/Stream;", 1, "LongPredicate",
+                    "filter", "(Ljava/util/function/LongPredicate;)Ljava/util/stream/LongStream;"),
+            op(FILTER, "peek", "(Ljava/util/function/Consumer;)Ljava/util/stream/Stream;", 1, "LongConsumer",
+                    "peek", "(Ljava/util/function/LongConsumer;)Ljava/util/stream/LongStream;"),
+            op(TERMINAL, "forEach", "(Ljava/util/function/Consumer;)V", 1, "LongConsumer",
+                    "forEach", "(Ljava/util/function/LongConsumer;)V"),
+            op(TERMINAL, "forEachOrdered", "(Ljava/util/function/Consumer;)V", 1, "LongConsumer",
+                    "forEachOrdered", "(Ljava/util/function/LongConsumer;)V"),
+            op(TERMINAL, "anyMatch", "(Ljava/util/function/Predicate;)Z", 1, "LongPredicate",
+                    "anyMatch", "(Ljava/util/function/LongPredicate;)Z"),
+            op(TERMINAL, "allMatch", "(Ljava/util/function/Predicate;)Z", 1, "LongPredicate",
+                    "allMatch", "(Ljava/util/function/LongPredicate;)Z"),
+            op(TERMINAL, "noneMatch", "(Ljava/util/function/Predicate;)Z", 1, "LongPredicate",
+                    "noneMatch", "(Ljava/util/function/LongPredicate;)Z"),
+            new Op(TERMINAL, STREAM, "reduce", "(Ljava/lang/Object;Ljava/util/function/BinaryOperator;)Ljava/lang/Object;",
+                    2, "LongBinaryOperator", LONG_STREAM, "reduce", "(JLjava/util/function/LongBinaryOperator;)J",
+                    "(#Ljava/util/function/BinaryOperator;)#"),
+            op(TERMINAL, "count", "()J", -1, null, "count", "()J"),
+            op(OPTIONAL_RESULT, "reduce", "(Ljava/util/function/BinaryOperator;)Ljava/util/Optional;", 1, "LongBinaryOperator",
+                    "reduce", "(Ljava/util/function/LongBinaryOperator;)Ljava/util/OptionalLong;"),
+            op(OPTIONAL_RESULT, "findFirst", "()Ljava/util/Optional;", -1, null, "findFirst", "()Ljava/util/OptionalLong;"),
+            op(OPTIONAL_RESULT, "findAny", "()Ljava/util/Optional;", -1, null, "findAny", "()Ljava/util/OptionalLong;"),
+            op(SORTED, "sorted", "()Ljava/util/stream/Stream;", -1, null, "of", "([J)Ljava/util/stream/LongStream;"),
+            op(PASS, "limit", "(J)Ljava/util/stream/Stream;", -1, null, "limit", "(J)Ljava/util/stream/LongStream;"),
+            op(PASS, "skip", "(J)Ljava/util/stream/Stream;", -1, null, "skip", "(J)Ljava/util/stream/LongStream;"),
+            op(PASS, "parallel", "()Ljava/util/stream/BaseStream;", -1, null, "parallel", "()Ljava/util/stream/BaseStream;"),
+            op(PASS, "sequential", "()Ljava/util/stream/BaseStream;", -1, null, "sequential", "()Ljava/util/stream/BaseStream;"),
+            op(PASS, "unordered", "()Ljava/util/stream/BaseStream;", -1, null, "unordered", "()Ljava/util/stream/BaseStream;"),
+            new Op(TO_ARRAY, STREAM, "toArray", "(Ljava/util/function/IntFunction;)[Ljava/lang/Object;", -1, null,
+                    LONG_STREAM, "toArray", "()[J", "()[#"),
+            new Op(SOURCE, "java/util/Arrays", "stream", "([Ljava/lang/Object;)Ljava/util/stream/Stream;", -1, null,
+                    "java/util/Arrays", "stream", "([J)Ljava/util/stream/LongStream;", "([#)Ljava/util/stream/Stream;"),
+            new Op(SOURCE, "java/util/Arrays", "stream", "([Ljava/lang/Object;II)Ljava/util/stream/Stream;", -1, null,
+                    "java/util/Arrays", "stream", "([JII)Ljava/util/stream/LongStream;", "([#II)Ljava/util/stream/Stream;"),
+            new Op(SOURCE, STREAM, "of", "([Ljava/lang/Object;)Ljava/util/stream/Stream;", -1, null,
+                    LONG_STREAM, "of", "([J)Ljava/util/stream/LongStream;", "([#)Ljava/util/stream/Stream;"),
+            new Op(SOURCE, STREAM, "of", "(Ljava/lang/Object;)Ljava/util/stream/Stream;", -1, null,
+                    LONG_STREAM, "of", "(J)Ljava/util/stream/LongStream;", "(#)Ljava/util/stream/Stream;"),
+    };
+
+    private static final Op CAST_OP = new Op(CAST, STREAM, null, null, -1, null, LONG_STREAM, null, null, null);
+
+    private static final Op[] OPTIONAL_OPS = {
+            new Op(TERMINAL, OPTIONAL, "get", "()Ljava/lang/Object;", -1, null, OPTIONAL_LONG, "getAsLong", "()J", "()#"),
+            new Op(TERMINAL, OPTIONAL, "isPresent", "()Z", -1, null, OPTIONAL_LONG, "isPresent", "()Z", null),
+            new Op(TERMINAL, OPTIONAL, "orElse", "(Ljava/lang/Object;)Ljava/lang/Object;", -1, null,
+                    OPTIONAL_LONG, "orElse", "(J)J", "(#)#"),
+    };
+
+    private final TranslationState state;
+    private final Mapping mapping;
+    private final FunctionalInterfaceSpecializer lambdas;
+
+    // Analysis state for the current method
+    private Flow flow;
+    private MethodNode method;
+    private final IdentityHashMap<AbstractInsnNode, Op> ops = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Integer> vtTypes = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Lambda> fnLambdas = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Boolean> longIn = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Boolean> longOut = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Integer> unboxed = new IdentityHashMap<>();
+    private final IdentityHashMap<AbstractInsnNode, Integer> boxed = new IdentityHashMap<>();
+
+    StreamPipelineSpecializer(TranslationState state, FunctionalInterfaceSpecializer lambdas) {
+        this.state = state;
+        this.mapping = state.mapping;
+        this.lambdas = lambdas;
+    }
+
+
+    /**
+     * Find stream operations that can be moved to LongStream. Lambdas of these operations are registered with
+     * FunctionalInterfaceSpecializer immediately, so they are not considered for other uses
+     */
+    void analyze(MethodNode method, Flow flow, IdentityHashMap<AbstractInsnNode, Lambda> candidates) {
+
+        this.method = method;
+        this.flow = flow;
+        ops.clear();
+        vtTypes.clear();
+        fnLambdas.clear();
+        longIn.clear();
+        longOut.clear();
+        unboxed.clear();
+        boxed.clear();
+
+        for (AbstractInsnNode node = method.instructions.getFirst(); null != node; node = node.getNext()) {
+            if (node instanceof MethodInsnNode) {
+                matchOp((MethodInsnNode) node, candidates);
+            } else if (CHECKCAST == node.getOpcode() && STREAM.equals(((TypeInsnNode) node).desc)) {
+                ops.put(node, CAST_OP);
+            }
+        }
+
+        if (ops.isEmpty())
+            return;
+
+        int n = 0;
+        for (AbstractInsnNode node : ops.keySet()) {
+            if (isActive(node)) {
+                Lambda lambda = fnLambdas.get(node);
+                if (null != lambda) {
+                    lambdas.addLambda(flow.sourceOf(node, ops.get(node).fnOperand), lambda);
+                }
+
+                // Box the elements, if the next operation can't use LongStream
+                if (ops.get(node).isLongOut() && !isLongReceiver(getSingleConsumer(node), node)) {
+                    boxed.put(node, getVtType(node));
+                }
+
+                ++n;
+            }
+        }
+
+        if (0 != n) {
+            state.logger.dbg("%d stream operation(s) moved to LongStream", n);
+        }
+    }
+
+
+    /**
+     * Modify the code of the method, according to the results of analyze(). Called before the transformation
+     */
+    void apply(MethodNode method) {
+
+        if (ops.isEmpty())
+            return;
+
+        InsnList instructions = method.instructions;
+        ArrayList<AbstractInsnNode> nodes = new ArrayList<>(ops.keySet());
+        for (AbstractInsnNode node : nodes) {
+            Op op = ops.get(node);
+            boolean active = isActive(node);
+            if (active) {
+                String vtDesc = mapping.getClassDefById(getVtType(node)).getSrcClassDesc();
+                switch (op.type) {
+                    case CAST:
+                        ((TypeInsnNode) node).desc = LONG_STREAM;
+                        break;
+
+                    case SORTED:
+                        expandSorted(instructions, (MethodInsnNode) node);
+                        break;
+
+                    case TO_ARRAY:
+                        instructions.remove(flow.sourceOf(node, 1));
+                        lambdas.addRewrite(node, op.rewrite(vtDesc));
+                        break;
+
+                    case OPTIONAL_RESULT:
+                        AbstractInsnNode use = flow.usesOf(node).get(0).consumer;
+                        lambdas.addRewrite(use, getOptionalOp((MethodInsnNode) use).rewrite(vtDesc));
+                        lambdas.addRewrite(node, op.rewrite(vtDesc));
+                        break;
+
+                    default:
+                        lambdas.addRewrite(node, op.rewrite(vtDesc));
+                }
+            }
+
+            Integer vtType = boxed.get(node);
+            if (null != vtType) {
+                insertConversion(instructions, node, vtType, true);
+            }
+        }
+
+        for (AbstractInsnNode node : unboxed.keySet()) {
+            insertConversion(instructions, node, unboxed.get(node), false);
+        }
+
+        ops.clear();
+        unboxed.clear();
+        boxed.clear();
+        flow = null;
+        this.method = null;
+    }
+
+
+    private void matchOp(MethodInsnNode node, IdentityHashMap<AbstractInsnNode, Lambda> candidates) {
+
+        Op found = null;
+        int vtType = 0;
+        for (Op op : OPS) {
+            if (!op.owner.equals(node.owner) || !op.name.equals(node.name) || !op.desc.equals(node.desc)
+                    || (INVOKESTATIC == node.getOpcode()) != (SOURCE == op.type))
+                continue;
+
+            if (op.fnOperand >= 0) {
+                AbstractInsnNode fn = flow.sourceOf(node, op.fnOperand);
+                Lambda lambda = null != fn ? candidates.get(fn) : null;
+                if (null == lambda || !op.fnInterface.equals(lambda.kind.dstOwner) || !flow.isSingleUse(fn))
+                    continue;
+
+                fnLambdas.put(node, lambda);
+                vtType = lambda.vtTypeId;
+            } else if (SOURCE == op.type) {
+                String desc = getRefDesc(flow, method, flow.sourceOf(node, 0), 0);
+                int typeId = null != desc ? DescriptorParser.getDescTypeId(desc, mapping) : 0;
+                boolean isArray = '[' == op.srcDesc.charAt(1);
+                if (0 == typeId || !isVt(typeId) || (isArray ? !isVtArray(typeId) || 1 != getArrayDepth(typeId) : !isVtValue(typeId)))
+                    continue;
+
+                vtType = typeId;
+            }
+
+            found = op;
+            break;
+        }
+
+        if (null == found)
+            return;
+
+        ops.put(node, found);
+        if (0 != vtType) {
+            vtTypes.put(node, vtType);
+        }
+    }
+
+
+    /**
+     * @return true if the operation is moved to LongStream
+     */
+    private boolean isActive(AbstractInsnNode node) {
+
+        Op op = ops.get(node);
+        return op.isLongIn() ? isLongIn(node) : isLongOut(node);
+    }
+
+
+    /**
+     * @return true if the receiver of the operation is LongStream, possibly after inserted mapToLong
+     */
+    private boolean isLongIn(AbstractInsnNode node) {
+
+        Boolean result = longIn.get(node);
+        if (null != result)
+            return result;
+
+        longIn.put(node, false);
+        boolean isLong = false;
+        AbstractInsnNode src = flow.sourceOf(node, 0);
+        if (null != src) {
+            if (isLongOut(src)) {
+                isLong = flow.isSingleUse(src) && canConsume(node, getVtType(src));
+            } else {
+                int vtType = getOwnVtType(node);
+                // Only unbox the values coming from outside of the pipeline
+                if (0 != vtType && flow.isSingleUse(src) && canConsume(node, vtType)) {
+                    unboxed.put(src, vtType);
+                    isLong = true;
+                }
+            }
+        }
+
+        longIn.put(node, isLong);
+        return isLong;
+    }
+
+
+    /**
+     * @return true if the operation produces LongStream
+     */
+    private boolean isLongOut(AbstractInsnNode node) {
+
+        Op op = ops.get(node);
+        if (null == op || !op.isLongOut())
+            return false;
+
+        Boolean result = longOut.get(node);
+        if (null != result)
+            return result;
+
+        longOut.put(node, false);
+        boolean isLong = !op.isLongIn() || isLongIn(node);
+        longOut.put(node, isLong);
+        return isLong;
+    }
+
+
+    /**
+     * @return true if the operation can process the unboxed elements of the specified Value Type
+     */
+    private boolean canConsume(AbstractInsnNode node, int vtType) {
+
+        Op op = ops.get(node);
+        if (null == op || !op.isLongIn())
+            return false;
+
+        int ownVtType = getOwnVtType(node);
+        if (0 != ownVtType && !isSameVtClass(ownVtType, vtType))
+            return false;
+
+        switch (op.type) {
+            case OPTIONAL_RESULT:
+                List<Use> uses = flow.usesOf(node);
+                return flow.isSingleUse(node) && 0 == uses.get(0).operand && uses.get(0).consumer instanceof MethodInsnNode
+                        && null != getOptionalOp((MethodInsnNode) uses.get(0).consumer);
+
+            case TO_ARRAY:
+                AbstractInsnNode gen = flow.sourceOf(node, 1);
+                if (!(gen instanceof InvokeDynamicInsnNode) || !flow.isSingleUse(gen))
+                    return false;
+
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) gen;
+                String vtDesc = mapping.getClassDefById(vtType).getSrcClassDesc();
+                return "()Ljava/util/function/IntFunction;".equals(indy.desc) && 3 == indy.bsmArgs.length
+                        && ("(I)[" + vtDesc).equals(indy.bsmArgs[2].toString());
+
+            default:
+                return true;
+        }
+    }
+
+
+    /**
+     * @return the Value Type of the elements, produced by the operation
+     */
+    private int getVtType(AbstractInsnNode node) {
+
+        int vtType = getOwnVtType(node);
+        if (0 != vtType || null == node)
+            return vtType;
+
+        AbstractInsnNode src = flow.sourceOf(node, 0);
+        Integer unboxedType = null != src ? unboxed.get(src) : null;
+        return null != unboxedType ? unboxedType : getVtType(src);
+    }
+
+
+    /**
+     * @return the Value Type, determined by the lambda or the source array of the operation, or 0
+     */
+    private int getOwnVtType(AbstractInsnNode node) {
+
+        Integer vtType = vtTypes.get(node);
+        return null != vtType ? vtType : 0;
+    }
+
+
+    /**
+     * @return true if the instruction calls a method that may be a part of a stream pipeline
+     */
+    static boolean isStreamCall(AbstractInsnNode node) {
+
+        if (!(node instanceof MethodInsnNode))
+            return false;
+
+        MethodInsnNode m = (MethodInsnNode) node;
+        return m.owner.startsWith("java/util/stream/") || "java/util/Arrays".equals(m.owner) && "stream".equals(m.name);
+    }
+
+
+    private AbstractInsnNode getSingleConsumer(AbstractInsnNode node) {
+        return flow.isSingleUse(node) ? flow.usesOf(node).get(0).consumer : null;
+    }
+
+
+    private boolean isLongReceiver(AbstractInsnNode consumer, AbstractInsnNode node) {
+        return null != consumer && ops.containsKey(consumer) && ops.get(consumer).isLongIn()
+                && node == flow.sourceOf(consumer, 0) && isLongIn(consumer);
+    }
+
+
+    private static Op getOptionalOp(MethodInsnNode node) {
+
+        if (INVOKEVIRTUAL != node.getOpcode())
+            return null;
+
+        for (Op op : OPTIONAL_OPS) {
+            if (op.owner.equals(node.owner) && op.name.equals(node.name) && op.desc.equals(node.desc))
+                return op;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return descriptor of the reference, produced by the instruction, or null if not known
+     */
+    static String getRefDesc(Flow flow, MethodNode method, AbstractInsnNode node, int depth) {
+
+        if (null == node || depth > 8)
+            return null;
+
+        switch (node.getOpcode()) {
+            case AALOAD:
+                String arrayDesc = getRefDesc(flow, method, flow.sourceOf(node, 0), depth + 1);
+                return null != arrayDesc && arrayDesc.startsWith("[") ? arrayDesc.substring(1) : null;
+
+            case ANEWARRAY:
+                return "[" + Type.getObjectType(((TypeInsnNode) node).desc).getDescriptor();
+
+            case CHECKCAST:
+                return Type.getObjectType(((TypeInsnNode) node).desc).getDescriptor();
+
+            case GETFIELD:
+            case GETSTATIC:
+                return ((FieldInsnNode) node).desc;
+
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case INVOKEINTERFACE:
+                return Type.getReturnType(((MethodInsnNode) node).desc).getDescriptor();
+
+            case ASTORE:
+                return getRefDesc(flow, method, flow.sourceOf(node, 0), depth + 1);
+
+            case ALOAD:
+                SourceValue[] values = flow.operands.get(node);
+                if (null == values || values[0].insns.isEmpty())
+                    return getParamDesc(method, ((VarInsnNode) node).var);
+
+                String desc = null;
+                for (AbstractInsnNode src : values[0].insns) {
+                    String srcDesc = getRefDesc(flow, method, src, depth + 1);
+                    if (null == srcDesc || (null != desc && !desc.equals(srcDesc)))
+                        return null;
+
+                    desc = srcDesc;
+                }
+
+                return desc;
+
+            default:
+                return null;
+        }
+    }
+
+
+    private static String getParamDesc(MethodNode method, int var) {
+
+        int slot = 0 != (method.access & ACC_STATIC) ? 0 : 1;
+        for (Type arg : Type.getArgumentTypes(method.desc)) {
+            if (slot == var)
+                return Type.OBJECT == arg.getSort() || Type.ARRAY == arg.getSort() ? arg.getDescriptor() : null;
+
+            slot += arg.getSize();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Replace sorted() with collecting the elements into long[], sorting it and creating a new LongStream
+     */
+    private void expandSorted(InsnList instructions, MethodInsnNode node) {
+
+        ClassDef classDef = mapping.getClassDefById(getVtType(node));
+        boolean parallel = isParallel(node);
+        InsnList list = new InsnList();
+        list.add(new MethodInsnNode(INVOKEINTERFACE, LONG_STREAM, "toArray", "()[J", true));
+        list.add(new InsnNode(DUP));
+        list.add(new LdcInsnNode(Type.getObjectType(classDef.getSrcClassPath())));
+        list.add(new MethodInsnNode(INVOKESTATIC, ValueTypeCollections.ARRAYS, parallel ? "parallelStableSort" : "stableSort",
+                "([JLjava/lang/Class;)V", false));
+        if (parallel) {
+            list.add(new MethodInsnNode(INVOKESTATIC, LONG_STREAM, "of", "([J)" + LONG_STREAM_DESC, true));
+        }
+
+        instructions.insertBefore(node, list);
+        node.setOpcode(parallel ? INVOKEINTERFACE : INVOKESTATIC);
+        node.owner = LONG_STREAM;
+        node.name = parallel ? "parallel" : "of";
+        node.desc = parallel ? "()" + LONG_STREAM_DESC : "([J)" + LONG_STREAM_DESC;
+        node.itf = true;
+    }
+
+
+    /**
+     * @return true if parallel() was called in the pipeline before the operation, or it was started by parallelStream()
+     */
+    private boolean isParallel(AbstractInsnNode node) {
+
+        for (AbstractInsnNode src = flow.sourceOf(node, 0); src instanceof MethodInsnNode || src instanceof TypeInsnNode;
+             src = flow.sourceOf(src, 0)) {
+            String name = src instanceof MethodInsnNode ? ((MethodInsnNode) src).name : null;
+            if ("parallel".equals(name) || "parallelStream".equals(name))
+                return true;
+
+            if ("sequential".equals(name) || !ops.containsKey(src))
+                return false;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Insert mapToObj with the boxing method or mapToLong with the unboxing method after the instruction
+     */
+    private void insertConversion(InsnList instructions, AbstractInsnNode node, int vtType, boolean box) {
+
+        ClassDef classDef = mapping.getClassDefById(vtType);
+        MethodDef m = box ? classDef.boxingMethod : classDef.unboxingMethod;
+        String vtDesc = classDef.getSrcClassDesc();
+        String itf = box ? "LongFunction" : "ToLongFunction";
+        Handle body = new Handle(H_INVOKESTATIC, m.getNewOwner(), m.getNewName(), m.getNewDesc(), false);
+        InsnList list = new InsnList();
+        list.add(new InvokeDynamicInsnNode(box ? "apply" : "applyAsLong", "()L" + FUNCTION + itf + ";",
+                new Handle(H_INVOKESTATIC, METAFACTORY, "metafactory", METAFACTORY_DESC, false),
+                Type.getMethodType(box ? "(J)Ljava/lang/Object;" : "(Ljava/lang/Object;)J"), body,
+                Type.getMethodType(box ? "(J)" + vtDesc : "(" + vtDesc + ")J")));
+        list.add(box
+                ? new MethodInsnNode(INVOKEINTERFACE, LONG_STREAM, "mapToObj", "(L" + FUNCTION + itf + ";)" + STREAM_DESC, true)
+                : new MethodInsnNode(INVOKEINTERFACE, STREAM, "mapToLong", "(L" + FUNCTION + itf + ";)" + LONG_STREAM_DESC, true));
+        instructions.insert(node, list);
+    }
+}
@@ -26,6 +26,7 @@ import deltix.vtype.common.CrudeLogger;
 import deltix.vtype.type.VariableMap;
 
 import java.util.Arrays;
+import java.util.HashMap;
 
 import static deltix.vtype.transformer.AsmUtil.initializeMethodArguments;
 
@@ -43,9 +44,15 @@ class TranslationState {
     final MethodNameTransformer methodNameConverter = new MethodNameTransformer();
 
     final String classPath;
-    //final int classAccess;
+    int classAccess;
     boolean classWasTransformed = false;
 
+    // Number of generated helper methods containing outlined cold code
+    int nColdMethods;
+
+    // Generic signatures of the fields of the class, name -> signature. Used to find Value Type collection fields
+    final HashMap<String, String> fieldSignatures = new HashMap<>();
+
     /**
      * Linked list of ValueType fields found in the class
      * Built once per class
@@ -71,6 +78,13 @@ class TranslationState {
     final FrameMap frameMap;
     final VariableMap variableMap;
     final VarListTransformer debugVarsListTransformer;
+    final ColdCodeOutliner coldCodeOutliner;
+    final CallFusion callFusion;
+    final GenericMethodSpecializer genericMethodSpecializer;
+    final FunctionalInterfaceSpecializer functionalInterfaceSpecializer;
+    final SerializedLambdaTransformer serializedLambdaTransformer;
+    final AtomicFieldTransformer atomicFieldTransformer;
+    final CollectionReceiverAnalyzer collectionReceiverAnalyzer;
 
     final Warnings warnings;
 
@@ -98,6 +112,13 @@ class TranslationState {
         basicOpcodeProcessor = new StackWalkHandler(stack, instructionIterator, logger);
         singlePassCodeTransformer = new SinglePassCodeTransformer(this);
         variableMap.setFormatter(singlePassCodeTransformer);
+        coldCodeOutliner = new ColdCodeOutliner(this);
+        callFusion = new CallFusion(logger, mapping.fuseCompareEquality);
+        genericMethodSpecializer = new GenericMethodSpecializer(this);
+        functionalInterfaceSpecializer = new FunctionalInterfaceSpecializer(this);
+        serializedLambdaTransformer = new SerializedLambdaTransformer(this);
+        atomicFieldTransformer = new AtomicFieldTransformer(this);
+        collectionReceiverAnalyzer = new CollectionReceiverAnalyzer(this);
 
         // Linked list of ValueType fields found in the class
         firstVtField = new int[2][mapping.numClasses()];
@@ -124,6 +145,16 @@ class TranslationState {
     }
 
 
+    String newColdMethodName(String methodName) {
+
+        if ('<' == methodName.charAt(0)) {
+            methodName = methodName.substring(1, methodName.length() - 1);
+        }
+
+        return methodName + "$VT$cold" + nColdMethods++;
+    }
+
+
     void setLogLevel(int logLevel) {
 
         // Logging level may change from method to method, so we allow updating it
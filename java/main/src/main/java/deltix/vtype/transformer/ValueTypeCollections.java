@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.transformer;
+
+import deltix.vtype.mapping.Mapping;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static deltix.vtype.type.TypeId.isVtValue;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Describes Value Type collections from {@code deltix.vtype.collections} package, that are shipped with the agent.
+ * <p>
+ * Calls of their generic methods with unboxed Value Type arguments are redirected to the overloads that take
+ * {@code long} in place of these arguments. If the method returns a Value Type, that is immediately cast to
+ * Value Type class or discarded, the call is redirected to the method with the same name plus "Long" suffix,
+ * that returns {@code long}. Only public methods that actually exist in the collection class are used.
+ */
+final class ValueTypeCollections {
+
+    static final String PACKAGE             = "deltix/vtype/collections/";
+    static final String LIST                = PACKAGE + "ValueTypeList";
+    static final String SORTED_MAP          = PACKAGE + "ValueTypeTreeMap";
+    static final String ITERATORS           = PACKAGE + "ValueTypeIterators";
+    static final String ARRAYS              = PACKAGE + "ValueTypeArrays";
+    static final String OPTIONAL            = PACKAGE + "ValueTypeOptional";
+    static final String NEXT_LONG           = "nextLong";
+    static final String NEXT_LONG_DESC      = "(Ljava/util/Iterator;Ljava/lang/Class;)J";
+    static final String LONG_SUFFIX         = "Long";
+
+    static final String ARRAY_LIST          = "java/util/ArrayList";
+    static final String TREE_MAP            = "java/util/TreeMap";
+    static final String JDK_ARRAYS          = "java/util/Arrays";
+    static final String CLASS_DESC          = "Ljava/lang/Class;";
+    static final String METHOD_HANDLE_DESC  = "Ljava/lang/invoke/MethodHandle;";
+    static final String CTOR_DESC           = "(Ljava/lang/Class;)V";
+    static final String CTOR_DESC_CAPACITY  = "(Ljava/lang/Class;I)V";
+
+    // Declared types of variables and fields that can hold ValueTypeList instead of ArrayList
+    private static final String[] LIST_INTERFACES = {
+            "java/util/List", "java/util/Collection", "java/lang/Iterable"
+    };
+
+    // Declared types of variables and fields that can hold ValueTypeTreeMap instead of TreeMap
+    private static final String[] SORTED_MAP_INTERFACES = {
+            "java/util/NavigableMap", "java/util/SortedMap", "java/util/Map"
+    };
+
+    // java.util.Arrays method name + descriptor -> replacement owner, descriptor for 1-dimensional Value Type arrays.
+    // Replacements with Class parameter take the Value Type class after the original arguments.
+    // Replacements with MethodHandle parameter take a handle of the static method with the specified descriptor
+    // in place of the functional interface argument
+    private static final HashMap<String, String[]> arraysMethods = new HashMap<>();
+
+    static {
+        addArraysMethod("sort", "([Ljava/lang/Object;)V", ARRAYS, "([JLjava/lang/Class;)V");
+        addArraysMethod("sort", "([Ljava/lang/Object;II)V", ARRAYS, "([JIILjava/lang/Class;)V");
+        addArraysMethod("binarySearch", "([Ljava/lang/Object;Ljava/lang/Object;)I", ARRAYS, "([JJLjava/lang/Class;)I");
+        addArraysMethod("binarySearch", "([Ljava/lang/Object;IILjava/lang/Object;)I", ARRAYS, "([JIIJLjava/lang/Class;)I");
+        addArraysMethod("fill", "([Ljava/lang/Object;Ljava/lang/Object;)V", JDK_ARRAYS, "([JJ)V");
+        addArraysMethod("fill", "([Ljava/lang/Object;IILjava/lang/Object;)V", JDK_ARRAYS, "([JIIJ)V");
+        addArraysMethod("toString", "([Ljava/lang/Object;)Ljava/lang/String;", ARRAYS, "([JLjava/lang/Class;)Ljava/lang/String;");
+        addArraysMethod("hashCode", "([Ljava/lang/Object;)I", ARRAYS, "([JLjava/lang/Class;)I");
+        addArraysMethod("parallelSort", "([Ljava/lang/Comparable;)V", ARRAYS, "([JLjava/lang/Class;)V");
+        addArraysMethod("parallelSort", "([Ljava/lang/Comparable;II)V", ARRAYS, "([JIILjava/lang/Class;)V");
+        addArraysMethod("parallelPrefix", "([Ljava/lang/Object;Ljava/util/function/BinaryOperator;)V", ARRAYS,
+                "([JLjava/lang/invoke/MethodHandle;)V", "(JJ)J");
+        addArraysMethod("parallelPrefix", "([Ljava/lang/Object;IILjava/util/function/BinaryOperator;)V", ARRAYS,
+                "([JIILjava/lang/invoke/MethodHandle;)V", "(JJ)J");
+        addArraysMethod("parallelSetAll", "([Ljava/lang/Object;Ljava/util/function/IntFunction;)V", ARRAYS,
+                "([JLjava/lang/invoke/MethodHandle;)V", "(I)J");
+    }
+
+    // Public method names + descriptors, by class path
+    private static final ConcurrentHashMap<String, Set<String>> methods = new ConcurrentHashMap<>();
+
+    private ValueTypeCollections() {
+    }
+
+
+    private static void addArraysMethod(String name, String desc, String newOwner, String newDesc) {
+        arraysMethods.put(name + desc, new String[] { newOwner, newDesc });
+    }
+
+    private static void addArraysMethod(String name, String desc, String newOwner, String newDesc, String functionDesc) {
+        arraysMethods.put(name + desc, new String[] { newOwner, newDesc, functionDesc });
+    }
+
+
+    /**
+     * @return owner and descriptor of the method that replaces java.util.Arrays method called with 1-dimensional
+     * Value Type array, followed by the descriptor of the function handle, if the method takes one,
+     * or null if the method is not supported
+     */
+    static String[] getArraysMethod(String name, String desc) {
+        return arraysMethods.get(name + desc);
+    }
+
+
+    static boolean isCollectionClass(String classPath) {
+        return classPath.startsWith(PACKAGE);
+    }
+
+
+    /**
+     * @return true if ValueTypeList or ValueTypeTreeMap may be used through the interface
+     */
+    static boolean isCollectionInterface(String classPath) {
+
+        for (String listInterface : LIST_INTERFACES) {
+            if (listInterface.equals(classPath))
+                return true;
+        }
+
+        for (String mapInterface : SORTED_MAP_INTERFACES) {
+            if (mapInterface.equals(classPath))
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return true if the collection class has a public instance method with the specified name and descriptor
+     */
+    static boolean hasMethod(String classPath, String name, String desc) {
+
+        Set<String> classMethods = methods.get(classPath);
+        if (null == classMethods) {
+            classMethods = loadMethods(classPath);
+            methods.putIfAbsent(classPath, classMethods);
+        }
+
+        return classMethods.contains(name + desc);
+    }
+
+
+    private static Set<String> loadMethods(String classPath) {
+
+        HashSet<String> classMethods = new HashSet<>();
+        try {
+            Class<?> cl = Class.forName(classPath.replace('/', '.'), false, ValueTypeCollections.class.getClassLoader());
+            for (Method m : cl.getMethods()) {
+                if (!Modifier.isStatic(m.getModifiers())) {
+                    classMethods.add(m.getName() + Type.getMethodDescriptor(m));
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            return Collections.emptySet();
+        }
+
+        return classMethods;
+    }
+
+
+    /**
+     * @return constructor call of {@code new ArrayList<>()}, {@code new ArrayList<>(capacity)} or
+     * {@code new TreeMap<>()}, created by the NEW instruction, or null if the instructions don't match this pattern
+     */
+    static MethodInsnNode getReplacedInit(TypeInsnNode node) {
+
+        AbstractInsnNode dup = nextInsn(node);
+        if (null == dup || DUP != dup.getOpcode())
+            return null;
+
+        AbstractInsnNode capacity = nextInsn(dup);
+        AbstractInsnNode init = capacity;
+        boolean hasCapacity = false;
+        if (null != capacity && isIntConstantOrLoad(capacity)) {
+            init = nextInsn(capacity);
+            hasCapacity = true;
+        }
+
+        if (!(init instanceof MethodInsnNode))
+            return null;
+
+        MethodInsnNode initNode = (MethodInsnNode) init;
+        return INVOKESPECIAL == initNode.getOpcode() && node.desc.equals(initNode.owner) && "<init>".equals(initNode.name)
+                && initNode.desc.equals(hasCapacity ? "(I)V" : "()V") ? initNode : null;
+    }
+
+
+    /**
+     * Find Value Type class path of the elements of the new ArrayList or the keys of the new TreeMap, if the new
+     * collection is immediately stored into a field of the transformed class or a local variable, declared as
+     * a collection interface of a Value Type, doesn't escape and will be replaced with Value Type collection
+     * @param node NEW instruction of the original code
+     * @param localVariables local variables of the method, or null
+     * @return Value Type source class path or null, if the collection is not replaced
+     */
+    static String getReplacedElementClass(TypeInsnNode node, TranslationState state, List<LocalVariableNode> localVariables) {
+
+        Mapping mapping = state.mapping;
+        boolean isList = ARRAY_LIST.equals(node.desc);
+        if (isList ? !mapping.replaceArrayLists : !TREE_MAP.equals(node.desc) || !mapping.replaceTreeMaps)
+            return null;
+
+        MethodInsnNode init = getReplacedInit(node);
+        if (null == init || state.collectionReceiverAnalyzer.isEscaping(node))
+            return null;
+
+        String signature = getStoreSignature(nextInsn(init), state, localVariables);
+        return isList ? getListElementClass(signature, mapping) : getSortedMapKeyClass(signature, mapping);
+    }
+
+
+    /**
+     * @return Value Type collection class, that replaces ArrayList or TreeMap
+     */
+    static String getReplacementClass(String classPath) {
+        return ARRAY_LIST.equals(classPath) ? LIST : SORTED_MAP;
+    }
+
+
+    /**
+     * @return generic signature of the field of the transformed class or of the local variable, that the store
+     * instruction writes into, or null
+     */
+    private static String getStoreSignature(AbstractInsnNode store, TranslationState state, List<LocalVariableNode> localVariables) {
+
+        if (null == store)
+            return null;
+
+        switch (store.getOpcode()) {
+            case PUTFIELD:
+            case PUTSTATIC:
+                FieldInsnNode field = (FieldInsnNode) store;
+                return field.owner.equals(state.classPath) && !state.collectionReceiverAnalyzer.isEscapingField(field.name)
+                        ? state.fieldSignatures.get(field.name) : null;
+
+            case ASTORE:
+                if (null == localVariables)
+                    return null;
+
+                int var = ((VarInsnNode) store).var;
+                AbstractInsnNode scopeStart = store.getNext();
+                for (LocalVariableNode v : localVariables) {
+                    if (v.index == var && v.start == scopeStart)
+                        return v.signature;
+                }
+
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+
+    static AbstractInsnNode nextInsn(AbstractInsnNode node) {
+
+        do {
+            node = node.getNext();
+        } while (node instanceof LineNumberNode);
+
+        return node;
+    }
+
+
+    private static boolean isIntConstantOrLoad(AbstractInsnNode node) {
+
+        int opcode = node.getOpcode();
+        return opcode >= ICONST_M1 && opcode <= SIPUSH || ILOAD == opcode
+                || LDC == opcode && ((LdcInsnNode) node).cst instanceof Integer;
+    }
+
+
+    /**
+     * Find Value Type class path of the list elements from the generic signature of a field or a local variable
+     * @param signature generic signature, like {@code Ljava/util/List<Ldeltix/dfp/Decimal64;>;}
+     * @return Value Type source class path or null, if the signature is not a list interface of a mapped Value Type
+     */
+    static String getListElementClass(String signature, Mapping mapping) {
+
+        if (null == signature)
+            return null;
+
+        for (String listInterface : LIST_INTERFACES) {
+            String prefix = "L" + listInterface + "<L";
+            if (signature.startsWith(prefix) && signature.endsWith(";>;")) {
+                String classPath = signature.substring(prefix.length(), signature.length() - 3);
+                if (classPath.indexOf('<') < 0 && classPath.indexOf(';') < 0
+                        && isVtValue(mapping.getClassTypeId(classPath)))
+                    return classPath;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Find Value Type class path of the map keys from the generic signature of a field or a local variable
+     * @param signature generic signature, like {@code Ljava/util/NavigableMap<Ldeltix/dfp/Decimal64;Lcom/acme/Level;>;}
+     * @return Value Type source class path or null, if the signature is not a sorted map interface with
+     * mapped Value Type keys
+     */
+    static String getSortedMapKeyClass(String signature, Mapping mapping) {
+
+        if (null == signature)
+            return null;
+
+        for (String mapInterface : SORTED_MAP_INTERFACES) {
+            String prefix = "L" + mapInterface + "<L";
+            if (signature.startsWith(prefix)) {
+                int end = signature.indexOf(';', prefix.length());
+                if (end < 0)
+                    return null;
+
+                String classPath = signature.substring(prefix.length(), end);
+                return classPath.indexOf('<') < 0 && isVtValue(mapping.getClassTypeId(classPath)) ? classPath : null;
+            }
+        }
+
+        return null;
+    }
+}
@@ -42,7 +42,8 @@ public class Warnings {
     static final int FRAME_UNBOXING     = 18;
     static final int FRAME_BOXING       = 19;
     static final int DELETED_SETTER     = 20;
-    static final int UNKNOWN            = 21;
+    static final int METHOD_SIZE        = 21;
+    static final int UNKNOWN            = 22;
 
     static final int WARNINGS_COUNT;
 
@@ -70,6 +71,7 @@ public class Warnings {
             "unboxing Value Type on Stack Frame synchronization",
             "boxing Value Type on Stack Frame synchronization",
             "conflicting setter deleted",
+            "transformed method code size exceeds JIT limit",
             "something suspicious is going on"
     };
 
@@ -95,6 +97,7 @@ public class Warnings {
             "frameSyncUnboxing",
             "frameSyncBoxing",
             "setterDeleted",
+            "methodSize",
             "genericWarning"
     };
 
@@ -120,6 +123,7 @@ public class Warnings {
             "initialize Value Types with ValueType constants, do not store ValueTypes to Objects",
             "initialize Value Types with ValueType constants, do not store ValueTypes to Objects",
             "After ValueType translation conflicting setters that take long/long[] has to be removed. Maybe, delete the setter yourself",
+            "Split the method or move rarely executed code into separate methods",
             "Do something or complain to the developer",
     };
 
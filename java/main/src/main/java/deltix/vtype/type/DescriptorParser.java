@@ -248,9 +248,9 @@ public class DescriptorParser {
             case 'L': {
                 int iend = desc.indexOf(';', i);
                 String argClassPath = desc.substring(i, iend);
-                argType = null == mapping ?
-                        (argClassPath.equals("ValueType") ? getWildcardTypeId() : TypeId.OBJ_REF)
-                        : mapping.getClassTypeId(argClassPath);
+                // "ValueType" wildcard is only expected in autoMethod templates
+                argType = argClassPath.equals("ValueType") ? getWildcardTypeId()
+                        : null == mapping ? TypeId.OBJ_REF : mapping.getClassTypeId(argClassPath);
                 i = iend + 1;
                 break;
             }
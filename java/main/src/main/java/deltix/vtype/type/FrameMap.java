@@ -188,12 +188,29 @@ public class FrameMap {
 
             log.dbg("Stack Frame: " + stackFrameToString(node));
             // Performance warning!
-            processFrame(node.type, node.local.size(), node.local.toArray(), node.stack.size(), node.stack.toArray());
+            Object[] local = null != node.local ? node.local.toArray() : new Object[0];
+            Object[] stack = null != node.stack ? node.stack.toArray() : new Object[0];
+            processFrame(node.type, local.length, local, stack.length, stack);
             addFrameNode(node0.getPrevious());
         }
     }
 
 
+    /**
+     * Rebuild the frame map from the frame nodes of the method. Used after the frames were changed by an
+     * analysis pass that runs after the method was read
+     */
+    public void rebuild(org.objectweb.asm.tree.MethodNode methodNode) {
+
+        clear();
+        AsmUtil.initializeMethodArguments(vars, methodNode, mapping);
+        saveVarFrame();
+        for (AbstractInsnNode node = methodNode.instructions.getFirst(); null != node; node = node.getNext()) {
+            processNode(node);
+        }
+    }
+
+
     public FrameEntry getFrames(LabelNode label) {
         return frames.get(label);
     }
@@ -18,9 +18,10 @@ package deltix.dt;
 
 import deltix.vtype.annotations.ValueType;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
-public class DateTime {
+public class DateTime implements Comparable<DateTime> {
     public static final DateTime NULL = null;
     long dt;
 
@@ -98,6 +99,11 @@ public class DateTime {
         return this.dt == other.dt;
     }
 
+    @Override
+    public int compareTo(DateTime other) {
+        return Utils.compareTo(dt, other.dt);
+    }
+
     public static boolean isIdentical(DateTime dt1, Object o) {
         return (o == dt1) || (o instanceof DateTime && dt1.dt == ((DateTime)o).dt);
     }
@@ -127,6 +133,30 @@ public class DateTime {
         return Utils.toString(dt);
     }
 
+    public static DateTime parseIso(CharSequence src, int offset, int length) {
+        return create(Utils.parseIso(src, offset, length));
+    }
+
+    public static DateTime parseIso(byte[] src, int offset, int length) {
+        return create(Utils.parseIso(src, offset, length));
+    }
+
+    public static DateTime parseIso(ByteBuffer src, int offset, int length) {
+        return create(Utils.parseIso(src, offset, length));
+    }
+
+    public StringBuilder appendIsoTo(StringBuilder builder) {
+        return Utils.appendIsoTo(dt, builder);
+    }
+
+    public int formatIso(byte[] dst, int offset) {
+        return Utils.formatIso(dt, dst, offset);
+    }
+
+    public int formatIso(ByteBuffer dst, int offset) {
+        return Utils.formatIso(dt, dst, offset);
+    }
+
     @ValueType(impl="avgRenamed")
     public DateTime avg(DateTime b) {
         return create(Utils.avgRenamed(dt, b.dt));
@@ -18,6 +18,7 @@ package deltix.dt;
 
 import deltix.vtype.annotations.ValueTypeCommutative;
 
+import java.nio.ByteBuffer;
 import java.text.FieldPosition;
 import java.text.ParseException;
 import java.text.ParsePosition;
@@ -87,6 +88,39 @@ final public class Utils {
         return null == o ? NULL == dt1 : o instanceof DateTime && dt1 == ((DateTime)o).dt;
     }
 
+    public static int compareTo(long dt1, long dt2) {
+        return Long.compare(dt1, dt2);
+    }
+
+    // Implements the Comparable.compareTo(Object) bridge
+    public static int compareTo(long dt1, Object dt2) {
+        return compareTo(dt1, ((DateTime)dt2).dt);
+    }
+
+    // Calls of the fused method and the predicates that replace compareTo(), counted by the tests
+    public static int fusedCalls;
+    public static int predicateCalls;
+
+    public static boolean isLess(long dt1, long dt2) {
+        ++predicateCalls;
+        return dt1 < dt2;
+    }
+
+    public static boolean isLessOrEqual(long dt1, long dt2) {
+        ++predicateCalls;
+        return dt1 <= dt2;
+    }
+
+    public static boolean isGreater(long dt1, long dt2) {
+        ++predicateCalls;
+        return dt1 > dt2;
+    }
+
+    public static boolean isGreaterOrEqual(long dt1, long dt2) {
+        ++predicateCalls;
+        return dt1 >= dt2;
+    }
+
     public static boolean isIdentical(long dt1, long dt2) {
         return dt1 == dt2;
     }
@@ -138,6 +172,11 @@ final public class Utils {
         return dt + days * NANOS_PER_DAY;
     }
 
+    public static long addDaysAndNanos(long dt, long days, long nanos) {
+        ++fusedCalls;
+        return addNanos(addDays(dt, days), nanos);
+    }
+
     public static String toString(long dt) {
         if (NULL == dt)
             return "null";
@@ -148,6 +187,227 @@ final public class Utils {
         return sb.toString();
     }
 
+    /// region ISO 8601 timestamp codec, "yyyy-MM-ddTHH:mm:ss.nnnnnnnnnZ" in UTC
+
+    private static final int ISO_LENGTH = 30;
+    private static final long DAYS_0000_TO_1970 = 719468;
+    private static final long[] POWERS_OF_TEN = {
+            1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000
+    };
+
+    /**
+     * Parse UTC timestamp {@code yyyy-MM-dd[T ]HH:mm:ss[.n{1,9}][Z]} or "null" from the characters in
+     * [offset, offset + length). Does not allocate.
+     * @return nanoseconds since the epoch
+     * @throws IllegalArgumentException if the text is not a valid timestamp
+     */
+    public static long parseIso(CharSequence src, int offset, int length) {
+        return parseIso(src, null, null, offset, length);
+    }
+
+    public static long parseIso(byte[] src, int offset, int length) {
+        return parseIso(null, src, null, offset, length);
+    }
+
+    /**
+     * Buffer position is not changed
+     */
+    public static long parseIso(ByteBuffer src, int offset, int length) {
+        return parseIso(null, null, src, offset, length);
+    }
+
+    /**
+     * Append UTC timestamp with 9 fraction digits. Does not allocate.
+     */
+    public static StringBuilder appendIsoTo(long dt, StringBuilder builder) {
+        formatIso(dt, null, null, builder, 0);
+        return builder;
+    }
+
+    /**
+     * @return number of bytes written, 30 or 4 for "null"
+     */
+    public static int formatIso(long dt, byte[] dst, int offset) {
+        return formatIso(dt, dst, null, null, offset);
+    }
+
+    /**
+     * Buffer position is not changed
+     * @return number of bytes written, 30 or 4 for "null"
+     */
+    public static int formatIso(long dt, ByteBuffer dst, int offset) {
+        return formatIso(dt, null, dst, null, offset);
+    }
+
+
+    private static long parseIso(CharSequence chars, byte[] bytes, ByteBuffer buffer, int offset, int length) {
+
+        int end = offset + length;
+        if (4 == length && 'n' == charAt(chars, bytes, buffer, offset) && 'u' == charAt(chars, bytes, buffer, offset + 1)
+                && 'l' == charAt(chars, bytes, buffer, offset + 2) && 'l' == charAt(chars, bytes, buffer, offset + 3))
+            return NULL;
+
+        if (length < 19
+                || '-' != charAt(chars, bytes, buffer, offset + 4) || '-' != charAt(chars, bytes, buffer, offset + 7)
+                || ':' != charAt(chars, bytes, buffer, offset + 13) || ':' != charAt(chars, bytes, buffer, offset + 16))
+            throw invalidIso(offset, length);
+
+        int separator = charAt(chars, bytes, buffer, offset + 10);
+        if ('T' != separator && ' ' != separator)
+            throw invalidIso(offset, length);
+
+        int year = parseDigits(chars, bytes, buffer, offset, 4);
+        int month = parseDigits(chars, bytes, buffer, offset + 5, 2);
+        int day = parseDigits(chars, bytes, buffer, offset + 8, 2);
+        int hour = parseDigits(chars, bytes, buffer, offset + 11, 2);
+        int minute = parseDigits(chars, bytes, buffer, offset + 14, 2);
+        int second = parseDigits(chars, bytes, buffer, offset + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0 || month < 1 || month > 12 || day < 1
+                || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59)
+            throw invalidIso(offset, length);
+
+        long nanos = 0;
+        int i = offset + 19;
+        if (i < end && '.' == charAt(chars, bytes, buffer, i)) {
+            long scale = NANOS_PER_SECOND;
+            int c;
+            while (++i < end && (c = charAt(chars, bytes, buffer, i) - '0') >= 0 && c <= 9) {
+                if (1 == scale)
+                    throw invalidIso(offset, length);
+
+                scale /= 10;
+                nanos += scale * c;
+            }
+
+            if (NANOS_PER_SECOND == scale)
+                throw invalidIso(offset, length);
+        }
+
+        if (i < end && 'Z' == charAt(chars, bytes, buffer, i)) {
+            ++i;
+        }
+
+        if (i != end)
+            throw invalidIso(offset, length);
+
+        long days = daysFromCivil(year, month, day);
+        // Timestamps from 1677 to 2262 fit in long, the first and the last day are excluded
+        if (days <= Long.MIN_VALUE / NANOS_PER_DAY || days >= Long.MAX_VALUE / NANOS_PER_DAY)
+            throw invalidIso(offset, length);
+
+        return days * NANOS_PER_DAY
+                + hour * NANOS_PER_HOUR + minute * NANOS_PER_MINUTE + second * NANOS_PER_SECOND + nanos;
+    }
+
+    private static int formatIso(long dt, byte[] bytes, ByteBuffer buffer, StringBuilder builder, int offset) {
+
+        if (NULL == dt) {
+            put(bytes, buffer, builder, offset, 'n');
+            put(bytes, buffer, builder, offset + 1, 'u');
+            put(bytes, buffer, builder, offset + 2, 'l');
+            put(bytes, buffer, builder, offset + 3, 'l');
+            return 4;
+        }
+
+        long days = dt / NANOS_PER_DAY;
+        long nanosOfDay = dt % NANOS_PER_DAY;
+        if (nanosOfDay < 0) {
+            --days;
+            nanosOfDay += NANOS_PER_DAY;
+        }
+
+        // Civil date from days since 0000-03-01, see H. Hinnant, "chrono-Compatible Low-Level Date Algorithms"
+        long z = days + DAYS_0000_TO_1970;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        int i = offset;
+        i = putDigits(bytes, buffer, builder, i, year, 4);
+        put(bytes, buffer, builder, i++, '-');
+        i = putDigits(bytes, buffer, builder, i, month, 2);
+        put(bytes, buffer, builder, i++, '-');
+        i = putDigits(bytes, buffer, builder, i, day, 2);
+        put(bytes, buffer, builder, i++, 'T');
+        i = putDigits(bytes, buffer, builder, i, nanosOfDay / NANOS_PER_HOUR, 2);
+        put(bytes, buffer, builder, i++, ':');
+        i = putDigits(bytes, buffer, builder, i, nanosOfDay / NANOS_PER_MINUTE % 60, 2);
+        put(bytes, buffer, builder, i++, ':');
+        i = putDigits(bytes, buffer, builder, i, nanosOfDay / NANOS_PER_SECOND % 60, 2);
+        put(bytes, buffer, builder, i++, '.');
+        i = putDigits(bytes, buffer, builder, i, nanosOfDay % NANOS_PER_SECOND, 9);
+        put(bytes, buffer, builder, i, 'Z');
+        return ISO_LENGTH;
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+
+        int y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    private static int daysInMonth(int year, int month) {
+
+        if (2 == month)
+            return 0 == year % 4 && (0 != year % 100 || 0 == year % 400) ? 29 : 28;
+
+        return 4 == month || 6 == month || 9 == month || 11 == month ? 30 : 31;
+    }
+
+    private static IllegalArgumentException invalidIso(int offset, int length) {
+        return new IllegalArgumentException("Invalid ISO timestamp at offset " + offset + ", length " + length);
+    }
+
+    private static int charAt(CharSequence chars, byte[] bytes, ByteBuffer buffer, int i) {
+        return null != chars ? chars.charAt(i) : null != bytes ? bytes[i] : buffer.get(i);
+    }
+
+    // Returns -1 if a character is not a digit
+    private static int parseDigits(CharSequence chars, byte[] bytes, ByteBuffer buffer, int offset, int n) {
+
+        int value = 0;
+        for (int i = offset; i < offset + n; ++i) {
+            int c = charAt(chars, bytes, buffer, i) - '0';
+            if (c < 0 || c > 9)
+                return -1;
+
+            value = value * 10 + c;
+        }
+
+        return value;
+    }
+
+    private static void put(byte[] bytes, ByteBuffer buffer, StringBuilder builder, int i, char c) {
+
+        if (null != bytes) {
+            bytes[i] = (byte) c;
+        } else if (null != buffer) {
+            buffer.put(i, (byte) c);
+        } else {
+            builder.append(c);
+        }
+    }
+
+    private static int putDigits(byte[] bytes, ByteBuffer buffer, StringBuilder builder, int i, long value, int n) {
+
+        for (long divisor = POWERS_OF_TEN[n - 1]; divisor > 0; divisor /= 10) {
+            put(bytes, buffer, builder, i++, (char) ('0' + value / divisor % 10));
+        }
+
+        return i;
+    }
+
+    /// endregion
+
 
     /// region Array boxing/unboxing (array conversions from long[] / to long[])
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decimal64 array arithmetic methods are replaced with kernels that take long[] and give the same results
+ * as element-wise calls
+ */
+public class ArrayKernelsTest {
+
+    private static final int N = 40;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static void fill(Decimal64[] a, Decimal64[] b) {
+
+        Decimal64 x = Decimal64.ONE;
+        Decimal64 y = Decimal64.fromLong(3);
+        for (int i = 0; i < a.length; ++i) {
+            // Every 4th element has fractional part
+            a[i] = 0 == (i & 3) ? x.add(Decimal64.ONE_TENTH) : x;
+            b[i] = y;
+            x = x.add(Decimal64.ONE);
+            y = y.multiply(Decimal64.TWO).subtract(Decimal64.ONE);
+            if (i == 20) {
+                y = Decimal64.ONE_HUNDREDTH;
+            }
+        }
+    }
+
+    @Test
+    public void testAddMultiply() {
+
+        Decimal64[] a = new Decimal64[N];
+        Decimal64[] b = new Decimal64[N];
+        Decimal64[] dst = new Decimal64[N];
+        fill(a, b);
+
+        Decimal64.add(a, b, dst, 2, N - 4);
+        for (int i = 2; i < N - 2; ++i) {
+            assertTrue(dst[i].equals(a[i].add(b[i])));
+        }
+
+        assertTrue(null == dst[0] && null == dst[N - 1]);
+
+        Decimal64 m = Decimal64.fromLong(12);
+        Decimal64.multiply(a, m, dst, 0, N);
+        for (int i = 0; i < N; ++i) {
+            assertTrue(dst[i].equals(a[i].multiply(m)));
+        }
+
+        m = Decimal64.ONE_TENTH;
+        Decimal64.multiply(a, m, dst, 0, N);
+        for (int i = 0; i < N; ++i) {
+            assertTrue(dst[i].equals(a[i].multiply(m)));
+        }
+    }
+
+    @Test
+    public void testSumDot() {
+
+        Decimal64[] a = new Decimal64[N];
+        Decimal64[] b = new Decimal64[N];
+        fill(a, b);
+
+        Decimal64 sum = Decimal64.ZERO;
+        Decimal64 dot = Decimal64.ZERO;
+        for (int i = 1; i < N; ++i) {
+            sum = sum.add(a[i]);
+            dot = dot.add(a[i].multiply(b[i]));
+        }
+
+        assertTrue(sum.equals(Decimal64.sum(a, 1, N - 1)));
+        assertTrue(dot.equals(Decimal64.dot(a, b, 1, N - 1)));
+        assertTrue(Decimal64.ZERO.equals(Decimal64.sum(a, 5, 0)));
+    }
+
+    @Test
+    public void testMinMax() {
+
+        Decimal64[] a = new Decimal64[N];
+        Decimal64[] b = new Decimal64[N];
+        fill(a, b);
+
+        assertTrue(Decimal64.min(a, 0, N).equals(a[0]));
+        assertTrue(Decimal64.max(a, 0, N).equals(a[N - 1]));
+        assertTrue(Decimal64.min(b, 0, 22).equals(Decimal64.ONE_HUNDREDTH));
+        assertTrue(Decimal64.max(b, 3, 10).equals(b[12]));
+        assertTrue(null == Decimal64.min(a, 0, 0));
+        assertEquals(Decimal64.toString(a[7]), Decimal64.toString(Decimal64.max(a, 4, 4)));
+    }
+}
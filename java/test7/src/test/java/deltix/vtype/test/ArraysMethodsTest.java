@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * java.util.Arrays methods called with Value Type arrays should use the implementation class methods
+ * and not box the arrays
+ */
+public class ArraysMethodsTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testSortDecimal() {
+
+        Random random = new Random(7);
+        for (int n : new int[] {0, 1, 5, 30, 1000, 10000}) {
+            int[] ints = new int[n];
+            Decimal64[] decimals = new Decimal64[n];
+            for (int i = 0; i < n; ++i) {
+                // Negative numbers and many duplicates
+                ints[i] = random.nextInt(n / 3 + 1) - n / 6;
+                decimals[i] = Decimal64.fromLong(ints[i]);
+            }
+
+            Arrays.sort(ints);
+            Arrays.sort(decimals);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(Decimal64.fromLong(ints[i]).equals(decimals[i]));
+            }
+
+            for (int i = 0; i < n; i += 7) {
+                int found = Arrays.binarySearch(decimals, Decimal64.fromLong(ints[i]));
+                assertTrue(Decimal64.fromLong(ints[i]).equals(decimals[found]));
+            }
+        }
+    }
+
+    @Test
+    public void testSortRange() {
+
+        Decimal64[] decimals = new Decimal64[100];
+        for (int i = 0; i < decimals.length; ++i) {
+            decimals[i] = Decimal64.fromLong(100 - i);
+        }
+
+        Arrays.sort(decimals, 10, 90);
+        assertTrue(Decimal64.fromLong(100).equals(decimals[0]));
+        assertTrue(Decimal64.fromLong(11).equals(decimals[10]));
+        assertTrue(Decimal64.fromLong(90).equals(decimals[89]));
+        assertTrue(Decimal64.fromLong(10).equals(decimals[90]));
+        assertEquals(-11, Arrays.binarySearch(decimals, 10, 90, Decimal64.fromLong(5)));
+        assertEquals(50, Arrays.binarySearch(decimals, 10, 90, Decimal64.fromLong(51)));
+    }
+
+    @Test
+    public void testFillNull() {
+
+        DateTime[] dts = new DateTime[5];
+        Arrays.fill(dts, DateTime.create(7));
+        Arrays.fill(dts, 1, 3, null);
+        assertTrue(null != dts[0]);
+        assertTrue(null == dts[1]);
+        assertTrue(null == dts[2]);
+        assertEquals(7, dts[3].getLong());
+
+        Arrays.fill(dts, null);
+        for (DateTime dt : dts) {
+            assertTrue(null == dt);
+        }
+    }
+
+    @Test
+    public void testDateTimeArray() {
+
+        DateTime[] dts = new DateTime[50];
+        Arrays.fill(dts, DateTime.create(1000));
+        Arrays.fill(dts, 10, 20, DateTime.create(5));
+        Arrays.sort(dts);
+        assertEquals(5, dts[9].getLong());
+        assertEquals(1000, dts[10].getLong());
+        assertTrue(Arrays.binarySearch(dts, DateTime.create(1000)) >= 10);
+        assertTrue(Arrays.binarySearch(dts, DateTime.create(6)) == -11);
+
+        DateTime[] copy = Arrays.copyOf(dts, dts.length);
+        assertEquals(Arrays.hashCode(dts), Arrays.hashCode(copy));
+    }
+
+    @Test
+    public void testToStringAndHashCode() {
+
+        AllocationDetector.uninstall();
+        try {
+            Decimal64[] decimals = new Decimal64[] {Decimal64.ONE, null, Decimal64.TEN};
+            assertEquals("[" + Decimal64.ONE.toString() + ", null, " + Decimal64.TEN.toString() + "]",
+                    Arrays.toString(decimals));
+            assertEquals("[]", Arrays.toString(new Decimal64[0]));
+
+            int expected = 31 * (31 * (31 + Decimal64.ONE.hashCode())) + Decimal64.TEN.hashCode();
+            assertEquals(expected, Arrays.hashCode(decimals));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
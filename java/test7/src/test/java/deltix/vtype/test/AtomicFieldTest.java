@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Private AtomicReference fields of Value Types and their field updaters should be replaced with AtomicLong and
+ * AtomicLongFieldUpdater, compareAndSet should compare values
+ */
+public class AtomicFieldTest {
+
+    private static final AtomicReferenceFieldUpdater<AtomicFieldTest, Decimal64> PRICE =
+            AtomicReferenceFieldUpdater.newUpdater(AtomicFieldTest.class, Decimal64.class, "price");
+
+    private final AtomicReference<Decimal64> last = new AtomicReference<>(Decimal64.ZERO);
+    private final AtomicReference<DateTime> time = new AtomicReference<>();
+    private final AtomicReference<Decimal64> escaped = new AtomicReference<>(Decimal64.ONE);
+    private volatile Decimal64 price = Decimal64.ONE;
+
+    private AtomicReference<Decimal64> escaped() {
+        return escaped;
+    }
+
+    @Test
+    public void testAtomicReference() {
+
+        assertTrue(Decimal64.ZERO.equals(last.get()));
+        last.set(Decimal64.fromLong(2));
+        assertTrue(last.compareAndSet(Decimal64.fromLong(2), Decimal64.fromLong(3)));
+        assertFalse(last.compareAndSet(Decimal64.fromLong(2), Decimal64.fromLong(4)));
+        assertTrue(Decimal64.fromLong(3).equals(last.getAndSet(Decimal64.fromLong(5))));
+        last.lazySet(Decimal64.fromLong(6));
+        assertTrue(Decimal64.fromLong(6).equals(last.get()));
+    }
+
+    @Test
+    public void testEmptyAtomicReference() {
+
+        assertTrue(null == time.get());
+        assertTrue(time.compareAndSet(null, DateTime.create(5)));
+        assertEquals(5, time.get().getLong());
+        assertFalse(time.weakCompareAndSet(null, DateTime.create(6)));
+    }
+
+    @Test
+    public void testObjectTypedValues() {
+
+        List<DateTime> times = Arrays.asList(DateTime.create(10), DateTime.create(20), DateTime.create(30));
+        List<Decimal64> prices = Arrays.asList(Decimal64.fromLong(8), Decimal64.fromLong(9));
+
+        time.set(times.get(0));
+        assertEquals(10, time.get().getLong());
+        assertTrue(time.compareAndSet(times.get(0), times.get(1)));
+        assertFalse(time.compareAndSet(times.get(0), times.get(2)));
+        assertEquals(20, time.getAndSet(times.get(2)).getLong());
+        time.lazySet(times.get(1));
+        assertEquals(20, time.get().getLong());
+
+        PRICE.set(this, prices.get(0));
+        assertTrue(PRICE.compareAndSet(this, prices.get(0), prices.get(1)));
+        assertTrue(Decimal64.fromLong(9).equals(price));
+    }
+
+    @Test
+    public void testFieldUpdater() {
+
+        assertTrue(PRICE.compareAndSet(this, Decimal64.fromLong(1), Decimal64.fromLong(3)));
+        assertTrue(Decimal64.fromLong(3).equals(price));
+        assertTrue(Decimal64.fromLong(3).equals(PRICE.getAndSet(this, Decimal64.fromLong(4))));
+        PRICE.set(this, Decimal64.fromLong(7));
+        assertTrue(Decimal64.fromLong(7).equals(PRICE.get(this)));
+    }
+
+    @Test
+    public void testFieldTypes() throws NoSuchFieldException {
+
+        assertSame(AtomicLong.class, AtomicFieldTest.class.getDeclaredField("last").getType());
+        assertSame(AtomicLong.class, AtomicFieldTest.class.getDeclaredField("time").getType());
+        assertSame(AtomicLongFieldUpdater.class, AtomicFieldTest.class.getDeclaredField("PRICE").getType());
+
+        Field price = AtomicFieldTest.class.getDeclaredField("price");
+        assertSame(long.class, price.getType());
+        assertTrue(Modifier.isVolatile(price.getModifiers()));
+
+        // Returned from a method, so it is not replaced
+        assertSame(AtomicReference.class, AtomicFieldTest.class.getDeclaredField("escaped").getType());
+        assertTrue(Decimal64.ONE.equals(escaped().get()));
+    }
+}
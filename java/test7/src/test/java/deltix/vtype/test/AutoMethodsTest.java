@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AutoMethod templates (see "autoMethods" in valuetype-tests.json) redirect calls of methods that take Value Types
+ * as Object to the methods that take long
+ */
+public class AutoMethodsTest {
+
+    // "Third party" API that takes Object
+    public interface Sink {
+        void put(String key, Object value);
+    }
+
+    public static class ListSink implements Sink {
+        final ArrayList<String> entries = new ArrayList<>();
+
+        @Override
+        public void put(String key, Object value) {
+            entries.add(key + "=" + value);
+        }
+    }
+
+    // Our long-accepting overloads
+    public static class Adapter {
+
+        public static void putDecimal(Sink sink, String key, long value) {
+            sink.put(key, "D" + value);
+        }
+
+        public static void put(Sink sink, String key, long value) {
+            sink.put(key, "T" + value);
+        }
+    }
+
+    private static String lastRecord;
+
+    public static void record(Object a, Object b) {
+        lastRecord = "Object";
+    }
+
+    public static void record(long a, long b) {
+        lastRecord = a + "," + b;
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testInstanceMethod() {
+
+        ListSink sink = new ListSink();
+        Sink s = sink;
+        Decimal64 d = Decimal64.fromUnderlying(42);
+        s.put("price", d);
+        s.put("name", "abc");
+        assertEquals("price=D42", sink.entries.get(0));
+        assertEquals("name=abc", sink.entries.get(1));
+    }
+
+    @Test
+    public void testOwnerRedirect() {
+
+        ListSink sink = new ListSink();
+        Sink s = sink;
+        s.put("time", DateTime.create(12345));
+        s.put("price", Decimal64.fromUnderlying(7));
+        assertEquals("time=T12345", sink.entries.get(0));
+        assertEquals("price=D7", sink.entries.get(1));
+    }
+
+    @Test
+    public void testMixedWildcards() {
+
+        record(Decimal64.fromUnderlying(1), DateTime.create(2));
+        assertEquals("1,2", lastRecord);
+
+        record(DateTime.create(3), DateTime.create(4));
+        assertEquals("3,4", lastRecord);
+
+        // Not matched by the wildcard group, DateTime is boxed
+        AllocationDetector.uninstall();
+        try {
+            record("a", DateTime.create(5));
+            assertEquals("Object", lastRecord);
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
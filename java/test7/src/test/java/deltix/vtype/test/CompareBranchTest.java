@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.dt.Utils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * compareTo() followed by a comparison with 0 is replaced with a predicate call (isLess, isGreaterOrEqual, etc.)
+ * and should branch the same way
+ */
+public class CompareBranchTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static int compareAll(Decimal64 a, Decimal64 b) {
+
+        int mask = 0;
+        if (a.compareTo(b) < 0)
+            mask |= 1;
+
+        if (a.compareTo(b) <= 0)
+            mask |= 2;
+
+        if (a.compareTo(b) > 0)
+            mask |= 4;
+
+        if (a.compareTo(b) >= 0)
+            mask |= 8;
+
+        if (a.compareTo(b) == 0)
+            mask |= 0x10;
+
+        if (a.compareTo(b) != 0)
+            mask |= 0x20;
+
+        return mask;
+    }
+
+    private static int compareTimes(DateTime a, DateTime b) {
+
+        int mask = 0;
+        if (a.compareTo(b) < 0)
+            mask |= 1;
+
+        if (a.compareTo(b) <= 0)
+            mask |= 2;
+
+        if (a.compareTo(b) > 0)
+            mask |= 4;
+
+        if (a.compareTo(b) >= 0)
+            mask |= 8;
+
+        if (a.compareTo(b) == 0)
+            mask |= 0x10;
+
+        if (a.compareTo(b) != 0)
+            mask |= 0x20;
+
+        return mask;
+    }
+
+    private static Decimal64 max(Decimal64[] values) {
+
+        Decimal64 max = values[0];
+        for (Decimal64 x : values) {
+            if (x.compareTo(max) > 0) {
+                max = x;
+            }
+        }
+
+        return max;
+    }
+
+    private static boolean isLess(Decimal64 a, Decimal64 b) {
+        return a.compareTo(b) < 0;
+    }
+
+    @Test
+    public void testCompareBranches() {
+
+        Decimal64 one = Decimal64.ONE;
+        Decimal64 two = Decimal64.fromDouble(2);
+
+        assertEquals(1 | 2 | 0x20, compareAll(one, two));
+        assertEquals(4 | 8 | 0x20, compareAll(two, one));
+        assertEquals(2 | 8 | 0x10, compareAll(two, Decimal64.fromDouble(2)));
+    }
+
+    @Test
+    public void testPredicatesCalled() {
+
+        // Only the ordering comparisons are replaced, equality comparisons still call compareTo()
+        int calls = Utils.predicateCalls;
+        DateTime a = DateTime.create(1);
+        DateTime b = DateTime.create(2);
+        assertEquals(1 | 2 | 0x20, compareTimes(a, b));
+        assertEquals(4 | 8 | 0x20, compareTimes(b, a));
+        assertEquals(2 | 8 | 0x10, compareTimes(a, DateTime.create(1)));
+        assertEquals(calls + 12, Utils.predicateCalls);
+    }
+
+    @Test
+    public void testCompareInLoop() {
+
+        Decimal64[] values = { Decimal64.ONE, Decimal64.TEN, Decimal64.ZERO, Decimal64.fromDouble(9.5) };
+        assertEquals(10.0, max(values).toDouble(), 0);
+    }
+
+    @Test
+    public void testCompareAsValue() {
+
+        assertTrue(isLess(Decimal64.ONE, Decimal64.TEN));
+        assertFalse(isLess(Decimal64.TEN, Decimal64.ONE));
+        assertFalse(isLess(Decimal64.TEN, Decimal64.TEN));
+    }
+
+    @Test
+    public void testCompareEqualValues() {
+
+        // Same value as ONE, but with a different representation, so it is not isEqual() to ONE
+        Decimal64 one = Decimal64.fromUnderlying(100000000L);
+        assertFalse(one.isEqual(Decimal64.ONE));
+        assertEquals(0, one.compareTo(Decimal64.ONE));
+        assertEquals(2 | 8 | 0x10, compareAll(one, Decimal64.ONE));
+        assertEquals(2 | 8 | 0x10, compareAll(Decimal64.ONE, one));
+    }
+
+    @Test
+    public void testCompareNullCheck() {
+
+        AllocationDetector.uninstall();
+        try {
+            compareAll(Decimal64.ONE, null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException e) {
+            // Expected
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
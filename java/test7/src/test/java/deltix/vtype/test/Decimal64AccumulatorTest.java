@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dfp.Decimal64Accumulator;
+import deltix.dfp.Decimal64Utils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Striped Decimal64 accumulator is updated from transformed code without boxing
+ */
+public class Decimal64AccumulatorTest {
+
+    private static final int N = 100000;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static class Adder extends Thread {
+
+        private final Decimal64Accumulator accumulator;
+
+        Adder(Decimal64Accumulator accumulator) {
+            this.accumulator = accumulator;
+        }
+
+        @Override
+        public void run() {
+
+            Decimal64 one = Decimal64.ONE;
+            for (int i = 0; i < N; ++i) {
+                accumulator.add(one);
+            }
+        }
+    }
+
+    private static void addAll(Decimal64Accumulator accumulator, Decimal64 step, int n) {
+
+        Decimal64 x = Decimal64.ZERO;
+        for (int i = 0; i < n; ++i) {
+            x = x.add(step);
+            accumulator.add(x);
+        }
+    }
+
+    @Test
+    public void testSingleThread() {
+
+        Decimal64Accumulator accumulator = new Decimal64Accumulator(4);
+        addAll(accumulator, Decimal64.ONE, 100);
+
+        Decimal64 sum = accumulator.sum();
+        assertTrue(sum.equals(Decimal64.fromLong(5050)));
+        assertEquals(Decimal64Utils.fromLong(5050), accumulator.sumUnderlying());
+
+        accumulator.reset();
+        assertTrue(accumulator.sum().equals(Decimal64.ZERO));
+    }
+
+    @Test
+    public void testSumThenReset() {
+
+        Decimal64Accumulator accumulator = new Decimal64Accumulator();
+        addAll(accumulator, Decimal64.TWO, 10);
+
+        assertTrue(accumulator.sumThenReset().equals(Decimal64.fromLong(110)));
+        assertTrue(accumulator.sum().equals(Decimal64.ZERO));
+    }
+
+    @Test
+    public void testMultipleThreads() throws InterruptedException {
+
+        Decimal64Accumulator accumulator = new Decimal64Accumulator();
+        Adder[] adders = new Adder[4];
+
+        AllocationDetector.uninstall();
+        try {
+            for (int i = 0; i < adders.length; ++i) {
+                adders[i] = new Adder(accumulator);
+            }
+
+            for (Adder adder : adders) {
+                adder.start();
+            }
+
+            for (Adder adder : adders) {
+                adder.join();
+            }
+        } finally {
+            AllocationDetector.install();
+        }
+
+        assertTrue(accumulator.sum().equals(Decimal64.fromLong(N * adders.length)));
+    }
+
+    @Test
+    public void testNullValue() {
+
+        Decimal64Accumulator accumulator = new Decimal64Accumulator(1);
+        Decimal64 x = Decimal64.NULL;
+
+        AllocationDetector.uninstall();
+        try {
+            accumulator.add(x);
+            fail("Exception expected");
+        } catch (NullPointerException e) {
+            // Expected
+        } finally {
+            AllocationDetector.install();
+        }
+
+        assertTrue(accumulator.sum().equals(Decimal64.ZERO));
+    }
+}
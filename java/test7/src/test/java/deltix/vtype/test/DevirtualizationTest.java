@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Number and Comparable methods called on unboxed Value Types should be redirected to the Value Type implementation
+ */
+public class DevirtualizationTest {
+
+    // Only DateTime allocations are detected, DateTime cases fail if the receiver is boxed
+    @BeforeClass
+    public static void setup() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        AllocationDetector.uninstall();
+    }
+
+    private static double numberDoubleValue(Decimal64 x) {
+        return ((Number) x).doubleValue();
+    }
+
+    private static long numberLongValue(Decimal64 x) {
+        return ((Number) x).longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int comparableCompareTo(Decimal64 a, Decimal64 b) {
+        return ((Comparable<Decimal64>) a).compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int comparableCompareTo(DateTime a, DateTime b) {
+        return ((Comparable<DateTime>) a).compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DateTime latest(DateTime[] values) {
+
+        DateTime latest = values[0];
+        for (DateTime x : values) {
+            if (((Comparable<DateTime>) x).compareTo(latest) > 0) {
+                latest = x;
+            }
+        }
+
+        return latest;
+    }
+
+    private static double sum(Decimal64[] values) {
+
+        double sum = 0;
+        for (Decimal64 x : values) {
+            sum += ((Number) x).doubleValue();
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void testNumberMethods() {
+
+        Decimal64 x = Decimal64.fromDouble(42.5);
+        assertEquals(42.5, numberDoubleValue(x), 0);
+        assertEquals(42, numberLongValue(x));
+        assertEquals(52.5, sum(new Decimal64[] { x, Decimal64.TEN }), 0);
+    }
+
+    @Test
+    public void testComparableMethods() {
+
+        assertTrue(comparableCompareTo(Decimal64.ONE, Decimal64.TEN) < 0);
+        assertTrue(comparableCompareTo(Decimal64.TEN, Decimal64.ONE) > 0);
+        assertEquals(0, comparableCompareTo(Decimal64.TEN, Decimal64.TEN));
+    }
+
+    @Test
+    public void testComparableDateTime() {
+
+        DateTime a = DateTime.create(1000);
+        DateTime b = DateTime.create(2000);
+        assertTrue(comparableCompareTo(a, b) < 0);
+        assertTrue(comparableCompareTo(b, a) > 0);
+        assertEquals(0, comparableCompareTo(a, DateTime.create(1000)));
+        assertEquals(2000, latest(new DateTime[] { a, b, DateTime.create(1500) }).getLong());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullReceiver() {
+        numberDoubleValue(null);
+    }
+}
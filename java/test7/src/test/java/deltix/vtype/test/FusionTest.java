@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.dt.Utils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Chained Value Type calls that match a fusion pattern from the config (multiply, add -> multiplyAndAddChecked)
+ * are replaced with a single call and should produce the same results
+ */
+public class FusionTest {
+
+    private Decimal64 fee = Decimal64.fromDouble(0.5);
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static Decimal64 total(Decimal64 price, Decimal64 qty, Decimal64 fee) {
+        return price.multiply(qty).add(fee);
+    }
+
+    private Decimal64 totalWithFieldFee(Decimal64 price, Decimal64 qty) {
+        return price.multiply(qty)
+                .add(fee);
+    }
+
+    private static Decimal64 sum(Decimal64[] prices, Decimal64[] qtys) {
+
+        Decimal64 sum = Decimal64.ZERO;
+        for (int i = 0; i < prices.length; ++i) {
+            sum = prices[i].multiply(qtys[i]).add(sum);
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void testFusedChain() {
+
+        Decimal64 price = Decimal64.fromDouble(2.5);
+        Decimal64 qty = Decimal64.fromDouble(4);
+
+        assertEquals(11.0, total(price, qty, Decimal64.ONE).toDouble(), 0);
+        assertEquals(10.5, totalWithFieldFee(price, qty).toDouble(), 0);
+        assertEquals(20.0, price.multiply(qty).add(Decimal64.TEN).toDouble(), 0);
+    }
+
+    private static final long NANOS_PER_DAY = 24L * 3600 * 1000000000;
+
+    private static DateTime nextDayAt(DateTime dt, long nanos) {
+        return dt.addDays(1).addNanos(nanos);
+    }
+
+    @Test
+    public void testFusedMethodCalled() {
+
+        int calls = Utils.fusedCalls;
+        DateTime dt = DateTime.create(1000);
+        DateTime next = nextDayAt(dt, 5);
+        assertEquals(1005 + NANOS_PER_DAY, next.getLong());
+        next = dt.addDays(2).addNanos(7);
+        assertEquals(1007 + 2 * NANOS_PER_DAY, next.getLong());
+        assertEquals(calls + 2, Utils.fusedCalls);
+
+        // Not a chain: the result of addDays is stored before addNanos is called
+        DateTime day = dt.addDays(1);
+        next = day.addNanos(5);
+        assertEquals(1005 + NANOS_PER_DAY, next.getLong());
+        assertEquals(calls + 2, Utils.fusedCalls);
+    }
+
+    // Not a constant: may be changed by the code called between the chained calls
+    private static long step = 5;
+
+    @Test
+    public void testStaticFieldBreaksChain() {
+
+        int calls = Utils.fusedCalls;
+        DateTime dt = DateTime.create(1000);
+        assertEquals(1005 + NANOS_PER_DAY, dt.addDays(1).addNanos(step).getLong());
+        assertEquals(calls, Utils.fusedCalls);
+    }
+
+    @Test
+    public void testFusedChainInLoop() {
+
+        Decimal64[] prices = { Decimal64.fromDouble(1.5), Decimal64.fromDouble(2), Decimal64.fromDouble(3) };
+        Decimal64[] qtys = { Decimal64.fromDouble(2), Decimal64.fromDouble(5), Decimal64.fromDouble(0.5) };
+
+        assertEquals(14.5, sum(prices, qtys).toDouble(), 0);
+    }
+
+    @Test
+    public void testFusedChainNullCheck() {
+
+        AllocationDetector.uninstall();
+        try {
+            total(Decimal64.ONE, Decimal64.ONE, null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException e) {
+            // Expected
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
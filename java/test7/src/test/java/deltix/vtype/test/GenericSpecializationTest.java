@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Private and static generic methods called with Value Types should be specialized and called without boxing
+ */
+public class GenericSpecializationTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static <T extends Comparable<T>> T max(T a, T b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static <T extends Comparable<T>> T maxOf(T a, T b, T c) {
+        return max(max(a, b), c);
+    }
+
+    private <T extends Comparable<T>> T clamp(T x, T min, T max) {
+
+        if (x.compareTo(min) < 0)
+            return min;
+
+        if (x.compareTo(max) > 0)
+            return max;
+
+        return x;
+    }
+
+    private static <T> boolean same(T a, T b) {
+        return a.equals(b);
+    }
+
+    private static <T> T firstNonNull(T a, T b) {
+        return null != a ? a : b;
+    }
+
+    private static <T> void addAll(List<T> list, T a, T b) {
+        list.add(a);
+        list.add(b);
+    }
+
+    @SafeVarargs
+    private static <T> void addAllOf(List<T> list, T... values) {
+        for (T value : values) {
+            list.add(value);
+        }
+    }
+
+    private static <T> T last(T[] values) {
+        return values[values.length - 1];
+    }
+
+    @Test
+    public void testStaticMethods() {
+
+        Decimal64 one = Decimal64.ONE;
+        Decimal64 ten = Decimal64.TEN;
+        Decimal64 two = Decimal64.fromDouble(2);
+
+        assertTrue(ten.equals(max(one, ten)));
+        assertTrue(ten.equals(max(ten, one)));
+        assertTrue(ten.equals(maxOf(one, ten, two)));
+        assertTrue(two.equals(maxOf(one, one, two)));
+        assertTrue(same(one, Decimal64.fromDouble(1)));
+        assertFalse(same(one, ten));
+    }
+
+    @Test
+    public void testInstanceMethod() {
+
+        Decimal64 one = Decimal64.ONE;
+        Decimal64 ten = Decimal64.TEN;
+        Decimal64 two = Decimal64.fromDouble(2);
+
+        assertTrue(two.equals(clamp(two, one, ten)));
+        assertTrue(one.equals(clamp(Decimal64.ZERO, one, ten)));
+        assertTrue(ten.equals(clamp(Decimal64.fromDouble(20), one, ten)));
+    }
+
+    @Test
+    public void testNullValues() {
+
+        DateTime a = DateTime.create(1000);
+        DateTime b = DateTime.create(2000);
+
+        assertEquals(1000, firstNonNull(a, b).getLong());
+        assertEquals(2000, firstNonNull(null, b).getLong());
+        assertNull(firstNonNull((DateTime) null, null));
+    }
+
+    @Test
+    public void testBoxedInsideSpecializedMethod() {
+
+        AllocationDetector.uninstall();
+        try {
+            List<Decimal64> list = new ArrayList<>();
+            addAll(list, Decimal64.ONE, Decimal64.TEN);
+            assertEquals(2, list.size());
+            assertTrue(Decimal64.ONE.equals(list.get(0)));
+            assertTrue(Decimal64.TEN.equals(list.get(1)));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testArrayParametersNotSpecialized() {
+
+        AllocationDetector.uninstall();
+        try {
+            List<DateTime> list = new ArrayList<>();
+            addAllOf(list, DateTime.create(1), DateTime.create(2), DateTime.create(3));
+            assertEquals(3, list.size());
+            assertEquals(3, list.get(2).getLong());
+
+            DateTime[] values = { DateTime.create(10), DateTime.create(20) };
+            assertEquals(20, last(values).getLong());
+        } finally {
+            AllocationDetector.install();
+        }
+
+        for (Method m : GenericSpecializationTest.class.getDeclaredMethods()) {
+            if (m.getName().startsWith("addAllOf") || m.getName().startsWith("last")) {
+                assertFalse(m.isSynthetic());
+            }
+        }
+    }
+
+    @Test
+    public void testSpecializedCopyCreated() {
+
+        int n = 0;
+        for (Method m : GenericSpecializationTest.class.getDeclaredMethods()) {
+            if (m.isSynthetic() && m.getName().startsWith("max") && long.class == m.getReturnType()) {
+                ++n;
+            }
+        }
+
+        assertTrue("Generic method was not specialized", n > 0);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Small methods that grow beyond FreqInlineSize(325) after transformation should have their cold code
+ * (exception throwing paths) moved into separate synthetic methods. Requires "outlineColdCode" setting
+ */
+public class MethodSizeTest {
+
+    // Warnings the agent reported while transforming the nested classes
+    private static String warnings;
+
+    @BeforeClass
+    public static void setUpClass() throws ClassNotFoundException {
+
+        // The nested classes are only loaded here, so their warnings are printed to the captured stream
+        PrintStream err = System.err;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(bytes, true));
+        try {
+            Class.forName(MethodSizeTest.class.getName() + "$Outlined");
+            Class.forName(MethodSizeTest.class.getName() + "$NotOutlined");
+        } finally {
+            System.setErr(err);
+        }
+
+        warnings = bytes.toString();
+        System.err.print(warnings);
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    static class Outlined {
+
+        // Original code size is 298 bytes, just under the limit. Messages are built with explicit StringBuilder calls
+        // because string concatenation compiles differently (invokedynamic) since Java 9 and would change the size
+        static long checkedAvg(DateTime a, DateTime b, DateTime c, DateTime d, int n) {
+
+            if (null == a)
+                throw new IllegalArgumentException(new StringBuilder("1st argument is null, b = ").append(b).toString());
+
+            if (null == b)
+                throw new IllegalArgumentException(new StringBuilder("2nd argument is null, a = ").append(a).append(", n = ").append(n).toString());
+
+            if (null == c)
+                throw new IllegalArgumentException(new StringBuilder("3rd argument is null, d = ").append(d).toString());
+
+            if (null == d)
+                throw new IllegalArgumentException(new StringBuilder("4th argument is null, c = ").append(c).toString());
+
+            DateTime ab = a.avg(b);
+            DateTime cd = c.avg(d);
+            DateTime ac = a.avg(c);
+            DateTime bd = b.avg(d);
+            DateTime x = ab.avg(cd);
+            DateTime y = ac.avg(bd);
+            DateTime z = ab.avg(cd).avg(ac.avg(bd));
+            if (null == x || null == y || null == z || null == ab || null == cd || null == ac || null == bd)
+                throw new IllegalStateException();
+
+            for (int i = 0; i < n; ++i) {
+                x = x.avg(y).addNanos(i);
+                if (null == x || null == y)
+                    throw new IllegalStateException();
+            }
+
+            return x.getLong();
+        }
+    }
+
+    static class NotOutlined {
+
+        // Same code, but errors are reported without throwing, so there is no cold code to move out
+        static long checkedAvg(DateTime a, DateTime b, DateTime c, DateTime d, int n) {
+
+            if (null == a)
+                return error(new StringBuilder("1st argument is null, b = ").append(b).toString());
+
+            if (null == b)
+                return error(new StringBuilder("2nd argument is null, a = ").append(a).append(", n = ").append(n).toString());
+
+            if (null == c)
+                return error(new StringBuilder("3rd argument is null, d = ").append(d).toString());
+
+            if (null == d)
+                return error(new StringBuilder("4th argument is null, c = ").append(c).toString());
+
+            DateTime ab = a.avg(b);
+            DateTime cd = c.avg(d);
+            DateTime ac = a.avg(c);
+            DateTime bd = b.avg(d);
+            DateTime x = ab.avg(cd);
+            DateTime y = ac.avg(bd);
+            DateTime z = ab.avg(cd).avg(ac.avg(bd));
+            if (null == x || null == y || null == z || null == ab || null == cd || null == ac || null == bd)
+                return error("null");
+
+            for (int i = 0; i < n; ++i) {
+                x = x.avg(y).addNanos(i);
+                if (null == x || null == y)
+                    return error("null");
+            }
+
+            return x.getLong();
+        }
+
+        private static long error(String message) {
+            return -message.length();
+        }
+    }
+
+    /**
+     * @return true if the agent reported methodSize warning for the method
+     */
+    private static boolean hasMethodSizeWarning(Class<?> cls, String method) {
+
+        String header = "VT Agent warnings for method: " + cls.getName() + "." + method + ":";
+        int i = warnings.indexOf(header);
+        if (i < 0)
+            return false;
+
+        int end = warnings.indexOf("VT Agent warnings for method: ", i + header.length());
+        return warnings.substring(i, end < 0 ? warnings.length() : end).contains("\"methodSize\"");
+    }
+
+    @Test
+    public void testOutlinedMethodWorks() {
+
+        DateTime a = DateTime.create(1000);
+        DateTime b = DateTime.create(2000);
+        DateTime c = DateTime.create(3000);
+        DateTime d = DateTime.create(4000);
+
+        assertEquals(2500, Outlined.checkedAvg(a, b, c, d, 0));
+        assertEquals(2501, Outlined.checkedAvg(a, b, c, d, 2));
+    }
+
+    @Test
+    public void testOutlinedExceptions() {
+
+        DateTime a = DateTime.create(1000);
+        DateTime b = DateTime.create(2000);
+
+        AllocationDetector.uninstall();
+        try {
+            Outlined.checkedAvg(a, null, b, a, 1);
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("2nd argument is null, a = "));
+            assertTrue(e.getMessage(), e.getMessage().endsWith(", n = 1"));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testColdCodeMovedOut() {
+
+        int n = 0;
+        for (Method m : Outlined.class.getDeclaredMethods()) {
+            if (m.isSynthetic() && m.getName().startsWith("checkedAvg$VT$cold")) {
+                ++n;
+            }
+        }
+
+        assertTrue("Cold code was not outlined", n > 0);
+    }
+
+    @Test
+    public void testUnderLimitAfterOutlining() {
+
+        assertFalse(warnings, hasMethodSizeWarning(Outlined.class, "checkedAvg"));
+    }
+
+    @Test
+    public void testMethodSizeWarning() {
+
+        assertTrue(warnings, hasMethodSizeWarning(NotOutlined.class, "checkedAvg"));
+        assertEquals(2501, NotOutlined.checkedAvg(DateTime.create(1000), DateTime.create(2000),
+                DateTime.create(3000), DateTime.create(4000), 2));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Value Types are parsed from and formatted into byte buffers and StringBuilder without allocation
+ */
+public class ParseFormatTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static Decimal64 parseField(byte[] message, int offset, int length) {
+        return Decimal64.parse(message, offset, length);
+    }
+
+    @Test
+    public void testDecimalRoundTrip() {
+
+        String[] texts = { "0.0", "1.5", "-12.25", "123456.00000001", "-0.5", "2147483647.99999999", "NaN", "-Infinity" };
+        byte[] bytes = new byte[32];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        StringBuilder sb = new StringBuilder(32);
+
+        for (String text : texts) {
+            Decimal64 x = Decimal64.parse(text, 0, text.length());
+
+            int n = x.format(bytes, 3);
+            assertEquals(text, new String(bytes, 3, n, ASCII));
+            assertTrue(x.equals(Decimal64.parse(bytes, 3, n)));
+
+            n = x.format(buffer, 1);
+            assertEquals(text.length(), n);
+            assertTrue(x.equals(Decimal64.parse(buffer, 1, n)));
+
+            sb.setLength(0);
+            assertEquals(text, x.appendTo(sb).toString());
+            assertEquals(text, x.toString());
+        }
+    }
+
+    @Test
+    public void testDecimalParse() {
+
+        byte[] message = "44=+101.1250000009|38=-7|".getBytes(ASCII);
+
+        Decimal64 price = parseField(message, 3, 15);
+        Decimal64 qty = parseField(message, 22, 2);
+        assertEquals("101.125", price.toString());
+        assertTrue(qty.equals(Decimal64.fromLong(-7)));
+        assertTrue(price.equals(Decimal64.parse("101.125")));
+        assertTrue(null == Decimal64.parse("null", 0, 4));
+
+        String[] invalid = { "", "-", ".", "1.2.3", "1e5", "2147483648", "-2147483648", "12a" };
+        AllocationDetector.uninstall();
+        try {
+            for (String text : invalid) {
+                try {
+                    Decimal64.parse(text, 0, text.length());
+                    fail("Exception expected: " + text);
+                } catch (NumberFormatException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testDateTimeIso() {
+
+        String[] texts = {
+                "1970-01-01T00:00:00.000000000Z", "2020-02-29T23:59:59.999999999Z", "1969-12-31T23:59:59.500000000Z",
+                "1700-03-01T12:00:00.000000001Z", "2262-01-01T00:00:00.000000000Z"
+        };
+        byte[] bytes = new byte[40];
+        ByteBuffer buffer = ByteBuffer.allocate(40);
+        StringBuilder sb = new StringBuilder(40);
+
+        for (String text : texts) {
+            DateTime dt = DateTime.parseIso(text, 0, text.length());
+
+            int n = dt.formatIso(bytes, 5);
+            assertEquals(text, new String(bytes, 5, n, ASCII));
+            assertEquals(dt.getLong(), DateTime.parseIso(bytes, 5, n).getLong());
+
+            n = dt.formatIso(buffer, 0);
+            assertEquals(dt.getLong(), DateTime.parseIso(buffer, 0, n).getLong());
+
+            sb.setLength(0);
+            assertEquals(text, dt.appendIsoTo(sb).toString());
+        }
+
+        assertEquals(0, DateTime.parseIso("1970-01-01 00:00:00", 0, 19).getLong());
+        assertEquals(86400000500000L, DateTime.parseIso("1970-01-02T00:00:00.0005Z", 0, 25).getLong());
+        assertEquals(-500000000L, DateTime.parseIso("1969-12-31T23:59:59.5", 0, 21).getLong());
+
+        String[] invalid = { "1970-02-30T00:00:00", "1970-01-01T24:00:00", "1970-01-01X00:00:00", "1970-01-01T00:00:00.",
+                "1970-01-01T00:00:00.0000000001", "1970-01-01T00:00:00ZZ", "1600-01-01T00:00:00" };
+        AllocationDetector.uninstall();
+        try {
+            for (String text : invalid) {
+                try {
+                    DateTime.parseIso(text, 0, text.length());
+                    fail("Exception expected: " + text);
+                } catch (IllegalArgumentException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
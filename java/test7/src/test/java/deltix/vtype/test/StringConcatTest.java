@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * String concatenation and StringBuilder.append() with Value Types should not box them
+ * (StringBuilder chain for javac 8, StringConcatFactory for javac 9+)
+ */
+public class StringConcatTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testConcatDecimal() {
+
+        Decimal64 price = Decimal64.fromLong(42);
+        Decimal64 qty = Decimal64.TEN;
+        int n = 3;
+
+        assertEquals("px=42.0", "px=" + price);
+        assertEquals("px=42.0 qty=10.0 n=3", "px=" + price + " qty=" + qty + " n=" + n);
+        assertEquals("42.010.0", "" + price + qty);
+        assertEquals("3/42.0/x/10.0", n + "/" + price + "/" + 'x' + "/" + qty);
+    }
+
+    @Test
+    public void testConcatDateTime() {
+
+        DateTime t = DateTime.create(1000);
+        long x = 5;
+        assertEquals("t=" + t.toString() + " x=5", "t=" + t + " x=" + x);
+        assertEquals(t.toString() + t.toString(), "" + t + t);
+    }
+
+    @Test
+    public void testConcatMixed() {
+
+        DateTime t = DateTime.create(2000);
+        Decimal64 d = Decimal64.fromLong(-1);
+        String s = "s";
+        assertEquals(t.toString() + ":-1.0:s:" + t.toString(), t + ":" + d + ":" + s + ":" + t);
+    }
+
+    @Test
+    public void testConcatNull() {
+
+        DateTime t = DateTime.NULL;
+        Decimal64 d = Decimal64.NULL;
+        assertEquals("null null", t + " " + d);
+    }
+
+    @Test
+    public void testConcatNullConstant() {
+
+        DateTime t = null;
+        Decimal64 d = null;
+        int n = 1;
+        assertEquals("t=null", "t=" + t);
+        assertEquals("d=null n=1 t=null", "d=" + d + " n=" + n + " t=" + t);
+    }
+
+    @Test
+    public void testStringBuilderAppend() {
+
+        Decimal64 price = Decimal64.fromLong(7);
+        DateTime t = DateTime.create(3000);
+        StringBuilder sb = new StringBuilder();
+        sb.append("px=").append(price).append(';').append(t).append(';').append(Decimal64.NULL);
+        assertEquals("px=7.0;" + t.toString() + ";null", sb.toString());
+
+        sb.setLength(0);
+        for (int i = 0; i < 3; ++i) {
+            sb.append(Decimal64.fromLong(i)).append(',');
+        }
+
+        assertEquals("0.0,1.0,2.0,", sb.toString());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypeArrayDeque;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValueTypeArrayDeque stores Value Types in a ring buffer and is accessed without boxing by the transformed code
+ */
+public class ValueTypeArrayDequeTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static long windowSum(ValueTypeArrayDeque<DateTime> window) {
+
+        long sum = 0;
+        for (DateTime dt : window) {
+            sum += dt.getLong();
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void testSlidingWindow() {
+
+        ValueTypeArrayDeque<DateTime> window = new ValueTypeArrayDeque<>(DateTime.class, 10, true);
+        long sum = 0;
+        for (int i = 1; i <= 100; ++i) {
+            if (window.isFull()) {
+                DateTime oldest = window.pollFirst();
+                sum -= oldest.getLong();
+            }
+
+            DateTime dt = DateTime.create(i);
+            window.addLast(dt);
+            sum += dt.getLong();
+        }
+
+        assertEquals(10, window.size());
+        assertEquals(955, sum);
+        assertEquals(sum, windowSum(window));
+
+        DateTime first = window.peekFirst();
+        assertEquals(91, first.getLong());
+        DateTime last = window.peekLast();
+        assertEquals(100, last.getLong());
+        DateTime x = window.get(5);
+        assertEquals(96, x.getLong());
+
+        assertFalse(window.offerLast(DateTime.create(101)));
+        try {
+            window.addFirst(DateTime.create(0));
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        long[] values = window.toLongArray();
+        assertEquals(10, values.length);
+        assertEquals(91, values[0]);
+        assertEquals(100, values[9]);
+
+        window.clear();
+        DateTime none = window.pollFirst();
+        assertTrue(null == none);
+        none = window.peekLast();
+        assertTrue(null == none);
+    }
+
+    @Test
+    public void testGrowable() {
+
+        ValueTypeArrayDeque<Decimal64> deque = new ValueTypeArrayDeque<>(Decimal64.class, 2);
+        for (int i = 0; i < 100; ++i) {
+            deque.addFirst(Decimal64.fromLong(-i));
+            deque.addLast(Decimal64.fromLong(i));
+        }
+
+        assertEquals(200, deque.size());
+        Decimal64 first = deque.removeFirst();
+        assertTrue(Decimal64.fromLong(-99).equals(first));
+        Decimal64 last = deque.removeLast();
+        assertTrue(Decimal64.fromLong(99).equals(last));
+        Decimal64 top = deque.pop();
+        assertTrue(Decimal64.fromLong(-98).equals(top));
+        deque.push(top);
+
+        long[] dst = new long[200];
+        assertEquals(198, deque.toLongArray(dst, 1));
+        assertTrue(Decimal64.fromLong(-98).equals(Decimal64.fromUnderlying(dst[1])));
+        assertTrue(deque.contains(Decimal64.fromLong(50)));
+        assertTrue(deque.removeLastOccurrence(Decimal64.fromLong(50)));
+        assertFalse(deque.contains(Decimal64.fromLong(50)));
+    }
+
+    @Test
+    public void testMatchesArrayDeque() {
+
+        AllocationDetector.uninstall();
+        try {
+            ArrayDeque<Decimal64> expected = new ArrayDeque<>();
+            ValueTypeArrayDeque<Decimal64> deque = new ValueTypeArrayDeque<>(Decimal64.class);
+            Random random = new Random(5);
+            for (int i = 0; i < 10000; ++i) {
+                Decimal64 x = Decimal64.fromLong(random.nextInt(50));
+                switch (random.nextInt(6)) {
+                    case 0:
+                        expected.addFirst(x);
+                        deque.addFirst(x);
+                        break;
+                    case 1:
+                    case 2:
+                        expected.addLast(x);
+                        deque.addLast(x);
+                        break;
+                    case 3:
+                        assertEquals(expected.pollFirst(), deque.pollFirst());
+                        break;
+                    case 4:
+                        assertEquals(expected.pollLast(), deque.pollLast());
+                        break;
+                    default:
+                        assertEquals(expected.removeFirstOccurrence(x), deque.removeFirstOccurrence(x));
+                }
+            }
+
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(deque));
+
+            ArrayList<Decimal64> descending = new ArrayList<>();
+            for (Iterator<Decimal64> i = expected.descendingIterator(); i.hasNext(); ) {
+                descending.add(i.next());
+            }
+
+            int n = 0;
+            for (Iterator<Decimal64> i = deque.descendingIterator(); i.hasNext(); ++n) {
+                assertEquals(descending.get(n), i.next());
+            }
+
+            assertEquals(descending.size(), n);
+
+            for (Iterator<Decimal64> i = deque.iterator(), j = expected.iterator(); i.hasNext(); ) {
+                Decimal64 x = i.next();
+                assertEquals(j.next(), x);
+                if (x.compareTo(Decimal64.fromLong(25)) < 0) {
+                    i.remove();
+                    j.remove();
+                }
+            }
+
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(deque));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypeColumn;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValueTypeColumn stores Value Types outside of the heap and is accessed without boxing by the transformed code
+ */
+public class ValueTypeColumnTest {
+
+    private static final int N = 1000;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static void fillPrices(ValueTypeColumn<Decimal64> prices) {
+
+        Decimal64 price = Decimal64.HUNDRED;
+        for (long i = 0; i < prices.length(); ++i) {
+            prices.set(i, price);
+            price = price.add(Decimal64.TWO);
+        }
+    }
+
+    private static Decimal64 sum(ValueTypeColumn<Decimal64> prices) {
+
+        Decimal64 sum = Decimal64.ZERO;
+        for (long i = 0; i < prices.length(); ++i) {
+            sum = sum.add(prices.get(i));
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void testDirect() {
+
+        AllocationDetector.uninstall();
+        ValueTypeColumn<Decimal64> prices = ValueTypeColumn.allocateDirect(Decimal64.class, N);
+        AllocationDetector.install();
+
+        assertTrue(null == prices.get(0));
+        fillPrices(prices);
+        Decimal64 price = prices.get(10);
+        assertTrue(price.equals(Decimal64.fromLong(120)));
+
+        Decimal64 expected = Decimal64.ZERO;
+        for (int i = 0; i < N; ++i) {
+            expected = expected.add(Decimal64.HUNDRED.add(Decimal64.TWO.multiply(Decimal64.fromLong(i))));
+        }
+
+        assertEquals(expected.toString(), sum(prices).toString());
+
+        prices.fill(Decimal64.ONE);
+        assertTrue(Decimal64.fromLong(N).equals(sum(prices)));
+    }
+
+    @Test
+    public void testBulkCopy() {
+
+        AllocationDetector.uninstall();
+        try {
+            ValueTypeColumn<DateTime> times = ValueTypeColumn.allocateDirect(DateTime.class, N);
+            long[] src = new long[N];
+            for (int i = 0; i < N; ++i) {
+                src[i] = 1000L * i;
+            }
+
+            times.put(10, src, 5, 100);
+            long[] dst = new long[200];
+            times.get(0, dst, 0, 200);
+            assertEquals(1000L * 5, dst[10]);
+            assertEquals(1000L * 104, dst[109]);
+            assertEquals(DateTime.getLong(DateTime.NULL), dst[110]);
+            assertEquals(1000L * 50, times.getLong(55));
+
+            try {
+                times.get(N - 10, dst, 0, 11);
+                fail("Exception expected");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+
+        AllocationDetector.uninstall();
+        File file = File.createTempFile("prices", ".bin");
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                ValueTypeColumn<Decimal64> prices = ValueTypeColumn.map(Decimal64.class, channel, FileChannel.MapMode.READ_WRITE, 8, N);
+                AllocationDetector.install();
+                fillPrices(prices);
+                AllocationDetector.uninstall();
+                prices.force();
+                assertEquals(8 + 8 * N, file.length());
+
+                // Copy through the channel into a direct column
+                ValueTypeColumn<Decimal64> copy = ValueTypeColumn.allocateDirect(Decimal64.class, N);
+                assertEquals(8 * (N - 1), copy.transferFrom(channel, 16, 0, N - 1));
+                assertTrue(copy.get(0).equals(prices.get(1)));
+                assertTrue(copy.get(N - 2).equals(prices.get(N - 1)));
+                assertTrue(null == copy.get(N - 1));
+
+                assertEquals(8 * 10, copy.transferTo(0, 10, channel, 8 + 8 * N));
+                assertEquals(8 + 8 * (N + 10), channel.size());
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                ValueTypeColumn<Decimal64> prices = ValueTypeColumn.map(Decimal64.class, raf.getChannel(), FileChannel.MapMode.READ_ONLY, 8, N + 10);
+                assertTrue(prices.get(10).equals(Decimal64.fromLong(120)));
+                assertTrue(prices.get(N).equals(prices.get(1)));
+                assertEquals(sum(prices).toString(), sum(prices).toString());
+            }
+        } finally {
+            AllocationDetector.install();
+            assertTrue(file.delete() || !file.exists());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypeMpscQueue;
+import deltix.vtype.collections.ValueTypeSpscQueue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lock-free Value Type queues pass unboxed values between threads
+ */
+public class ValueTypeConcurrentQueueTest {
+
+    private static final int N = 200000;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static class SpscProducer extends Thread {
+
+        private final ValueTypeSpscQueue<DateTime> queue;
+
+        SpscProducer(ValueTypeSpscQueue<DateTime> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+
+            for (int i = 1; i <= N; ++i) {
+                DateTime dt = DateTime.create(i);
+                while (!queue.offer(dt)) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    private static class MpscProducer extends Thread {
+
+        private final ValueTypeMpscQueue<DateTime> queue;
+        private final int id;
+
+        MpscProducer(ValueTypeMpscQueue<DateTime> queue, int id) {
+            this.queue = queue;
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+
+            // Producer id in the low bits, sequence number in the high bits
+            for (int i = 1; i <= N; ++i) {
+                DateTime dt = DateTime.create(((long) i << 8) + id);
+                while (!queue.offer(dt)) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSpscQueue() throws InterruptedException {
+
+        ValueTypeSpscQueue<DateTime> queue = new ValueTypeSpscQueue<>(DateTime.class, 1000);
+        assertEquals(1024, queue.capacity());
+        SpscProducer producer = new SpscProducer(queue);
+        producer.start();
+
+        long expected = 1;
+        while (expected <= N) {
+            DateTime dt = queue.poll();
+            if (null != dt) {
+                assertEquals(expected++, dt.getLong());
+            }
+        }
+
+        producer.join();
+        assertTrue(queue.isEmpty());
+        DateTime none = queue.peek();
+        assertTrue(null == none);
+    }
+
+    @Test
+    public void testMpscQueue() throws InterruptedException {
+
+        int nProducers = 3;
+        ValueTypeMpscQueue<DateTime> queue = new ValueTypeMpscQueue<>(DateTime.class, 256);
+        MpscProducer[] producers = new MpscProducer[nProducers];
+        for (int i = 0; i < nProducers; ++i) {
+            producers[i] = new MpscProducer(queue, i);
+            producers[i].start();
+        }
+
+        // Elements of each producer arrive in order
+        long[] last = new long[nProducers];
+        long[] batch = new long[64];
+        for (int n = 0; n < N * nProducers; ) {
+            int count = queue.drainTo(batch, 0, batch.length);
+            for (int i = 0; i < count; ++i) {
+                int id = (int) (batch[i] & 0xFF);
+                long seq = batch[i] >> 8;
+                assertEquals(last[id] + 1, seq);
+                last[id] = seq;
+            }
+
+            n += count;
+        }
+
+        for (MpscProducer producer : producers) {
+            producer.join();
+        }
+
+        for (int i = 0; i < nProducers; ++i) {
+            assertEquals(N, last[i]);
+        }
+
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testBounded() {
+
+        ValueTypeMpscQueue<Decimal64> mpsc = new ValueTypeMpscQueue<>(Decimal64.class, 4);
+        ValueTypeSpscQueue<Decimal64> spsc = new ValueTypeSpscQueue<>(Decimal64.class, 4);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(mpsc.offer(Decimal64.fromLong(i)));
+            assertTrue(spsc.offer(Decimal64.fromLong(i)));
+        }
+
+        assertFalse(mpsc.offer(Decimal64.ONE));
+        assertFalse(spsc.offer(Decimal64.ONE));
+        assertEquals(4, mpsc.size());
+        assertEquals(4, spsc.size());
+
+        Decimal64 head = mpsc.peek();
+        assertTrue(Decimal64.ZERO.equals(head));
+        head = spsc.poll();
+        assertTrue(Decimal64.ZERO.equals(head));
+        head = mpsc.poll();
+        assertTrue(Decimal64.ZERO.equals(head));
+        assertTrue(mpsc.offer(Decimal64.TEN));
+        assertTrue(spsc.offer(Decimal64.TEN));
+        assertFalse(spsc.offer(Decimal64.TEN));
+    }
+
+    @Test
+    public void testIterator() {
+
+        ValueTypeSpscQueue<DateTime> spsc = new ValueTypeSpscQueue<>(DateTime.class, 4);
+        ValueTypeMpscQueue<DateTime> mpsc = new ValueTypeMpscQueue<>(DateTime.class, 4);
+        for (int i = 1; i <= 4; ++i) {
+            spsc.offer(DateTime.create(i));
+            mpsc.offer(DateTime.create(i));
+        }
+
+        long sum = 0;
+        for (DateTime dt : spsc) {
+            sum += dt.getLong();
+        }
+
+        for (DateTime dt : mpsc) {
+            sum += dt.getLong();
+        }
+
+        assertEquals(20, sum);
+
+        // Consumed elements are skipped, except the one already read ahead, elements added at the tail are seen
+        Iterator<DateTime> it = mpsc.iterator();
+        DateTime dt = it.next();
+        assertEquals(1, dt.getLong());
+        mpsc.pollLong();
+        mpsc.pollLong();
+        mpsc.pollLong();
+        mpsc.offer(DateTime.create(5));
+        dt = it.next();
+        assertEquals(2, dt.getLong());
+        dt = it.next();
+        assertEquals(4, dt.getLong());
+        dt = it.next();
+        assertEquals(5, dt.getLong());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testConcurrentIteration() throws InterruptedException {
+
+        final ValueTypeSpscQueue<DateTime> queue = new ValueTypeSpscQueue<>(DateTime.class, 64);
+        SpscProducer producer = new SpscProducer(queue);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+
+                for (long n = 0; n < N; ) {
+                    DateTime dt = queue.poll();
+                    if (null != dt) {
+                        ++n;
+                    }
+                }
+            }
+        };
+
+        producer.start();
+        consumer.start();
+        while (consumer.isAlive()) {
+            long last = 0;
+            for (DateTime dt : queue) {
+                assertTrue(dt.getLong() > last);
+                last = dt.getLong();
+            }
+        }
+
+        producer.join();
+        consumer.join();
+        assertFalse(queue.iterator().hasNext());
+    }
+}
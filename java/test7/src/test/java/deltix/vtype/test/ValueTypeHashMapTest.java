@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypeHashMap;
+import deltix.vtype.collections.ValueTypeHashSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ValueTypeHashMap and ValueTypeHashSet store Value Type keys in long[] and are accessed without boxing
+ * by the transformed code
+ */
+public class ValueTypeHashMapTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testUnboxedMapAccess() {
+
+        ValueTypeHashMap<DateTime, String> map = new ValueTypeHashMap<>(DateTime.class);
+        for (int i = 0; i < 1000; ++i) {
+            map.put(DateTime.create(i * 1000), "v" + i);
+        }
+
+        assertEquals(1000, map.size());
+        assertEquals("v500", map.get(DateTime.create(500000)));
+        assertTrue(map.containsKey(DateTime.create(999000)));
+        assertFalse(map.containsKey(DateTime.create(999001)));
+        assertTrue(null == map.get(DateTime.create(1)));
+
+        assertEquals("v1", map.put(DateTime.create(1000), "x"));
+        assertEquals("x", map.remove(DateTime.create(1000)));
+        assertTrue(null == map.remove(DateTime.create(1000)));
+        assertEquals(999, map.size());
+
+        long sum = 0;
+        for (DateTime dt : map.keySet()) {
+            sum += dt.getLong();
+        }
+
+        assertEquals(499500000 - 1000, sum);
+    }
+
+    @Test
+    public void testRemoveAll() {
+
+        ValueTypeHashMap<Decimal64, Integer> map = new ValueTypeHashMap<>(Decimal64.class, 4);
+        for (int i = 0; i < 300; ++i) {
+            map.put(Decimal64.fromLong(i), i);
+        }
+
+        // Remove in an order different from the insertion order to move entries of the clusters back
+        for (int i = 0; i < 300; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(Decimal64.fromLong(i)));
+        }
+
+        for (int i = 0; i < 300; ++i) {
+            assertEquals(1 == (i & 1), map.containsKey(Decimal64.fromLong(i)));
+        }
+
+        for (int i = 1; i < 300; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(Decimal64.fromLong(i)));
+        }
+
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testNullKey() {
+
+        ValueTypeHashMap<Decimal64, String> map = new ValueTypeHashMap<>(Decimal64.class);
+        map.put((Decimal64) null, "null");
+        map.put(Decimal64.ZERO, "zero");
+        assertEquals("null", map.get((Decimal64) null));
+        assertEquals("zero", map.get(Decimal64.ZERO));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+
+        AllocationDetector.uninstall();
+        try {
+            ValueTypeHashSet<Decimal64> set = new ValueTypeHashSet<>(Decimal64.class);
+            HashSet<Decimal64> expected = new HashSet<>();
+            for (int i = 0; i < 500; ++i) {
+                set.add(Decimal64.fromLong(i * 7));
+                expected.add(Decimal64.fromLong(i * 7));
+            }
+
+            int n = 0;
+            for (Iterator<Decimal64> i = set.iterator(); i.hasNext(); ) {
+                Decimal64 x = i.next();
+                assertTrue(expected.contains(x));
+                if (0 == (n++ % 3)) {
+                    i.remove();
+                    expected.remove(x);
+                }
+            }
+
+            assertEquals(500, n);
+            assertEquals(expected, set);
+            assertEquals(set, expected);
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testSet() {
+
+        ValueTypeHashSet<DateTime> set = new ValueTypeHashSet<>(DateTime.class);
+        DateTime a = DateTime.create(1);
+        DateTime b = DateTime.create(2);
+        assertTrue(set.add(a));
+        assertFalse(set.add(a));
+        assertTrue(set.add(b));
+        assertTrue(set.contains(a));
+        assertTrue(set.remove(a));
+        assertFalse(set.remove(a));
+        assertFalse(set.contains(a));
+        assertEquals(1, set.size());
+        assertEquals(1, set.toLongArray().length);
+    }
+
+    @Test
+    public void testBoxedAccess() {
+
+        AllocationDetector.uninstall();
+        try {
+            Map<Decimal64, String> src = new HashMap<>();
+            src.put(Decimal64.ONE, "one");
+            src.put(Decimal64.TEN, "ten");
+            ValueTypeHashMap<Decimal64, String> map = new ValueTypeHashMap<>(Decimal64.class, src);
+            assertEquals(src, map);
+            assertEquals(map, src);
+            assertEquals(src.hashCode(), map.hashCode());
+
+            for (Map.Entry<Decimal64, String> e : map.entrySet()) {
+                e.setValue(e.getValue() + "!");
+            }
+
+            assertEquals("ten!", map.get(Decimal64.TEN));
+            assertTrue(map.containsValue("one!"));
+            assertFalse(map.containsKey("one"));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
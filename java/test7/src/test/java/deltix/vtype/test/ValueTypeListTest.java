@@ -0,0 +1,292 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypeList;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValueTypeList stores Value Types in long[] and is accessed without boxing by the transformed code
+ */
+public class ValueTypeListTest {
+
+    private final List<Decimal64> prices = new ArrayList<>();
+    private final List<Object> objects = new ArrayList<>();
+    private final List<DateTime> times = new ArrayList<>();
+    final List<DateTime> shared = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static Decimal64 sum(ValueTypeList<Decimal64> list) {
+
+        Decimal64 sum = Decimal64.ZERO;
+        for (Decimal64 x : list) {
+            sum = sum.add(x);
+        }
+
+        return sum;
+    }
+
+    private static Decimal64 sumByIndex(ValueTypeList<Decimal64> list) {
+
+        Decimal64 sum = Decimal64.ZERO;
+        for (int i = 0, n = list.size(); i < n; ++i) {
+            sum = sum.add(list.get(i));
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void testUnboxedAccess() {
+
+        ValueTypeList<Decimal64> list = new ValueTypeList<>(Decimal64.class, 16);
+        Decimal64 one = Decimal64.ONE;
+        Decimal64 two = Decimal64.fromDouble(2);
+
+        list.add(one);
+        list.add(two);
+        list.add(Decimal64.TEN);
+        assertEquals(3, list.size());
+        assertTrue(two.equals(list.get(1)));
+        assertTrue(Decimal64.fromDouble(13).equals(sum(list)));
+        assertTrue(Decimal64.fromDouble(13).equals(sumByIndex(list)));
+
+        list.set(1, one);
+        assertTrue(one.equals(list.get(1)));
+        assertEquals(0, list.indexOf(one));
+        assertEquals(1, list.lastIndexOf(one));
+        assertTrue(list.contains(Decimal64.TEN));
+        assertFalse(list.contains(two));
+
+        Decimal64 removed = list.remove(0);
+        assertTrue(one.equals(removed));
+        assertTrue(list.remove(Decimal64.TEN));
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void testDateTimeList() {
+
+        ValueTypeList<DateTime> list = new ValueTypeList<>(DateTime.class);
+        for (int i = 0; i < 100; ++i) {
+            list.add(DateTime.create(i * 1000));
+        }
+
+        long sum = 0;
+        for (DateTime dt : list) {
+            sum += dt.getLong();
+        }
+
+        assertEquals(4950000, sum);
+        assertEquals(99000, list.get(99).getLong());
+    }
+
+    @Test
+    public void testIterableOfValueTypeList() {
+
+        ValueTypeList<DateTime> list = new ValueTypeList<>(DateTime.class);
+        for (int i = 0; i < 100; ++i) {
+            list.add(DateTime.create(i * 1000));
+        }
+
+        // The iterator is known to belong to ValueTypeList, though it is obtained through Iterable
+        Iterable<DateTime> dates = list;
+        long sum = 0;
+        for (DateTime dt : dates) {
+            sum += dt.getLong();
+        }
+
+        assertEquals(4950000, sum);
+    }
+
+    @Test
+    public void testNullElements() {
+
+        ValueTypeList<Decimal64> list = new ValueTypeList<>(Decimal64.class);
+        list.add((Decimal64) null);
+        list.add(Decimal64.ONE);
+        assertTrue(null == list.get(0));
+        assertTrue(list.contains(null));
+        assertEquals(1, list.indexOf(Decimal64.ONE));
+    }
+
+    @Test
+    public void testNegativeIndex() {
+
+        ValueTypeList<DateTime> list = new ValueTypeList<>(DateTime.class);
+        list.add(DateTime.create(1));
+
+        AllocationDetector.uninstall();
+        try {
+            try {
+                list.removeLong(-1);
+                fail("Exception expected");
+            } catch (IndexOutOfBoundsException e) {
+                assertEquals("Index: -1, Size: 1", e.getMessage());
+            }
+
+            try {
+                list.getLong(-1);
+                fail("Exception expected");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+
+            // Failed removal must not invalidate iterators
+            Iterator<DateTime> i = list.iterator();
+            try {
+                list.setLong(-1, 2);
+                fail("Exception expected");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+
+            assertEquals(1, i.next().getLong());
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testArrayListReplaced() {
+
+        assertTrue(prices instanceof ValueTypeList);
+        assertFalse(objects instanceof ValueTypeList);
+
+        AllocationDetector.uninstall();
+        try {
+            prices.clear();
+            prices.add(Decimal64.ONE);
+            prices.add(Decimal64.TEN);
+
+            Decimal64 sum = Decimal64.ZERO;
+            for (Decimal64 x : prices) {
+                sum = sum.add(x);
+            }
+
+            assertTrue(Decimal64.fromDouble(11).equals(sum));
+            assertTrue(Decimal64.TEN.equals(prices.get(1)));
+            assertEquals(2, ((ValueTypeList<Decimal64>) prices).toLongArray().length);
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testReplacedListAccess() {
+
+        // Calls through List are redirected to ValueTypeList methods, that don't box
+        assertTrue(times instanceof ValueTypeList);
+        times.clear();
+        for (int i = 0; i < 100; ++i) {
+            times.add(DateTime.create(i * 1000));
+        }
+
+        assertTrue(times.contains(DateTime.create(5000)));
+        assertEquals(5, times.indexOf(DateTime.create(5000)));
+        assertEquals(99000, times.get(99).getLong());
+        assertEquals(0, times.remove(0).getLong());
+
+        long sum = 0;
+        for (DateTime dt : times) {
+            sum += dt.getLong();
+        }
+
+        assertEquals(4950000, sum);
+
+        DateTime first = times.get(0);
+        List<DateTime> list = new ArrayList<>(16);
+        list.add(first);
+        list.set(0, DateTime.create(7));
+        assertTrue(list instanceof ValueTypeList);
+        assertEquals(7, list.get(0).getLong());
+    }
+
+    private static Object newList(DateTime dt) {
+
+        List<DateTime> list = new ArrayList<>();
+        list.add(dt);
+        return list;
+    }
+
+    @Test
+    public void testEscapingListNotReplaced() {
+
+        AllocationDetector.uninstall();
+        try {
+            // Returned, so the caller may cast it to ArrayList
+            @SuppressWarnings("unchecked")
+            ArrayList<DateTime> list = (ArrayList<DateTime>) newList(DateTime.create(5));
+            assertEquals(5, list.get(0).getLong());
+
+            // Checked with instanceof
+            List<DateTime> local = new ArrayList<>();
+            local.add(DateTime.create(6));
+            assertTrue(local instanceof ArrayList);
+
+            // Not private, so other classes may read it
+            assertTrue(shared instanceof ArrayList);
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testBoxedAccess() {
+
+        AllocationDetector.uninstall();
+        try {
+            List<Decimal64> src = new ArrayList<Decimal64>();
+            src.add(Decimal64.ONE);
+            src.add(Decimal64.TEN);
+            ValueTypeList<Decimal64> list = new ValueTypeList<>(Decimal64.class, src);
+            assertEquals(src, list);
+            assertEquals(list, src);
+            assertEquals(src.hashCode(), list.hashCode());
+
+            Iterator<Decimal64> i = list.iterator();
+            i.next();
+            i.remove();
+            assertEquals(1, list.size());
+            assertTrue(Decimal64.TEN.equals(list.get(0)));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.collections.ValueTypePriorityQueue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ValueTypePriorityQueue is ordered by the implementation class compareTo() and is accessed without boxing
+ * by the transformed code
+ */
+public class ValueTypePriorityQueueTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testUnboxedOfferPoll() {
+
+        ValueTypePriorityQueue<DateTime> queue = new ValueTypePriorityQueue<>(DateTime.class);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; ++i) {
+            queue.offer(DateTime.create(random.nextInt(100000)));
+        }
+
+        assertEquals(1000, queue.size());
+        DateTime head = queue.peek();
+        long prev = head.getLong();
+        for (int i = 0; i < 1000; ++i) {
+            DateTime dt = queue.poll();
+            assertTrue(dt.getLong() >= prev);
+            prev = dt.getLong();
+        }
+
+        assertTrue(queue.isEmpty());
+        DateTime none = queue.poll();
+        assertTrue(null == none);
+        none = queue.peek();
+        assertTrue(null == none);
+    }
+
+    @Test
+    public void testReversedOrder() {
+
+        AllocationDetector.uninstall();
+        try {
+            ValueTypePriorityQueue<Decimal64> queue = new ValueTypePriorityQueue<>(Decimal64.class, true);
+            PriorityQueue<Decimal64> expected = new PriorityQueue<>(11, Collections.<Decimal64>reverseOrder());
+            Random random = new Random(2);
+            for (int i = 0; i < 5000; ++i) {
+                if (random.nextInt(3) > 0 || expected.isEmpty()) {
+                    Decimal64 x = Decimal64.fromLong(random.nextInt(2000) - 1000);
+                    queue.add(x);
+                    expected.add(x);
+                } else {
+                    assertEquals(expected.poll(), queue.poll());
+                }
+            }
+
+            while (!expected.isEmpty()) {
+                assertEquals(expected.poll(), queue.poll());
+            }
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testRemove() {
+
+        AllocationDetector.uninstall();
+        try {
+            ValueTypePriorityQueue<Decimal64> queue = new ValueTypePriorityQueue<>(Decimal64.class);
+            ArrayList<Decimal64> expected = new ArrayList<>();
+            Random random = new Random(3);
+            for (int i = 0; i < 300; ++i) {
+                Decimal64 x = Decimal64.fromLong(random.nextInt(100));
+                queue.add(x);
+                expected.add(x);
+            }
+
+            assertTrue(queue.remove(expected.get(7)));
+            expected.remove(7);
+            assertFalse(queue.remove(Decimal64.fromLong(1000)));
+
+            // Remove every 3rd element with the iterator, all elements should be visited once
+            int n = 0;
+            for (Iterator<Decimal64> i = queue.iterator(); i.hasNext(); ++n) {
+                Decimal64 x = i.next();
+                if (0 == n % 3) {
+                    i.remove();
+                    assertTrue(expected.remove(x));
+                }
+            }
+
+            assertEquals(299, n);
+            Collections.sort(expected);
+            for (Decimal64 x : expected) {
+                assertEquals(x, queue.poll());
+            }
+
+            assertTrue(queue.isEmpty());
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
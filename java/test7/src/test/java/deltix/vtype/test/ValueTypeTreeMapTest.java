@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import deltix.vtype.ValueType64;
+import deltix.vtype.collections.ValueTypeTreeMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValueTypeTreeMap is ordered by the implementation class compareTo() and is accessed without boxing
+ * by the transformed code
+ */
+public class ValueTypeTreeMapTest {
+
+    private final NavigableMap<Decimal64, String> book = new TreeMap<>();
+    private final NavigableMap<String, String> strings = new TreeMap<>();
+    private final NavigableMap<DateTime, String> schedule = new TreeMap<>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    @Test
+    public void testUnboxedNavigation() {
+
+        ValueTypeTreeMap<DateTime, String> map = new ValueTypeTreeMap<>(DateTime.class);
+        for (int i = 1000; i > 0; --i) {
+            map.put(DateTime.create(i * 10), "v" + i);
+        }
+
+        assertEquals(1000, map.size());
+        assertEquals("v500", map.get(DateTime.create(5000)));
+        assertTrue(map.containsKey(DateTime.create(10)));
+        assertFalse(map.containsKey(DateTime.create(11)));
+
+        DateTime first = map.firstKey();
+        assertEquals(10, first.getLong());
+        DateTime last = map.lastKey();
+        assertEquals(10000, last.getLong());
+        DateTime floor = map.floorKey(DateTime.create(55));
+        assertEquals(50, floor.getLong());
+        DateTime ceiling = map.ceilingKey(DateTime.create(55));
+        assertEquals(60, ceiling.getLong());
+        DateTime lower = map.lowerKey(DateTime.create(60));
+        assertEquals(50, lower.getLong());
+        DateTime higher = map.higherKey(DateTime.create(60));
+        assertEquals(70, higher.getLong());
+        DateTime none = map.floorKey(DateTime.create(5));
+        assertTrue(null == none);
+
+        DateTime polled = map.pollFirstKey();
+        assertEquals(10, polled.getLong());
+        polled = map.pollLastKey();
+        assertEquals(10000, polled.getLong());
+        assertEquals("v2", map.remove(DateTime.create(20)));
+        assertEquals(997, map.size());
+
+        long prev = 0;
+        for (DateTime dt : map.keySet()) {
+            assertTrue(dt.getLong() > prev);
+            prev = dt.getLong();
+        }
+
+        assertEquals(9990, prev);
+    }
+
+    @Test
+    public void testDecimalOrder() {
+
+        AllocationDetector.uninstall();
+        try {
+            ValueTypeTreeMap<Decimal64, Integer> map = new ValueTypeTreeMap<>(Decimal64.class);
+            for (int i = -50; i <= 50; ++i) {
+                map.put(Decimal64.fromLong(i), i);
+            }
+
+            int expected = -50;
+            for (Map.Entry<Decimal64, Integer> e : map.entrySet()) {
+                assertEquals(expected, e.getValue().intValue());
+                assertTrue(Decimal64.fromLong(expected).equals(e.getKey()));
+                ++expected;
+            }
+
+            assertTrue(Decimal64.fromLong(-50).equals(map.firstKey()));
+            assertTrue(Decimal64.fromLong(-1).equals(map.lowerKey(Decimal64.ZERO)));
+            assertEquals(Integer.valueOf(50), map.descendingMap().firstEntry().getValue());
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testMatchesTreeMap() {
+
+        AllocationDetector.uninstall();
+        try {
+            Random random = new Random(17);
+            TreeMap<Decimal64, Integer> expected = new TreeMap<>();
+            ValueTypeTreeMap<Decimal64, Integer> map = new ValueTypeTreeMap<>(Decimal64.class);
+            for (int i = 0; i < 50000; ++i) {
+                Decimal64 key = Decimal64.fromLong(random.nextInt(10000) - 5000);
+                if (random.nextInt(3) > 0) {
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                } else {
+                    assertEquals(expected.remove(key), map.remove(key));
+                }
+            }
+
+            assertEquals(expected, map);
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+            assertEquals(new ArrayList<>(expected.descendingKeySet()), new ArrayList<>(map.descendingKeySet()));
+
+            Decimal64 from = Decimal64.fromLong(-300);
+            Decimal64 to = Decimal64.fromLong(400);
+            assertEquals(expected.subMap(from, true, to, false), map.subMap(from, true, to, false));
+            assertEquals(expected.headMap(from), map.headMap(from));
+            assertEquals(expected.tailMap(to, false), map.tailMap(to, false));
+            assertEquals(new ArrayList<>(expected.descendingMap().subMap(to, from).entrySet()),
+                    new ArrayList<>(map.descendingMap().subMap(to, from).entrySet()));
+
+            for (int i = -1100; i < 1100; i += 7) {
+                Decimal64 key = Decimal64.fromLong(i);
+                assertEquals(expected.floorKey(key), map.floorKey(key));
+                assertEquals(expected.higherEntry(key), map.higherEntry(key));
+                assertEquals(expected.subMap(from, true, to, false).ceilingKey(key), map.subMap(from, true, to, false).ceilingKey(key));
+            }
+
+            // Remove every other entry with the iterator and then all remaining entries from the head
+            int n = 0;
+            for (Iterator<Decimal64> i = map.keySet().iterator(); i.hasNext(); ) {
+                Decimal64 key = i.next();
+                if (0 == (n++ & 1)) {
+                    i.remove();
+                    expected.remove(key);
+                }
+            }
+
+            assertEquals(expected, map);
+            while (!expected.isEmpty()) {
+                assertEquals(expected.pollFirstEntry(), map.pollFirstEntry());
+            }
+
+            assertTrue(map.isEmpty());
+            assertTrue(null == map.firstEntry());
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testTreeMapReplaced() {
+
+        assertTrue(book instanceof ValueTypeTreeMap);
+        assertFalse(strings instanceof ValueTypeTreeMap);
+
+        book.clear();
+        book.put(Decimal64.fromLong(101), "ask");
+        book.put(Decimal64.fromLong(99), "bid");
+        assertEquals("bid", book.firstEntry().getValue());
+        assertTrue(Decimal64.fromLong(101).equals(book.ceilingKey(Decimal64.fromLong(100))));
+    }
+
+    @Test
+    public void testReplacedMapAccess() {
+
+        assertTrue(schedule instanceof ValueTypeTreeMap);
+
+        schedule.clear();
+        for (int i = 10; i > 0; --i) {
+            schedule.put(DateTime.create(i * 10), "v" + i);
+        }
+
+        DateTime floor = schedule.floorKey(DateTime.create(55));
+        assertEquals(50, floor.getLong());
+        DateTime ceiling = schedule.ceilingKey(DateTime.create(55));
+        assertEquals(60, ceiling.getLong());
+        assertEquals("v5", schedule.get(DateTime.create(50)));
+
+        NavigableMap<DateTime, String> map = new TreeMap<>();
+        assertTrue(map instanceof ValueTypeTreeMap);
+        map.put(DateTime.create(1), "a");
+        map.put(DateTime.create(3), "b");
+        DateTime key = map.floorKey(DateTime.create(2));
+        assertEquals(1, key.getLong());
+        key = map.ceilingKey(DateTime.create(2));
+        assertEquals(3, key.getLong());
+    }
+
+    @Test
+    public void testUnorderedTypeRejected() {
+
+        // ValueType64 implementation class has no compareTo(long, long)
+        try {
+            new ValueTypeTreeMap<ValueType64, String>(ValueType64.class);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("compareTo"));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * java.util.Arrays parallel methods called with Value Type arrays should run on the unboxed arrays
+ */
+public class ArraysParallelTest {
+
+    // Smaller arrays are sorted sequentially, same as Arrays.parallelSort
+    private static final int MIN_PARALLEL_SORT_GRANULARITY = 1 << 13;
+
+    private static final int N = 12 * MIN_PARALLEL_SORT_GRANULARITY + 5;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static Decimal64 sum(Decimal64 a, Decimal64 b) {
+        return a.add(b);
+    }
+
+    private static DateTime latest(DateTime a, DateTime b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    @Test
+    public void testParallelismAvailable() {
+        // Otherwise parallel paths are never taken. Set java.util.concurrent.ForkJoinPool.common.parallelism
+        // when running on a single CPU
+        assertTrue("Common pool parallelism: " + ForkJoinPool.getCommonPoolParallelism(),
+                ForkJoinPool.getCommonPoolParallelism() > 1);
+    }
+
+    @Test
+    public void testParallelSort() {
+
+        Random random = new Random(11);
+        for (int n : new int[] {0, 1, 30, 5000, N}) {
+            int[] ints = new int[n];
+            Decimal64[] decimals = new Decimal64[n];
+            for (int i = 0; i < n; ++i) {
+                ints[i] = random.nextInt(n / 3 + 1) - n / 6;
+                decimals[i] = Decimal64.fromLong(ints[i]);
+            }
+
+            Arrays.sort(ints);
+            Arrays.parallelSort(decimals);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(Decimal64.fromLong(ints[i]).equals(decimals[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSortRange() {
+
+        int n = N;
+        Random random = new Random(12);
+        Decimal64[] decimals = new Decimal64[n];
+        for (int i = 0; i < n; ++i) {
+            decimals[i] = Decimal64.fromLong(random.nextInt(1000));
+        }
+
+        Decimal64 first = decimals[0];
+        Decimal64 last = decimals[n - 1];
+        Arrays.parallelSort(decimals, 1, n - 1);
+        assertTrue(first.equals(decimals[0]));
+        assertTrue(last.equals(decimals[n - 1]));
+        for (int i = 2; i < n - 1; ++i) {
+            assertTrue(decimals[i - 1].compareTo(decimals[i]) <= 0);
+        }
+    }
+
+    @Test
+    public void testParallelPrefix() {
+
+        for (int n : new int[] {0, 1, 100, N}) {
+            Decimal64[] a = new Decimal64[n];
+            Decimal64[] b = new Decimal64[n];
+            Decimal64[] c = new Decimal64[n];
+            Arrays.fill(a, Decimal64.ONE);
+            Arrays.fill(b, Decimal64.ONE);
+            Arrays.fill(c, Decimal64.ONE);
+
+            Arrays.parallelPrefix(a, Decimal64::add);
+            Arrays.parallelPrefix(b, (x, y) -> x.add(y));
+            Arrays.parallelPrefix(c, ArraysParallelTest::sum);
+            for (int i = 0; i < n; ++i) {
+                Decimal64 expected = Decimal64.fromLong(i + 1);
+                assertTrue(expected.equals(a[i]));
+                assertTrue(expected.equals(b[i]));
+                assertTrue(expected.equals(c[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelPrefixRange() {
+
+        int n = N;
+        Decimal64[] a = new Decimal64[n];
+        Arrays.fill(a, Decimal64.TWO);
+        Arrays.parallelPrefix(a, 10, n - 10, Decimal64::add);
+        for (int i = 0; i < n; ++i) {
+            Decimal64 expected = i < 10 || i >= n - 10 ? Decimal64.TWO : Decimal64.fromLong(2 * (i - 9));
+            assertTrue(expected.equals(a[i]));
+        }
+    }
+
+    @Test
+    public void testParallelSetAll() {
+
+        for (int n : new int[] {0, 1, 100, N}) {
+            Decimal64[] a = new Decimal64[n];
+            Decimal64[] b = new Decimal64[n];
+            Arrays.parallelSetAll(a, i -> Decimal64.fromLong(i).multiply(Decimal64.TWO));
+            Arrays.parallelSetAll(b, Decimal64::fromLong);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(Decimal64.fromLong(2 * i).equals(a[i]));
+                assertTrue(Decimal64.fromLong(i).equals(b[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelPrefixDateTime() {
+
+        DateTime[] a = new DateTime[N];
+        for (int i = 0; i < N; ++i) {
+            a[i] = DateTime.create(i % 1000 * 1000L);
+        }
+
+        Arrays.parallelPrefix(a, ArraysParallelTest::latest);
+        for (int i = 0; i < N; ++i) {
+            assertEquals(Math.min(i, 999) * 1000L, a[i].getLong());
+        }
+    }
+
+    @Test
+    public void testParallelSetAllDateTime() {
+
+        DateTime[] a = new DateTime[N];
+        Arrays.parallelSetAll(a, i -> DateTime.create(i).addNanos(i));
+        for (int i = 0; i < N; ++i) {
+            assertEquals(2L * i, a[i].getLong());
+        }
+    }
+}
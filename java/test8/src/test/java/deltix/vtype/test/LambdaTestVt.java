@@ -18,7 +18,6 @@ package deltix.vtype.test;
 
 import deltix.dfp.Decimal64;
 import deltix.vtype.annotations.ValueTypeSuppressWarnings;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.function.UnaryOperator;
@@ -42,8 +41,6 @@ public class LambdaTestVt {
         Decimal64 toDecimal(int x);
     }
 
-    // TODO: Overloading Generic Functional Interfaces with ValueType will be supported later
-    @Ignore
     @Test
     public void testDecimal64UnaryOperator() {
 
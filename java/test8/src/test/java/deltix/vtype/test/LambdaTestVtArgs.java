@@ -17,6 +17,7 @@
 package deltix.vtype.test;
 
 import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
 import deltix.vtype.annotations.ValueTypeSuppressWarnings;
 import org.junit.Test;
 
@@ -38,6 +39,21 @@ public class LambdaTestVtArgs {
         Decimal64 apply(Decimal64 a, Decimal64 b);
     }
 
+    @FunctionalInterface
+    public interface Decimal64UnaryOperator {
+        Decimal64 apply(Decimal64 a);
+    }
+
+    @FunctionalInterface
+    public interface Decimal64Predicate {
+        boolean test(Decimal64 a);
+    }
+
+    @FunctionalInterface
+    public interface DateTimeOperator {
+        DateTime apply(DateTime a, DateTime b);
+    }
+
     private static List<Integer> createTestArray() {
         return Arrays.asList(1, 2, 3, 4, 5);
     }
@@ -65,4 +81,27 @@ public class LambdaTestVtArgs {
         assertTrue(d1.equals(Decimal64.ONE));
         assertTrue(d10.equals(Decimal64.TEN));
     }
+
+    @Test
+    public void testMethodReferences() {
+
+        Decimal64 d1 = Decimal64.ONE;
+        Decimal64 d10 = Decimal64.TEN;
+
+        Decimal64BiOperator add = Decimal64::add;
+        Decimal64BiOperator sub = Decimal64::subtract;
+        Decimal64UnaryOperator negate = Decimal64::negate;
+        Decimal64UnaryOperator plusTen = d10::add;
+        Decimal64Predicate isZero = Decimal64::isZero;
+        DateTimeOperator avg = DateTime::avg;
+
+        assertTrue(d10.add(d1).equals(add.apply(d10, d1)));
+        assertTrue(d10.subtract(d1).equals(sub.apply(d10, d1)));
+        assertTrue(d1.subtract(d10).equals(sub.apply(d1, d10)));
+        assertTrue(d1.negate().equals(negate.apply(d1)));
+        assertTrue(d10.add(d1).equals(plusTen.apply(d1)));
+        assertTrue(isZero.test(Decimal64.ZERO));
+        assertFalse(isZero.test(d1));
+        assertTrue(30 == avg.apply(DateTime.create(20), DateTime.create(40)).getLong());
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generic functional interfaces instantiated with a Value Type, that don't leave the method, should be
+ * replaced with primitive functional interfaces and called without boxing
+ */
+public class LambdaTestVtPrimitive {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static DateTime later(DateTime a, DateTime b) {
+        return a.getLong() >= b.getLong() ? a : b;
+    }
+
+    @Test
+    public void testUnaryOperator() {
+
+        Function<DateTime, DateTime> nextDay = x -> x.addDays(1);
+        UnaryOperator<DateTime> nextSecond = x -> x.addNanos(1000000000L);
+        DateTime dt = DateTime.create(0);
+        for (int i = 0; i < 10; ++i) {
+            dt = nextSecond.apply(nextDay.apply(dt));
+        }
+
+        assertEquals(10 * (86400000000000L + 1000000000L), dt.getLong());
+    }
+
+    @Test
+    public void testPredicate() {
+
+        Predicate<DateTime> isPositive = x -> x.getLong() > 0;
+        int n = 0;
+        for (int i = -5; i < 5; ++i) {
+            if (isPositive.test(DateTime.create(i))) {
+                ++n;
+            }
+        }
+
+        assertEquals(4, n);
+    }
+
+    @Test
+    public void testBinaryOperator() {
+
+        BinaryOperator<DateTime> later = LambdaTestVtPrimitive::later;
+        BiFunction<DateTime, DateTime, DateTime> avg = (a, b) -> a.avg(b);
+        DateTime a = DateTime.create(100);
+        DateTime b = DateTime.create(300);
+        assertTrue(b.equals(later.apply(a, b)));
+        assertTrue(b.equals(later.apply(b, a)));
+        assertEquals(200, avg.apply(a, b).getLong());
+    }
+
+    @Test
+    public void testCapture() {
+
+        DateTime base = DateTime.create(1000);
+        long step = 10;
+        Function<DateTime, DateTime> f = x -> x.addNanos(step).avg(base);
+        assertEquals(1005, f.apply(DateTime.create(1000)).getLong());
+        assertEquals(1505, f.apply(DateTime.create(2000)).getLong());
+    }
+
+    @Test
+    public void testConditional() {
+
+        for (int i = 0; i < 2; ++i) {
+            UnaryOperator<DateTime> f = 0 == i ? x -> x.addNanos(1) : x -> x.addNanos(2);
+            assertEquals(i + 1, f.apply(DateTime.create(0)).getLong());
+        }
+    }
+
+    @Test
+    public void testMixedTypes() {
+
+        AllocationDetector.uninstall();
+        try {
+            Function<Decimal64, String> format = x -> x.toString();
+            Function<String, Decimal64> parse = s -> Decimal64.parse(s);
+            Function<Decimal64, Decimal64> twice = x -> x.add(x);
+            assertEquals(Decimal64.fromLong(42).toString(), format.apply(Decimal64.fromLong(42)));
+            assertTrue(Decimal64.fromLong(84).equals(twice.apply(parse.apply("42"))));
+            assertFalse(Decimal64.fromLong(42).equals(twice.apply(parse.apply("42"))));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+
+    @Test
+    public void testGenericSourcedArguments() {
+
+        AllocationDetector.uninstall();
+        try {
+            List<DateTime> list = Arrays.asList(DateTime.create(10), DateTime.create(20));
+            Map<String, DateTime> map = new HashMap<>();
+            map.put("a", DateTime.create(30));
+
+            Function<DateTime, DateTime> f = x -> x.addNanos(1);
+            BinaryOperator<DateTime> avg = (a, b) -> a.avg(b);
+            Predicate<DateTime> isLate = x -> x.getLong() > 15;
+            assertEquals(11, f.apply(list.get(0)).getLong());
+            assertEquals(31, f.apply(map.get("a")).getLong());
+            assertEquals(25, avg.apply(list.get(1), map.get("a")).getLong());
+            assertTrue(isLate.test(list.get(1)));
+            assertFalse(isLate.test(list.get(0)));
+        } finally {
+            AllocationDetector.install();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lambdas created by LambdaMetafactory.altMetafactory (serializable, with marker interfaces) should be
+ * transformed the same way as other lambdas
+ */
+public class LambdaTestVtSerializable {
+
+    @FunctionalInterface
+    public interface Decimal64BiOperator extends Serializable {
+        Decimal64 apply(Decimal64 a, Decimal64 b);
+    }
+
+    @FunctionalInterface
+    public interface Decimal64UnaryOperator {
+        Decimal64 apply(Decimal64 a);
+    }
+
+    public interface Marker {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T obj) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    @Test
+    public void testSerializableLambda() throws Exception {
+
+        Decimal64BiOperator add = (x, y) -> x.add(y);
+        assertTrue(Decimal64.fromLong(3).equals(add.apply(Decimal64.ONE, Decimal64.TWO)));
+
+        Decimal64BiOperator copy = roundTrip(add);
+        assertTrue(Decimal64.fromLong(12).equals(copy.apply(Decimal64.TWO, Decimal64.TEN)));
+    }
+
+    @Test
+    public void testSerializableMethodReference() throws Exception {
+
+        Decimal64BiOperator sub = Decimal64::subtract;
+        assertTrue(Decimal64.fromLong(8).equals(sub.apply(Decimal64.TEN, Decimal64.TWO)));
+        assertTrue(Decimal64.fromLong(-8).equals(roundTrip(sub).apply(Decimal64.TWO, Decimal64.TEN)));
+    }
+
+    @Test
+    public void testMarkerInterface() {
+
+        Decimal64 step = Decimal64.TEN;
+        Decimal64UnaryOperator negate = (Decimal64UnaryOperator & Marker) x -> x.negate();
+        Decimal64UnaryOperator addStep = (Decimal64UnaryOperator & Marker & Serializable) x -> x.add(step);
+        assertTrue(negate instanceof Marker);
+        assertTrue(addStep instanceof Serializable);
+        assertTrue(Decimal64.fromLong(-2).equals(negate.apply(Decimal64.TWO)));
+        assertTrue(Decimal64.fromLong(12).equals(addStep.apply(Decimal64.TWO)));
+    }
+
+    @Test
+    public void testSerializableCapture() throws Exception {
+
+        Decimal64 step = Decimal64.TWO;
+        Decimal64UnaryOperator addStep = (Decimal64UnaryOperator & Serializable) x -> x.add(step);
+        assertTrue(Decimal64.fromLong(12).equals(roundTrip(addStep).apply(Decimal64.TEN)));
+    }
+
+    // "Aa" and "BB" have the same hash code, so $deserializeLambda$ compares the names of these methods in the same
+    // case of the name switch. Only productAa is renamed by the transformer
+    private static Decimal64 productAa(Decimal64 a, Decimal64 b) {
+        return a.multiply(b);
+    }
+
+    private static String productBB() {
+        return "product";
+    }
+
+    public interface SerializableSupplier extends Serializable {
+        String get();
+    }
+
+    @Test
+    public void testSameHashImplNames() throws Exception {
+
+        Decimal64BiOperator product = LambdaTestVtSerializable::productAa;
+        SerializableSupplier name = LambdaTestVtSerializable::productBB;
+        assertTrue(Decimal64.fromLong(20).equals(roundTrip(product).apply(Decimal64.TWO, Decimal64.TEN)));
+        assertEquals("product", roundTrip(name).get());
+    }
+
+    // The lambda implements Function.apply(Object), it is not transformed and runs with boxed Value Types
+    public interface Decimal64Function extends Function<Decimal64, Decimal64>, Serializable {
+    }
+
+    @Test
+    public void testSerializableGenericInterface() throws Exception {
+
+        Decimal64 step = Decimal64.TWO;
+        Decimal64Function addStep = x -> x.add(step).subtract(Decimal64.ONE);
+        assertTrue(Decimal64.fromLong(11).equals(addStep.apply(Decimal64.TEN)));
+        assertTrue(Decimal64.fromLong(2).equals(roundTrip(addStep).apply(Decimal64.ONE)));
+    }
+}
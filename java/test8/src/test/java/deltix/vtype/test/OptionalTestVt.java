@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Method-local Optional of Value Type should be replaced with the unboxed Value Type, empty Optional is the null value
+ */
+public class OptionalTestVt {
+
+    private static int n;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static DateTime timeOrNull(long t) {
+        return 0 != t ? DateTime.create(t) : null;
+    }
+
+    private static boolean isPresent(Decimal64 x) {
+        return Optional.of(x).isPresent();
+    }
+
+    @Test
+    public void testOfGet() {
+
+        Decimal64 x = Decimal64.fromLong(42);
+        Optional<Decimal64> o = Optional.of(x);
+        assertTrue(o.isPresent());
+        assertTrue(x.equals(o.get()));
+        assertTrue(x.equals(o.orElse(Decimal64.ZERO)));
+    }
+
+    @Test
+    public void testOfNullable() {
+
+        Optional<DateTime> o = Optional.ofNullable(timeOrNull(0));
+        assertFalse(o.isPresent());
+        assertEquals(1234, o.orElse(DateTime.create(1234)).getLong());
+
+        Optional<DateTime> p = Optional.ofNullable(timeOrNull(5678));
+        assertTrue(p.isPresent());
+        assertEquals(5678, p.get().getLong());
+    }
+
+    @Test
+    public void testEmpty() {
+
+        Optional<Decimal64> o = Optional.empty();
+        assertFalse(o.isPresent());
+        assertTrue(Decimal64.ONE.equals(o.orElse(Decimal64.ONE)));
+    }
+
+    @Test
+    public void testMerge() {
+
+        for (int i = 0; i < 4; ++i) {
+            Decimal64 x = Decimal64.fromLong(i);
+            Optional<Decimal64> o = 0 == (i & 1) ? Optional.of(x) : Optional.empty();
+            if (o.isPresent()) {
+                ++n;
+                assertTrue(x.equals(o.get()));
+            } else {
+                assertTrue(Decimal64.ZERO.equals(o.orElse(Decimal64.ZERO)));
+            }
+        }
+    }
+
+    @Test
+    public void testGetEmptyThrows() {
+
+        Optional<DateTime> o = Optional.empty();
+        try {
+            o.get();
+            fail("Exception expected");
+        } catch (NoSuchElementException e) {
+            assertEquals("No value present", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOfNullThrows() {
+
+        try {
+            isPresent(null);
+            fail("Exception expected");
+        } catch (NullPointerException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testNoAllocation() {
+
+        DateTime[] times = new DateTime[] { DateTime.create(100), DateTime.create(200), DateTime.create(300) };
+        long sum = 0;
+        for (int i = 0; i < 100; ++i) {
+            Optional<DateTime> o = Optional.empty();
+            for (DateTime t : times) {
+                if (t.getLong() > i * 5) {
+                    o = Optional.of(t);
+                    break;
+                }
+            }
+
+            if (o.isPresent()) {
+                sum += o.get().getLong();
+            }
+
+            sum += Optional.ofNullable(timeOrNull(i % 2)).orElse(DateTime.create(1)).getLong();
+        }
+
+        assertEquals(20 * 100 + 20 * 200 + 20 * 300 + 50 * 1 + 50 * 1, sum);
+    }
+}
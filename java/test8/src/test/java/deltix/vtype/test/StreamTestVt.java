@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017-2018 Deltix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deltix.vtype.test;
+
+import deltix.dfp.Decimal64;
+import deltix.dt.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stream pipelines over Value Types should run on LongStream with unboxed elements
+ */
+public class StreamTestVt {
+
+    @BeforeClass
+    public static void setUpClass() {
+        AllocationDetector.install();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        AllocationDetector.uninstall();
+    }
+
+    private static Decimal64[] decimals(int... values) {
+
+        Decimal64[] a = new Decimal64[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            a[i] = Decimal64.fromLong(values[i]);
+        }
+
+        return a;
+    }
+
+    private static DateTime later(DateTime a, DateTime b) {
+        return a.getLong() >= b.getLong() ? a : b;
+    }
+
+    @Test
+    public void testMapFilterReduce() {
+
+        Decimal64[] a = decimals(1, 2, 3, 4, 5, 6);
+        Decimal64 two = Decimal64.TWO;
+        Decimal64 sum = Arrays.stream(a)
+                .map(x -> x.multiply(two))
+                .filter(x -> x.isGreater(Decimal64.fromLong(4)))
+                .reduce(Decimal64.ZERO, Decimal64::add);
+
+        assertTrue(Decimal64.fromLong(36).equals(sum));
+        assertEquals(3, Arrays.stream(a, 1, 4).filter(x -> !x.isZero()).count());
+    }
+
+    @Test
+    public void testOptional() {
+
+        Decimal64[] a = decimals(3, 1, 4, 1, 5);
+        Decimal64 total = Arrays.stream(a).reduce(Decimal64::add).get();
+        assertTrue(Decimal64.fromLong(14).equals(total));
+
+        Decimal64 first = Arrays.stream(a).filter(x -> x.isGreater(Decimal64.fromLong(3))).findFirst().orElse(Decimal64.ZERO);
+        assertTrue(Decimal64.fromLong(4).equals(first));
+
+        assertFalse(Arrays.stream(a).filter(Decimal64::isZero).findAny().isPresent());
+
+        Decimal64 max = Stream.of(a).reduce((x, y) -> x.isGreater(y) ? x : y).get();
+        assertTrue(Decimal64.fromLong(5).equals(max));
+    }
+
+    @Test
+    public void testSorted() {
+
+        Decimal64[] a = decimals(5, -3, 7, 0, 2, -8);
+        Decimal64[] sorted = Arrays.stream(a).sorted().toArray(Decimal64[]::new);
+        Arrays.sort(a);
+        assertEquals(a.length, sorted.length);
+        for (int i = 0; i < a.length; ++i) {
+            assertTrue(a[i].equals(sorted[i]));
+        }
+
+        int n = 20000;
+        Decimal64[] b = new Decimal64[n];
+        for (int i = 0; i < n; ++i) {
+            b[i] = Decimal64.fromLong((i * 7919) % n);
+        }
+
+        Decimal64[] c = Arrays.stream(b).parallel().sorted().limit(10).toArray(Decimal64[]::new);
+        for (int i = 0; i < c.length; ++i) {
+            assertTrue(Decimal64.fromLong(i).equals(c[i]));
+        }
+    }
+
+    @Test
+    public void testSortedIsStable() {
+
+        // Values 1..100, every other occurrence of a value has a different representation
+        int n = 20000;
+        Decimal64[] a = new Decimal64[n];
+        for (int i = 0; i < n; ++i) {
+            long value = i % 100 + 1;
+            a[i] = 0 == (i / 100) % 2 ? Decimal64.fromLong(value) : Decimal64.fromUnderlying((value - 1) << 32 | 100000000L);
+        }
+
+        Decimal64[] sorted = Arrays.stream(a).sorted().toArray(Decimal64[]::new);
+        Decimal64[] parallelSorted = Arrays.stream(a).parallel().sorted().toArray(Decimal64[]::new);
+        for (int i = 0; i < n; ++i) {
+            long value = i / 200 + 1;
+            long expected = 0 == i % 2 ? Decimal64.toUnderlying(Decimal64.fromLong(value))
+                    : (value - 1) << 32 | 100000000L;
+            assertEquals(expected, Decimal64.toUnderlying(sorted[i]));
+            assertEquals(expected, Decimal64.toUnderlying(parallelSorted[i]));
+        }
+    }
+
+    @Test
+    public void testSortedDateTime() {
+
+        DateTime[] a = new DateTime[1000];
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = DateTime.create((i * 7919) % a.length);
+        }
+
+        DateTime first = Arrays.stream(a).sorted().findFirst().get();
+        assertEquals(0, first.getLong());
+        DateTime last = Arrays.stream(a).parallel().sorted().reduce((x, y) -> y).get();
+        assertEquals(a.length - 1, last.getLong());
+        assertEquals(10, Arrays.stream(a).sorted().limit(10).count());
+    }
+
+    @Test
+    public void testParallel() {
+
+        int n = 10000;
+        Decimal64[] a = new Decimal64[n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = Decimal64.fromLong(i);
+        }
+
+        Decimal64 sum = Arrays.stream(a).parallel().map(x -> x.add(Decimal64.ONE)).reduce(Decimal64.ZERO, Decimal64::add);
+        assertTrue(Decimal64.fromLong((long) n * (n + 1) / 2).equals(sum));
+        assertTrue(Arrays.stream(a).parallel().anyMatch(x -> x.equals(Decimal64.fromLong(n - 1))));
+        assertFalse(Arrays.stream(a).allMatch(Decimal64::isZero));
+    }
+
+    @Test
+    public void testDateTime() {
+
+        DateTime[] a = new DateTime[] {DateTime.create(30), DateTime.create(10), DateTime.create(20)};
+        DateTime latest = Arrays.stream(a).map(x -> x.addNanos(5)).reduce(DateTime.create(0), StreamTestVt::later);
+        assertEquals(35, latest.getLong());
+
+        List<String> list = new ArrayList<>();
+        Arrays.stream(a).skip(1).forEach(x -> list.add(Long.toString(x.getLong())));
+        assertEquals(Arrays.asList("10", "20"), list);
+    }
+
+    @Test
+    public void testBoxedSource() {
+
+        List<Decimal64> list = Arrays.asList(decimals(1, 2, 3));
+        Decimal64 sum = list.stream().map(x -> x.add(x)).reduce(Decimal64.ZERO, Decimal64::add);
+        assertTrue(Decimal64.fromLong(12).equals(sum));
+
+        List<String> strings = Arrays.asList("1", "22", "333");
+        Decimal64 total = strings.stream().map(Decimal64::parse).reduce(Decimal64.ZERO, Decimal64::add);
+        assertTrue(Decimal64.fromLong(356).equals(total));
+
+        List<Decimal64> doubled = new ArrayList<>();
+        Stream.of(decimals(4, 5)).map(x -> x.add(x)).forEachOrdered(doubled::add);
+        assertEquals(2, doubled.size());
+        assertTrue(Decimal64.fromLong(10).equals(doubled.get(1)));
+
+        String three = Decimal64.fromLong(3).toString();
+        assertEquals(three, Stream.of(Decimal64.fromLong(3)).map(x -> x.toString()).toArray()[0]);
+    }
+}